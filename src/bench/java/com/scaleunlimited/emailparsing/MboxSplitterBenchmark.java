@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.emailparsing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scaleunlimited.textfeatures.BenchmarkCorpus;
+
+/**
+ * Compares splitting an mbox file the old way (BufferedReader lines appended to a
+ * StringBuilder, then re-encoded to UTF-8 for the parser) with MboxSplitter, which
+ * hands out slices of the memory mapped file. The mbox file is built by repeating
+ * the corpus messages until it's at least mboxSizeMB.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MboxSplitterBenchmark {
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    @Param("32")
+    public int mboxSizeMB;
+
+    private File _mboxFile;
+    private RandomAccessFile _mbox;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+        public long emails;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+            emails = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<byte[]> messages = new BenchmarkCorpus(corpusFile).getMessages();
+
+        _mboxFile = File.createTempFile("mbox-splitter-benchmark", ".mbox");
+        long targetSize = mboxSizeMB * 1024L * 1024L;
+        long size = 0;
+        OutputStream out = new FileOutputStream(_mboxFile);
+
+        try {
+            while (size < targetSize) {
+                for (byte[] message : messages) {
+                    out.write(message);
+                    size += message.length;
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        _mbox = new RandomAccessFile(_mboxFile, "r");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        _mbox.close();
+        _mboxFile.delete();
+    }
+
+    @Benchmark
+    public long readerSplit(Throughput counters) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(_mboxFile), "us-ascii"));
+        long result = 0;
+
+        try {
+            StringBuilder email = new StringBuilder();
+            for (String curLine = reader.readLine(); curLine != null; curLine = reader.readLine()) {
+                if (curLine.startsWith("From ") && (email.length() > 0)) {
+                    result += email.toString().getBytes("UTF-8").length;
+                    counters.emails += 1;
+                    email.setLength(0);
+                }
+
+                email.append(curLine);
+                email.append('\n');
+            }
+
+            if (email.length() > 0) {
+                result += email.toString().getBytes("UTF-8").length;
+                counters.emails += 1;
+            }
+        } finally {
+            reader.close();
+        }
+
+        counters.bytes += _mboxFile.length();
+        return result;
+    }
+
+    @Benchmark
+    public long mappedSplit(Throughput counters) throws Exception {
+        FileChannel channel = _mbox.getChannel();
+        long result = 0;
+
+        for (MboxSplitter.Range range : MboxSplitter.getRanges(channel, MboxSplitter.DEFAULT_RANGE_SIZE)) {
+            MboxSplitter splitter = MboxSplitter.open(channel, range);
+            for (ByteBuffer email = splitter.next(); email != null; email = splitter.next()) {
+                result += email.remaining();
+                counters.emails += 1;
+            }
+        }
+
+        counters.bytes += _mboxFile.length();
+        return result;
+    }
+}
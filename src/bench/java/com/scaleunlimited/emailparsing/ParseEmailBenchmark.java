@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.emailparsing;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.ConcreteCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.textfeatures.BenchmarkCollector;
+import com.scaleunlimited.textfeatures.BenchmarkCorpus;
+
+/**
+ * Measures ParseEmailArchivesWorkflow.ParseEmail, which runs each email from an
+ * mbox file through our RFC822Parser (mime4j + Tika) and generates the TSV fields.
+ * The input messages are re-created from the TSV corpus. With fastPaths=false,
+ * the text/plain body goes through Tika instead of being decoded directly.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseEmailBenchmark {
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    // false means every part goes through Tika, like it used to.
+    @Param({"true", "false"})
+    public boolean fastPaths;
+
+    private String[] _messages;
+    private int[] _messageBytes;
+    private int _index;
+
+    private ParseEmailArchivesWorkflow.ParseEmail _parseEmail;
+    private ConcreteCall<NullContext> _parseEmailCall;
+    private BenchmarkCollector _collector;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<byte[]> messages = new BenchmarkCorpus(corpusFile).getMessages();
+        _messages = new String[messages.size()];
+        _messageBytes = new int[messages.size()];
+        for (int i = 0; i < _messages.length; i++) {
+            _messages[i] = new String(messages.get(i), BenchmarkCorpus.UTF_8);
+            _messageBytes[i] = messages.get(i).length;
+        }
+
+        _collector = new BenchmarkCollector();
+        _parseEmail = new ParseEmailArchivesWorkflow.ParseEmail(new MailParsingConfig().setUseFastPaths(fastPaths));
+        _parseEmailCall = new ConcreteCall<NullContext>(new Fields("email"));
+        _parseEmailCall.setArguments(new TupleEntry(new Fields("email"), Tuple.size(1)));
+        _parseEmailCall.setOutputCollector(_collector);
+        _parseEmail.prepare(FlowProcess.NULL, _parseEmailCall);
+    }
+
+    @SuppressWarnings("unchecked")
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _parseEmail.cleanup(FlowProcess.NULL, _parseEmailCall);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public Tuple parseEmail(Throughput counters) {
+        int index = _index;
+        _index = (index + 1) % _messages.length;
+
+        _parseEmailCall.getArguments().getTuple().set(0, _messages[index]);
+        _parseEmail.operate(FlowProcess.NULL, _parseEmailCall);
+        counters.bytes += _messageBytes[index];
+        return _collector.getLastTuple();
+    }
+}
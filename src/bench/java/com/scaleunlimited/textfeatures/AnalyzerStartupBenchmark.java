@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cold start cost of creating the "text_en" analyzer, which is paid
+ * once per task JVM. Each fork does a single call, so the time includes class
+ * loading, and we compare the SchemaAnalyzerLoader with the old approach of
+ * starting up a Solr CoreContainer. Both also analyze a short string, so that
+ * lazy initialization inside the analysis chain is included.
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class AnalyzerStartupBenchmark {
+
+    private static final String FIELD_TYPE_NAME = "text_en";
+
+    @Benchmark
+    public int schemaLoader() throws Exception {
+        return countTokens(new SchemaAnalyzerLoader().getAnalyzer(FIELD_TYPE_NAME));
+    }
+
+    @Benchmark
+    public int coreContainer() throws Exception {
+        return countTokens(SolrAnalyzer.getCoreContainerAnalyzer(FIELD_TYPE_NAME));
+    }
+
+    private static int countTokens(Analyzer analyzer) throws Exception {
+        TokenStream stream = analyzer.tokenStream("content", new StringReader("The quick brown fox jumped over the lazy dogs"));
+        stream.reset();
+
+        int result = 0;
+        while (stream.incrementToken()) {
+            result += 1;
+        }
+
+        stream.end();
+        stream.close();
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+/**
+ * Output collector for benchmarking Cascading operations outside of a Flow. We
+ * only keep the most recent Tuple (so the benchmark can hand it to the next
+ * operation, or to a Blackhole) and a count, versus accumulating everything
+ * like TupleListCollector does.
+ *
+ */
+public class BenchmarkCollector extends TupleEntryCollector {
+
+    private Tuple _lastTuple;
+    private long _numTuples;
+
+    @Override
+    protected void collect(TupleEntry tupleEntry) {
+        _lastTuple = tupleEntry.getTuple();
+        _numTuples += 1;
+    }
+
+    public Tuple getLastTuple() {
+        return _lastTuple;
+    }
+
+    public long getNumTuples() {
+        return _numTuples;
+    }
+
+    public void reset() {
+        _lastTuple = null;
+        _numTuples = 0;
+    }
+}
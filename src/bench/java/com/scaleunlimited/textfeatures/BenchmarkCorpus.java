@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Builds the benchmark corpora from the tab-separated email file we use for
+ * testing (by default src/test/resources/mahout-emails.tsv). We generate three
+ * views of the same data: the raw TSV lines, the un-escaped content text, and
+ * a re-constituted RFC822 message for each line, so that the parsing and the
+ * analysis benchmarks all work off of the same emails.
+ *
+ */
+public class BenchmarkCorpus {
+
+    public static final String DEFAULT_CORPUS_FILE = "src/test/resources/mahout-emails.tsv";
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // msgId, author, email, subject, date, replyId, content
+    private static final int NUM_FIELDS = 7;
+
+    private List<String> _lines;
+
+    public BenchmarkCorpus(String corpusFile) throws IOException {
+        InputStream is = new FileInputStream(corpusFile);
+
+        try {
+            _lines = new ArrayList<String>();
+            for (String line : IOUtils.readLines(is, "UTF-8")) {
+                if (line.split("\t", -1).length == NUM_FIELDS) {
+                    _lines.add(line);
+                }
+            }
+        } finally {
+            is.close();
+        }
+
+        if (_lines.isEmpty()) {
+            throw new IllegalArgumentException("No valid emails in corpus file " + corpusFile);
+        }
+    }
+
+    /**
+     * @return the raw tab-separated lines, as read by the ParseEmails operation.
+     */
+    public List<String> getLines() {
+        return _lines;
+    }
+
+    /**
+     * @return the un-escaped content of each email, as fed to the SolrAnalyzer.
+     */
+    public List<String> getContent() {
+        List<String> result = new ArrayList<String>(_lines.size());
+        for (String line : _lines) {
+            result.add(unescape(line.split("\t", -1)[6]));
+        }
+
+        return result;
+    }
+
+    /**
+     * Turn each line back into a (single part, plain text) RFC822 message, which
+     * is what the mbox splitter hands to ParseEmail.
+     *
+     * @return list of messages, each as UTF-8 bytes.
+     */
+    public List<byte[]> getMessages() {
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat rfc822Format = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+        rfc822Format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        List<byte[]> result = new ArrayList<byte[]>(_lines.size());
+        StringBuilder message = new StringBuilder();
+        for (String line : _lines) {
+            String[] fields = line.split("\t", -1);
+
+            Date date;
+            try {
+                date = isoFormat.parse(fields[4]);
+            } catch (ParseException e) {
+                date = new Date(0);
+            }
+
+            message.setLength(0);
+            message.append("From ").append(fields[2]).append(' ').append(date.toString()).append('\n');
+            message.append("Message-ID: ").append(fields[0]).append('\n');
+            message.append("From: ").append(fields[1].trim()).append(" <").append(fields[2]).append(">\n");
+            message.append("Subject: ").append(fields[3]).append('\n');
+            message.append("Date: ").append(rfc822Format.format(date)).append('\n');
+            if (!fields[5].isEmpty()) {
+                message.append("In-Reply-To: ").append(fields[5]).append('\n');
+            }
+            message.append("MIME-Version: 1.0\n");
+            message.append("Content-Type: text/plain; charset=UTF-8\n");
+            message.append("Content-Transfer-Encoding: 8bit\n");
+            message.append('\n');
+            message.append(unescape(fields[6]));
+            message.append('\n');
+
+            result.add(message.toString().getBytes(UTF_8));
+        }
+
+        return result;
+    }
+
+    public static Set<String> getStopwords() throws IOException {
+        InputStream is = BenchmarkCorpus.class.getResourceAsStream("/stopwords.txt");
+
+        try {
+            return new HashSet<String>(IOUtils.readLines(is, "UTF-8"));
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String unescape(String content) {
+        return content.replace("\\n", "\n").replace("\\t", "\t");
+    }
+}
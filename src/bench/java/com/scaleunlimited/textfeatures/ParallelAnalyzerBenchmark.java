@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how SolrAnalyzer.getTermLists scales with the number of threads. Each
+ * benchmark op analyzes the entire corpus with one (shared) analyzer instance.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelAnalyzerBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int numThreads;
+
+    @Param({"3"})
+    public int shingleSize;
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    private SolrAnalyzer _analyzer;
+    private List<String> _content;
+    private ExecutorService _executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        _content = new BenchmarkCorpus(corpusFile).getContent();
+
+        _executor = Executors.newFixedThreadPool(numThreads);
+        _analyzer = new SolrAnalyzer(shingleSize, new HashSet<String>());
+        _analyzer.setExecutor(_executor, numThreads);
+        _analyzer.getTermList("warm up");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _executor.shutdown();
+    }
+
+    @Benchmark
+    public List<List<String>> getTermLists() {
+        return _analyzer.getTermLists(_content);
+    }
+}
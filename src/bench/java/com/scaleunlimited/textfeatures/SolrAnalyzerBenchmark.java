@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures SolrAnalyzer.getTermList throughput. Each benchmark op analyzes one
+ * email from the corpus (cycling through all of them), and the aux counters
+ * report terms/sec and bytes/sec of content. Run with "-prof gc" to get the
+ * allocation rate.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolrAnalyzerBenchmark {
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int shingleSize;
+
+    @Param({"false", "true"})
+    public boolean stopwords;
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    private SolrAnalyzer _analyzer;
+    private String[] _content;
+    private int[] _contentBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long terms;
+        public long bytes;
+
+        private int _index;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            terms = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<String> content = new BenchmarkCorpus(corpusFile).getContent();
+        _content = content.toArray(new String[content.size()]);
+        _contentBytes = new int[_content.length];
+        for (int i = 0; i < _content.length; i++) {
+            _contentBytes[i] = _content[i].getBytes(BenchmarkCorpus.UTF_8).length;
+        }
+
+        _analyzer = new SolrAnalyzer(shingleSize, stopwords ? BenchmarkCorpus.getStopwords() : new HashSet<String>());
+
+        // Get the (one-time) cost of building the analysis chain out of the way.
+        _analyzer.getTermList("warm up");
+    }
+
+    @Benchmark
+    public List<String> getTermList(Throughput counters) {
+        int index = counters._index;
+        counters._index = (index + 1) % _content.length;
+
+        List<String> result = _analyzer.getTermList(_content[index]);
+        counters.terms += result.size();
+        counters.bytes += _contentBytes[index];
+        return result;
+    }
+}
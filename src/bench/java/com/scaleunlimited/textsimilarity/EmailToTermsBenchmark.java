@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.ConcreteCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.textfeatures.BenchmarkCollector;
+import com.scaleunlimited.textfeatures.BenchmarkCorpus;
+import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.SolrAnalyzer;
+
+/**
+ * Measures the full path from a TSV line to a list of terms, i.e. ParseEmails,
+ * then StripQuoteHeader, then SolrAnalyzer.getTermList, which is the work done
+ * per email in the map phase of the TextSimilarityWorkflow.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EmailToTermsBenchmark {
+
+    @Param({"1", "2", "3"})
+    public int shingleSize;
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    private String[] _lines;
+    private int[] _lineBytes;
+    private int _index;
+
+    private TextSimilarityWorkflow.ParseEmails _parseEmails;
+    private ConcreteCall<NullContext> _parseEmailsCall;
+    private BenchmarkCollector _parseEmailsCollector;
+
+    private TextSimilarityWorkflow.StripQuoteHeader _stripQuoteHeader;
+    private ConcreteCall<NullContext> _stripQuoteHeaderCall;
+    private BenchmarkCollector _stripQuoteHeaderCollector;
+
+    private SolrAnalyzer _analyzer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long terms;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            terms = 0;
+            bytes = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<String> lines = new BenchmarkCorpus(corpusFile).getLines();
+        _lines = lines.toArray(new String[lines.size()]);
+        _lineBytes = new int[_lines.length];
+        for (int i = 0; i < _lines.length; i++) {
+            _lineBytes[i] = _lines[i].getBytes(BenchmarkCorpus.UTF_8).length;
+        }
+
+        _parseEmails = new TextSimilarityWorkflow.ParseEmails();
+        _parseEmailsCollector = new BenchmarkCollector();
+        _parseEmailsCall = new ConcreteCall<NullContext>(new Fields("line"));
+        _parseEmailsCall.setArguments(new TupleEntry(new Fields("line"), Tuple.size(1)));
+        _parseEmailsCall.setOutputCollector(_parseEmailsCollector);
+        _parseEmails.prepare(FlowProcess.NULL, _parseEmailsCall);
+
+        _stripQuoteHeader = new TextSimilarityWorkflow.StripQuoteHeader();
+        _stripQuoteHeaderCollector = new BenchmarkCollector();
+        _stripQuoteHeaderCall = new ConcreteCall<NullContext>(new Fields(Config.CONTENT_FN));
+        _stripQuoteHeaderCall.setArguments(new TupleEntry(new Fields(Config.CONTENT_FN), Tuple.size(1)));
+        _stripQuoteHeaderCall.setOutputCollector(_stripQuoteHeaderCollector);
+        _stripQuoteHeader.prepare(FlowProcess.NULL, _stripQuoteHeaderCall);
+
+        _analyzer = new SolrAnalyzer(shingleSize, new HashSet<String>());
+        _analyzer.getTermList("warm up");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public List<String> emailToTerms(Throughput counters) {
+        int index = _index;
+        _index = (index + 1) % _lines.length;
+
+        _parseEmailsCall.getArguments().getTuple().set(0, _lines[index]);
+        _parseEmails.operate(FlowProcess.NULL, _parseEmailsCall);
+        String content = _parseEmailsCollector.getLastTuple().getString(1);
+
+        _stripQuoteHeaderCall.getArguments().getTuple().set(0, content);
+        _stripQuoteHeader.operate(FlowProcess.NULL, _stripQuoteHeaderCall);
+        content = _stripQuoteHeaderCollector.getLastTuple().getString(0);
+
+        List<String> result = _analyzer.getTermList(content);
+        counters.terms += result.size();
+        counters.bytes += _lineBytes[index];
+        return result;
+    }
+}
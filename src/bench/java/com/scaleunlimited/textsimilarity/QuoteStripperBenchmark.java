@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scaleunlimited.textfeatures.BenchmarkCorpus;
+
+/**
+ * Compares QuoteStripper with the regular expressions that StripQuoteHeader and
+ * StripQuotedText used to run (via String.replaceAll, so the pattern is compiled
+ * for every email). copyContent is the floor: one copy of the content into a
+ * char array and back into a String.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QuoteStripperBenchmark {
+
+    private static final String QUOTED_TEXT_REGEX = "(?m)^[>]{1,} .*";
+    private static final String QUOTE_HEADER_REGEX = "(?m)^>* On ..., .+, .+wrote:";
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    private String[] _content;
+    private int[] _contentBytes;
+    private int _index;
+
+    private QuoteStripper _headerStripper;
+    private QuoteStripper _quoteStripper;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(corpusFile);
+        List<String> content = corpus.getContent();
+        _content = content.toArray(new String[content.size()]);
+        _contentBytes = new int[_content.length];
+        for (int i = 0; i < _content.length; i++) {
+            _contentBytes[i] = _content[i].getBytes(BenchmarkCorpus.UTF_8).length;
+        }
+
+        _headerStripper = new QuoteStripper(false, true);
+        _quoteStripper = new QuoteStripper(true, true);
+    }
+
+    @Benchmark
+    public String copyContent(Throughput counters) {
+        int index = nextIndex();
+        counters.bytes += _contentBytes[index];
+        return new String(_content[index].toCharArray());
+    }
+
+    @Benchmark
+    public String regexQuoteHeader(Throughput counters) {
+        int index = nextIndex();
+        counters.bytes += _contentBytes[index];
+        return _content[index].replaceAll(QUOTE_HEADER_REGEX, "");
+    }
+
+    @Benchmark
+    public String regexQuotedTextAndHeader(Throughput counters) {
+        int index = nextIndex();
+        counters.bytes += _contentBytes[index];
+        return _content[index].replaceAll(QUOTED_TEXT_REGEX, "").replaceAll(QUOTE_HEADER_REGEX, "");
+    }
+
+    @Benchmark
+    public String stripQuoteHeader(Throughput counters) {
+        int index = nextIndex();
+        counters.bytes += _contentBytes[index];
+        return _headerStripper.strip(_content[index]);
+    }
+
+    @Benchmark
+    public String stripQuotedTextAndHeader(Throughput counters) {
+        int index = nextIndex();
+        counters.bytes += _contentBytes[index];
+        return _quoteStripper.strip(_content[index]);
+    }
+
+    private int nextIndex() {
+        int index = _index;
+        _index = (index + 1) % _content.length;
+        return index;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.ConcreteCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.textfeatures.BenchmarkCollector;
+import com.scaleunlimited.textfeatures.BenchmarkCorpus;
+import com.scaleunlimited.textfeatures.Config;
+
+/**
+ * Measures the per-email cost of the Each operations that run in front of
+ * TopTermsByLLR: ParseEmails (TSV line to email/content) and StripQuoteHeader.
+ * Each op handles one email from the corpus.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TextSimilarityOperationsBenchmark {
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    private String[] _lines;
+    private int[] _lineBytes;
+    private String[] _content;
+    private int[] _contentBytes;
+    private int _index;
+
+    private TextSimilarityWorkflow.ParseEmails _parseEmails;
+    private ConcreteCall<NullContext> _parseEmailsCall;
+
+    private TextSimilarityWorkflow.StripQuoteHeader _stripQuoteHeader;
+    private ConcreteCall<NullContext> _stripQuoteHeaderCall;
+
+    private BenchmarkCollector _collector;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(corpusFile);
+        List<String> lines = corpus.getLines();
+        _lines = lines.toArray(new String[lines.size()]);
+        _lineBytes = new int[_lines.length];
+        for (int i = 0; i < _lines.length; i++) {
+            _lineBytes[i] = _lines[i].getBytes(BenchmarkCorpus.UTF_8).length;
+        }
+        List<String> content = corpus.getContent();
+        _content = content.toArray(new String[content.size()]);
+        _contentBytes = new int[_content.length];
+        for (int i = 0; i < _content.length; i++) {
+            _contentBytes[i] = _content[i].getBytes(BenchmarkCorpus.UTF_8).length;
+        }
+
+        _collector = new BenchmarkCollector();
+
+        _parseEmails = new TextSimilarityWorkflow.ParseEmails();
+        _parseEmailsCall = new ConcreteCall<NullContext>(new Fields("line"));
+        _parseEmailsCall.setArguments(new TupleEntry(new Fields("line"), Tuple.size(1)));
+        _parseEmailsCall.setOutputCollector(_collector);
+        _parseEmails.prepare(FlowProcess.NULL, _parseEmailsCall);
+
+        _stripQuoteHeader = new TextSimilarityWorkflow.StripQuoteHeader();
+        _stripQuoteHeaderCall = new ConcreteCall<NullContext>(new Fields(Config.CONTENT_FN));
+        _stripQuoteHeaderCall.setArguments(new TupleEntry(new Fields(Config.CONTENT_FN), Tuple.size(1)));
+        _stripQuoteHeaderCall.setOutputCollector(_collector);
+        _stripQuoteHeader.prepare(FlowProcess.NULL, _stripQuoteHeaderCall);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public Tuple parseEmails(Throughput counters) {
+        int index = nextIndex();
+        _parseEmailsCall.getArguments().getTuple().set(0, _lines[index]);
+        _parseEmails.operate(FlowProcess.NULL, _parseEmailsCall);
+        counters.bytes += _lineBytes[index];
+        return _collector.getLastTuple();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public Tuple stripQuoteHeader(Throughput counters) {
+        int index = nextIndex();
+        _stripQuoteHeaderCall.getArguments().getTuple().set(0, _content[index]);
+        _stripQuoteHeader.operate(FlowProcess.NULL, _stripQuoteHeaderCall);
+        counters.bytes += _contentBytes[index];
+        return _collector.getLastTuple();
+    }
+
+    private int nextIndex() {
+        int index = _index;
+        _index = (index + 1) % _lines.length;
+        return index;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cascading.flow.Flow;
+
+import com.scaleunlimited.textfeatures.BenchmarkCorpus;
+
+/**
+ * Compares TopTermsByLLR with LLRTopTerms ("-builtinllr"), by running the complete
+ * TextSimilarityWorkflow in local mode on the corpus. Everything but the top terms
+ * calculation is the same for both, so the difference in time is what matters. Each
+ * op is one run of the flow, so this takes a while.
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopTermsBenchmark {
+
+    private static final String WORKING_DIR = "build/bench/TopTermsBenchmark/working/";
+
+    @Param({"false", "true"})
+    public boolean builtinLLR;
+
+    @Param({"1", "2"})
+    public int shingleSize;
+
+    @Param(BenchmarkCorpus.DEFAULT_CORPUS_FILE)
+    public String corpusFile;
+
+    @Benchmark
+    public Flow<?> topTerms() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setShingleSize(shingleSize);
+        options.setBuiltinLLR(builtinLLR);
+        options.setInput(corpusFile);
+        options.setWorkingDir(WORKING_DIR);
+
+        Flow<?> flow = TextSimilarityWorkflow.createFlow(options);
+        flow.complete();
+        return flow;
+    }
+}
@@ -0,0 +1,278 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Record of the mbox files that have been parsed: the path, size, modification time and
+ * MD5 hash of the content of each file, as tab-separated lines.
+ *
+ * This lets a rerun figure out what's changed since the last run (see update()). Mbox
+ * files normally only grow, by having emails appended to the end, so if the first <size>
+ * bytes of a file still have the hash we recorded, only the rest of it needs to be parsed.
+ * Files are only read (to calculate hashes) if their size or modification time changed.
+ */
+class ArchiveManifest {
+
+    public static final String MANIFEST_FILENAME = "_manifest.tsv";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static class Entry {
+        private String _path;
+        private long _size;
+        private long _modified;
+        private String _hash;
+
+        public Entry(String path, long size, long modified, String hash) {
+            _path = path;
+            _size = size;
+            _modified = modified;
+            _hash = hash;
+        }
+
+        public String getPath() {
+            return _path;
+        }
+
+        public long getSize() {
+            return _size;
+        }
+
+        public long getModified() {
+            return _modified;
+        }
+
+        public String getHash() {
+            return _hash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%d\t%d\t%s", _path, _size, _modified, _hash);
+        }
+
+        public static Entry fromString(String line) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("Invalid manifest entry: " + line);
+            }
+
+            return new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+        }
+    }
+
+    /**
+     * The state of one file, versus what's in the manifest.
+     */
+    public static class FileUpdate {
+        private Entry _entry;
+        private long _start;
+        private boolean _rewritten;
+
+        public FileUpdate(Entry entry, long start, boolean rewritten) {
+            _entry = entry;
+            _start = start;
+            _rewritten = rewritten;
+        }
+
+        /**
+         * @return manifest entry for the current version of the file
+         */
+        public Entry getEntry() {
+            return _entry;
+        }
+
+        /**
+         * @return offset of the first byte that wasn't parsed before
+         */
+        public long getStart() {
+            return _start;
+        }
+
+        /**
+         * @return true if the content that was parsed before has changed, versus
+         *         just having new content appended.
+         */
+        public boolean isRewritten() {
+            return _rewritten;
+        }
+
+        public boolean hasNewContent() {
+            return _start < _entry.getSize();
+        }
+    }
+
+    private Map<String, Entry> _entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * @param file
+     * @return the manifest saved in <file>, or an empty manifest if it doesn't exist.
+     * @throws IOException
+     */
+    public static ArchiveManifest load(File file) throws IOException {
+        ArchiveManifest result = new ArchiveManifest();
+        if (file.exists()) {
+            for (String line : FileUtils.readLines(file, "UTF-8")) {
+                if (!line.isEmpty()) {
+                    result.put(Entry.fromString(line));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Save the manifest to <file>, by writing a temp file and then renaming it, so that
+     * we never leave a partial manifest around.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        List<String> lines = new ArrayList<String>(_entries.size());
+        for (Entry entry : _entries.values()) {
+            lines.add(entry.toString());
+        }
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileUtils.writeLines(tempFile, "UTF-8", lines, "\n");
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't delete old manifest " + file);
+        }
+
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Can't rename temp manifest to " + file);
+        }
+    }
+
+    public void put(Entry entry) {
+        _entries.put(entry.getPath(), entry);
+    }
+
+    public Entry get(String path) {
+        return _entries.get(path);
+    }
+
+    public Set<String> getPaths() {
+        return _entries.keySet();
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Compare <file> with what we recorded for it.
+     *
+     * @param file
+     * @return the new entry for <file>, and where to start parsing it: at 0 if the file is
+     *         new or was rewritten, at the old size if content was appended, or at the end
+     *         if it hasn't changed.
+     * @throws IOException
+     */
+    public FileUpdate update(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long modified = file.lastModified();
+
+        Entry oldEntry = _entries.get(path);
+        if ((oldEntry != null) && (oldEntry.getSize() == size) && (oldEntry.getModified() == modified)) {
+            return new FileUpdate(oldEntry, size, false);
+        }
+
+        long prefixLength = ((oldEntry != null) && (oldEntry.getSize() <= size)) ? oldEntry.getSize() : -1;
+        String[] hashes = hash(file, prefixLength);
+        Entry newEntry = new Entry(path, size, modified, hashes[1]);
+
+        if (oldEntry == null) {
+            return new FileUpdate(newEntry, 0, false);
+        } else if (oldEntry.getHash().equals(hashes[0])) {
+            return new FileUpdate(newEntry, oldEntry.getSize(), false);
+        } else {
+            return new FileUpdate(newEntry, 0, true);
+        }
+    }
+
+    /**
+     * Calculate the hash of the first <prefixLength> bytes of <file>, and of the entire file,
+     * in one pass.
+     *
+     * @param file
+     * @param prefixLength length of the prefix to hash, or -1 to skip it.
+     * @return prefix hash (null if skipped) and file hash, as hex strings.
+     * @throws IOException
+     */
+    static String[] hash(File file, long prefixLength) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Impossible exception!", e);
+        }
+
+        String[] result = new String[2];
+        if (prefixLength == 0) {
+            result[0] = toHex(cloneDigest(digest).digest());
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long bytesHashed = 0;
+        InputStream in = new FileInputStream(file);
+
+        try {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                int prefixBytes = (int)Math.min(bytesRead, prefixLength - bytesHashed);
+                if ((prefixBytes > 0) && (prefixBytes < bytesRead)) {
+                    // Buffer crosses the end of the prefix.
+                    digest.update(buffer, 0, prefixBytes);
+                    result[0] = toHex(cloneDigest(digest).digest());
+                    digest.update(buffer, prefixBytes, bytesRead - prefixBytes);
+                } else {
+                    digest.update(buffer, 0, bytesRead);
+                    if (bytesHashed + bytesRead == prefixLength) {
+                        result[0] = toHex(cloneDigest(digest).digest());
+                    }
+                }
+
+                bytesHashed += bytesRead;
+            }
+        } finally {
+            in.close();
+        }
+
+        result[1] = toHex(digest.digest());
+        return result;
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest)digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Can't clone message digest", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0x0F, 16));
+            result.append(Character.forDigit(b & 0x0F, 16));
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream that reads directly from a ByteBuffer (e.g. a slice of a memory mapped
+ * mbox file), so that we don't have to copy each email into a byte array first.
+ *
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer _buffer;
+    private int _mark;
+    
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        _buffer = buffer;
+        _mark = buffer.position();
+    }
+    
+    @Override
+    public int read() {
+        if (!_buffer.hasRemaining()) {
+            return -1;
+        }
+        
+        return _buffer.get() & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        
+        int remaining = _buffer.remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        
+        len = Math.min(len, remaining);
+        _buffer.get(b, off, len);
+        return len;
+    }
+    
+    @Override
+    public long skip(long n) {
+        int skipped = (int)Math.max(0, Math.min(n, _buffer.remaining()));
+        _buffer.position(_buffer.position() + skipped);
+        return skipped;
+    }
+    
+    @Override
+    public int available() {
+        return _buffer.remaining();
+    }
+    
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+    
+    @Override
+    public synchronized void mark(int readlimit) {
+        _mark = _buffer.position();
+    }
+    
+    @Override
+    public synchronized void reset() {
+        _buffer.position(_mark);
+    }
+}
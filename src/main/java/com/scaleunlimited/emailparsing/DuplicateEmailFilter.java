@@ -0,0 +1,118 @@
+package com.scaleunlimited.emailparsing;
+
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.textfeatures.EmailTsvCodec;
+import com.scaleunlimited.textfeatures.TermIdSet;
+import com.scaleunlimited.textfeatures.TermIds;
+
+/**
+ * Finds exact duplicates of emails we've already seen, which are common in mailing list
+ * archives due to cross-posting (the same email sent to several lists) and mbox files that
+ * get imported more than once.
+ *
+ * Each email is reduced to a 64-bit key, which is the hash of the Message-ID, or (if it
+ * doesn't have one) the hash of the sender's address and the content, ignoring case and
+ * whitespace. The address is included so that short replies like "+1" from different
+ * people aren't treated as duplicates. Hashing is the same as TermIds.getHash(). Keys are
+ * kept in a TermIdSet, which uses a fixed amount of memory. Once the set is full it gets
+ * cleared, so after that we can miss duplicates of older emails, but we never drop an email
+ * that isn't a duplicate (other than with the odds of a 64-bit hash collision).
+ *
+ * Since the first copy of an email is the one we keep, call isDuplicate() from one thread,
+ * in the same order as the emails in the archive.
+ */
+class DuplicateEmailFilter {
+
+    // Content hashes start from a different value, so content that happens to be the same
+    // as some Message-ID doesn't get the same key.
+    private static final long CONTENT_SEED = TermIds.HASH_SEED ^ 0x5bd1e9955bd1e995L;
+
+    private TermIdSet _keys;
+
+    private int _numEmails;
+    private int _numDuplicates;
+
+    /**
+     * @param maxEmails number of emails to remember, which determines memory use
+     */
+    public DuplicateEmailFilter(int maxEmails) {
+        _keys = new TermIdSet(maxEmails);
+    }
+
+    /**
+     * @param email Tuple with EmailParser.FIELDS, where the content has been escaped.
+     * @return true if we've already seen this email.
+     */
+    public boolean isDuplicate(Tuple email) {
+        return isDuplicate(email.getString(EmailTsvCodec.MSG_ID_FIELD),
+                           email.getString(EmailTsvCodec.EMAIL_FIELD),
+                           email.getString(EmailTsvCodec.CONTENT_FIELD));
+    }
+
+    /**
+     * @param msgId Message-ID, or null/empty if the email doesn't have one.
+     * @param address sender's email address
+     * @param content
+     * @return true if we've already seen an email with the same Message-ID, or with the
+     *         same sender and content if it doesn't have one.
+     */
+    public boolean isDuplicate(String msgId, String address, String content) {
+        _numEmails += 1;
+
+        if (_keys.add(getKey(msgId, address, content))) {
+            // New, or we've cleared the set since we saw it.
+            return false;
+        } else {
+            _numDuplicates += 1;
+            return true;
+        }
+    }
+
+    public int getNumEmails() {
+        return _numEmails;
+    }
+
+    public int getNumDuplicates() {
+        return _numDuplicates;
+    }
+
+    static long getKey(String msgId, String address, String content) {
+        if ((msgId != null) && !msgId.trim().isEmpty()) {
+            return TermIds.getHash(msgId.trim());
+        }
+
+        long hash = addContent(CONTENT_SEED, address == null ? "" : address);
+
+        // Separator, so that the end of the address can't run into the content.
+        hash = TermIds.addToHash(hash, '\0');
+        hash = addContent(hash, content == null ? "" : content);
+        return TermIds.finishHash(hash);
+    }
+
+    /**
+     * Add <content> (escaped, see EmailTsvCodec) to <hash>, without whitespace (including
+     * escaped newlines and tabs), and with letters converted to lower case.
+     */
+    private static long addContent(long hash, String content) {
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if ((c == '\\') && (i + 1 < length)) {
+                char next = content.charAt(i + 1);
+                if ((next == 'n') || (next == 't')) {
+                    i += 1;
+                    continue;
+                }
+            }
+
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+
+            hash = TermIds.addToHash(hash, Character.toLowerCase(c));
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,197 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.Property;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+import com.scaleunlimited.textfeatures.EmailTsvCodec;
+
+/**
+ * Uses our customized RFC822 parser from Tika to parse a single email, and generates
+ * a Tuple with the fields we care about (see FIELDS).
+ *
+ * Plain text and HTML parts are handled directly, and other types of parts that are
+ * allowed by the MailParsingConfig are handed to Tika. Note that some of those will
+ * fail, because we don't include all of the required Tika support for embedded content.
+ *
+ * A parser isn't thread-safe, so use one per thread.
+ */
+public class EmailParser {
+    private static final Logger LOGGER = Logger.getLogger(EmailParser.class);
+
+    // Fields in the Tuple we generate for each email.
+    public static final Fields FIELDS = new Fields("id", "author", "email", "subject", "date", "replyid", "content");
+
+    private static final Pattern FULL_EMAIL_ADDRESS_PATTERN = Pattern.compile("(.*)<(.+@.+)>");
+    private static final Pattern SIMPLE_EMAIL_ADDRESS_PATTERN = Pattern.compile("(.+@.+)");
+
+    private Parser _parser;
+    private MailParsingConfig _config;
+    private MailParsingStatus _status;
+    private ParseContext _context;
+    private ContentHandler _handler;
+    private StringBuilder _content;
+    private int _contentLength;
+
+    public EmailParser() {
+        this(new MailParsingConfig());
+    }
+    
+    public EmailParser(MailParsingConfig config) {
+        _parser = new RFC822Parser();
+        
+        // We re-use the context, so that the Tika parser for parts that don't take the
+        // fast path only gets created once.
+        _config = config;
+        _status = new MailParsingStatus();
+        _context = new ParseContext();
+        _context.set(MailParsingConfig.class, config);
+        _context.set(MailParsingStatus.class, _status);
+        
+        _content = new StringBuilder();
+
+        _handler = new DefaultHandler() {
+            private boolean inParagraph = false;
+            private boolean inQuotes = false;
+
+            @Override
+            public void startDocument() throws SAXException {
+                super.startDocument();
+
+                inParagraph = false;
+                inQuotes = false;
+                _content.setLength(0);
+            }
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                if (localName.equalsIgnoreCase("p")) {
+                    inParagraph = true;
+                } else if (localName.equalsIgnoreCase("q")) {
+                    // FUTURE the RFC822 parser from Tika isn't adding quote elements to text, so
+                    // currently this does nothing.
+                    inQuotes = true;
+                } else if (localName.equalsIgnoreCase("br")) {
+                    _content.append('\n');
+                } else if (localName.equalsIgnoreCase("meta")) {
+                    // do nothing
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String name) throws SAXException {
+                if (localName.equalsIgnoreCase("p")) {
+                    inParagraph = false;
+                    _content.append('\n');
+                } else if (localName.equalsIgnoreCase("q")) {
+                    inQuotes = false;
+                }
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                if (inParagraph && !inQuotes) {
+                    // We have text we want to process.
+                    _content.append(ch, start, length);
+                    // HACK - parser isn't putting spaces or breaks between lines.
+                    _content.append(' ');
+                }
+            }
+        };
+    }
+
+    /**
+     * Parse the email in <stream>, which is the raw (undecoded) bytes of the message.
+     * Use getStatus() to find out if any of the limits from the MailParsingConfig
+     * were hit.
+     *
+     * @param stream
+     * @return Tuple with FIELDS, where the content has been escaped (see EmailTsvCodec),
+     *         or null if the email couldn't be parsed.
+     */
+    public Tuple parse(InputStream stream) {
+        _contentLength = 0;
+        _status.reset();
+        Metadata metadata = new Metadata();
+
+        TruncatingInputStream limitedStream = new TruncatingInputStream(stream, _config.getMaxMessageBytes());
+        try {
+            _parser.parse(limitedStream, _handler, metadata, _context);
+            _status.setTruncatedMessage(limitedStream.isTruncated());
+
+            // _content now has all of the body text, and metadata has the header info.
+            String messageId = getMetadata(metadata, TikaCoreProperties.IDENTIFIER);
+
+            String author = "";
+            String address = "";
+            String creator = getMetadata(metadata, TikaCoreProperties.CREATOR);
+            Matcher addressMatcher = FULL_EMAIL_ADDRESS_PATTERN.matcher(creator);
+            if (addressMatcher.matches()) {
+                author = addressMatcher.group(1);
+                address = addressMatcher.group(2);
+            } else {
+                addressMatcher = SIMPLE_EMAIL_ADDRESS_PATTERN.matcher(creator);
+                if (addressMatcher.matches()) {
+                    address = addressMatcher.group(1);
+                }
+            }
+
+            String subject = getMetadata(metadata, TikaCoreProperties.TITLE);
+            String replyId = getMetadata(metadata, TikaCoreProperties.RELATION);
+            String creationDate = getMetadata(metadata, TikaCoreProperties.CREATED);
+
+            _contentLength = _content.length();
+
+            // Need to convert all CRLF & raw linefeeds into \n sequences, so our file format is correct.
+            // We do the same for tabs, so that it's easy to parse the result.
+            String content = EmailTsvCodec.escape(_content);
+
+            return new Tuple(messageId, author, address, subject, creationDate, replyId, content);
+        } catch (Exception e) {
+            LOGGER.error("Exception parsing email: " + e.getMessage());
+        } catch (NoClassDefFoundError e) {
+            // This will happen when we have an embedded object (multi-part email) which
+            // needs parsing support we don't include.
+            LOGGER.error("Exception parsing email due to missing class: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @return what happened while parsing the last email.
+     */
+    public MailParsingStatus getStatus() {
+        return _status;
+    }
+
+    /**
+     * @return length of the (unescaped) content of the last email that was parsed.
+     */
+    public int getContentLength() {
+        return _contentLength;
+    }
+
+    private String getMetadata(Metadata metadata, Property property) {
+        String result = metadata.get(property);
+        if (result != null) {
+            return result.trim();
+        } else {
+            return "";
+        }
+    }
+}
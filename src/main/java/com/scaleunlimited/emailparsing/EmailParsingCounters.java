@@ -0,0 +1,16 @@
+package com.scaleunlimited.emailparsing;
+
+/**
+ * Cascading counters for email parsing.
+ *
+ */
+public enum EmailParsingCounters {
+    EMAILS_PARSED,              // Successfully parsed (even if truncated)
+    EMAILS_FAILED,              // Couldn't be parsed
+    EMAILS_DUPLICATE,           // Same as an email we've already seen, so skipped
+    EMAILS_TRUNCATED,           // Bigger than the max message size
+    EMAILS_TOO_BIG,             // Content was too long (see EmailSizeGuard), so skipped
+    EMAILS_CONTENT_TRUNCATED,   // Content was too long, so truncated
+    PARTS_TRUNCATED,            // Bigger than the max part size
+    PARTS_SKIPPED,              // Too many parts, or nested too deep
+}
@@ -0,0 +1,98 @@
+package com.scaleunlimited.emailparsing;
+
+/**
+ * Decides what to do with emails that are too big, based on the distribution of the
+ * content lengths we've seen so far. Otherwise we can get some huge emails when a person
+ * includes all of the source code for their project, which then skew the analysis.
+ *
+ * An email is too big if its content is longer than the size quantile (e.g. 0.99) of
+ * the emails seen so far, or longer than the absolute max. Only the absolute max is used
+ * until we've seen enough emails to have a reasonable estimate of the quantile. Unlike a
+ * running average, one huge email barely moves the quantile. Depending on the config,
+ * emails that are too big either get truncated to the max length, or skipped.
+ *
+ * Since the decision depends on the order of emails, call check() from one thread, in
+ * the same order as the emails in the archive.
+ */
+class EmailSizeGuard {
+
+    public enum Action {
+        KEEP,
+        TRUNCATE,
+        SKIP
+    }
+
+    // Don't use the quantile until we have a reasonable estimate.
+    private static final int MIN_EMAILS = 100;
+
+    private static final double RELATIVE_ACCURACY = 0.01;
+
+    private double _sizeQuantile;
+    private int _maxContentChars;
+    private boolean _truncate;
+
+    private QuantileSketch _sketch;
+    private int _maxLength;
+    private int _numTruncated;
+    private int _numSkipped;
+
+    public EmailSizeGuard(MailParsingConfig config) {
+        _sizeQuantile = config.getSizeQuantile();
+        _maxContentChars = config.getMaxContentChars();
+        _truncate = config.isTruncateBigEmails();
+
+        _sketch = new QuantileSketch(RELATIVE_ACCURACY);
+    }
+
+    /**
+     * Record the email's size, and decide what to do with it.
+     *
+     * @param contentLength
+     * @return KEEP if the email isn't too big, otherwise TRUNCATE (to getMaxLength()
+     *         characters) or SKIP.
+     */
+    public Action check(int contentLength) {
+        _sketch.add(contentLength);
+
+        _maxLength = _maxContentChars;
+        if ((_sizeQuantile < 1.0) && (_sketch.getCount() > MIN_EMAILS)) {
+            _maxLength = (int)Math.min(_maxLength, _sketch.getQuantile(_sizeQuantile));
+        }
+
+        if (contentLength <= _maxLength) {
+            return Action.KEEP;
+        } else if (_truncate) {
+            _numTruncated += 1;
+            return Action.TRUNCATE;
+        } else {
+            _numSkipped += 1;
+            return Action.SKIP;
+        }
+    }
+
+    /**
+     * @return max content length for the email passed to the last call to check()
+     */
+    public int getMaxLength() {
+        return _maxLength;
+    }
+
+    public long getNumEmails() {
+        return _sketch.getCount();
+    }
+
+    public int getNumTruncated() {
+        return _numTruncated;
+    }
+
+    public int getNumSkipped() {
+        return _numSkipped;
+    }
+
+    /**
+     * @return current estimate of the size quantile
+     */
+    public long getQuantileLength() {
+        return _sketch.getQuantile(_sizeQuantile);
+    }
+}
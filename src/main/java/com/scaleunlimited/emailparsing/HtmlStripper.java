@@ -0,0 +1,282 @@
+package com.scaleunlimited.emailparsing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts HTML (e.g. the text/html part of an email) into plain text, in a single pass.
+ * Tags are removed, with block-level tags like <p> and <br> turned into newlines, the
+ * content of <script> and <style> elements and comments is skipped, and common character
+ * entities are decoded. Inline formatting tags like <b> are removed without a trace, and
+ * any other tag (e.g. <td> or <span>) separates the text on either side with a space, so
+ * words in adjacent cells don't get joined together.
+ *
+ * This is much cheaper than running a real HTML parser, and good enough for the kind of
+ * HTML that mail clients generate. A stripper isn't thread-safe, since it re-uses its
+ * output buffer.
+ *
+ */
+public class HtmlStripper {
+
+    private static final String[] BLOCK_TAGS = {
+        "br", "p", "div", "tr", "li", "h1", "h2", "h3", "h4", "h5", "h6", "table", "blockquote", "pre", "hr"
+    };
+
+    // Tags that can be in the middle of a word, so they don't separate text.
+    private static final String[] INLINE_TAGS = {
+        "html", "head", "body", "b", "i", "u", "s", "em", "strong", "font", "small", "big", "sub", "sup",
+        "strike", "tt", "code", "mark", "abbr"
+    };
+
+    private static final Map<String, Integer> NAMED_ENTITIES = new HashMap<String, Integer>();
+
+    static {
+        String[] entities = {
+            "amp", "&", "lt", "<", "gt", ">", "quot", "\"", "apos", "'", "nbsp", " ",
+            "lsquo", "\u2018", "rsquo", "\u2019", "sbquo", "\u201A", "ldquo", "\u201C", "rdquo", "\u201D",
+            "bdquo", "\u201E", "ndash", "\u2013", "mdash", "\u2014", "hellip", "\u2026", "bull", "\u2022",
+            "middot", "\u00B7", "laquo", "\u00AB", "raquo", "\u00BB", "copy", "\u00A9", "reg", "\u00AE",
+            "trade", "\u2122", "euro", "\u20AC", "pound", "\u00A3", "yen", "\u00A5", "cent", "\u00A2",
+            "deg", "\u00B0", "times", "\u00D7", "divide", "\u00F7", "sect", "\u00A7", "para", "\u00B6",
+            "iexcl", "\u00A1", "iquest", "\u00BF", "shy", "\u00AD", "szlig", "\u00DF",
+            "agrave", "\u00E0", "aacute", "\u00E1", "acirc", "\u00E2", "atilde", "\u00E3", "auml", "\u00E4",
+            "aring", "\u00E5", "aelig", "\u00E6", "ccedil", "\u00E7", "egrave", "\u00E8", "eacute", "\u00E9",
+            "ecirc", "\u00EA", "euml", "\u00EB", "igrave", "\u00EC", "iacute", "\u00ED", "icirc", "\u00EE",
+            "iuml", "\u00EF", "ntilde", "\u00F1", "ograve", "\u00F2", "oacute", "\u00F3", "ocirc", "\u00F4",
+            "otilde", "\u00F5", "ouml", "\u00F6", "oslash", "\u00F8", "ugrave", "\u00F9", "uacute", "\u00FA",
+            "ucirc", "\u00FB", "uuml", "\u00FC", "yacute", "\u00FD", "yuml", "\u00FF",
+            "Agrave", "\u00C0", "Aacute", "\u00C1", "Acirc", "\u00C2", "Atilde", "\u00C3", "Auml", "\u00C4",
+            "Aring", "\u00C5", "AElig", "\u00C6", "Ccedil", "\u00C7", "Egrave", "\u00C8", "Eacute", "\u00C9",
+            "Ecirc", "\u00CA", "Euml", "\u00CB", "Igrave", "\u00CC", "Iacute", "\u00CD", "Icirc", "\u00CE",
+            "Iuml", "\u00CF", "Ntilde", "\u00D1", "Ograve", "\u00D2", "Oacute", "\u00D3", "Ocirc", "\u00D4",
+            "Otilde", "\u00D5", "Ouml", "\u00D6", "Oslash", "\u00D8", "Ugrave", "\u00D9", "Uacute", "\u00DA",
+            "Ucirc", "\u00DB", "Uuml", "\u00DC", "Yacute", "\u00DD"
+        };
+
+        for (int i = 0; i < entities.length; i += 2) {
+            NAMED_ENTITIES.put(entities[i], (int)entities[i + 1].charAt(0));
+        }
+    }
+
+    private static final int REPLACEMENT_CHAR = 0xFFFD;
+
+    // Longest entity we'll try to decode, e.g. "&#x10FFFF;"
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private StringBuilder _result = new StringBuilder();
+
+    // Set when we've skipped a tag that separates words, so that the next text gets a space
+    // in front of it (if there isn't already whitespace there).
+    private boolean _needSpace;
+
+    public String strip(CharSequence html) {
+        _result.setLength(0);
+        _needSpace = false;
+
+        int length = html.length();
+        int i = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                i = skipTag(html, i, length);
+            } else if (c == '&') {
+                i = decodeEntity(html, i, length);
+            } else {
+                appendSpaceIfNeeded();
+                _result.append(c);
+                i++;
+            }
+        }
+
+        return _result.toString();
+    }
+
+    private void appendSpaceIfNeeded() {
+        if (_needSpace) {
+            int length = _result.length();
+            if ((length > 0) && !Character.isWhitespace(_result.charAt(length - 1))) {
+                _result.append(' ');
+            }
+
+            _needSpace = false;
+        }
+    }
+
+    /**
+     * @return offset just past the tag (or comment, or script/style element) that starts at <pos>
+     */
+    private int skipTag(CharSequence html, int pos, int length) {
+        if (startsWith(html, pos, "<!--")) {
+            int end = indexOf(html, "-->", pos + 4, length);
+            return (end == -1) ? length : end + 3;
+        }
+
+        int nameStart = pos + 1;
+        boolean isEndTag = (nameStart < length) && (html.charAt(nameStart) == '/');
+        if (isEndTag) {
+            nameStart++;
+        }
+
+        int nameEnd = nameStart;
+        while ((nameEnd < length) && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+            nameEnd++;
+        }
+
+        if ((nameEnd == nameStart) && !isEndTag && !startsWith(html, nameStart, "!") && !startsWith(html, nameStart, "?")) {
+            // Not a tag, e.g. "a < b"
+            appendSpaceIfNeeded();
+            _result.append('<');
+            return pos + 1;
+        }
+
+        int tagEnd = findTagEnd(html, nameEnd, length);
+
+        String name = html.subSequence(nameStart, nameEnd).toString();
+        if (!isEndTag && (name.equalsIgnoreCase("script") || name.equalsIgnoreCase("style"))) {
+            _needSpace = true;
+            int closeTag = indexOfIgnoreCase(html, "</" + name, tagEnd, length);
+            if (closeTag == -1) {
+                return length;
+            }
+
+            int closeEnd = indexOf(html, ">", closeTag, length);
+            return (closeEnd == -1) ? length : closeEnd + 1;
+        }
+
+        if (isTag(BLOCK_TAGS, name)) {
+            _result.append('\n');
+            _needSpace = false;
+        } else if (!isTag(INLINE_TAGS, name) && (nameEnd > nameStart)) {
+            _needSpace = true;
+        }
+
+        return tagEnd;
+    }
+
+    /**
+     * @return offset just past the '>' that ends the tag, skipping over quoted attribute
+     * values (which can contain '>').
+     */
+    private static int findTagEnd(CharSequence html, int pos, int length) {
+        int i = pos;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>') {
+                return i + 1;
+            } else if ((c == '"') || (c == '\'')) {
+                int closeQuote = indexOf(html, String.valueOf(c), i + 1, length);
+                if (closeQuote == -1) {
+                    return length;
+                }
+
+                i = closeQuote + 1;
+            } else {
+                i++;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * @return offset just past the entity that starts at <pos>
+     */
+    private int decodeEntity(CharSequence html, int pos, int length) {
+        int limit = Math.min(length, pos + MAX_ENTITY_LENGTH + 1);
+        int end = indexOf(html, ";", pos + 1, limit);
+        if (end == -1) {
+            _result.append('&');
+            return pos + 1;
+        }
+
+        String entity = html.subSequence(pos + 1, end).toString();
+        int codePoint = -1;
+        if (entity.startsWith("#x") || entity.startsWith("#X")) {
+            codePoint = parseCodePoint(entity.substring(2), 16);
+        } else if (entity.startsWith("#")) {
+            codePoint = parseCodePoint(entity.substring(1), 10);
+        } else {
+            Integer namedCodePoint = NAMED_ENTITIES.get(entity);
+            if (namedCodePoint != null) {
+                codePoint = namedCodePoint;
+            }
+        }
+
+        appendSpaceIfNeeded();
+        if (codePoint == -1) {
+            _result.append('&');
+            return pos + 1;
+        }
+
+        _result.appendCodePoint(codePoint);
+        return end + 1;
+    }
+
+    private static int parseCodePoint(String value, int radix) {
+        try {
+            int result = Integer.parseInt(value, radix);
+
+            // A surrogate on its own isn't a character, and would give us broken UTF-16, so
+            // (like browsers) we use the replacement character for it.
+            if (!Character.isValidCodePoint(result) || ((result >= Character.MIN_SURROGATE) && (result <= Character.MAX_SURROGATE))) {
+                return REPLACEMENT_CHAR;
+            }
+
+            return result;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isTag(String[] tags, String name) {
+        for (String tag : tags) {
+            if (tag.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean startsWith(CharSequence html, int pos, String target) {
+        if (pos + target.length() > html.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < target.length(); i++) {
+            if (html.charAt(pos + i) != target.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int indexOf(CharSequence html, String target, int pos, int limit) {
+        for (int i = pos; i + target.length() <= limit; i++) {
+            if (startsWith(html, i, target)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(CharSequence html, String target, int pos, int limit) {
+        for (int i = pos; i + target.length() <= limit; i++) {
+            boolean found = true;
+            for (int j = 0; j < target.length(); j++) {
+                if (Character.toLowerCase(html.charAt(i + j)) != Character.toLowerCase(target.charAt(j))) {
+                    found = false;
+                    break;
+                }
+            }
+
+            if (found) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
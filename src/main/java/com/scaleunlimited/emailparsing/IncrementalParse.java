@@ -0,0 +1,214 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowListener;
+
+/**
+ * Support for only parsing the mbox files (or the parts of them) that have changed since
+ * the last run, and adding the results to the existing output.
+ *
+ * When it's created, this compares the files in the file list with the ArchiveManifest in
+ * the output dir, to find the files that have new content. When the flow starts, it writes
+ * a work list of "<path>\t<start offset>" lines for those files, which is what the flow
+ * parses (see ParseMboxFile). The flow writes to a hidden run dir inside of the output dir.
+ * Once the flow has completed successfully, the files from the run dir are moved into the
+ * output dir with names that sort after any existing output files, and the manifest is
+ * updated. If the flow fails or is stopped, the work list and run dir are removed.
+ *
+ * If there's no manifest yet, or any file has been changed other than by appending to it,
+ * or has been removed from the file list, then the existing output can't be updated. In that
+ * case every file is parsed again, and the new output replaces the old.
+ *
+ * Each run starts with an empty EmailSizeGuard and DuplicateEmailFilter, so the size limit
+ * only comes from the emails in that run, and an email that's a duplicate of one parsed by
+ * an earlier run isn't removed. That means the output of incremental runs can be different
+ * from what a full parse of the same files would give you.
+ */
+@SuppressWarnings("rawtypes")
+class IncrementalParse implements FlowListener {
+    private static final Logger LOGGER = Logger.getLogger(IncrementalParse.class);
+
+    private static final String RUN_DIR_PREFIX = "_run-";
+
+    private File _outputDir;
+    private File _manifestFile;
+    private ArchiveManifest _manifest;
+    private boolean _append;
+    private long _runId;
+    private File _runDir;
+    private File _workList;
+    private List<String> _workItems;
+
+    /**
+     * @param fileList text file with the paths to the mbox files, one per line
+     * @param outputDir
+     * @throws IOException
+     */
+    public IncrementalParse(File fileList, File outputDir) throws IOException {
+        _outputDir = outputDir;
+        _manifestFile = new File(outputDir, ArchiveManifest.MANIFEST_FILENAME);
+
+        ArchiveManifest oldManifest = ArchiveManifest.load(_manifestFile);
+        _append = _manifestFile.exists();
+        _manifest = new ArchiveManifest();
+
+        List<ArchiveManifest.FileUpdate> updates = new ArrayList<ArchiveManifest.FileUpdate>();
+        for (String path : FileUtils.readLines(fileList, "UTF-8")) {
+            path = path.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+
+            ArchiveManifest.FileUpdate update = oldManifest.update(new File(path));
+            if (update.isRewritten()) {
+                LOGGER.warn("Mbox file has changed, so everything will be parsed again: " + path);
+                _append = false;
+            }
+
+            updates.add(update);
+            _manifest.put(update.getEntry());
+        }
+
+        for (String path : oldManifest.getPaths()) {
+            if (_manifest.get(path) == null) {
+                LOGGER.warn("Mbox file is no longer in the file list, so everything will be parsed again: " + path);
+                _append = false;
+            }
+        }
+
+        _workItems = new ArrayList<String>();
+        for (ArchiveManifest.FileUpdate update : updates) {
+            long start = _append ? update.getStart() : 0;
+            if (start < update.getEntry().getSize()) {
+                _workItems.add(String.format("%s\t%d", update.getEntry().getPath(), start));
+            }
+        }
+
+        LOGGER.info(String.format("Parsing %d of %d mbox files, %s the existing output", _workItems.size(), updates.size(),
+                        _append ? "appending to" : "replacing"));
+
+        _runId = System.currentTimeMillis();
+        _runDir = new File(outputDir, RUN_DIR_PREFIX + _runId);
+        _workList = new File(outputDir, RUN_DIR_PREFIX + _runId + "-files.tsv");
+    }
+
+    /**
+     * @return file with the paths (and start offsets) of the mbox files to parse. This
+     * doesn't exist until writeWorkList() is called (when the flow starts).
+     */
+    public File getWorkList() {
+        return _workList;
+    }
+
+    /**
+     * @return "<path>\t<start offset>" for each of the mbox files to parse
+     */
+    public List<String> getWorkItems() {
+        return _workItems;
+    }
+
+    public void writeWorkList() throws IOException {
+        FileUtils.writeLines(_workList, "UTF-8", _workItems, "\n");
+    }
+
+    /**
+     * @return where the flow should write its output
+     */
+    public File getRunDir() {
+        return _runDir;
+    }
+
+    public boolean isAppending() {
+        return _append;
+    }
+
+    /**
+     * Move the output of this run into the output dir (removing the old output if we're
+     * not appending), and save the updated manifest.
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        if (!_append) {
+            for (File file : _outputDir.listFiles()) {
+                if (isOutputFile(file)) {
+                    FileUtils.forceDelete(file);
+                }
+            }
+        }
+
+        List<File> runFiles = new ArrayList<File>();
+        if (_runDir.isDirectory()) {
+            File[] files = _runDir.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                if (isOutputFile(file)) {
+                    runFiles.add(file);
+                }
+            }
+        } else if (_runDir.exists()) {
+            runFiles.add(_runDir);
+        }
+
+        for (int i = 0; i < runFiles.size(); i++) {
+            File target = new File(_outputDir, String.format("part-%d-%05d", _runId, i));
+            FileUtils.moveFile(runFiles.get(i), target);
+        }
+
+        _manifest.save(_manifestFile);
+        cleanup();
+    }
+
+    private void cleanup() {
+        FileUtils.deleteQuietly(_runDir);
+        FileUtils.deleteQuietly(_workList);
+    }
+
+    private static boolean isOutputFile(File file) {
+        String name = file.getName();
+        return file.isFile() && !name.startsWith(".") && !name.startsWith("_");
+    }
+
+    @Override
+    public void onStarting(Flow flow) {
+        try {
+            writeWorkList();
+        } catch (IOException e) {
+            throw new RuntimeException("Exception writing the work list", e);
+        }
+    }
+
+    @Override
+    public void onStopping(Flow flow) {
+        cleanup();
+    }
+
+    @Override
+    public void onCompleted(Flow flow) {
+        if (!flow.getFlowStats().isSuccessful()) {
+            cleanup();
+            return;
+        }
+
+        try {
+            commit();
+        } catch (IOException e) {
+            throw new RuntimeException("Exception updating the output dir", e);
+        }
+    }
+
+    @Override
+    public boolean onThrowable(Flow flow, Throwable throwable) {
+        cleanup();
+        return false;
+    }
+}
@@ -18,6 +18,9 @@ package com.scaleunlimited.emailparsing;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.codec.DecodeMonitor;
@@ -32,6 +35,7 @@ import org.apache.james.mime4j.dom.field.MailboxListField;
 import org.apache.james.mime4j.dom.field.ParsedField;
 import org.apache.james.mime4j.dom.field.UnstructuredField;
 import org.apache.james.mime4j.field.LenientFieldParser;
+import org.apache.james.mime4j.parser.MimeStreamParser;
 import org.apache.james.mime4j.parser.ContentHandler;
 import org.apache.james.mime4j.stream.BodyDescriptor;
 import org.apache.james.mime4j.stream.Field;
@@ -53,10 +57,15 @@ import org.xml.sax.SAXException;
  * http://james.apache.org/mime4j/apidocs/org/apache/james/mime4j/parser/ContentHandler.html
  * 
  * This is a slightly modified version of what's in Tika, since we need
- * additional metadata.
+ * additional metadata, and we handle text/plain and text/html parts ourselves
+ * (see MailParsingConfig).
  */
 class MailContentHandler implements ContentHandler {
 
+    private static final MailParsingConfig DEFAULT_CONFIG = new MailParsingConfig();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int DECODE_BUFFER_SIZE = 4096;
+
     private boolean strictParsing = false;
 
     private XHTMLContentHandler handler;
@@ -64,17 +73,82 @@ class MailContentHandler implements ContentHandler {
     private Metadata metadata;
     private TikaConfig tikaConfig = null;
 
-    private boolean inPart = false;
+    // How deeply nested we are in multipart sections (0 = not in a multipart message)
+    private int depth = 0;
+    
+    private MailParsingConfig config;
+    private MailParsingStatus status;
+    private MimeStreamParser parser = null;
+    private HtmlStripper htmlStripper = null;
     
     MailContentHandler(XHTMLContentHandler xhtml, Metadata metadata, ParseContext context, boolean strictParsing) {
         this.handler = xhtml;
         this.context = context;
         this.metadata = metadata;
         this.strictParsing = strictParsing;
+        this.config = context.get(MailParsingConfig.class, DEFAULT_CONFIG);
+        this.status = context.get(MailParsingStatus.class, new MailParsingStatus());
+    }
+    
+    /**
+     * Set the parser that's calling us, so that we can stop it once we've hit the
+     * max number of parts.
+     */
+    void setMimeStreamParser(MimeStreamParser parser) {
+        this.parser = parser;
     }
 
     public void body(BodyDescriptor body, InputStream is) throws MimeException,
             IOException {
+        if (status.addPart() > config.getMaxParts()) {
+            // Skip this part, and don't bother with any of the remaining parts.
+            status.addSkippedPart();
+            if (parser != null) {
+                parser.stop();
+            }
+            
+            return;
+        }
+        
+        if (depth > config.getMaxDepth()) {
+            status.addSkippedPart();
+            return;
+        }
+        
+        String mimeType = body.getMimeType();
+        if (!config.isAllowed(mimeType)) {
+            return;
+        }
+        
+        TruncatingInputStream limitedStream = new TruncatingInputStream(is, config.getMaxPartBytes());
+        try {
+            parseBody(body, mimeType, limitedStream);
+        } finally {
+            if (limitedStream.isTruncated()) {
+                status.addTruncatedPart();
+            }
+        }
+    }
+    
+    private void parseBody(BodyDescriptor body, String mimeType, InputStream is) throws MimeException,
+            IOException {
+
+        // Most of our mail is plain text, so skip all of the Tika detection & parsing
+        // overhead when we can.
+        if (config.isUseFastPaths()) {
+            if (mimeType.equalsIgnoreCase("text/plain")) {
+                writeText(decode(is, body.getCharset()));
+                return;
+            } else if (mimeType.equalsIgnoreCase("text/html")) {
+                if (htmlStripper == null) {
+                    htmlStripper = new HtmlStripper();
+                }
+
+                writeText(htmlStripper.strip(decode(is, body.getCharset())));
+                return;
+            }
+        }
+
         // Work out the best underlying parser for the part
         // Check first for a specified AutoDetectParser (which may have a
         //  specific Config), then a recursing parser, and finally the default
@@ -90,6 +164,10 @@ class MailContentHandler implements ContentHandler {
               }
            }
            parser = tikaConfig.getParser();
+
+           // Save it for the rest of the parts, and (if the context is re-used) the
+           // following emails.
+           context.set(Parser.class, parser);
         }
 
         // use a different metadata object
@@ -97,7 +175,7 @@ class MailContentHandler implements ContentHandler {
         // sub part without damaging the main metadata
 
         Metadata submd = new Metadata();
-        submd.set(Metadata.CONTENT_TYPE, body.getMimeType());
+        submd.set(Metadata.CONTENT_TYPE, mimeType);
         submd.set(Metadata.CONTENT_ENCODING, body.getCharset());
 
         try {
@@ -110,6 +188,46 @@ class MailContentHandler implements ContentHandler {
         }
     }
 
+    /**
+     * Decode the (already transfer-decoded) body of a part into text. If the charset
+     * is missing, unknown or us-ascii (the default when none is specified), we use
+     * UTF-8, since it's a superset of ASCII and what most undeclared 8-bit text is.
+     */
+    private String decode(InputStream is, String charsetName) throws IOException {
+        Charset charset = UTF_8;
+        if ((charsetName != null) && !charsetName.equalsIgnoreCase("us-ascii")) {
+            try {
+                charset = Charset.forName(charsetName);
+            } catch (IllegalArgumentException e) {
+                // Unknown or invalid charset name, so stick with UTF-8
+            }
+        }
+
+        Reader reader = new InputStreamReader(is, charset);
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[DECODE_BUFFER_SIZE];
+        int numChars;
+        while ((numChars = reader.read(buffer)) != -1) {
+            result.append(buffer, 0, numChars);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Write <text> as a paragraph. This is a single call to characters(), so it doesn't
+     * get broken up into arbitrary chunks.
+     */
+    private void writeText(String text) throws MimeException {
+        try {
+            handler.startElement("p");
+            handler.characters(text.toCharArray(), 0, text.length());
+            handler.endElement("p");
+        } catch (SAXException e) {
+            throw new MimeException(e);
+        }
+    }
+
     public void endBodyPart() throws MimeException {
         try {
             handler.endElement("p");
@@ -139,7 +257,7 @@ class MailContentHandler implements ContentHandler {
     }
 
     public void endMultipart() throws MimeException {
-        inPart = false;
+        depth -= 1;
     }
 
     public void epilogue(InputStream is) throws MimeException, IOException {
@@ -153,14 +271,19 @@ class MailContentHandler implements ContentHandler {
      *      Field.html
      **/
     public void field(Field field) throws MimeException {
-        // inPart indicates whether these metadata correspond to the
+        // depth indicates whether these metadata correspond to the
         // whole message or its parts
-        if (inPart) {
+        if (depth > 0) {
+            return;
+        }
+
+        // Skip headers that we don't care about, before doing any parsing or decoding.
+        String fieldname = field.getName();
+        if (!config.isHeaderWanted(fieldname)) {
             return;
         }
 
         try {
-            String fieldname = field.getName();
             ParsedField parsedField = LenientFieldParser.getParser().parse(
                     field, DecodeMonitor.SILENT);
             if (fieldname.equalsIgnoreCase("From")) {
@@ -260,7 +383,7 @@ class MailContentHandler implements ContentHandler {
     }
 
     public void startMultipart(BodyDescriptor descr) throws MimeException {
-        inPart = true;
+        depth += 1;
     }
 
     private String stripOutFieldPrefix(Field field, String fieldname) {
@@ -0,0 +1,264 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Settings for how MailContentHandler handles the body of each (MIME) part of an email,
+ * passed to RFC822Parser via the ParseContext.
+ *
+ * Parts with a type that's on the deny list, or not on the allow list, are skipped.
+ * Types are either exact ("text/plain") or wildcards ("text/*", or "*" for everything).
+ * If fast paths are enabled, text/plain parts are decoded directly and text/html parts
+ * go through HtmlStripper, and everything else that's allowed is handed to Tika.
+ *
+ * To put a bound on how long one email can take, there are also limits on the size of
+ * the message (in raw bytes) and of each part (in decoded bytes), the number of parts,
+ * and how deeply multipart sections can be nested. Anything past a size limit is
+ * ignored, parts that are nested too deeply are skipped, and we stop parsing after the
+ * max number of parts. See MailParsingStatus for what happened with a given email.
+ *
+ * Only the message headers in the header projection are parsed, which by default is
+ * just the ones that EmailParser uses. Everything else (e.g. huge To and CC lists)
+ * is skipped without being parsed or decoded. Use "*" to parse all headers.
+ *
+ * Finally, emails with content that's longer than the size quantile (of the emails seen
+ * so far) or the max content length are either truncated or skipped (see EmailSizeGuard).
+ * Before that, exact duplicates (same Message-ID, or same content if there's no Message-ID)
+ * of emails we've already seen are removed, using a fixed amount of memory that depends on
+ * the number of emails we remember (see DuplicateEmailFilter).
+ *
+ */
+@SuppressWarnings("serial")
+public class MailParsingConfig implements Serializable {
+
+    public static final String DEFAULT_ALLOWED_TYPES = "text/*";
+    public static final String DEFAULT_DENIED_TYPES = "";
+    public static final String DEFAULT_HEADERS = "Message-ID,From,Subject,Date,In-Reply-To";
+    public static final String ALL_HEADERS = "*";
+
+    public static final double DEFAULT_SIZE_QUANTILE = 0.99;
+    public static final int DEFAULT_MAX_CONTENT_CHARS = 100 * 1000;
+    public static final int DEFAULT_MAX_DEDUPE_EMAILS = 1000 * 1000;
+
+    public static final long DEFAULT_MAX_MESSAGE_BYTES = 10 * 1024 * 1024;
+    public static final long DEFAULT_MAX_PART_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_PARTS = 100;
+    public static final int DEFAULT_MAX_DEPTH = 5;
+
+    private List<String> _allowedTypes;
+    private List<String> _deniedTypes;
+    private boolean _useFastPaths;
+    private long _maxMessageBytes;
+    private long _maxPartBytes;
+    private int _maxParts;
+    private int _maxDepth;
+    private List<String> _headers;
+    private double _sizeQuantile;
+    private int _maxContentChars;
+    private boolean _truncateBigEmails;
+    private int _maxDedupeEmails;
+
+    public MailParsingConfig() {
+        this(DEFAULT_ALLOWED_TYPES, DEFAULT_DENIED_TYPES);
+    }
+
+    /**
+     * @param allowedTypes comma-separated list of MIME types
+     * @param deniedTypes comma-separated list of MIME types
+     */
+    public MailParsingConfig(String allowedTypes, String deniedTypes) {
+        _allowedTypes = parseList(allowedTypes);
+        _deniedTypes = parseList(deniedTypes);
+        _useFastPaths = true;
+        _maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+        _maxPartBytes = DEFAULT_MAX_PART_BYTES;
+        _maxParts = DEFAULT_MAX_PARTS;
+        _maxDepth = DEFAULT_MAX_DEPTH;
+        setHeaders(DEFAULT_HEADERS);
+        _sizeQuantile = DEFAULT_SIZE_QUANTILE;
+        _maxContentChars = DEFAULT_MAX_CONTENT_CHARS;
+        _truncateBigEmails = true;
+        _maxDedupeEmails = DEFAULT_MAX_DEDUPE_EMAILS;
+    }
+
+    public boolean isUseFastPaths() {
+        return _useFastPaths;
+    }
+
+    public MailParsingConfig setUseFastPaths(boolean useFastPaths) {
+        _useFastPaths = useFastPaths;
+        return this;
+    }
+
+    public long getMaxMessageBytes() {
+        return _maxMessageBytes;
+    }
+
+    public MailParsingConfig setMaxMessageBytes(long maxMessageBytes) {
+        _maxMessageBytes = maxMessageBytes;
+        return this;
+    }
+
+    public long getMaxPartBytes() {
+        return _maxPartBytes;
+    }
+
+    public MailParsingConfig setMaxPartBytes(long maxPartBytes) {
+        _maxPartBytes = maxPartBytes;
+        return this;
+    }
+
+    public int getMaxParts() {
+        return _maxParts;
+    }
+
+    public MailParsingConfig setMaxParts(int maxParts) {
+        _maxParts = maxParts;
+        return this;
+    }
+
+    /**
+     * @return how deeply multipart sections can be nested, where the parts of a
+     *         (top-level) multipart message are at depth 1.
+     */
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+    public MailParsingConfig setMaxDepth(int maxDepth) {
+        _maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @param headers comma-separated list of header field names, or "*" for all of them.
+     * @return this config
+     */
+    public MailParsingConfig setHeaders(String headers) {
+        List<String> names = parseList(headers);
+        _headers = names.contains(ALL_HEADERS) ? null : names;
+        return this;
+    }
+
+    /**
+     * @param fieldName name of a message header field, in any case.
+     * @return true if the header field should be parsed.
+     */
+    public boolean isHeaderWanted(String fieldName) {
+        if (_headers == null) {
+            return true;
+        }
+
+        // We only have a handful of names, so this is faster than lower-casing
+        // <fieldName> and using a set.
+        for (String name : _headers) {
+            if (name.equalsIgnoreCase(fieldName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return quantile of content lengths above which an email is too big, or 1.0
+     *         to only use the max content length.
+     */
+    public double getSizeQuantile() {
+        return _sizeQuantile;
+    }
+
+    public MailParsingConfig setSizeQuantile(double sizeQuantile) {
+        if ((sizeQuantile <= 0.0) || (sizeQuantile > 1.0)) {
+            throw new IllegalArgumentException("Size quantile must be between 0 and 1: " + sizeQuantile);
+        }
+
+        _sizeQuantile = sizeQuantile;
+        return this;
+    }
+
+    public int getMaxContentChars() {
+        return _maxContentChars;
+    }
+
+    public MailParsingConfig setMaxContentChars(int maxContentChars) {
+        _maxContentChars = maxContentChars;
+        return this;
+    }
+
+    /**
+     * @return true if emails that are too big should be truncated, versus skipped.
+     */
+    public boolean isTruncateBigEmails() {
+        return _truncateBigEmails;
+    }
+
+    public MailParsingConfig setTruncateBigEmails(boolean truncateBigEmails) {
+        _truncateBigEmails = truncateBigEmails;
+        return this;
+    }
+
+    /**
+     * @return number of emails to remember when removing duplicates, or 0 to keep them.
+     */
+    public int getMaxDedupeEmails() {
+        return _maxDedupeEmails;
+    }
+
+    public MailParsingConfig setMaxDedupeEmails(int maxDedupeEmails) {
+        if (maxDedupeEmails < 0) {
+            throw new IllegalArgumentException("Max dedupe emails can't be negative: " + maxDedupeEmails);
+        }
+
+        _maxDedupeEmails = maxDedupeEmails;
+        return this;
+    }
+
+    /**
+     * @param mimeType
+     * @return true if parts with <mimeType> should be parsed.
+     */
+    public boolean isAllowed(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+
+        mimeType = mimeType.toLowerCase(Locale.ENGLISH);
+        return !matches(_deniedTypes, mimeType) && matches(_allowedTypes, mimeType);
+    }
+
+    private static boolean matches(List<String> types, String mimeType) {
+        for (String type : types) {
+            if (type.equals("*") || type.equals("*/*")) {
+                return true;
+            } else if (type.endsWith("/*")) {
+                if (mimeType.startsWith(type.substring(0, type.length() - 1))) {
+                    return true;
+                }
+            } else if (type.equals(mimeType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static List<String> parseList(String list) {
+        List<String> result = new ArrayList<String>();
+        if (list == null) {
+            return result;
+        }
+
+        for (String item : list.split(",")) {
+            item = item.trim().toLowerCase(Locale.ENGLISH);
+            if (!item.isEmpty()) {
+                result.add(item);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+package com.scaleunlimited.emailparsing;
+
+/**
+ * What happened (in terms of MailParsingConfig limits) while parsing one email. This
+ * gets passed to MailContentHandler via the ParseContext, and reset before each email.
+ *
+ */
+public class MailParsingStatus {
+
+    private boolean _truncatedMessage;
+    private int _numParts;
+    private int _numTruncatedParts;
+    private int _numSkippedParts;
+    
+    public void reset() {
+        _truncatedMessage = false;
+        _numParts = 0;
+        _numTruncatedParts = 0;
+        _numSkippedParts = 0;
+    }
+    
+    /**
+     * @return true if the email was bigger than the max message size, so we only parsed
+     *         the beginning of it.
+     */
+    public boolean isTruncatedMessage() {
+        return _truncatedMessage;
+    }
+    
+    public void setTruncatedMessage(boolean truncatedMessage) {
+        _truncatedMessage = truncatedMessage;
+    }
+    
+    /**
+     * @return number of parts (bodies) we've seen, including ones that got skipped.
+     */
+    public int getNumParts() {
+        return _numParts;
+    }
+    
+    public int addPart() {
+        return ++_numParts;
+    }
+    
+    /**
+     * @return number of parts that were bigger than the max part size.
+     */
+    public int getNumTruncatedParts() {
+        return _numTruncatedParts;
+    }
+    
+    public void addTruncatedPart() {
+        _numTruncatedParts += 1;
+    }
+    
+    /**
+     * @return number of parts that were skipped because they were nested too deeply, or
+     *         there were too many of them.
+     */
+    public int getNumSkippedParts() {
+        return _numSkippedParts;
+    }
+    
+    public void addSkippedPart() {
+        _numSkippedParts += 1;
+    }
+    
+    public boolean isTruncated() {
+        return _truncatedMessage || (_numTruncatedParts > 0) || (_numSkippedParts > 0);
+    }
+}
@@ -0,0 +1,39 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Hadoop InputFormat for mbox files, where each record is one email. The key is the
+ * offset of the email in the file, and the value is the raw bytes of the email
+ * (including its "From " line).
+ *
+ * Uncompressed files are split up like any other file, and each split then syncs
+ * forward to the first email that starts in the split (see MboxRecordReader), so
+ * one big archive can be parsed by many mappers.
+ *
+ */
+public class MboxInputFormat extends FileInputFormat<LongWritable, BytesWritable> {
+
+    @Override
+    protected boolean isSplitable(FileSystem fs, Path file) {
+        return new CompressionCodecFactory(fs.getConf()).getCodec(file) == null;
+    }
+
+    @Override
+    public RecordReader<LongWritable, BytesWritable> getRecordReader(InputSplit split, JobConf conf, Reporter reporter) throws IOException {
+        reporter.setStatus(split.toString());
+        return new MboxRecordReader(conf, (FileSplit)split);
+    }
+}
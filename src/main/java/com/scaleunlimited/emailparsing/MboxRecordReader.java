@@ -0,0 +1,207 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Reads the emails that start in one split of an mbox file. If the split doesn't begin
+ * at the start of the file, we skip forward to the first line that starts with "From ",
+ * since the previous split will have read everything before that. The last email can
+ * run past the end of the split, in which case we keep reading until it's done.
+ *
+ * This uses the same rules as MboxSplitter, so the emails are identical to what we get
+ * when parsing locally.
+ *
+ */
+public class MboxRecordReader implements RecordReader<LongWritable, BytesWritable> {
+
+    private static final byte[] MBOX_RECORD_DIVIDER = {'\n', 'F', 'r', 'o', 'm', ' '};
+
+    // Number of bytes from the divider that are part of the next email.
+    private static final int DIVIDER_PREFIX_LENGTH = MBOX_RECORD_DIVIDER.length - 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_EMAIL_CAPACITY = 16 * 1024;
+
+    private long _start;
+    private long _end;
+
+    // Offset of the next email.
+    private long _pos;
+
+    private InputStream _in;
+    private byte[] _buffer;
+    private int _bufferPos;
+    private int _bufferLength;
+    private boolean _eof;
+
+    // True if we've already read the "From " that starts the next email.
+    private boolean _haveDividerPrefix;
+
+    public MboxRecordReader(Configuration conf, FileSplit split) throws IOException {
+        Path file = split.getPath();
+        FileSystem fs = file.getFileSystem(conf);
+        FSDataInputStream in = fs.open(file);
+
+        _buffer = new byte[BUFFER_SIZE];
+        _start = split.getStart();
+        _end = _start + split.getLength();
+
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+        if (codec != null) {
+            // Compressed files aren't split, so read the whole thing.
+            _in = codec.createInputStream(in);
+            _start = 0;
+            _end = Long.MAX_VALUE;
+            _pos = 0;
+        } else if (_start == 0) {
+            _in = in;
+            _pos = 0;
+        } else {
+            // Back up one byte, so we see the newline if the split starts with an email.
+            in.seek(_start - 1);
+            _in = in;
+            _pos = _start - 1;
+            skipToNextEmail();
+        }
+    }
+
+    private void skipToNextEmail() throws IOException {
+        int matched = 0;
+        while (matched < MBOX_RECORD_DIVIDER.length) {
+            int b = readByte();
+            if (b == -1) {
+                return;
+            }
+
+            _pos += 1;
+            matched = match(matched, b);
+        }
+
+        _pos -= DIVIDER_PREFIX_LENGTH;
+        _haveDividerPrefix = true;
+    }
+
+    /**
+     * @return how many bytes of the divider have been matched, after seeing <b>.
+     */
+    private static int match(int matched, int b) {
+        if (b == MBOX_RECORD_DIVIDER[matched]) {
+            return matched + 1;
+        } else {
+            // The divider only has one newline, so we're either at the start of a new
+            // match or nowhere.
+            return (b == '\n') ? 1 : 0;
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (_bufferPos == _bufferLength) {
+            if (_eof) {
+                return -1;
+            }
+
+            _bufferLength = _in.read(_buffer, 0, _buffer.length);
+            _bufferPos = 0;
+            if (_bufferLength <= 0) {
+                _bufferLength = 0;
+                _eof = true;
+                return -1;
+            }
+        }
+
+        return _buffer[_bufferPos++] & 0xFF;
+    }
+
+    @Override
+    public boolean next(LongWritable key, BytesWritable value) throws IOException {
+        if ((_pos >= _end) || (_eof && !_haveDividerPrefix && (_bufferPos == _bufferLength))) {
+            return false;
+        }
+
+        if (value.getCapacity() < MIN_EMAIL_CAPACITY) {
+            value.setCapacity(MIN_EMAIL_CAPACITY);
+        }
+
+        byte[] bytes = value.getBytes();
+        int length = 0;
+
+        if (_haveDividerPrefix) {
+            System.arraycopy(MBOX_RECORD_DIVIDER, 1, bytes, 0, DIVIDER_PREFIX_LENGTH);
+            length = DIVIDER_PREFIX_LENGTH;
+            _haveDividerPrefix = false;
+        }
+
+        int matched = 0;
+        while (true) {
+            int b = readByte();
+            if (b == -1) {
+                break;
+            }
+
+            if (length == bytes.length) {
+                value.setSize(length);
+                value.setCapacity(length * 2);
+                bytes = value.getBytes();
+            }
+
+            bytes[length++] = (byte)b;
+            matched = match(matched, b);
+            if (matched == MBOX_RECORD_DIVIDER.length) {
+                // The "From " belongs to the next email.
+                length -= DIVIDER_PREFIX_LENGTH;
+                _haveDividerPrefix = true;
+                break;
+            }
+        }
+
+        if (length == 0) {
+            return false;
+        }
+
+        value.setSize(length);
+        key.set(_pos);
+        _pos += length;
+        return true;
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    @Override
+    public BytesWritable createValue() {
+        return new BytesWritable();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return _pos;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        if ((_end == Long.MAX_VALUE) || (_end == _start)) {
+            return 0.0f;
+        }
+
+        return Math.min(1.0f, (_pos - _start) / (float)(_end - _start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+}
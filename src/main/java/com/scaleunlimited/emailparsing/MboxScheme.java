@@ -0,0 +1,81 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Source-only Cascading Scheme (for Hadoop) that reads mbox files via MboxInputFormat,
+ * and emits one Tuple per email, with the offset of the email in the file and its raw
+ * bytes (as a BytesWritable).
+ *
+ */
+@SuppressWarnings({"serial","rawtypes","unchecked"})
+public class MboxScheme extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Void> {
+
+    public static final String OFFSET_FN = "offset";
+    public static final String EMAIL_FN = "email";
+
+    public MboxScheme() {
+        super(new Fields(OFFSET_FN, EMAIL_FN));
+    }
+
+    @Override
+    public boolean isSink() {
+        return false;
+    }
+
+    @Override
+    public void sourceConfInit(FlowProcess<JobConf> flowProcess, Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+        conf.setInputFormat(MboxInputFormat.class);
+    }
+
+    @Override
+    public void sinkConfInit(FlowProcess<JobConf> flowProcess, Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+        throw new UnsupportedOperationException("MboxScheme can only be used as a source");
+    }
+
+    @Override
+    public void sourcePrepare(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+        Object[] context = new Object[2];
+        context[0] = sourceCall.getInput().createKey();
+        context[1] = sourceCall.getInput().createValue();
+        sourceCall.setContext(context);
+    }
+
+    @Override
+    public boolean source(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+        Object[] context = sourceCall.getContext();
+        if (!sourceCall.getInput().next(context[0], context[1])) {
+            return false;
+        }
+
+        // The email is consumed by the next operation before the reader re-uses the value.
+        Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+        tuple.set(0, ((LongWritable)context[0]).get());
+        tuple.set(1, (BytesWritable)context[1]);
+        return true;
+    }
+
+    @Override
+    public void sourceCleanup(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+        sourceCall.setContext(null);
+    }
+
+    @Override
+    public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Void, OutputCollector> sinkCall) throws IOException {
+        throw new UnsupportedOperationException("MboxScheme can only be used as a source");
+    }
+}
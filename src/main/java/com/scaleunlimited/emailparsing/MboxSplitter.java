@@ -0,0 +1,205 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an mbox file into individual emails by scanning the raw bytes for lines that
+ * start with "From ", versus decoding the file into lines of text. Each email is
+ * returned as a slice of a memory mapped buffer, so nothing gets copied (or decoded)
+ * until the email is actually parsed.
+ *
+ * Big files are first broken up into ranges (see getRanges()) which always start at
+ * the beginning of an email, so that each range can be mapped and split independently
+ * (e.g. in a separate thread). This also gets around the 2GB limit on the size of a
+ * single mapping.
+ *
+ */
+public class MboxSplitter {
+
+    public static final long DEFAULT_RANGE_SIZE = 64 * 1024 * 1024;
+
+    private static final byte[] MBOX_RECORD_DIVIDER = {'\n', 'F', 'r', 'o', 'm', ' '};
+
+    // How much of the file to map at a time when looking for the start of an email.
+    private static final int SCAN_WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * A section of an mbox file that starts at the beginning of an email, and ends right
+     * before the start of another email (or at the end of the file).
+     */
+    public static class Range {
+        private long _start;
+        private long _end;
+
+        public Range(long start, long end) {
+            _start = start;
+            _end = end;
+        }
+
+        public long getStart() {
+            return _start;
+        }
+
+        public long getEnd() {
+            return _end;
+        }
+
+        public long getLength() {
+            return _end - _start;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d-%d", _start, _end);
+        }
+    }
+
+    private ByteBuffer _buffer;
+    private int _pos;
+
+    /**
+     * @param buffer mbox data, from the start of an email (e.g. one mapped Range) to the
+     *        end of some later email.
+     */
+    public MboxSplitter(ByteBuffer buffer) {
+        _buffer = buffer;
+        _pos = buffer.position();
+    }
+
+    /**
+     * Memory map <range> of the file, and create a splitter for it.
+     *
+     * @param channel
+     * @param range
+     * @return splitter for the emails in <range>
+     * @throws IOException
+     */
+    public static MboxSplitter open(FileChannel channel, Range range) throws IOException {
+        if (range.getLength() > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Range %s of the mbox file is too big to map", range));
+        }
+
+        return new MboxSplitter(channel.map(FileChannel.MapMode.READ_ONLY, range.getStart(), range.getLength()));
+    }
+
+    /**
+     * @return the next email (including its "From " line), or null if there are no more.
+     *         The result shares data with the buffer passed to the constructor.
+     */
+    public ByteBuffer next() {
+        int limit = _buffer.limit();
+        if (_pos >= limit) {
+            return null;
+        }
+
+        int start = _pos;
+        int end = indexOf(_buffer, start, limit);
+        end = (end == -1) ? limit : end + 1;
+        _pos = end;
+
+        ByteBuffer result = _buffer.duplicate();
+        result.limit(end);
+        result.position(start);
+        return result.slice();
+    }
+
+    /**
+     * Break up the file into ranges of roughly <targetSize> bytes, where each range
+     * (other than the last) is extended to the start of the next email.
+     *
+     * @param channel
+     * @param targetSize
+     * @return ranges that cover the entire file, in order.
+     * @throws IOException
+     */
+    public static List<Range> getRanges(FileChannel channel, long targetSize) throws IOException {
+        return getRanges(channel, 0, targetSize);
+    }
+
+    /**
+     * Break up the file from <start> to the end into ranges of roughly <targetSize> bytes,
+     * as per getRanges(channel, targetSize).
+     *
+     * @param channel
+     * @param start offset of the first email to include
+     * @param targetSize
+     * @return ranges that cover the file from <start>, in order.
+     * @throws IOException
+     */
+    public static List<Range> getRanges(FileChannel channel, long start, long targetSize) throws IOException {
+        List<Range> result = new ArrayList<Range>();
+        long fileSize = channel.size();
+
+        while (start < fileSize) {
+            long end = start + targetSize;
+            if (end >= fileSize) {
+                end = fileSize;
+            } else {
+                end = findEmailStart(channel, end, fileSize);
+            }
+
+            result.add(new Range(start, end));
+            start = end;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return offset of the first email that starts at or after <pos>, or <fileSize>
+     *         if there isn't one.
+     */
+    private static long findEmailStart(FileChannel channel, long pos, long fileSize) throws IOException {
+        // Start one byte back, so that we see the newline if <pos> is already at the start
+        // of an email. Windows overlap so that we don't miss a divider that spans two of them.
+        long windowStart = pos - 1;
+        while (windowStart < fileSize) {
+            int windowSize = (int)Math.min(SCAN_WINDOW_SIZE, fileSize - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            int offset = indexOf(window, 0, windowSize);
+            if (offset != -1) {
+                return windowStart + offset + 1;
+            }
+
+            if (windowStart + windowSize == fileSize) {
+                break;
+            }
+
+            windowStart += windowSize - (MBOX_RECORD_DIVIDER.length - 1);
+        }
+
+        return fileSize;
+    }
+
+    /**
+     * @return offset of the next "\nFrom " in <buffer>, searching from <start> up to
+     *         <limit>, or -1 if not found.
+     */
+    private static int indexOf(ByteBuffer buffer, int start, int limit) {
+        int lastStart = limit - MBOX_RECORD_DIVIDER.length;
+        for (int i = start; i <= lastStart; i++) {
+            if (buffer.get(i) != '\n') {
+                continue;
+            }
+
+            boolean found = true;
+            for (int j = 1; j < MBOX_RECORD_DIVIDER.length; j++) {
+                if (buffer.get(i + j) != MBOX_RECORD_DIVIDER[j]) {
+                    found = false;
+                    break;
+                }
+            }
+
+            if (found) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -7,9 +7,24 @@ import com.scaleunlimited.cascading.BaseOptions;
 public class ParseEmailArchivesOptions extends BaseOptions {
 
     private String _fileList;
+    private String _input;
+    private boolean _hadoopMode = false;
     private String _outputDir;
+    private int _numThreads = Runtime.getRuntime().availableProcessors();
+    private String _allowedTypes = MailParsingConfig.DEFAULT_ALLOWED_TYPES;
+    private String _deniedTypes = MailParsingConfig.DEFAULT_DENIED_TYPES;
+    private long _maxMessageBytes = MailParsingConfig.DEFAULT_MAX_MESSAGE_BYTES;
+    private long _maxPartBytes = MailParsingConfig.DEFAULT_MAX_PART_BYTES;
+    private int _maxParts = MailParsingConfig.DEFAULT_MAX_PARTS;
+    private int _maxDepth = MailParsingConfig.DEFAULT_MAX_DEPTH;
+    private String _headers = MailParsingConfig.DEFAULT_HEADERS;
+    private double _sizeQuantile = MailParsingConfig.DEFAULT_SIZE_QUANTILE;
+    private int _maxContentChars = MailParsingConfig.DEFAULT_MAX_CONTENT_CHARS;
+    private boolean _skipBigEmails = false;
+    private boolean _incremental = false;
+    private int _maxDedupeEmails = MailParsingConfig.DEFAULT_MAX_DEDUPE_EMAILS;
 
-    @Option(name = "-filelist", usage = "input file with list of paths to mbox (email archive) files", required = true)
+    @Option(name = "-filelist", usage = "input file with list of paths to mbox (email archive) files", required = false)
     public void setFileList(String fileList) {
         _fileList = fileList;
     }
@@ -18,6 +33,24 @@ public class ParseEmailArchivesOptions extends BaseOptions {
         return _fileList;
     }
 
+    @Option(name = "-input", usage = "mbox file or directory of mbox files (Hadoop mode)", required = false)
+    public void setInput(String input) {
+        _input = input;
+    }
+    
+    public String getInput() {
+        return _input;
+    }
+
+    @Option(name = "-hadoop", usage = "run on Hadoop, splitting the mbox files in -input across mappers", required = false)
+    public void setHadoopMode(boolean hadoopMode) {
+        _hadoopMode = hadoopMode;
+    }
+    
+    public boolean isHadoopMode() {
+        return _hadoopMode;
+    }
+
     @Option(name = "-outputdir", usage = "output dir for textual representation of emails", required = true)
     public void setOutputDir(String output) {
         _outputDir = output;
@@ -27,4 +60,121 @@ public class ParseEmailArchivesOptions extends BaseOptions {
         return _outputDir;
     }
 
+    @Option(name = "-numthreads", usage = "number of threads to use when parsing each mbox file", required = false)
+    public void setNumThreads(int numThreads) {
+        _numThreads = numThreads;
+    }
+    
+    public int getNumThreads() {
+        return _numThreads;
+    }
+
+    @Option(name = "-allowtypes", usage = "comma-separated list of MIME types to parse, e.g. text/*,application/pdf", required = false)
+    public void setAllowedTypes(String allowedTypes) {
+        _allowedTypes = allowedTypes;
+    }
+    
+    public String getAllowedTypes() {
+        return _allowedTypes;
+    }
+
+    @Option(name = "-denytypes", usage = "comma-separated list of MIME types to skip, e.g. text/html", required = false)
+    public void setDeniedTypes(String deniedTypes) {
+        _deniedTypes = deniedTypes;
+    }
+    
+    public String getDeniedTypes() {
+        return _deniedTypes;
+    }
+
+    @Option(name = "-maxmessagebytes", usage = "only parse this many bytes of each email", required = false)
+    public void setMaxMessageBytes(long maxMessageBytes) {
+        _maxMessageBytes = maxMessageBytes;
+    }
+    
+    public long getMaxMessageBytes() {
+        return _maxMessageBytes;
+    }
+
+    @Option(name = "-maxpartbytes", usage = "only parse this many bytes of each part of an email", required = false)
+    public void setMaxPartBytes(long maxPartBytes) {
+        _maxPartBytes = maxPartBytes;
+    }
+    
+    public long getMaxPartBytes() {
+        return _maxPartBytes;
+    }
+
+    @Option(name = "-maxparts", usage = "stop parsing an email after this many parts", required = false)
+    public void setMaxParts(int maxParts) {
+        _maxParts = maxParts;
+    }
+    
+    public int getMaxParts() {
+        return _maxParts;
+    }
+
+    @Option(name = "-maxdepth", usage = "skip parts that are nested more deeply than this", required = false)
+    public void setMaxDepth(int maxDepth) {
+        _maxDepth = maxDepth;
+    }
+    
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+    @Option(name = "-headers", usage = "comma-separated list of header fields to parse, or * for all", required = false)
+    public void setHeaders(String headers) {
+        _headers = headers;
+    }
+    
+    public String getHeaders() {
+        return _headers;
+    }
+
+    @Option(name = "-sizequantile", usage = "emails with content longer than this quantile (e.g. 0.99) are too big", required = false)
+    public void setSizeQuantile(double sizeQuantile) {
+        _sizeQuantile = sizeQuantile;
+    }
+    
+    public double getSizeQuantile() {
+        return _sizeQuantile;
+    }
+
+    @Option(name = "-maxcontentchars", usage = "emails with content longer than this are too big", required = false)
+    public void setMaxContentChars(int maxContentChars) {
+        _maxContentChars = maxContentChars;
+    }
+    
+    public int getMaxContentChars() {
+        return _maxContentChars;
+    }
+
+    @Option(name = "-skipbigemails", usage = "skip emails that are too big, versus truncating them", required = false)
+    public void setSkipBigEmails(boolean skipBigEmails) {
+        _skipBigEmails = skipBigEmails;
+    }
+    
+    public boolean isSkipBigEmails() {
+        return _skipBigEmails;
+    }
+
+    @Option(name = "-incremental", usage = "only parse files that are new or have been appended to since the last run, and add to the existing output", required = false)
+    public void setIncremental(boolean incremental) {
+        _incremental = incremental;
+    }
+    
+    public boolean isIncremental() {
+        return _incremental;
+    }
+
+    @Option(name = "-dedupeemails", usage = "number of emails to remember when removing duplicates, or 0 to keep them", required = false)
+    public void setMaxDedupeEmails(int maxDedupeEmails) {
+        _maxDedupeEmails = maxDedupeEmails;
+    }
+    
+    public int getMaxDedupeEmails() {
+        return _maxDedupeEmails;
+    }
+
 }
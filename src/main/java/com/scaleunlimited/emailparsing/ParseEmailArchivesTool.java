@@ -31,6 +31,14 @@ public class ParseEmailArchivesTool extends BaseTool {
             error(e.getMessage(), parser);
         }
         
+        if (options.isHadoopMode() && (options.getInput() == null)) {
+            error("-input is required when running on Hadoop", parser);
+        } else if (!options.isHadoopMode() && (options.getFileList() == null)) {
+            error("-filelist is required when running locally", parser);
+        } else if (options.isHadoopMode() && options.isIncremental()) {
+            error("-incremental is only supported when running locally", parser);
+        }
+        
         try {
             Flow flow = ParseEmailArchivesWorkflow.createFlow(options);
             flow.complete();
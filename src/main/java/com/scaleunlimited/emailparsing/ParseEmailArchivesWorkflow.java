@@ -1,25 +1,24 @@
 package com.scaleunlimited.emailparsing;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.io.File;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.log4j.Logger;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.metadata.Property;
-import org.apache.tika.metadata.TikaCoreProperties;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.xml.sax.Attributes;
-import org.xml.sax.ContentHandler;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
@@ -34,12 +33,15 @@ import cascading.tap.SinkMode;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryCollector;
 
 import com.scaleunlimited.cascading.BasePath;
 import com.scaleunlimited.cascading.BasePlatform;
 import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.cascading.hadoop.HadoopPlatform;
 import com.scaleunlimited.cascading.local.LocalPlatform;
 import com.scaleunlimited.cascading.local.TextLineScheme;
+import com.scaleunlimited.textfeatures.EmailTsvCodec;
 
 public class ParseEmailArchivesWorkflow {
     private static final Logger LOGGER = Logger.getLogger(ParseEmailArchivesWorkflow.class);
@@ -48,226 +50,347 @@ public class ParseEmailArchivesWorkflow {
      * The RFC822 email parser from Tika can parse an mbox file, but you don't get separate
      * metadata for each email. We need that (author name, email address, etc) so we first
      * split the mbox file up into separate pieces, which we can then parse individually.
+     * 
+     * The file is memory mapped and split up into ranges (see MboxSplitter), and the emails
+     * in each range are parsed straight from the mapped bytes, using multiple threads. Results
+     * are emitted in the same order as the emails in the file.
+     * 
+     * Each line is the path to an mbox file, optionally followed by a tab and the offset
+     * of the first email to parse (see IncrementalParse).
      *
      */
-    @SuppressWarnings("serial")
-    private static class MboxSplitterFunction extends BaseOperation<NullContext> implements Function<NullContext> {
-
-        // Assume that each email begins with this text.
-        private static final String MBOX_RECORD_DIVIDER = "From ";
+    @SuppressWarnings({"serial","rawtypes"})
+    static class ParseMboxFile extends BaseOperation<NullContext> implements Function<NullContext> {
 
-        public MboxSplitterFunction() {
-            // Output a single field which has all of the text for one email.
-            super(new Fields("email"));
+        private int _numThreads;
+        private long _rangeSize;
+        private MailParsingConfig _config;
+        
+        private transient ExecutorService _executor;
+        private transient ThreadLocal<EmailParser> _parser;
+        private transient EmailSizeGuard _sizeGuard;
+        private transient DuplicateEmailFilter _duplicateFilter;
+        
+        public ParseMboxFile(int numThreads, MailParsingConfig config) {
+            this(numThreads, MboxSplitter.DEFAULT_RANGE_SIZE, config);
         }
+        
+        public ParseMboxFile(int numThreads, long rangeSize, MailParsingConfig config) {
+            super(EmailParser.FIELDS);
+            
+            _numThreads = numThreads;
+            _rangeSize = rangeSize;
+            _config = config;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
 
+            _executor = Executors.newFixedThreadPool(_numThreads, new ThreadFactory() {
+                
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "ParseMboxFile");
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+            
+            _parser = new ThreadLocal<EmailParser>() {
+                
+                @Override
+                protected EmailParser initialValue() {
+                    return new EmailParser(_config);
+                }
+            };
+            
+            _sizeGuard = new EmailSizeGuard(_config);
+            _duplicateFilter = makeDuplicateFilter(_config);
+        }
+        
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
             String filename = functionCall.getArguments().getString("line");
-            Tuple result = new Tuple("");
+            long start = 0;
+            int tabPos = filename.indexOf('\t');
+            if (tabPos != -1) {
+                start = Long.parseLong(filename.substring(tabPos + 1));
+                filename = filename.substring(0, tabPos);
+            }
+            
+            TupleEntryCollector collector = functionCall.getOutputCollector();
+            
+            RandomAccessFile file = null;
             
-            BufferedReader reader;
             try {
-                InputStream stream = new FileInputStream(filename);
-                reader = new BufferedReader(new InputStreamReader(stream, "us-ascii"));
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException("Impossible exception!", e);
+                file = new RandomAccessFile(filename, "r");
+                FileChannel channel = file.getChannel();
+                
+                // Limit how many ranges we have parsed (or are parsing) but haven't emitted
+                // yet, since we're holding onto all of their results.
+                int maxPending = _numThreads * 2;
+                LinkedList<Future<ParsedRange>> pending = new LinkedList<Future<ParsedRange>>();
+                for (MboxSplitter.Range range : MboxSplitter.getRanges(channel, start, _rangeSize)) {
+                    if (pending.size() >= maxPending) {
+                        emit(flowProcess, pending.removeFirst().get(), collector);
+                    }
+                    
+                    pending.add(_executor.submit(new ParseRange(channel, range)));
+                }
+                
+                while (!pending.isEmpty()) {
+                    emit(flowProcess, pending.removeFirst().get(), collector);
+                }
+            } catch (ExecutionException e) {
+                throw new RuntimeException(String.format("Exception parsing mbox file %s", filename), e.getCause());
             } catch (Exception e) {
                 throw new RuntimeException(String.format("Exception splitting mbox file %s", filename), e);
-            }
-
-            StringBuilder email = new StringBuilder();
-            for (String curLine = safeReadLine(reader); curLine != null; curLine = safeReadLine(reader)) {
-                if (curLine.startsWith(MBOX_RECORD_DIVIDER)) {
-                    if (email.length() > 0) {
-                        result.setString(0, email.toString());
-                        functionCall.getOutputCollector().add(result);
+            } finally {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (Exception e) {
+                        LOGGER.error("Exception closing mbox file", e);
                     }
-
-                    email.setLength(0);
                 }
-
-                email.append(curLine);
-                email.append('\n');
             }
-
-            // Output the final record.
-            if (email.length() > 0) {
-                result.setString(0, email.toString());
-                functionCall.getOutputCollector().add(result);
+        }
+        
+        private void emit(FlowProcess flowProcess, ParsedRange parsedRange, TupleEntryCollector collector) {
+            // Counters get updated here, versus in the worker threads.
+            parsedRange.incrementCounters(flowProcess);
+            
+            for (int i = 0; i < parsedRange.size(); i++) {
+                Tuple tuple = parsedRange.getTuple(i);
+                if (!isDuplicate(flowProcess, _duplicateFilter, tuple)) {
+                    emitIfNotTooBig(flowProcess, _sizeGuard, tuple, parsedRange.getContentLength(i), collector);
+                }
             }
         }
         
-        private String safeReadLine(BufferedReader reader) {
-            try {
-                return reader.readLine();
-            } catch (IOException e) {
-                LOGGER.error("Unexpected exception while splitting mbox file", e);
-                return null;
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            _executor.shutdownNow();
+            logSizeGuard(_sizeGuard);
+            logDuplicateFilter(_duplicateFilter);
+            super.cleanup(flowProcess, operationCall);
+        }
+        
+        /**
+         * Parse all of the emails in one range of an mbox file, using the calling
+         * thread's EmailParser.
+         */
+        private class ParseRange implements Callable<ParsedRange> {
+            
+            private FileChannel _channel;
+            private MboxSplitter.Range _range;
+            
+            public ParseRange(FileChannel channel, MboxSplitter.Range range) {
+                _channel = channel;
+                _range = range;
+            }
+            
+            @Override
+            public ParsedRange call() throws Exception {
+                EmailParser parser = _parser.get();
+                ParsedRange result = new ParsedRange();
+                
+                MboxSplitter splitter = MboxSplitter.open(_channel, _range);
+                for (ByteBuffer email = splitter.next(); email != null; email = splitter.next()) {
+                    Tuple tuple = parser.parse(new ByteBufferInputStream(email));
+                    if (tuple != null) {
+                        result.add(tuple, parser.getContentLength(), parser.getStatus());
+                    } else {
+                        result.addFailure();
+                    }
+                }
+                
+                return result;
             }
         }
     }
     
     /**
-     * Cascading Function that uses our customized RFC822 parser from Tika to parse
-     * individual emails spit out by the MboxSplitterFunction.
-     * 
-     * Note that some email parsing will fail, because we don't include all of the
-     * required Tika support for embedded content besides plain text.
+     * @return filter for duplicate emails, or null if we're keeping them.
+     */
+    private static DuplicateEmailFilter makeDuplicateFilter(MailParsingConfig config) {
+        int maxEmails = config.getMaxDedupeEmails();
+        return (maxEmails > 0) ? new DuplicateEmailFilter(maxEmails) : null;
+    }
+    
+    /**
+     * @return true if <duplicateFilter> isn't null, and <tuple> (a parsed email) is a
+     *         duplicate of one we've already seen.
+     */
+    private static boolean isDuplicate(FlowProcess flowProcess, DuplicateEmailFilter duplicateFilter, Tuple tuple) {
+        if ((duplicateFilter != null) && duplicateFilter.isDuplicate(tuple)) {
+            flowProcess.increment(EmailParsingCounters.EMAILS_DUPLICATE, 1);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Use <sizeGuard> to decide whether to emit <tuple> (a parsed email) as-is, truncated,
+     * or not at all.
+     */
+    private static void emitIfNotTooBig(FlowProcess flowProcess, EmailSizeGuard sizeGuard, Tuple tuple, int contentLength, TupleEntryCollector collector) {
+        switch (sizeGuard.check(contentLength)) {
+            case KEEP:
+                collector.add(tuple);
+                break;
+                
+            case TRUNCATE:
+                String content = tuple.getString(EmailTsvCodec.CONTENT_FIELD);
+                tuple.set(EmailTsvCodec.CONTENT_FIELD, EmailTsvCodec.truncateEscaped(content, sizeGuard.getMaxLength()));
+                flowProcess.increment(EmailParsingCounters.EMAILS_CONTENT_TRUNCATED, 1);
+                collector.add(tuple);
+                break;
+                
+            case SKIP:
+                flowProcess.increment(EmailParsingCounters.EMAILS_TOO_BIG, 1);
+                break;
+        }
+    }
+    
+    private static void logSizeGuard(EmailSizeGuard sizeGuard) {
+        LOGGER.info(String.format("Truncated %d and skipped %d emails out of %d, size quantile is %d chars",
+                        sizeGuard.getNumTruncated(), sizeGuard.getNumSkipped(), sizeGuard.getNumEmails(), sizeGuard.getQuantileLength()));
+    }
+    
+    private static void logDuplicateFilter(DuplicateEmailFilter duplicateFilter) {
+        if (duplicateFilter != null) {
+            LOGGER.info(String.format("Removed %d duplicates out of %d emails", duplicateFilter.getNumDuplicates(), duplicateFilter.getNumEmails()));
+        }
+    }
+    
+    /**
+     * Parsed emails (and their content lengths) from one range of an mbox file, plus
+     * counts for what went wrong while parsing them.
+     */
+    private static class ParsedRange {
+        private List<Tuple> _tuples = new ArrayList<Tuple>();
+        private List<Integer> _contentLengths = new ArrayList<Integer>();
+        
+        private int _numFailed;
+        private int _numTruncated;
+        private int _numTruncatedParts;
+        private int _numSkippedParts;
+        
+        public void add(Tuple tuple, int contentLength, MailParsingStatus status) {
+            _tuples.add(tuple);
+            _contentLengths.add(contentLength);
+            
+            if (status.isTruncatedMessage()) {
+                _numTruncated += 1;
+            }
+            
+            _numTruncatedParts += status.getNumTruncatedParts();
+            _numSkippedParts += status.getNumSkippedParts();
+        }
+        
+        public void addFailure() {
+            _numFailed += 1;
+        }
+        
+        public void incrementCounters(FlowProcess flowProcess) {
+            flowProcess.increment(EmailParsingCounters.EMAILS_PARSED, _tuples.size());
+            flowProcess.increment(EmailParsingCounters.EMAILS_FAILED, _numFailed);
+            flowProcess.increment(EmailParsingCounters.EMAILS_TRUNCATED, _numTruncated);
+            flowProcess.increment(EmailParsingCounters.PARTS_TRUNCATED, _numTruncatedParts);
+            flowProcess.increment(EmailParsingCounters.PARTS_SKIPPED, _numSkippedParts);
+        }
+        
+        public int size() {
+            return _tuples.size();
+        }
+        
+        public Tuple getTuple(int index) {
+            return _tuples.get(index);
+        }
+        
+        public int getContentLength(int index) {
+            return _contentLengths.get(index);
+        }
+    }
+    
+    /**
+     * Cascading Function that uses EmailParser to parse individual emails, where each
+     * email is either the raw bytes of the message (a BytesWritable, from MboxScheme)
+     * or a String with the full text of the message.
      *
      */
-    @SuppressWarnings("serial")
-    private static class ParseEmail extends BaseOperation<NullContext> implements Function<NullContext> {
+    @SuppressWarnings({"serial","rawtypes"})
+    static class ParseEmail extends BaseOperation<NullContext> implements Function<NullContext> {
 
-        private static final Pattern FULL_EMAIL_ADDRESS_PATTERN = Pattern.compile("(.*)<(.+@.+)>");
-        private static final Pattern SIMPLE_EMAIL_ADDRESS_PATTERN = Pattern.compile("(.+@.+)");
-
-        private transient Parser _parser;
-        private transient ContentHandler _handler;
-        private transient StringBuffer _content;
+        private MailParsingConfig _config;
         
-        private transient int _numEmails;
-        private transient int _emailChars;
-        private transient int _numSkipped;
+        private transient EmailParser _parser;
+        private transient EmailSizeGuard _sizeGuard;
+        private transient DuplicateEmailFilter _duplicateFilter;
         
         public ParseEmail() {
+            this(new MailParsingConfig());
+        }
+        
+        public ParseEmail(MailParsingConfig config) {
             // Fields that we'll emit in our resulting Tuple.
-            super(new Fields("id", "author", "email", "subject", "date", "replyid", "content"));
+            super(EmailParser.FIELDS);
+            
+            _config = config;
         }
         
         @Override
         public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
             super.prepare(flowProcess, operationCall);
 
-            _numEmails = 0;
-            _emailChars = 0;
-            _numSkipped = 0;
-            
-            _parser = new RFC822Parser();
-            _content = new StringBuffer();
-
-            _handler = new DefaultHandler() {
-                private boolean inParagraph = false;
-                private boolean inQuotes = false;
-
-                @Override
-                public void startDocument() throws SAXException {
-                    super.startDocument();
-
-                    inParagraph = false;
-                    inQuotes = false;
-                    _content.setLength(0);
-                }
-
-                @Override
-                public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-                    if (localName.equalsIgnoreCase("p")) {
-                        inParagraph = true;
-                    } else if (localName.equalsIgnoreCase("q")) {
-                        // FUTURE the RFC822 parser from Tika isn't adding quote elements to text, so
-                        // currently this does nothing.
-                        inQuotes = true;
-                    } else if (localName.equalsIgnoreCase("br")) {
-                        _content.append('\n');
-                    } else if (localName.equalsIgnoreCase("meta")) {
-                        // do nothing
-                    }
-                }
-
-                @Override
-                public void endElement(String uri, String localName, String name) throws SAXException {
-                    if (localName.equalsIgnoreCase("p")) {
-                        inParagraph = false;
-                        _content.append('\n');
-                    } else if (localName.equalsIgnoreCase("q")) {
-                        inQuotes = false;
-                    }
-                }
-
-                @Override
-                public void characters(char[] ch, int start, int length) throws SAXException {
-                    if (inParagraph && !inQuotes) {
-                        // We have text we want to process.
-                        _content.append(ch, start, length);
-                        // HACK - parser isn't putting spaces or breaks between lines.
-                        _content.append(' ');
-                    }
-                }
-            };
+            _parser = new EmailParser(_config);
+            _sizeGuard = new EmailSizeGuard(_config);
+            _duplicateFilter = makeDuplicateFilter(_config);
         }
 
-        
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
-            String email = functionCall.getArguments().getString("email");
-            _numEmails += 1;
+            Object email = functionCall.getArguments().getObject("email");
             
-            Metadata metadata = new Metadata();
-                        
-            try {
-                InputStream stream = new ByteArrayInputStream(email.getBytes("UTF-8"));
-                _parser.parse(stream, _handler, metadata, new ParseContext());
-
-                // _content now has all of the body text, and metadata has the header info.
-                String messageId = getMetadata(metadata, TikaCoreProperties.IDENTIFIER);
-
-                String author = "";
-                String address = "";
-                String creator = getMetadata(metadata, TikaCoreProperties.CREATOR);
-                Matcher addressMatcher = FULL_EMAIL_ADDRESS_PATTERN.matcher(creator);
-                if (addressMatcher.matches()) {
-                    author = addressMatcher.group(1);
-                    address = addressMatcher.group(2);
-                } else {
-                    addressMatcher = SIMPLE_EMAIL_ADDRESS_PATTERN.matcher(creator);
-                    if (addressMatcher.matches()) {
-                        address = addressMatcher.group(1);
-                    }
-                }
-
-                String subject = getMetadata(metadata, TikaCoreProperties.TITLE);
-                String replyId = getMetadata(metadata, TikaCoreProperties.RELATION);
-                String creationDate = getMetadata(metadata, TikaCoreProperties.CREATED);
-
-                String content = _content.toString();
-                _emailChars += content.length();
-
-                // If size is greater than say 4x average, skip it. Otherwise we can get
-                // some huge emails when a person includes all of the source code for their
-                // project.
-                if ((_numEmails > 100) && (content.length() > (4 *_emailChars / _numEmails))) {
-                    _numSkipped += 1;
-                    return;
+            InputStream stream;
+            if (email instanceof BytesWritable) {
+                BytesWritable bytes = (BytesWritable)email;
+                stream = new ByteArrayInputStream(bytes.getBytes(), 0, bytes.getLength());
+            } else {
+                try {
+                    stream = new ByteArrayInputStream(email.toString().getBytes("UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException("Impossible exception!", e);
                 }
-
-                // Need to convert all CRLF & raw linefeeds into \n sequences, so our file format is correct.
-                // We do the same for tabs, so that it's easy to parse the result.
-                content = content.replaceAll("\r\n", "\\\\n");
-                content = content.replaceAll("[\r\n]", "\\\\n");
-                content = content.replaceAll("\t", "\\\\t");
-
-                Tuple tuple = new Tuple(messageId, author, address, subject, creationDate, replyId, content);
-                functionCall.getOutputCollector().add(tuple);
-            } catch (Exception e) {
-                LOGGER.error("Exception parsing email: " + e.getMessage());
-            } catch (NoClassDefFoundError e) {
-                // This will happen when we have an embedded object (multi-part email) which
-                // needs parsing support we don't include.
-                LOGGER.error("Exception parsing email due to missing class: " + e.getMessage());
             }
-        }
-        
-        private String getMetadata(Metadata metadata, Property property) {
-            String result = metadata.get(property);
-            if (result != null) {
-                return result.trim();
-            } else {
-                return "";
+            
+            Tuple tuple = _parser.parse(stream);
+            if (tuple == null) {
+                flowProcess.increment(EmailParsingCounters.EMAILS_FAILED, 1);
+                return;
+            }
+            
+            flowProcess.increment(EmailParsingCounters.EMAILS_PARSED, 1);
+            
+            MailParsingStatus status = _parser.getStatus();
+            if (status.isTruncatedMessage()) {
+                flowProcess.increment(EmailParsingCounters.EMAILS_TRUNCATED, 1);
+            }
+            
+            flowProcess.increment(EmailParsingCounters.PARTS_TRUNCATED, status.getNumTruncatedParts());
+            flowProcess.increment(EmailParsingCounters.PARTS_SKIPPED, status.getNumSkippedParts());
+            
+            if (!isDuplicate(flowProcess, _duplicateFilter, tuple)) {
+                emitIfNotTooBig(flowProcess, _sizeGuard, tuple, _parser.getContentLength(), functionCall.getOutputCollector());
             }
         }
         
         @Override
         public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
-            System.out.println(String.format("Skipped %d emails out of %d", _numSkipped, _numEmails));
+            logSizeGuard(_sizeGuard);
+            logDuplicateFilter(_duplicateFilter);
             super.cleanup(flowProcess, operationCall);
         }
     }
@@ -277,27 +400,83 @@ public class ParseEmailArchivesWorkflow {
      * Create a Cascading Flow that will parse a set of mbox files and emit a tab-separated text
      * file with fields for the msgId, author, email address, etc.
      * 
-     * Note this Flow will only run locally, since we're using the cascading.utils LocalPlatform.
+     * In Hadoop mode the mbox files (or directories of them) are read directly from the input
+     * path, and each file can be split across many mappers (so duplicate emails are only
+     * removed within each mapper's splits). Otherwise the Flow runs locally
+     * (using the cascading.utils LocalPlatform), and reads the paths to the mbox files from
+     * the file list.
+     * 
+     * With the incremental option (only in local mode), an ArchiveManifest in the output dir
+     * is used to only parse the files that are new, or that have had emails appended, since
+     * the last run, and the results are added to the existing output (see IncrementalParse).
      * 
      * @param options Settings for the flow
      * @return Flow suitable for execution
      * @throws Exception
      */
     public static Flow createFlow(ParseEmailArchivesOptions options) throws Exception {
+        if (options.isHadoopMode()) {
+            return createHadoopFlow(options);
+        }
+        
         BasePlatform platform = new LocalPlatform(ParseEmailArchivesWorkflow.class);
         
         // We'll read individual file paths from the input file.
-        BasePath inputPath = platform.makePath(options.getFileList());
+        String fileList = options.getFileList();
+        String outputDir = options.getOutputDir();
+        
+        IncrementalParse incrementalParse = null;
+        if (options.isIncremental()) {
+            incrementalParse = new IncrementalParse(new File(fileList), new File(outputDir));
+            fileList = incrementalParse.getWorkList().getAbsolutePath();
+            outputDir = incrementalParse.getRunDir().getAbsolutePath();
+        }
+        
+        BasePath inputPath = platform.makePath(fileList);
         Tap sourceTap = platform.makeTap(platform.makeTextScheme(), inputPath);
         
         Pipe emailPipe = new Pipe("emails");
-        emailPipe = new Each(emailPipe, new Fields("line"), new MboxSplitterFunction());
-        emailPipe = new Each(emailPipe, new ParseEmail());
+        emailPipe = new Each(emailPipe, new Fields("line"), new ParseMboxFile(options.getNumThreads(), makeConfig(options)));
         
-        BasePath outputPath = platform.makePath(options.getOutputDir());
+        BasePath outputPath = platform.makePath(outputDir);
         TextLineScheme scheme = new TextLineScheme(false);
         Tap sinkTap = platform.makeTap(scheme, outputPath, SinkMode.REPLACE);
         
+        FlowConnector flowConnector = platform.makeFlowConnector();
+        Flow flow = flowConnector.connect(sourceTap, sinkTap, emailPipe);
+        if (incrementalParse != null) {
+            flow.addListener(incrementalParse);
+        }
+        
+        return flow;
+    }
+    
+    private static MailParsingConfig makeConfig(ParseEmailArchivesOptions options) {
+        return new MailParsingConfig(options.getAllowedTypes(), options.getDeniedTypes())
+            .setMaxMessageBytes(options.getMaxMessageBytes())
+            .setMaxPartBytes(options.getMaxPartBytes())
+            .setMaxParts(options.getMaxParts())
+            .setMaxDepth(options.getMaxDepth())
+            .setHeaders(options.getHeaders())
+            .setSizeQuantile(options.getSizeQuantile())
+            .setMaxContentChars(options.getMaxContentChars())
+            .setTruncateBigEmails(!options.isSkipBigEmails())
+            .setMaxDedupeEmails(options.getMaxDedupeEmails());
+    }
+    
+    private static Flow createHadoopFlow(ParseEmailArchivesOptions options) throws Exception {
+        BasePlatform platform = new HadoopPlatform(ParseEmailArchivesWorkflow.class);
+        
+        BasePath inputPath = platform.makePath(options.getInput());
+        platform.assertPathExists(inputPath, "mbox input");
+        Tap sourceTap = platform.makeTap(new MboxScheme(), inputPath);
+        
+        Pipe emailPipe = new Pipe("emails");
+        emailPipe = new Each(emailPipe, new Fields(MboxScheme.EMAIL_FN), new ParseEmail(makeConfig(options)));
+        
+        BasePath outputPath = platform.makePath(options.getOutputDir());
+        Tap sinkTap = platform.makeTap(platform.makeTextScheme(), outputPath, SinkMode.REPLACE);
+        
         FlowConnector flowConnector = platform.makeFlowConnector();
         Flow flow = flowConnector.connect(sourceTap, sinkTap, emailPipe);
         return flow;
@@ -0,0 +1,95 @@
+package com.scaleunlimited.emailparsing;
+
+/**
+ * Streaming estimate of quantiles for non-negative values (e.g. content lengths), with
+ * a bounded relative error. Values go into logarithmically sized buckets, where bucket i
+ * holds values in (gamma^(i-1), gamma^i], so a quantile is always within <relativeAccuracy>
+ * of a value that was actually added. Memory is proportional to log(max value), and adding
+ * a value is one Math.log() call, regardless of how many values we've seen.
+ *
+ * This is the same idea as DDSketch, minus the support for merging and negative values.
+ *
+ */
+class QuantileSketch {
+
+    private static final int INITIAL_BUCKETS = 1024;
+
+    private double _gamma;
+    private double _logGamma;
+
+    private long[] _counts;
+    private int _maxIndex;
+    private long _zeroCount;
+    private long _count;
+
+    /**
+     * @param relativeAccuracy e.g. 0.01 for quantiles that are within 1% of the actual value.
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if ((relativeAccuracy <= 0.0) || (relativeAccuracy >= 1.0)) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1: " + relativeAccuracy);
+        }
+
+        _gamma = (1.0 + relativeAccuracy) / (1.0 - relativeAccuracy);
+        _logGamma = Math.log(_gamma);
+        _counts = new long[INITIAL_BUCKETS];
+    }
+
+    public void add(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value can't be negative: " + value);
+        }
+
+        _count += 1;
+
+        if (value == 0) {
+            _zeroCount += 1;
+            return;
+        }
+
+        int index = (int)Math.ceil(Math.log(value) / _logGamma);
+        if (index >= _counts.length) {
+            long[] newCounts = new long[Math.max(index + 1, _counts.length * 2)];
+            System.arraycopy(_counts, 0, newCounts, 0, _counts.length);
+            _counts = newCounts;
+        }
+
+        _counts[index] += 1;
+        _maxIndex = Math.max(_maxIndex, index);
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * @param quantile between 0.0 and 1.0, e.g. 0.99
+     * @return estimated value at <quantile>, or 0 if nothing has been added.
+     */
+    public long getQuantile(double quantile) {
+        if ((quantile < 0.0) || (quantile > 1.0)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        }
+
+        if (_count == 0) {
+            return 0;
+        }
+
+        long rank = (long)(quantile * (_count - 1));
+        long seen = _zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+
+        for (int i = 0; i <= _maxIndex; i++) {
+            seen += _counts[i];
+            if (seen > rank) {
+                // Use the value that has the same relative error to either end of the bucket.
+                return Math.round(2.0 * Math.pow(_gamma, i) / (_gamma + 1.0));
+            }
+        }
+
+        // Can't happen, since the counts add up to _count
+        throw new IllegalStateException("Quantile sketch counts are inconsistent");
+    }
+}
@@ -69,6 +69,7 @@ public class RFC822Parser extends AbstractParser {
 
         MailContentHandler mch = new MailContentHandler(
                 xhtml, metadata, context, config.isStrictParsing());
+        mch.setMimeStreamParser(parser);
         parser.setContentHandler(mch);
         parser.setContentDecoding(true);
         TaggedInputStream tagged = TaggedInputStream.get(stream);
@@ -0,0 +1,97 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that returns end-of-file after a maximum number of bytes, and keeps track
+ * of whether there was more data that got cut off. Unlike mime4j's LimitedInputStream,
+ * hitting the limit isn't an error, so parsing can continue with what we've got.
+ *
+ */
+class TruncatingInputStream extends FilterInputStream {
+
+    private long _remaining;
+    private boolean _truncated;
+    
+    public TruncatingInputStream(InputStream in, long maxBytes) {
+        super(in);
+        
+        _remaining = maxBytes;
+        _truncated = false;
+    }
+    
+    /**
+     * @return true if we've hit the limit, and the underlying stream had more data.
+     */
+    public boolean isTruncated() {
+        return _truncated;
+    }
+    
+    private void checkTruncated() throws IOException {
+        if (!_truncated && (in.read() != -1)) {
+            _truncated = true;
+        }
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (_remaining <= 0) {
+            checkTruncated();
+            return -1;
+        }
+        
+        int result = in.read();
+        if (result != -1) {
+            _remaining -= 1;
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        
+        if (_remaining <= 0) {
+            checkTruncated();
+            return -1;
+        }
+        
+        int result = in.read(b, off, (int)Math.min(len, _remaining));
+        if (result > 0) {
+            _remaining -= result;
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        long result = in.skip(Math.min(n, _remaining));
+        _remaining -= result;
+        return result;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        return (int)Math.min(in.available(), _remaining);
+    }
+    
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+    
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+    
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
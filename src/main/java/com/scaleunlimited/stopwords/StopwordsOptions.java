@@ -13,11 +13,16 @@ import com.scaleunlimited.cascading.BaseOptions;
 public class StopwordsOptions extends BaseOptions {
 
     public static float NO_MAX_DF = 1.0f;
+    public static final int DEFAULT_MAP_SIDE_CACHE_MB = 32;
     
     private String _input;
     private String _workingDir;
     private boolean _testMode = false;
+    private int _localThreads = 1;
+    private int _analysisThreads = 1;
     private float _maxDocumentFrequency = NO_MAX_DF;
+    private boolean _useTermIds = false;
+    private int _mapSideCacheMB = DEFAULT_MAP_SIDE_CACHE_MB;
     
     @Option(name = "-input", usage = "input data file (emails in tsv format)", required = true)
     public void setInput(String input) {
@@ -46,6 +51,24 @@ public class StopwordsOptions extends BaseOptions {
         return _testMode;
     }
 
+    @Option(name = "-localthreads", usage = "number of threads for parsing and analysis in local (test) mode", required = false)
+    public void setLocalThreads(int localThreads) {
+        _localThreads = localThreads;
+    }
+  
+    public int getLocalThreads() {
+        return _localThreads;
+    }
+
+    @Option(name = "-analysisthreads", usage = "number of threads for text analysis inside each task", required = false)
+    public void setAnalysisThreads(int analysisThreads) {
+        _analysisThreads = analysisThreads;
+    }
+  
+    public int getAnalysisThreads() {
+        return _analysisThreads;
+    }
+
     @Option(name = "-maxdf", usage = "maximum document frequency for good terms", required = false)
     public void setMaxDocumentFrequency(float maxDocumentFrequency) {
         _maxDocumentFrequency = maxDocumentFrequency;
@@ -55,4 +78,26 @@ public class StopwordsOptions extends BaseOptions {
         return _maxDocumentFrequency;
     }
 
+    @Option(name = "-termids", usage = "count terms using ids, and only join the term text back in at the end", required = false)
+    public void setUseTermIds(boolean useTermIds) {
+        _useTermIds = useTermIds;
+    }
+  
+    public boolean isUseTermIds() {
+        return _useTermIds;
+    }
+
+    @Option(name = "-mapsidecachemb", usage = "megabytes of memory to use for skipping repeated email/term pairs map-side (with -termids)", required = false)
+    public void setMapSideCacheMB(int mapSideCacheMB) {
+        _mapSideCacheMB = mapSideCacheMB;
+    }
+  
+    public int getMapSideCacheMB() {
+        return _mapSideCacheMB;
+    }
+
+    public long getMapSideCacheBytes() {
+        return _mapSideCacheMB * 1024L * 1024L;
+    }
+
 }
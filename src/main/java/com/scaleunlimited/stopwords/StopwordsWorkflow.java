@@ -6,13 +6,14 @@
 
 package com.scaleunlimited.stopwords;
 
-import java.util.List;
 
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
 import cascading.flow.FlowDef;
 import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
 import cascading.operation.Identity;
@@ -20,18 +21,21 @@ import cascading.operation.Insert;
 import cascading.operation.OperationCall;
 import cascading.operation.expression.ExpressionFilter;
 import cascading.operation.expression.ExpressionFunction;
+import cascading.operation.filter.FilterNull;
 import cascading.operation.filter.Limit;
+import cascading.pipe.CoGroup;
 import cascading.pipe.Each;
 import cascading.pipe.GroupBy;
 import cascading.pipe.HashJoin;
 import cascading.pipe.Pipe;
 import cascading.pipe.assembly.CountBy;
+import cascading.pipe.assembly.Retain;
 import cascading.pipe.assembly.Unique;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
-import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
 
 import com.scaleunlimited.cascading.BasePath;
 import com.scaleunlimited.cascading.BasePlatform;
@@ -40,7 +44,15 @@ import com.scaleunlimited.cascading.UniqueCount;
 import com.scaleunlimited.cascading.hadoop.HadoopPlatform;
 import com.scaleunlimited.cascading.local.LocalPlatform;
 import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.EmailTsvCodec;
+import com.scaleunlimited.textfeatures.ITermConsumer;
+import com.scaleunlimited.textfeatures.LocalParallelRunner;
+import com.scaleunlimited.textfeatures.MultithreadedAnalysisFunction;
+import com.scaleunlimited.textfeatures.PreparsedTerms;
 import com.scaleunlimited.textfeatures.SolrAnalyzer;
+import com.scaleunlimited.textfeatures.TermCountCounters;
+import com.scaleunlimited.textfeatures.TermIdSet;
+import com.scaleunlimited.textfeatures.TermIds;
 
 public class StopwordsWorkflow {
 
@@ -53,66 +65,221 @@ public class StopwordsWorkflow {
     @SuppressWarnings({"serial","rawtypes"})
     public static class ParseEmails extends BaseOperation<NullContext> implements Function<NullContext> {
 
+        private transient EmailTsvCodec _codec;
+        private transient Tuple _result;
+        
         public ParseEmails() {
             super(new Fields(Config.EMAIL_FN, Config.CONTENT_FN));
         }
         
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _codec = new EmailTsvCodec();
+            _result = Tuple.size(2);
+        }
+        
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
  
             // We have a line of text with a bunch of tab-separated fields.
             // msgId, author, email, subject, date, replyId, content
             String inputLine = funcCall.getArguments().getString("line");
-            String[] fields = inputLine.split("\t", -1);
-            if (fields.length != 7) {
+            if (!_codec.parse(inputLine)) {
                 // bad data, throw an exception
                 throw new RuntimeException("Invalid input line: " + inputLine);
             }
 
             // Normalize the email address
-            String email = fields[2].trim().toLowerCase();
+            _result.setString(0, _codec.getField(EmailTsvCodec.EMAIL_FIELD).trim().toLowerCase());
             
             // Content comes in with newlines and tabs escaped, so un-escape them now.
-            String content = fields[6].replaceAll("\\\\n", "\n").replaceAll("\\\t", "\t");
-            funcCall.getOutputCollector().add(new Tuple(email, content));
+            _result.setString(1, _codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+            funcCall.getOutputCollector().add(_result);
         }
     }
     
+    /**
+     * Emit the email and term for each term in the content.
+     *
+     */
     @SuppressWarnings({"serial","rawtypes"})
-    public static class ParseText extends BaseOperation<NullContext> implements Function<NullContext> {
+    public static class ParseText extends MultithreadedAnalysisFunction {
 
-        private transient SolrAnalyzer _analyzer;
         private transient Tuple _result;
         
         public ParseText() {
-            super(new Fields(Config.TERM_FN));
+            this(1);
+        }
+        
+        /**
+         * @param numThreads number of threads to use for text analysis, in each task.
+         */
+        public ParseText(int numThreads) {
+            super(new Fields(Config.EMAIL_FN, Config.TERM_FN), numThreads);
         }
         
         @Override
         public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
             super.prepare(flowProcess, operationCall);
             
-            _result = Tuple.size(1);
-            
+            _result = Tuple.size(2);
+        }
+        
+        @Override
+        protected SolrAnalyzer makeAnalyzer() {
             try {
-                _analyzer = new SolrAnalyzer();
+                return new SolrAnalyzer();
             } catch (Exception e) {
                 throw new RuntimeException("Unable to create SolrAnalyzer for parsing text", e);
             }
         }
         
         @Override
-        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
-            TupleEntry te = functionCall.getArguments();
-            List<String> termList = _analyzer.getTermList(te.getString(Config.CONTENT_FN));
+        protected void emit(Tuple arguments, PreparsedTerms.Builder terms, final TupleEntryCollector collector) {
+            _result.setString(0, arguments.getString(0));
+            terms.getTerms(new ITermConsumer() {
+                
+                @Override
+                public void addTerm(char[] buffer, int offset, int length) {
+                    _result.setString(1, new String(buffer, offset, length));
+                    collector.add(_result);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Like ParseText, but emits the id for each term, along with the term text. The text
+     * is only set (versus null) the first time we see an id, and is only used to build up
+     * the id => term dictionary, so everything else gets to work with (smaller) ids.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class ParseTextToIds extends MultithreadedAnalysisFunction {
 
-            for (String term : termList) {
-                _result.setString(0, term);
-                functionCall.getOutputCollector().add(_result);
+        // Number of ids we remember, before we start emitting the text for ids again.
+        private static final int MAX_SEEN_IDS = 100000;
+        
+        private transient TermIdSet _seenIds;
+        private transient Tuple _result;
+        
+        public ParseTextToIds() {
+            this(1);
+        }
+        
+        /**
+         * @param numThreads number of threads to use for text analysis, in each task.
+         */
+        public ParseTextToIds(int numThreads) {
+            super(new Fields(Config.EMAIL_FN, Config.TERM_ID_FN, Config.TERM_FN), numThreads);
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _result = Tuple.size(3);
+            _seenIds = new TermIdSet(MAX_SEEN_IDS);
+        }
+        
+        @Override
+        protected SolrAnalyzer makeAnalyzer() {
+            try {
+                return new SolrAnalyzer();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to create SolrAnalyzer for parsing text", e);
             }
         }
+        
+        @Override
+        protected void emit(Tuple arguments, PreparsedTerms.Builder terms, final TupleEntryCollector collector) {
+            _result.setString(0, arguments.getString(0));
+            terms.getTerms(new ITermConsumer() {
+                
+                @Override
+                public void addTerm(char[] buffer, int offset, int length) {
+                    long termId = TermIds.getId(buffer, offset, length);
+                    _result.setLong(1, termId);
+                    _result.setString(2, _seenIds.add(termId) ? new String(buffer, offset, length) : null);
+                    collector.add(_result);
+                }
+            });
+        }
     }
     
+    /**
+     * Remove email/term id pairs that we've recently seen, since UniqueCount only cares
+     * about distinct pairs, and most terms get used many times by the same user. We don't
+     * need counts, so this is just a set (TermIdSet) of pair hashes, sized to fit in
+     * <maxBytes>. When the set fills up it gets cleared, which only means that more
+     * duplicate pairs reach the UniqueCount. A hash collision would drop a pair we haven't
+     * seen, with the same odds as a term id collision.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class RemoveSeenPairs extends BaseOperation<NullContext> implements Filter<NullContext> {
+
+        // TermIdSet uses up to 4 slots (longs) per entry, to keep the load factor low.
+        private static final int BYTES_PER_PAIR = 4 * 8;
+
+        private long _maxBytes;
+
+        private transient TermIdSet _seenPairs;
+        private transient String _email;
+        private transient long _emailHash;
+        private transient long _numSeen;
+        private transient long _numNew;
+
+        public RemoveSeenPairs(long maxBytes) {
+            super(2);
+
+            _maxBytes = maxBytes;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _seenPairs = new TermIdSet(getMaxPairs(_maxBytes));
+            _email = null;
+            _numSeen = 0;
+            _numNew = 0;
+        }
+
+        @Override
+        public boolean isRemove(FlowProcess flowProcess, FilterCall<NullContext> filterCall) {
+            Tuple arguments = filterCall.getArguments().getTuple();
+
+            // All of the terms for an email come together, so only hash the address once.
+            String email = arguments.getString(0);
+            if (!email.equals(_email)) {
+                _email = email;
+                _emailHash = TermIds.getHash(email);
+            }
+
+            if (_seenPairs.add(TermIds.finishHash(_emailHash ^ arguments.getLong(1)))) {
+                _numNew += 1;
+                return false;
+            } else {
+                _numSeen += 1;
+                return true;
+            }
+        }
+
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            flowProcess.increment(TermCountCounters.TERM_CACHE_HITS, _numSeen);
+            flowProcess.increment(TermCountCounters.TERM_CACHE_MISSES, _numNew);
+            super.cleanup(flowProcess, operationCall);
+        }
+
+        protected static int getMaxPairs(long maxBytes) {
+            return (int)Math.max(1, Math.min(Integer.MAX_VALUE / 4, maxBytes / BYTES_PER_PAIR));
+        }
+    }
+
     @SuppressWarnings("rawtypes")
     public static Flow createFlow(StopwordsOptions options) throws Exception {
         BasePlatform platform  = options.isTestMode() ? new LocalPlatform(StopwordsWorkflow.class) 
@@ -122,18 +289,51 @@ public class StopwordsWorkflow {
         
         BasePath inputPath = platform.makePath(options.getInput());
         platform.assertPathExists(inputPath, "input file");
-        Tap inputSource = platform.makeTap(platform.makeTextScheme(), inputPath);
-        Pipe inputPipe = new Pipe("input");
         
-        // Parse the input file to extract the email and the text content fields
-        inputPipe = new Each(inputPipe, new ParseEmails());
+        // In local mode, we can split the input into partitions that get parsed and analyzed
+        // by separate threads, before they're merged back together.
+        FlowDef flowDef = new FlowDef();
+        LocalParallelRunner runner = new LocalParallelRunner(platform, inputPath, workingDirPath, options.getLocalThreads());
+        Pipe[] inputPipes = runner.makeSourcePipes("input", flowDef);
+        Pipe[] termsPipes = new Pipe[inputPipes.length];
         
-        // Parse the text to extract terms
-        Pipe termsPipe = new Pipe("terms", inputPipe);
-        termsPipe = new Each(termsPipe, new Fields(Config.CONTENT_FN), new ParseText(), Fields.SWAP);
+        // Parse the text to extract terms. If we're using term ids, then we count by id, and
+        // split off the id => term mapping into a separate dictionary pipe.
+        boolean useTermIds = options.isUseTermIds();
+        String termFieldName = useTermIds ? Config.TERM_ID_FN : Config.TERM_FN;
+        
+        for (int i = 0; i < inputPipes.length; i++) {
+            // Parse the input file to extract the email and the text content fields
+            inputPipes[i] = new Each(inputPipes[i], new ParseEmails());
+            
+            termsPipes[i] = new Pipe(inputPipes.length == 1 ? "terms" : "terms-" + i, inputPipes[i]);
+            Fields textFields = new Fields(Config.EMAIL_FN, Config.CONTENT_FN);
+            if (useTermIds) {
+                termsPipes[i] = new Each(termsPipes[i], textFields, new ParseTextToIds(options.getAnalysisThreads()), Fields.RESULTS);
+            } else {
+                termsPipes[i] = new Each(termsPipes[i], textFields, new ParseText(options.getAnalysisThreads()), Fields.RESULTS);
+            }
+        }
+        
+        Pipe inputPipe = LocalParallelRunner.merge("input", inputPipes);
+        Pipe termsPipe = LocalParallelRunner.merge("terms", termsPipes);
+        Pipe dictionaryPipe = null;
+        
+        if (useTermIds) {
+            dictionaryPipe = new Pipe("dictionary", termsPipe);
+            dictionaryPipe = new Each(dictionaryPipe, new Fields(Config.TERM_FN), new FilterNull());
+            dictionaryPipe = new Each(dictionaryPipe, new Fields(Config.TERM_ID_FN, Config.TERM_FN), new Identity(new Fields("dictionary_id", Config.TERM_FN)));
+            dictionaryPipe = new Unique(dictionaryPipe, new Fields("dictionary_id"));
+
+            // Skip repeated email/term id pairs map-side (see RemoveSeenPairs).
+            termsPipe = new Retain(termsPipe, new Fields(Config.EMAIL_FN, Config.TERM_ID_FN));
+            termsPipe = new Each(   termsPipe,
+                                    new Fields(Config.EMAIL_FN, Config.TERM_ID_FN),
+                                    new RemoveSeenPairs(options.getMapSideCacheBytes()));
+        }
         
         // For each term, count how many different users (email addresses) contain the term
-        termsPipe = new UniqueCount(termsPipe, new Fields(Config.TERM_FN), new Fields(Config.EMAIL_FN), new Fields(Config.DOC_COUNT_FN));
+        termsPipe = new UniqueCount(termsPipe, new Fields(termFieldName), new Fields(Config.EMAIL_FN), new Fields(Config.DOC_COUNT_FN));
 
         // Find out the total number of documents. First get rid of everything but the one
         // field that we need. Then do a unique on the email address, and count occurrences.
@@ -151,13 +351,20 @@ public class StopwordsWorkflow {
         Pipe dfPipe = new HashJoin( termsPipe, new Fields("term_constant"),
                                     docsPipe, new Fields("doc_constant"));
         
-        dfPipe = new Each(dfPipe, new Fields(Config.TERM_FN, Config.DOC_COUNT_FN, Config.TOTAL_DOCS_FN), new Identity());
+        dfPipe = new Each(dfPipe, new Fields(termFieldName, Config.DOC_COUNT_FN, Config.TOTAL_DOCS_FN), new Identity());
         String dfCalc = String.format("(float)%s / (float)%s", Config.DOC_COUNT_FN, Config.TOTAL_DOCS_FN);
         dfPipe = new Each(  dfPipe,
                             new Fields(Config.DOC_COUNT_FN, Config.TOTAL_DOCS_FN),
                             new ExpressionFunction(new Fields("df"), dfCalc, Float.class),
                             Fields.SWAP);
         
+        // Now that we're down to one tuple per term, replace the term ids with the actual terms.
+        if (useTermIds) {
+            dfPipe = new CoGroup(   dfPipe, new Fields(Config.TERM_ID_FN),
+                                    dictionaryPipe, new Fields("dictionary_id"));
+            dfPipe = new Each(dfPipe, new Fields(Config.TERM_FN, "df"), new Identity());
+        }
+        
         // Sort by document frequency (df), from high to low
         Fields groupFields = new Fields("df");
         dfPipe = new GroupBy(dfPipe, groupFields, true);
@@ -175,8 +382,6 @@ public class StopwordsWorkflow {
         BasePath termsPath = platform.makePath(workingDirPath, Config.TERMS_BY_DF_DIR);
         Tap termsSink = platform.makeTap(platform.makeTextScheme(), termsPath, SinkMode.REPLACE);
 
-        FlowDef flowDef = new FlowDef();
-        flowDef.addSource(inputPipe, inputSource);
         flowDef.addTailSink(dfPipe, termsSink);
         FlowConnector flowConnector = platform.makeFlowConnector();
         return flowConnector.connect(flowDef);
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+import com.scaleunlimited.cascading.NullContext;
+
+/**
+ * Map-side combiner for email/term id pairs. Takes (email, term id) tuples, and emits
+ * (email, term id, count) tuples with partial counts, using a TermCountTable that's sized
+ * from a byte budget. So downstream counts have to sum up the counts for each pair,
+ * since the same pair can be emitted more than once (after it gets evicted, or by
+ * different tasks). Subclasses can count terms from other arguments (e.g. the content),
+ * via startEmail() and addTerm().
+ *
+ * Results are emitted as entries get evicted, and the rest from flush(), so this has to
+ * be used with Fields.RESULTS.
+ *
+ */
+@SuppressWarnings({"serial","rawtypes"})
+public class CombineTermCounts extends BaseOperation<NullContext> implements Function<NullContext>, TermCountTable.EvictionHandler {
+    private static final Logger LOGGER = Logger.getLogger(CombineTermCounts.class);
+
+    public static final Fields FIELDS = new Fields(Config.EMAIL_FN, Config.TERM_ID_FN, Config.TERM_COUNT_FN);
+
+    private long _maxBytes;
+
+    private transient TermCountTable _table;
+    private transient Map<String, Integer> _groupIndexes;
+    private transient List<String> _groups;
+    private transient TupleEntryCollector _collector;
+    private transient Tuple _result;
+
+    // What we've already added to the counters.
+    private transient long _reportedHits;
+    private transient long _reportedMisses;
+    private transient long _reportedEvicted;
+    private transient int _reportedEvictions;
+
+    /**
+     * @param maxBytes memory to use for the table of counts
+     */
+    public CombineTermCounts(long maxBytes) {
+        super(FIELDS);
+
+        _maxBytes = maxBytes;
+    }
+
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        super.prepare(flowProcess, operationCall);
+
+        _table = new TermCountTable(_maxBytes);
+        _groupIndexes = new HashMap<String, Integer>();
+        _groups = new ArrayList<String>();
+        _result = Tuple.size(3);
+    }
+
+    @Override
+    public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
+        TupleEntry arguments = functionCall.getArguments();
+        int group = startEmail(flowProcess, functionCall, arguments.getString(Config.EMAIL_FN));
+        addTerm(group, arguments.getLong(Config.TERM_ID_FN));
+    }
+
+    /**
+     * Get ready to add terms for <email>. Subclasses that count terms from something other
+     * than email/term id arguments call this for each incoming tuple, then addTerm().
+     *
+     * @param flowProcess
+     * @param functionCall
+     * @param email
+     * @return group to use for the email's terms
+     */
+    protected int startEmail(FlowProcess flowProcess, FunctionCall<NullContext> functionCall, String email) {
+        _collector = functionCall.getOutputCollector();
+
+        Integer group = _groupIndexes.get(email);
+        if (group == null) {
+            // Emails aren't in the byte budget, so don't let them pile up forever. There
+            // can't be more emails with counts than entries in the table.
+            if (_groups.size() >= _table.getMaxSize()) {
+                flushTable(flowProcess);
+            }
+
+            group = _groups.size();
+            _groupIndexes.put(email, group);
+            _groups.add(email);
+        }
+
+        return group;
+    }
+
+    protected void addTerm(int group, long termId) {
+        _table.add(group, termId, 1, this);
+    }
+
+    @Override
+    public void evicted(int group, long termId, long count) {
+        _result.setString(0, _groups.get(group));
+        _result.setLong(1, termId);
+        _result.setLong(2, count);
+        _collector.add(_result);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void flush(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        _collector = ((FunctionCall<NullContext>)operationCall).getOutputCollector();
+        flushTable(flowProcess);
+        super.flush(flowProcess, operationCall);
+    }
+
+    @Override
+    public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        long numAdds = _table.getNumHits() + _table.getNumMisses();
+        if (numAdds > 0) {
+            LOGGER.info(String.format("Term count table hit rate was %.1f%% for %d terms, with %d evictions (%d entries)",
+                            (100.0 * _table.getNumHits()) / numAdds, numAdds, _table.getNumEvictions(), _table.getNumEvicted()));
+        }
+
+        _table = null;
+        _groupIndexes = null;
+        _groups = null;
+        super.cleanup(flowProcess, operationCall);
+    }
+
+    private void flushTable(FlowProcess flowProcess) {
+        _table.flush(this);
+        _groupIndexes.clear();
+        _groups.clear();
+
+        // Counters get updated here (versus for every term), with what's happened since the last flush.
+        flowProcess.increment(TermCountCounters.TERM_CACHE_HITS, _table.getNumHits() - _reportedHits);
+        flowProcess.increment(TermCountCounters.TERM_CACHE_MISSES, _table.getNumMisses() - _reportedMisses);
+        flowProcess.increment(TermCountCounters.TERM_CACHE_EVICTED, _table.getNumEvicted() - _reportedEvicted);
+        flowProcess.increment(TermCountCounters.TERM_CACHE_FLUSHES, _table.getNumEvictions() - _reportedEvictions);
+        _reportedHits = _table.getNumHits();
+        _reportedMisses = _table.getNumMisses();
+        _reportedEvicted = _table.getNumEvicted();
+        _reportedEvictions = _table.getNumEvictions();
+    }
+}
@@ -13,11 +13,14 @@ public class Config {
     public static final String CONTENT_FN = "content";
     
     public static final String TERM_FN = "term";
+    public static final String TERM_ID_FN = "term_id";
+    public static final String TERM_COUNT_FN = "term_count";
     public static final String DOC_COUNT_FN = "doc_count";
     public static final String TOTAL_DOCS_FN = "total_docs";
 
     // Working directory information
     public static final String EMAIL_IDS_DIR = "email-ids";
+    public static final String TERM_IDS_DIR = "term-ids";
     public static final String TASTE_DATA_DIR = "taste-data";
     public static final String TERMS_DIR = "terms";
     public static final String TERMS_BY_DF_DIR = "terms-by-df";
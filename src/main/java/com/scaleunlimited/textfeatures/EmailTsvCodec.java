@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+/**
+ * Reads and writes the "flattened" (tab-separated) representation of emails, which has
+ * these fields:
+ *
+ *   msgId, author, email, subject, date, replyId, content
+ *
+ * Newlines (and carriage returns) in the content are written as "\n", and tabs as "\t".
+ *
+ * parse() finds the field boundaries with one scan of the line, without creating any
+ * objects, and then callers only pay for the fields they actually want. A codec isn't
+ * thread-safe, since it holds onto the offsets of the last line (and a buffer for
+ * un-escaping), so each operation should have its own.
+ *
+ */
+public class EmailTsvCodec {
+
+    public static final int MSG_ID_FIELD = 0;
+    public static final int AUTHOR_FIELD = 1;
+    public static final int EMAIL_FIELD = 2;
+    public static final int SUBJECT_FIELD = 3;
+    public static final int DATE_FIELD = 4;
+    public static final int REPLY_ID_FIELD = 5;
+    public static final int CONTENT_FIELD = 6;
+
+    public static final int NUM_FIELDS = 7;
+
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    private String _line;
+
+    // Field N is from _fieldStarts[N] to _fieldStarts[N + 1] - 1 (the tab, or end of the line).
+    private int[] _fieldStarts;
+
+    private char[] _buffer;
+
+    public EmailTsvCodec() {
+        _fieldStarts = new int[NUM_FIELDS + 1];
+        _buffer = new char[MIN_BUFFER_SIZE];
+    }
+
+    /**
+     * Find the fields in <line>.
+     *
+     * @param line
+     * @return true if <line> has the right number of fields.
+     */
+    public boolean parse(String line) {
+        _line = line;
+        _fieldStarts[0] = 0;
+
+        int numFields = 1;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == '\t') {
+                if (numFields == NUM_FIELDS) {
+                    // Too many fields
+                    return false;
+                }
+
+                _fieldStarts[numFields++] = i + 1;
+            }
+        }
+
+        _fieldStarts[numFields] = length + 1;
+        return numFields == NUM_FIELDS;
+    }
+
+    /**
+     * @param field index of the field, e.g. EMAIL_FIELD
+     * @return field from the last line passed to parse(), as-is.
+     */
+    public String getField(int field) {
+        return _line.substring(_fieldStarts[field], _fieldStarts[field + 1] - 1);
+    }
+
+    /**
+     * @param field index of the field, e.g. CONTENT_FIELD
+     * @return field from the last line passed to parse(), with "\n" and "\t" converted back
+     *         to a newline and a tab.
+     */
+    public String getUnescapedField(int field) {
+        int start = _fieldStarts[field];
+        int end = _fieldStarts[field + 1] - 1;
+
+        int firstEscape = _line.indexOf('\\', start);
+        if ((firstEscape == -1) || (firstEscape >= end)) {
+            return _line.substring(start, end);
+        }
+
+        int length = end - start;
+        if (_buffer.length < length) {
+            _buffer = new char[Math.max(length, _buffer.length * 2)];
+        }
+
+        _line.getChars(start, end, _buffer, 0);
+
+        // Shift everything down as we replace two-char escapes with a single char.
+        int dst = firstEscape - start;
+        for (int src = dst; src < length; src++) {
+            char c = _buffer[src];
+            if ((c == '\\') && (src + 1 < length)) {
+                char next = _buffer[src + 1];
+                if (next == 'n') {
+                    c = '\n';
+                    src += 1;
+                } else if (next == 't') {
+                    c = '\t';
+                    src += 1;
+                }
+            }
+
+            _buffer[dst++] = c;
+        }
+
+        return new String(_buffer, 0, dst);
+    }
+
+    /**
+     * Append <content> to <result>, escaping carriage returns, newlines and tabs,
+     * where a CR/LF pair becomes a single "\n".
+     *
+     * @param content
+     * @param result
+     */
+    public static void escape(CharSequence content, StringBuilder result) {
+        int length = content.length();
+        result.ensureCapacity(result.length() + length + 16);
+
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c == '\r') {
+                if ((i + 1 < length) && (content.charAt(i + 1) == '\n')) {
+                    i += 1;
+                }
+
+                result.append("\\n");
+            } else if (c == '\n') {
+                result.append("\\n");
+            } else if (c == '\t') {
+                result.append("\\t");
+            } else {
+                result.append(c);
+            }
+        }
+    }
+
+    public static String escape(CharSequence content) {
+        StringBuilder result = new StringBuilder(content.length() + 16);
+        escape(content, result);
+        return result.toString();
+    }
+
+    /**
+     * @param escaped content that has been escaped by escape()
+     * @param maxChars
+     * @return the start of <escaped>, with at most <maxChars> characters once it's been
+     *         un-escaped. An escape sequence never gets split.
+     */
+    public static String truncateEscaped(String escaped, int maxChars) {
+        int length = escaped.length();
+        if (length <= maxChars) {
+            return escaped;
+        }
+
+        int pos = 0;
+        for (int numChars = 0; (numChars < maxChars) && (pos < length); numChars++) {
+            if ((escaped.charAt(pos) == '\\') && (pos + 1 < length)) {
+                char next = escaped.charAt(pos + 1);
+                if ((next == 'n') || (next == 't')) {
+                    pos += 1;
+                }
+            }
+
+            pos += 1;
+        }
+
+        return escaped.substring(0, pos);
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+/**
+ * Callback for terms generated by the SolrAnalyzer, which lets the caller
+ * process each term (single word or shingle) without having to create a
+ * String for it.
+ *
+ */
+public interface ITermConsumer {
+
+    /**
+     * Called once for each term. Note that the buffer is owned by the
+     * analyzer, and its contents are only valid for the duration of the call.
+     *
+     * @param buffer characters of the term
+     * @param offset start of the term in <buffer>
+     * @param length number of characters in the term
+     */
+    public void addTerm(char[] buffer, int offset, int length);
+}
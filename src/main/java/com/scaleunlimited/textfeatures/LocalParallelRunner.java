@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import cascading.flow.FlowDef;
+import cascading.pipe.Merge;
+import cascading.pipe.Pipe;
+import cascading.tap.Tap;
+
+import com.scaleunlimited.cascading.BasePath;
+import com.scaleunlimited.cascading.BasePlatform;
+
+/**
+ * Lets a flow use multiple cores when it's run with Cascading local mode, which otherwise
+ * processes everything in one thread.
+ *
+ * Local mode reads each source tap in its own thread, and runs the operations between a
+ * source and the first Merge/GroupBy/CoGroup in that same thread. So we split the input
+ * text file(s) into one partition per thread (on line boundaries, in the working dir),
+ * and create a separate source pipe for each partition. The flow adds its per-record
+ * operations (parsing, text analysis) to each of those pipes, and then merges them back
+ * together before any grouping, which is still done by a single thread.
+ *
+ * With one thread, there's one source pipe for the original input, so the flow is the
+ * same as it would be without this class (e.g. when running on Hadoop).
+ *
+ */
+public class LocalParallelRunner {
+
+    private static final String PARTITIONS_DIR = "input-partitions";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BasePlatform _platform;
+    private List<BasePath> _inputPaths;
+
+    /**
+     * @param platform
+     * @param inputPath input text file, or a directory of text files
+     * @param workingDirPath where we put the partitions of the input
+     * @param numThreads number of partitions (and thus threads). Only used if <platform> is local.
+     * @throws Exception
+     */
+    public LocalParallelRunner(BasePlatform platform, BasePath inputPath, BasePath workingDirPath, int numThreads) throws Exception {
+        _platform = platform;
+
+        _inputPaths = new ArrayList<BasePath>();
+        if ((numThreads <= 1) || !platform.isLocal()) {
+            _inputPaths.add(inputPath);
+        } else {
+            File partitionsDir = new File(platform.makePath(workingDirPath, PARTITIONS_DIR).getAbsolutePath());
+            for (File partition : partitionInput(getInputFiles(inputPath), partitionsDir, numThreads)) {
+                _inputPaths.add(platform.makePath(partition.getAbsolutePath()));
+            }
+        }
+    }
+
+    public int getNumPartitions() {
+        return _inputPaths.size();
+    }
+
+    /**
+     * Create one head pipe per partition of the input, and add the text source tap for each
+     * of them to <flowDef>.
+     *
+     * @param name name of the pipe, if there's only one partition. Otherwise "-<partition>"
+     *        is appended to it.
+     * @param flowDef
+     * @return head pipes, one per partition.
+     * @throws Exception
+     */
+    @SuppressWarnings("rawtypes")
+    public Pipe[] makeSourcePipes(String name, FlowDef flowDef) throws Exception {
+        int numPartitions = _inputPaths.size();
+        Pipe[] result = new Pipe[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            result[i] = new Pipe(numPartitions == 1 ? name : String.format("%s-%d", name, i));
+            Tap source = _platform.makeTap(_platform.makeTextScheme(), _inputPaths.get(i));
+            flowDef.addSource(result[i], source);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param name
+     * @param pipes
+     * @return the one pipe in <pipes>, or a Merge of all of them.
+     */
+    public static Pipe merge(String name, Pipe[] pipes) {
+        if (pipes.length == 1) {
+            return pipes[0];
+        } else {
+            return new Merge(name, pipes);
+        }
+    }
+
+    private static List<File> getInputFiles(BasePath inputPath) throws Exception {
+        List<File> result = new ArrayList<File>();
+        File input = new File(inputPath.getAbsolutePath());
+        if (!input.isDirectory()) {
+            result.add(input);
+            return result;
+        }
+
+        // Skip hidden files, and things like _SUCCESS and .crc files
+        File[] files = input.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && !name.startsWith(".") && !name.startsWith("_")) {
+                result.add(file);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Copy the lines from <inputFiles> into <numPartitions> files of about the same size,
+     * without decoding them. Partitions are in the same order as the lines.
+     *
+     * @param inputFiles
+     * @param partitionsDir
+     * @param numPartitions
+     * @return partition files, some of which might be empty.
+     * @throws IOException
+     */
+    static List<File> partitionInput(List<File> inputFiles, File partitionsDir, int numPartitions) throws IOException {
+        if (partitionsDir.exists()) {
+            FileUtils.deleteDirectory(partitionsDir);
+        }
+
+        if (!partitionsDir.mkdirs()) {
+            throw new IOException("Can't create directory for input partitions: " + partitionsDir);
+        }
+
+        long totalSize = 0;
+        for (File inputFile : inputFiles) {
+            totalSize += inputFile.length();
+        }
+
+        List<File> result = new ArrayList<File>(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            result.add(new File(partitionsDir, String.format("part-%05d", i)));
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int partition = 0;
+        long bytesCopied = 0;
+        long partitionEnd = totalSize / numPartitions;
+        boolean atLineStart = true;
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(result.get(0)), BUFFER_SIZE);
+        try {
+            for (File inputFile : inputFiles) {
+                InputStream in = new FileInputStream(inputFile);
+
+                try {
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        int start = 0;
+                        while (start < bytesRead) {
+                            // Once we're at the end of this partition, switch to the next one
+                            // as soon as we're at the start of a line.
+                            if (atLineStart && (bytesCopied >= partitionEnd) && (partition < numPartitions - 1)) {
+                                out.close();
+                                partition += 1;
+                                partitionEnd = (totalSize * (partition + 1)) / numPartitions;
+                                out = new BufferedOutputStream(new FileOutputStream(result.get(partition)), BUFFER_SIZE);
+                            }
+
+                            int end = start;
+                            if (bytesCopied + (bytesRead - start) < partitionEnd) {
+                                // The rest of the buffer fits in this partition.
+                                end = bytesRead;
+                            } else {
+                                // Copy up to the end of the line that crosses the end of the partition.
+                                end = start + (int)Math.max(0, partitionEnd - bytesCopied);
+                                while ((end < bytesRead) && ((end == start) || (buffer[end - 1] != '\n'))) {
+                                    end++;
+                                }
+                            }
+
+                            out.write(buffer, start, end - start);
+                            bytesCopied += end - start;
+                            atLineStart = buffer[end - 1] == '\n';
+                            start = end;
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+
+                // Make sure every file's last line ends up on its own line.
+                if (!atLineStart) {
+                    out.write('\n');
+                    atLineStart = true;
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        // Create any partitions we didn't get to, so every source tap has a file.
+        for (File file : result) {
+            if (!file.exists()) {
+                FileUtils.touch(file);
+            }
+        }
+
+        return result;
+    }
+}
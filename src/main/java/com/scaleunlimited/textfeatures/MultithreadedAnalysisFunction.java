@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryCollector;
+
+import com.scaleunlimited.cascading.NullContext;
+
+/**
+ * Base class for Functions that run text through a SolrAnalyzer, which can do the analysis
+ * with a pool of threads inside each task, similar to Hadoop's MultithreadedMapper. This is
+ * useful when the number of tasks is limited by memory, versus cores.
+ *
+ * With more than one thread, incoming tuples are buffered, and each batch is analyzed in
+ * parallel (see SolrAnalyzer.getTerms(List, List)). Results are always emitted by the
+ * calling thread, in the same order as the incoming tuples, so the output doesn't depend on
+ * the number of threads. The last (partial) batch is emitted from flush().
+ *
+ * Terms are packed into a PreparsedTerms.Builder per email, and the builders are re-used for
+ * every batch, so we don't create a String per term. A batch ends once it has BATCH_SIZE
+ * emails, or MAX_BATCH_CHARS chars of text, whichever comes first. While a batch is being
+ * emitted we hold its text plus its terms, which is roughly MAX_BATCH_CHARS * (1 + the
+ * ratio of term chars to text chars, about 3 for a shingle size of 2) chars.
+ *
+ * The text to analyze is the last argument. Since results for a tuple might be emitted
+ * while processing a later tuple, subclasses have to declare all of the fields they
+ * emit (including any from the arguments), and be used with Fields.RESULTS.
+ *
+ */
+@SuppressWarnings({"serial","rawtypes"})
+public abstract class MultithreadedAnalysisFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+    private static final int BATCH_SIZE = 1000;
+    
+    // 1M chars is 2MB of text, plus the terms we get from it.
+    private static final int MAX_BATCH_CHARS = 1024 * 1024;
+
+    private int _numThreads;
+
+    private transient SolrAnalyzer _analyzer;
+    private transient ExecutorService _executor;
+    private transient List<Tuple> _arguments;
+    private transient List<String> _texts;
+    private transient List<PreparsedTerms.Builder> _terms;
+    private transient int _numBatchChars;
+
+    public MultithreadedAnalysisFunction(Fields fieldDeclaration, int numThreads) {
+        super(fieldDeclaration);
+
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+
+        _numThreads = numThreads;
+    }
+
+    /**
+     * @return the analyzer to use for this task.
+     */
+    protected abstract SolrAnalyzer makeAnalyzer();
+
+    /**
+     * Emit the results for one incoming tuple.
+     *
+     * @param arguments arguments of the incoming tuple
+     * @param terms terms from analyzing the text (last argument), which only stay valid
+     *        until this method returns
+     * @param collector
+     */
+    protected abstract void emit(Tuple arguments, PreparsedTerms.Builder terms, TupleEntryCollector collector);
+
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        super.prepare(flowProcess, operationCall);
+
+        _analyzer = makeAnalyzer();
+        _arguments = new ArrayList<Tuple>(BATCH_SIZE);
+        _texts = new ArrayList<String>(BATCH_SIZE);
+        _terms = new ArrayList<PreparsedTerms.Builder>();
+        _terms.add(new PreparsedTerms.Builder());
+        _numBatchChars = 0;
+
+        if (_numThreads > 1) {
+            _executor = Executors.newFixedThreadPool(_numThreads, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "MultithreadedAnalysis");
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+
+            _analyzer.setExecutor(_executor, _numThreads);
+        }
+    }
+
+    @Override
+    public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
+        Tuple arguments = functionCall.getArguments().getTuple();
+        String text = arguments.getString(arguments.size() - 1);
+
+        if (_executor == null) {
+            PreparsedTerms.Builder terms = _terms.get(0).reset();
+            _analyzer.getTerms(text, terms);
+            emit(arguments, terms, functionCall.getOutputCollector());
+            return;
+        }
+
+        // The arguments tuple gets re-used, so we need our own copy.
+        _arguments.add(new Tuple(arguments));
+        _texts.add(text);
+        _numBatchChars += text.length();
+        if (_terms.size() < _texts.size()) {
+            _terms.add(new PreparsedTerms.Builder());
+        }
+        
+        if ((_texts.size() >= BATCH_SIZE) || (_numBatchChars >= MAX_BATCH_CHARS)) {
+            emitBatch(functionCall.getOutputCollector());
+        }
+    }
+
+    private void emitBatch(TupleEntryCollector collector) {
+        if (_texts.isEmpty()) {
+            return;
+        }
+
+        // Builders are always reset after they're used, so they're empty here.
+        List<PreparsedTerms.Builder> terms = _terms.subList(0, _texts.size());
+        _analyzer.getTerms(_texts, terms);
+        for (int i = 0; i < terms.size(); i++) {
+            emit(_arguments.get(i), terms.get(i), collector);
+        }
+
+        _arguments.clear();
+        _texts.clear();
+        _numBatchChars = 0;
+        
+        // Drop buffers that grew for big emails, versus holding on to them until the next batch.
+        for (PreparsedTerms.Builder builder : terms) {
+            builder.reset();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void flush(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        emitBatch(((FunctionCall<NullContext>)operationCall).getOutputCollector());
+        super.flush(flowProcess, operationCall);
+    }
+
+    @Override
+    public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+
+        super.cleanup(flowProcess, operationCall);
+    }
+}
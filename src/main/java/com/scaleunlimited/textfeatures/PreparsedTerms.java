@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The terms from analyzing some text, packed into a single String (separated by newlines,
+ * which never occur in a term). This lets us do the expensive analysis in one place (e.g.
+ * in parallel, before a Merge), and then cheaply get the terms back again later on.
+ *
+ */
+public class PreparsedTerms {
+
+    public static final char SEPARATOR = '\n';
+
+    /**
+     * ITermConsumer that appends each term to a char buffer, which can be re-used. The terms
+     * can be handed back to another ITermConsumer (see getTerms()) without creating a String
+     * per term.
+     */
+    public static class Builder implements ITermConsumer {
+
+        // If a (very long) email made the buffer bigger than this, reset() goes back to a
+        // new, smaller buffer, so that a pool of builders doesn't hold on to lots of memory.
+        private static final int MAX_RETAINED_CHARS = 16 * 1024;
+        
+        private static final int INITIAL_CHARS = 1024;
+        
+        private char[] _buffer = new char[INITIAL_CHARS];
+        private int _length = 0;
+
+        public Builder reset() {
+            if (_buffer.length > MAX_RETAINED_CHARS) {
+                _buffer = new char[INITIAL_CHARS];
+            }
+            
+            _length = 0;
+            return this;
+        }
+
+        @Override
+        public void addTerm(char[] buffer, int offset, int length) {
+            if (_length > 0) {
+                append(SEPARATOR);
+            }
+
+            ensureCapacity(_length + length);
+            System.arraycopy(buffer, offset, _buffer, _length, length);
+            _length += length;
+        }
+
+        public void addTerm(String term) {
+            if (_length > 0) {
+                append(SEPARATOR);
+            }
+
+            int length = term.length();
+            ensureCapacity(_length + length);
+            term.getChars(0, length, _buffer, _length);
+            _length += length;
+        }
+
+        /**
+         * Hand each term to <consumer>, in the order they were added.
+         * 
+         * @param consumer
+         */
+        public void getTerms(ITermConsumer consumer) {
+            int start = 0;
+            for (int i = 0; i < _length; i++) {
+                if (_buffer[i] == SEPARATOR) {
+                    consumer.addTerm(_buffer, start, i - start);
+                    start = i + 1;
+                }
+            }
+            
+            if (_length > 0) {
+                consumer.addTerm(_buffer, start, _length - start);
+            }
+        }
+        
+        /**
+         * @return number of chars in the packed terms
+         */
+        public int length() {
+            return _length;
+        }
+        
+        @Override
+        public String toString() {
+            return new String(_buffer, 0, _length);
+        }
+        
+        private void append(char c) {
+            ensureCapacity(_length + 1);
+            _buffer[_length++] = c;
+        }
+        
+        private void ensureCapacity(int capacity) {
+            if (capacity > _buffer.length) {
+                _buffer = Arrays.copyOf(_buffer, Math.max(capacity, _buffer.length * 2));
+            }
+        }
+    }
+
+    /**
+     * @param terms packed terms, from a Builder
+     * @return iterator over the terms
+     */
+    public static Iterator<String> getTermIterator(final String terms) {
+        return new Iterator<String>() {
+
+            private int _pos = terms.isEmpty() ? -1 : 0;
+
+            @Override
+            public boolean hasNext() {
+                return _pos != -1;
+            }
+
+            @Override
+            public String next() {
+                if (_pos == -1) {
+                    throw new NoSuchElementException();
+                }
+
+                int end = terms.indexOf(SEPARATOR, _pos);
+                String result;
+                if (end == -1) {
+                    result = terms.substring(_pos);
+                    _pos = -1;
+                } else {
+                    result = terms.substring(_pos, end);
+                    _pos = end + 1;
+                }
+
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Can't remove terms");
+            }
+        };
+    }
+}
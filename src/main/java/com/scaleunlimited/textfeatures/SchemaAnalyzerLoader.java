@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.util.AbstractAnalysisFactory;
+import org.apache.lucene.analysis.util.CharFilterFactory;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.lucene.analysis.util.TokenizerFactory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.analysis.TokenizerChain;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Builds the Lucene analyzer for a field type defined in a Solr schema.xml file,
+ * without starting up Solr. We read schema.xml (and the luceneMatchVersion from
+ * solrconfig.xml) as resources, then create the char filter, tokenizer and token
+ * filter factories for the field type's analyzer the same way that Solr does,
+ * and chain them together using Solr's TokenizerChain.
+ *
+ * Any files referenced by the factories (e.g. protected words) are also loaded
+ * from the same resource directory, so nothing is written to disk.
+ *
+ */
+public class SchemaAnalyzerLoader {
+
+    public static final String DEFAULT_RESOURCE_DIR = "/solrparser/";
+
+    private static final String LUCENE_MATCH_VERSION_PARAM = "luceneMatchVersion";
+
+    private String _resourceDir;
+    private ResourceLoader _resourceLoader;
+
+    public SchemaAnalyzerLoader() {
+        this(DEFAULT_RESOURCE_DIR);
+    }
+
+    /**
+     * @param resourceDir resource path (e.g. "/solrparser/") containing schema.xml, solrconfig.xml,
+     *        and any files they reference.
+     */
+    public SchemaAnalyzerLoader(String resourceDir) {
+        _resourceDir = resourceDir.endsWith("/") ? resourceDir : resourceDir + "/";
+        _resourceLoader = new ResourceDirLoader(_resourceDir);
+    }
+
+    /**
+     * Return the analyzer for the target field type. This will be either the single analyzer
+     * defined, or the index analyzer (which is generally what we want) if a separate index vs.
+     * query analyzer has been defined.
+     *
+     * @param fieldTypeName target field type
+     * @return Analyzer for that field type.
+     * @throws IOException
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     */
+    public Analyzer getAnalyzer(String fieldTypeName) throws IOException, ParserConfigurationException, SAXException {
+        Version defaultVersion = getLuceneMatchVersion();
+        Element analyzerElement = findAnalyzer(fieldTypeName);
+
+        List<CharFilterFactory> charFilters = new ArrayList<CharFilterFactory>();
+        TokenizerFactory tokenizer = null;
+        List<TokenFilterFactory> filters = new ArrayList<TokenFilterFactory>();
+
+        NodeList children = analyzerElement.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+
+            Element child = (Element)children.item(i);
+            String tagName = child.getTagName();
+            String spiName = getSpiName(child.getAttribute("class"), tagName);
+
+            if (tagName.equals("charFilter")) {
+                charFilters.add(initFactory(CharFilterFactory.forName(spiName), child, defaultVersion));
+            } else if (tagName.equals("tokenizer")) {
+                if (tokenizer != null) {
+                    throw new IllegalArgumentException(String.format("Field type \"%s\" has more than one tokenizer", fieldTypeName));
+                }
+
+                tokenizer = initFactory(TokenizerFactory.forName(spiName), child, defaultVersion);
+            } else if (tagName.equals("filter")) {
+                filters.add(initFactory(TokenFilterFactory.forName(spiName), child, defaultVersion));
+            }
+        }
+
+        if (tokenizer == null) {
+            throw new IllegalArgumentException(String.format("Field type \"%s\" has no tokenizer", fieldTypeName));
+        }
+
+        return new TokenizerChain(  charFilters.toArray(new CharFilterFactory[charFilters.size()]),
+                                    tokenizer,
+                                    filters.toArray(new TokenFilterFactory[filters.size()]));
+    }
+
+    /**
+     * Find the <analyzer> element we want to use for the field type.
+     *
+     * @param fieldTypeName
+     * @return analyzer element
+     */
+    private Element findAnalyzer(String fieldTypeName) throws IOException, ParserConfigurationException, SAXException {
+        Document schema = parseResource("schema.xml");
+
+        Element fieldType = findFieldType(schema.getElementsByTagName("fieldType"), fieldTypeName);
+        if (fieldType == null) {
+            // Older schemas use all lower-case.
+            fieldType = findFieldType(schema.getElementsByTagName("fieldtype"), fieldTypeName);
+        }
+
+        if (fieldType == null) {
+            throw new IllegalArgumentException(String.format("No analyzer found for field type \"%s\"", fieldTypeName));
+        }
+
+        NodeList analyzers = fieldType.getElementsByTagName("analyzer");
+        for (int i = 0; i < analyzers.getLength(); i++) {
+            Element analyzer = (Element)analyzers.item(i);
+            String type = analyzer.getAttribute("type");
+            if (type.isEmpty() || type.equals("index")) {
+                if (!analyzer.getAttribute("class").isEmpty()) {
+                    throw new IllegalArgumentException(String.format("Analyzer class for field type \"%s\" is not supported, only tokenizer/filter chains", fieldTypeName));
+                }
+
+                return analyzer;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("No analyzer found for field type \"%s\"", fieldTypeName));
+    }
+
+    private Element findFieldType(NodeList fieldTypes, String fieldTypeName) {
+        for (int i = 0; i < fieldTypes.getLength(); i++) {
+            Element fieldType = (Element)fieldTypes.item(i);
+            if (fieldType.getAttribute("name").equals(fieldTypeName)) {
+                return fieldType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the default Lucene version for factories, from solrconfig.xml
+     *
+     * @return Lucene version
+     */
+    private Version getLuceneMatchVersion() throws IOException, ParserConfigurationException, SAXException {
+        Document config = parseResource("solrconfig.xml");
+        NodeList versions = config.getElementsByTagName(LUCENE_MATCH_VERSION_PARAM);
+        if (versions.getLength() == 0) {
+            throw new IllegalArgumentException("No luceneMatchVersion found in solrconfig.xml");
+        }
+
+        return Version.parseLeniently(versions.item(0).getTextContent().trim());
+    }
+
+    /**
+     * Set up the factory using the attributes of its schema.xml element (other than the class),
+     * just like Solr's FieldTypePluginLoader.
+     *
+     * @param factory
+     * @param element
+     * @param defaultVersion
+     * @return initialized factory
+     * @throws IOException
+     */
+    private <T extends AbstractAnalysisFactory> T initFactory(T factory, Element element, Version defaultVersion) throws IOException {
+        Map<String, String> args = new HashMap<String, String>();
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (!attribute.getNodeName().equals("class")) {
+                args.put(attribute.getNodeName(), attribute.getNodeValue());
+            }
+        }
+
+        String version = args.remove(LUCENE_MATCH_VERSION_PARAM);
+        factory.setLuceneMatchVersion(version == null ? defaultVersion : Version.parseLeniently(version));
+        factory.init(args);
+
+        if (factory instanceof ResourceLoaderAware) {
+            ((ResourceLoaderAware)factory).inform(_resourceLoader);
+        }
+
+        return factory;
+    }
+
+    /**
+     * Convert a Solr-style class name (e.g. solr.PorterStemFilterFactory) to the name that
+     * Lucene uses to look up the factory (e.g. PorterStem).
+     *
+     * @param className
+     * @param tagName schema element name, for the error message
+     * @return SPI name
+     */
+    private static String getSpiName(String className, String tagName) {
+        if (className.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Missing class attribute for %s", tagName));
+        }
+
+        // Works for both "solr.XXX" and fully qualified class names.
+        String name = className.substring(className.lastIndexOf('.') + 1);
+
+        String[] suffixes = {"CharFilterFactory", "TokenizerFactory", "FilterFactory"};
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown factory class %s for %s", className, tagName));
+    }
+
+    private Document parseResource(String filename) throws IOException, ParserConfigurationException, SAXException {
+        InputStream is = _resourceLoader.openResource(filename);
+
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            return factory.newDocumentBuilder().parse(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Lucene ResourceLoader that gets everything from our resource directory.
+     *
+     */
+    private static class ResourceDirLoader implements ResourceLoader {
+
+        private String _resourceDir;
+
+        public ResourceDirLoader(String resourceDir) {
+            _resourceDir = resourceDir;
+        }
+
+        @Override
+        public InputStream openResource(String resource) throws IOException {
+            InputStream result = SchemaAnalyzerLoader.class.getResourceAsStream(_resourceDir + resource);
+            if (result == null) {
+                throw new IOException(String.format("Resource \"%s\" not found in %s", resource, _resourceDir));
+            }
+
+            return result;
+        }
+
+        @Override
+        public <T> T newInstance(String cname, Class<T> expectedType) {
+            try {
+                Class<? extends T> clazz = Class.forName(cname, true, SchemaAnalyzerLoader.class.getClassLoader()).asSubclass(expectedType);
+                return clazz.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException(String.format("Can't create instance of %s", cname), e);
+            }
+        }
+    }
+}
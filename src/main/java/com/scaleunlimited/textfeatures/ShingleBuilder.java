@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+/**
+ * Generates shingles (terms of 1...N words) from a sequence of words, without
+ * allocating any objects per word or per shingle.
+ *
+ * We keep the most recent N words in a single char buffer, separated by spaces,
+ * along with a ring buffer of where each word starts. Every shingle that ends with
+ * the most recent word is then just a suffix of the buffer, so we can hand it
+ * off to the consumer as-is. When the buffer fills up we slide the words we still
+ * need down to the front, which happens rarely since the buffer is kept much
+ * larger than N words.
+ *
+ */
+class ShingleBuilder {
+
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    private int _maxWords;
+
+    // Ring buffer of word start offsets, where _lastWord is the most recent word.
+    private int[] _wordStarts;
+    private int _lastWord;
+    private int _numWords;
+
+    private char[] _buffer;
+    private int _end;
+
+    public ShingleBuilder(int maxWords) {
+        if (maxWords < 1) {
+            throw new IllegalArgumentException("Shingle size must be at least 1");
+        }
+
+        _maxWords = maxWords;
+        _wordStarts = new int[maxWords];
+        _buffer = new char[MIN_BUFFER_SIZE];
+        reset();
+    }
+
+    /**
+     * Forget all previous words, so that no shingle will span the break.
+     */
+    public void reset() {
+        _numWords = 0;
+        _lastWord = 0;
+        _end = 0;
+    }
+
+    public void addWord(char[] word, int offset, int length) {
+        // We keep up to N-1 previous words, so that with the new word we have N.
+        int numKept = Math.min(_numWords, _maxWords - 1);
+        int separatorLength = (numKept == 0) ? 0 : 1;
+
+        if (numKept == 0) {
+            _end = 0;
+        } else if (_end + separatorLength + length > _buffer.length) {
+            compact(numKept);
+        }
+
+        ensureCapacity(_end + separatorLength + length);
+
+        if (numKept > 0) {
+            _buffer[_end++] = ' ';
+        }
+
+        int wordStart = _end;
+        System.arraycopy(word, offset, _buffer, _end, length);
+        _end += length;
+
+        _lastWord = (_lastWord + 1) % _maxWords;
+        _wordStarts[_lastWord] = wordStart;
+        _numWords = numKept + 1;
+    }
+
+    /**
+     * @return number of shingles that end with the most recent word
+     */
+    public int getNumShingles() {
+        return _numWords;
+    }
+
+    /**
+     * @param numWords number of words in the shingle, from 1...getNumShingles()
+     * @return offset in the buffer of the shingle ending with the most recent word
+     */
+    public int getShingleOffset(int numWords) {
+        return _wordStarts[(_lastWord - numWords + 1 + _maxWords) % _maxWords];
+    }
+
+    /**
+     * @return offset in the buffer just past the end of every shingle
+     */
+    public int getShingleEnd() {
+        return _end;
+    }
+
+    public char[] getBuffer() {
+        return _buffer;
+    }
+
+    /**
+     * Send every shingle that ends with the most recent word to <consumer>, from
+     * shortest (the single word) to longest.
+     *
+     * @param consumer
+     */
+    public void emitShingles(ITermConsumer consumer) {
+        for (int i = 1; i <= _numWords; i++) {
+            int offset = getShingleOffset(i);
+            consumer.addTerm(_buffer, offset, _end - offset);
+        }
+    }
+
+    /**
+     * Slide the <numKept> most recent words down to the start of the buffer.
+     *
+     * @param numKept
+     */
+    private void compact(int numKept) {
+        int keepStart = getShingleOffset(numKept);
+        int keepLength = _end - keepStart;
+        System.arraycopy(_buffer, keepStart, _buffer, 0, keepLength);
+        _end = keepLength;
+
+        for (int i = 0; i < numKept; i++) {
+            int index = (_lastWord - i + _maxWords) % _maxWords;
+            _wordStarts[index] -= keepStart;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > _buffer.length) {
+            char[] newBuffer = new char[Math.max(size * 2, _buffer.length * 2)];
+            System.arraycopy(_buffer, 0, newBuffer, 0, _end);
+            _buffer = newBuffer;
+        }
+    }
+}
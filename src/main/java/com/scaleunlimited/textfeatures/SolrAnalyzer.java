@@ -15,9 +15,17 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -26,6 +34,8 @@ import org.apache.commons.io.IOUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.util.Version;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.schema.FieldType;
@@ -36,6 +46,11 @@ import org.xml.sax.SAXException;
  * A text analyzer that parses a string and turns it into a list
  * of strings, using 
  *
+ * All per-call state (reader, token stream, shingle buffer) is kept per
+ * thread, so one instance can be safely used by many threads at once. The
+ * getTermLists() and getTerms(List, List) methods use this to analyze a batch of
+ * strings in parallel.
+ *
  */
 @SuppressWarnings("serial")
 public class SolrAnalyzer implements Serializable {
@@ -44,13 +59,21 @@ public class SolrAnalyzer implements Serializable {
 
     private static final int MIN_WORD_LENGTH = 3;
     
+    // How many tasks per thread we split a batch into for getTerms(List, List), so that
+    // threads which get short documents can pick up more work.
+    private static final int TASKS_PER_THREAD = 4;
+    
     private int _shingleSize;
     private Set<String> _stopwords;
     
-    private transient Analyzer _analyzer;
-    private transient ReusableStringReader _stringReader;
-    private transient ThreadLocal<TokenStream> _tokenStream;
-    private transient ThreadLocal<CharTermAttribute> _token;
+    // Set last in init(), so once a thread sees this as non-null, it also sees
+    // the other transient fields.
+    private transient volatile Analyzer _analyzer;
+    private transient ThreadLocal<AnalysisState> _state;
+    private transient CharArraySet _stopwordsSet;
+    
+    private transient ExecutorService _executor;
+    private transient int _numThreads;
 
     public SolrAnalyzer() throws IOException, ParserConfigurationException, SAXException {
         this(DEFAULT_SHINGLE_SIZE, new HashSet<String>());
@@ -61,99 +84,399 @@ public class SolrAnalyzer implements Serializable {
         _stopwords = stopwords;
     }
     
-    private synchronized void init() {
+    private void init() {
         if (_analyzer == null) {
-            _stringReader = new ReusableStringReader("");
-            _tokenStream = new ThreadLocal<TokenStream>();
-            _token = new ThreadLocal<CharTermAttribute>();
+            initAnalyzer();
+        }
+    }
+    
+    private synchronized void initAnalyzer() {
+        if (_analyzer == null) {
+            _state = new ThreadLocal<AnalysisState>();
+            _stopwordsSet = new CharArraySet(Version.LUCENE_42, _stopwords, false);
 
             try {
                 // We hard-code the analyzer to be the one for the field type "text_en", which must
                 // be defined in the schema.xml file in src/main/resources/solrparser/
-                _analyzer = getAnalyzer("text_en");
+                _analyzer = new SchemaAnalyzerLoader().getAnalyzer("text_en");
             } catch (Exception e) {
                 throw new RuntimeException("Can't create Solr-based analyzer", e);
             }
         }
     }
     
-    public List<String> getTermList(String contentText) {
-        init();
+    /**
+     * Set the executor used by getTerms(List, List). If this is never called, we use a shared
+     * pool of daemon threads, one per available processor. The caller owns <executor>,
+     * and is responsible for shutting it down.
+     * 
+     * @param executor
+     * @param numThreads number of threads in <executor>, used to decide how to split up batches.
+     */
+    public synchronized void setExecutor(ExecutorService executor, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
         
-        List<String> result = new ArrayList<String>(contentText.length() / 10);
+        _executor = executor;
+        _numThreads = numThreads;
+    }
+    
+    private synchronized ExecutorService getExecutor() {
+        if (_executor == null) {
+            _executor = DefaultExecutor.EXECUTOR;
+            _numThreads = DefaultExecutor.NUM_THREADS;
+        }
         
-        try {
-            _stringReader.reset(contentText);
-            _tokenStream.set(_analyzer.tokenStream("content", _stringReader));
-            
-            if (_token.get() == null) {
-                _token.set((CharTermAttribute)_tokenStream.get().addAttribute(CharTermAttribute.class));
+        return _executor;
+    }
+    
+    private synchronized int getNumThreads() {
+        getExecutor();
+        return _numThreads;
+    }
+    
+    /**
+     * Analyze all of the strings in <contentTexts> in parallel, using our executor.
+     * 
+     * @param contentTexts
+     * @return list of term lists, in the same order as <contentTexts>
+     */
+    public List<List<String>> getTermLists(List<String> contentTexts) {
+        List<List<String>> result = new ArrayList<List<String>>(contentTexts.size());
+        List<ITermConsumer> consumers = new ArrayList<ITermConsumer>(contentTexts.size());
+        for (String contentText : contentTexts) {
+            final List<String> termList = new ArrayList<String>(contentText.length() / 10);
+            result.add(termList);
+            consumers.add(new ITermConsumer() {
+                
+                @Override
+                public void addTerm(char[] buffer, int offset, int length) {
+                    termList.add(new String(buffer, offset, length));
+                }
+            });
+        }
+        
+        getTerms(contentTexts, consumers);
+        return result;
+    }
+    
+    /**
+     * Analyze all of the strings in <contentTexts> in parallel, using our executor, and
+     * hand the terms for each string to the consumer at the same index in <consumers>.
+     * Each consumer is only called by one thread, but different consumers are called by
+     * different threads, so they can't share state. Returns once all of the strings have
+     * been analyzed.
+     * 
+     * @param contentTexts
+     * @param consumers one per string in <contentTexts>
+     */
+    public void getTerms(final List<String> contentTexts, final List<? extends ITermConsumer> consumers) {
+        if (contentTexts.size() != consumers.size()) {
+            throw new IllegalArgumentException("Need one consumer per string");
+        }
+        
+        ExecutorService executor = getExecutor();
+        int numTasks = Math.min(contentTexts.size(), getNumThreads() * TASKS_PER_THREAD);
+        
+        if (numTasks <= 1) {
+            for (int i = 0; i < contentTexts.size(); i++) {
+                getTerms(contentTexts.get(i), consumers.get(i));
             }
             
-            _tokenStream.get().reset();
-            _tokenStream.get().incrementToken();
+            return;
+        }
+        
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            final int start = (int)(((long)contentTexts.size() * i) / numTasks);
+            final int end = (int)(((long)contentTexts.size() * (i + 1)) / numTasks);
             
-            String[] wordQueue = new String[_shingleSize];
-            StringBuffer term = new StringBuffer();
-            while (_token.get().length() > 0) {
-                String curWord = new String(_token.get().buffer(), 0, _token.get().length());
-                curWord = filterWord(curWord);
-                for (int i = wordQueue.length - 1; i > 0; i--) {
-                    wordQueue[i] = wordQueue[i - 1];
-                }
-                wordQueue[0] = curWord;
-                
-                // Now add all of the terms from the shingled results.
-                term.delete(0, term.length());
-                for (int i = 0; i < wordQueue.length; i++) {
-                    if (wordQueue[i] == null) {
-                        break;
-                    }
-                    
-                    if (i > 0) {
-                        term.insert(0, ' ');
+            futures.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    for (int j = start; j < end; j++) {
+                        getTerms(contentTexts.get(j), consumers.get(j));
                     }
                     
-                    term.insert(0, wordQueue[i]);
-                    result.add(term.toString());
+                    return null;
                 }
+            }));
+        }
+        
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while analyzing text", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error analyzing text", e.getCause());
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+    
 
-                _tokenStream.get().incrementToken();
+    public List<String> getTermList(String contentText) {
+        final List<String> result = new ArrayList<String>(contentText.length() / 10);
+        
+        getTerms(contentText, new ITermConsumer() {
+            
+            @Override
+            public void addTerm(char[] buffer, int offset, int length) {
+                result.add(new String(buffer, offset, length));
             }
+        });
+        
+        return result;
+    }
+
+    /**
+     * Analyze <contentText>, and hand each resulting term (single words, plus
+     * shingles if our shingle size is > 1) to <consumer>. No objects are created
+     * per word or per term, which is what getTermList() uses internally.
+     * 
+     * @param contentText text to analyze
+     * @param consumer gets called with the characters of each term
+     */
+    public void getTerms(String contentText, ITermConsumer consumer) {
+        try {
+            AnalysisState state = startTokenStream(contentText);
+            TokenStream tokenStream = state.getTokenStream();
+            CharTermAttribute token = state.getToken();
+            ShingleBuilder shingleBuilder = state.getShingleBuilder();
+            
+            while (tokenStream.incrementToken()) {
+                if (isValidWord(token.buffer(), token.length())) {
+                    shingleBuilder.addWord(token.buffer(), 0, token.length());
+                    shingleBuilder.emitShingles(consumer);
+                } else {
+                    // We don't want shingles that span a word we've filtered out.
+                    shingleBuilder.reset();
+                }
+            }
+            
+            tokenStream.end();
+            tokenStream.close();
         } catch (IOException e) {
             throw new RuntimeException("Impossible error", e);
         }
+    }
 
-        return result;
+    /**
+     * Return an iterator over the terms in <contentText>, which only advances the
+     * underlying token stream as terms are requested. So unlike getTermList(), we
+     * never have more than one word's worth of shingles in memory.
+     * 
+     * Note that the iterator uses the calling thread's token stream, so it must be
+     * used up before the analyzer is called again by the same thread, and it can't
+     * be handed off to a different thread.
+     * 
+     * @param contentText text to analyze
+     * @return iterator over the same terms (in the same order) as getTermList()
+     */
+    public Iterator<String> getTermIterator(String contentText) {
+        return new TermIterator(startTokenStream(contentText));
+    }
+    
+    /**
+     * Set up this thread's token stream to process <contentText>, and reset the
+     * shingle builder.
+     * 
+     * @param contentText
+     * @return this thread's analysis state, with the token stream ready for the
+     *         first call to incrementToken()
+     */
+    private AnalysisState startTokenStream(String contentText) {
+        init();
+        
+        AnalysisState state = _state.get();
+        if (state == null) {
+            state = new AnalysisState(_shingleSize);
+            _state.set(state);
+        }
+        
+        try {
+            state.start(_analyzer, contentText);
+            return state;
+        } catch (IOException e) {
+            throw new RuntimeException("Impossible error", e);
+        }
+    }
+    
+    /**
+     * Everything we need to analyze one string, which is confined to a single
+     * thread. The Analyzer hands back the same (per-thread) token stream each
+     * time, so the term attribute only changes if the analyzer decides to
+     * create a new stream.
+     *
+     */
+    private static class AnalysisState {
+        
+        private ReusableStringReader _reader;
+        private TokenStream _tokenStream;
+        private CharTermAttribute _token;
+        private ShingleBuilder _shingleBuilder;
+        
+        public AnalysisState(int shingleSize) {
+            _reader = new ReusableStringReader("");
+            _shingleBuilder = new ShingleBuilder(shingleSize);
+        }
+        
+        public void start(Analyzer analyzer, String contentText) throws IOException {
+            _reader.reset(contentText);
+            
+            TokenStream tokenStream = analyzer.tokenStream("content", _reader);
+            if (tokenStream != _tokenStream) {
+                _tokenStream = tokenStream;
+                _token = tokenStream.addAttribute(CharTermAttribute.class);
+            }
+            
+            _shingleBuilder.reset();
+            _tokenStream.reset();
+        }
+        
+        public TokenStream getTokenStream() {
+            return _tokenStream;
+        }
+        
+        public CharTermAttribute getToken() {
+            return _token;
+        }
+        
+        public ShingleBuilder getShingleBuilder() {
+            return _shingleBuilder;
+        }
     }
+    
+    /**
+     * Lazily created pool that's shared by all analyzers that haven't been
+     * given their own executor.
+     *
+     */
+    private static class DefaultExecutor {
+        
+        private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+        
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+            
+            private int _threadIndex = 0;
+            
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "SolrAnalyzer-" + _threadIndex++);
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+    
+    /**
+     * Pull-based version of getTerms(). Each time we need more terms we advance
+     * the token stream to the next valid word, and then return the shingles that
+     * end with that word, from shortest to longest.
+     *
+     */
+    private class TermIterator implements Iterator<String> {
+        
+        private TokenStream _stream;
+        private CharTermAttribute _term;
+        private ShingleBuilder _shingles;
+        
+        // Number of words in the next shingle to return, or 0 if we need the next word.
+        private int _nextNumWords;
+        private boolean _done;
+        
+        public TermIterator(AnalysisState state) {
+            _stream = state.getTokenStream();
+            _term = state.getToken();
+            _shingles = state.getShingleBuilder();
+            _nextNumWords = 0;
+            _done = false;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (_done) {
+                return false;
+            }
+            
+            if ((_nextNumWords > 0) && (_nextNumWords <= _shingles.getNumShingles())) {
+                return true;
+            }
+            
+            try {
+                while (_stream.incrementToken()) {
+                    if (isValidWord(_term.buffer(), _term.length())) {
+                        _shingles.addWord(_term.buffer(), 0, _term.length());
+                        _nextNumWords = 1;
+                        return true;
+                    } else {
+                        _shingles.reset();
+                    }
+                }
+                
+                _stream.end();
+                _stream.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Impossible error", e);
+            }
+            
+            _done = true;
+            return false;
+        }
 
-    private String filterWord(String curWord) {
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            int offset = _shingles.getShingleOffset(_nextNumWords);
+            _nextNumWords += 1;
+            return new String(_shingles.getBuffer(), offset, _shingles.getShingleEnd() - offset);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Can't remove terms");
+        }
+    }
+    
+    private boolean isValidWord(char[] buffer, int length) {
         // Check word length
-        if (curWord.length() < MIN_WORD_LENGTH) {
-            return null;
+        if (length < MIN_WORD_LENGTH) {
+            return false;
         }
         
         // Check if it's a number.
         boolean isNumber = true;
-        for (int i = 0; isNumber && (i < curWord.length()); i++) {
-            char c = curWord.charAt(i);
+        for (int i = 0; isNumber && (i < length); i++) {
+            char c = buffer[i];
             isNumber = Character.isDigit(c) || (c == ',') || (c == '.');
         }
         
         if (isNumber) {
-            return null;
+            return false;
         }
         
         // Check if it's in our stopwords list.
-        if (_stopwords.contains(curWord)) {
-            return null;
+        if (_stopwordsSet.contains(buffer, 0, length)) {
+            return false;
         }
         
-        return curWord;
+        return true;
     }
 
     /**
-     * Leverage the Solr schema.xml analysis chain to get the right analyzer for the target field type.
+     * Leverage the Solr schema.xml analysis chain to get the right analyzer for the target field type,
+     * by starting up a Solr CoreContainer. This is how we used to create the analyzer, before we had
+     * the SchemaAnalyzerLoader; it's only kept around so we can benchmark the two approaches.
      * 
      * @param fieldTypeName target field type
      * @return
@@ -161,7 +484,7 @@ public class SolrAnalyzer implements Serializable {
      * @throws ParserConfigurationException
      * @throws SAXException
      */
-    private Analyzer getAnalyzer(String fieldTypeName) throws IOException, ParserConfigurationException, SAXException {
+    static Analyzer getCoreContainerAnalyzer(String fieldTypeName) throws IOException, ParserConfigurationException, SAXException {
         // Create a temp location for Solr home, which has a skeleton solr.xml that
         // references the Solr core directory. Note that as of Solr 4.5, this is no
         // longer necessary (we don't need a solr.xml)
@@ -204,6 +527,8 @@ public class SolrAnalyzer implements Serializable {
             if (coreContainer != null) {
                 coreContainer.shutdown();
             }
+            
+            FileUtils.deleteQuietly(tmpSolrHome);
         }
     }
 
@@ -218,7 +543,7 @@ public class SolrAnalyzer implements Serializable {
      * @return location of the collection directory.
      * @throws IOException
      */
-    private File makeSolrCoreDir(File solrHomeDir) throws IOException {
+    private static File makeSolrCoreDir(File solrHomeDir) throws IOException {
         List<String> filenames = IOUtils.readLines(SolrAnalyzer.class.getResourceAsStream("/solrparser/filelist.txt"));
         
         File containerDir = new File(solrHomeDir, "solrparser");
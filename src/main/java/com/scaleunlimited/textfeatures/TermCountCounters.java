@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+/**
+ * Cascading counters for map-side term counting (see CombineTermCounts), and for skipping
+ * repeated email/term pairs (see StopwordsWorkflow.RemoveSeenPairs).
+ *
+ */
+public enum TermCountCounters {
+    TERM_CACHE_HITS,            // email/term pair was already in the table
+    TERM_CACHE_MISSES,          // email/term pair had to be added to the table
+    TERM_CACHE_EVICTED,         // partial counts emitted early, because the table was full
+    TERM_CACHE_FLUSHES,         // number of times the table was full
+}
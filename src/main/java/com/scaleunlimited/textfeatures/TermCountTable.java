@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.Arrays;
+
+/**
+ * Map-side counts for (group, term id) pairs, e.g. the number of times each user used
+ * each term, so that we emit one partial count per pair instead of one tuple per term.
+ *
+ * Entries are kept in parallel primitive arrays (open addressing with linear probing),
+ * so there's no per-entry object, and the size of the table is set by a byte budget
+ * versus a number of entries. When the table is full, the least frequent half (roughly)
+ * of the entries get evicted, by passing them to the EvictionHandler and removing them.
+ * Frequent pairs stay in the table, which is where most of the savings come from with
+ * Zipfian term distributions. At the end, flush() passes on everything that's left.
+ *
+ * Groups are ints (e.g. an index into a list of email addresses), since the caller has
+ * to be able to map them back to whatever they stand for.
+ *
+ */
+public class TermCountTable {
+
+    // Term id + count + group
+    public static final int BYTES_PER_SLOT = 8 + 8 + 4;
+
+    private static final double MAX_LOAD = 0.7;
+
+    // Number of counts we look at to pick the threshold for evicting entries.
+    private static final int EVICTION_SAMPLE_SIZE = 1024;
+
+    private static final long EMPTY = 0;
+
+    public interface EvictionHandler {
+        void evicted(int group, long termId, long count);
+    }
+
+    private long[] _termIds;
+    private int[] _groups;
+    private long[] _counts;
+    private int _mask;
+    private int _maxSize;
+    private int _size;
+
+    private long _numHits;
+    private long _numMisses;
+    private long _numEvicted;
+    private int _numEvictions;
+
+    /**
+     * @param maxBytes memory to use for the table
+     */
+    public TermCountTable(long maxBytes) {
+        long maxSlots = maxBytes / BYTES_PER_SLOT;
+        if (maxSlots < 2) {
+            throw new IllegalArgumentException("Not enough bytes for a term count table: " + maxBytes);
+        }
+
+        // Power of two number of slots, but we can't have more than an array can hold.
+        int numSlots = (int)Math.min(Long.highestOneBit(maxSlots), 1 << 30);
+        _termIds = new long[numSlots];
+        _groups = new int[numSlots];
+        _counts = new long[numSlots];
+        _mask = numSlots - 1;
+        _maxSize = Math.max(1, (int)(numSlots * MAX_LOAD));
+        _size = 0;
+    }
+
+    /**
+     * Add <count> to the count for <group>/<termId>, evicting entries first if the table
+     * is full.
+     *
+     * @param group
+     * @param termId
+     * @param count must be greater than zero
+     * @param handler gets any entries that are evicted
+     * @return true if the pair was already in the table.
+     */
+    public boolean add(int group, long termId, long count, EvictionHandler handler) {
+        int index = slotIndex(group, termId);
+        while (_counts[index] != EMPTY) {
+            if ((_termIds[index] == termId) && (_groups[index] == group)) {
+                _counts[index] += count;
+                _numHits += 1;
+                return true;
+            }
+
+            index = (index + 1) & _mask;
+        }
+
+        _numMisses += 1;
+        if (_size == _maxSize) {
+            evict(handler);
+            index = slotIndex(group, termId);
+            while (_counts[index] != EMPTY) {
+                index = (index + 1) & _mask;
+            }
+        }
+
+        _termIds[index] = termId;
+        _groups[index] = group;
+        _counts[index] = count;
+        _size += 1;
+        return false;
+    }
+
+    /**
+     * Pass all of the entries to <handler>, and clear the table.
+     *
+     * @param handler
+     */
+    public void flush(EvictionHandler handler) {
+        for (int i = 0; i < _counts.length; i++) {
+            if (_counts[i] != EMPTY) {
+                handler.evicted(_groups[i], _termIds[i], _counts[i]);
+            }
+        }
+
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(_counts, EMPTY);
+        _size = 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * @return number of add() calls for pairs that were already in the table.
+     */
+    public long getNumHits() {
+        return _numHits;
+    }
+
+    /**
+     * @return number of add() calls for pairs that had to be added to the table.
+     */
+    public long getNumMisses() {
+        return _numMisses;
+    }
+
+    /**
+     * @return number of entries that were evicted because the table was full.
+     */
+    public long getNumEvicted() {
+        return _numEvicted;
+    }
+
+    /**
+     * @return number of times the table was full, and we evicted entries.
+     */
+    public int getNumEvictions() {
+        return _numEvictions;
+    }
+
+    /**
+     * Evict the entries with counts at or below the median (estimated from a sample), and
+     * re-insert the rest.
+     */
+    private void evict(EvictionHandler handler) {
+        long threshold = getEvictionThreshold();
+
+        // Remember the survivors, so we can put them back in their proper slots.
+        int numKept = 0;
+        for (int i = 0; i < _counts.length; i++) {
+            if ((_counts[i] != EMPTY) && (_counts[i] > threshold)) {
+                numKept += 1;
+            }
+        }
+
+        long[] keptTermIds = new long[numKept];
+        int[] keptGroups = new int[numKept];
+        long[] keptCounts = new long[numKept];
+        int kept = 0;
+        for (int i = 0; i < _counts.length; i++) {
+            long count = _counts[i];
+            if (count == EMPTY) {
+                continue;
+            }
+
+            if (count > threshold) {
+                keptTermIds[kept] = _termIds[i];
+                keptGroups[kept] = _groups[i];
+                keptCounts[kept] = count;
+                kept += 1;
+            } else {
+                handler.evicted(_groups[i], _termIds[i], count);
+                _numEvicted += 1;
+            }
+        }
+
+        clear();
+        for (int i = 0; i < numKept; i++) {
+            int index = slotIndex(keptGroups[i], keptTermIds[i]);
+            while (_counts[index] != EMPTY) {
+                index = (index + 1) & _mask;
+            }
+
+            _termIds[index] = keptTermIds[i];
+            _groups[index] = keptGroups[i];
+            _counts[index] = keptCounts[i];
+        }
+
+        _size = numKept;
+        _numEvictions += 1;
+    }
+
+    /**
+     * @return median count of (up to) EVICTION_SAMPLE_SIZE entries, spread over the table.
+     */
+    private long getEvictionThreshold() {
+        int step = Math.max(1, _counts.length / EVICTION_SAMPLE_SIZE);
+        long[] sample = new long[EVICTION_SAMPLE_SIZE];
+        int sampleSize = 0;
+        for (int start = 0; (start < step) && (sampleSize < EVICTION_SAMPLE_SIZE / 2); start++) {
+            for (int i = start; (i < _counts.length) && (sampleSize < EVICTION_SAMPLE_SIZE); i += step) {
+                if (_counts[i] != EMPTY) {
+                    sample[sampleSize++] = _counts[i];
+                }
+            }
+        }
+
+        Arrays.sort(sample, 0, sampleSize);
+        return sample[sampleSize / 2];
+    }
+
+    private int slotIndex(int group, long termId) {
+        long hash = termId ^ (group * 0x9e3779b97f4a7c15L);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 32;
+        return (int)hash & _mask;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+import java.util.Arrays;
+
+/**
+ * A set of term ids, stored in a single long[] (open addressing with linear
+ * probing), so we don't create a Long per entry. The set has a fixed capacity;
+ * once it's full it gets cleared, which is fine for what we use it for (skipping
+ * map-side duplicates before a real Unique).
+ *
+ * Zero is used to mark empty slots, so we map a term id of zero to one. Any
+ * resulting false positive would have the same odds as a hash collision.
+ *
+ */
+public class TermIdSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] _slots;
+    private int _mask;
+    private int _maxSize;
+    private int _size;
+
+    /**
+     * @param maxSize number of ids we can hold before the set gets cleared.
+     */
+    public TermIdSet(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1");
+        }
+
+        // Keep the load factor <= 0.5, with a power of two number of slots.
+        int numSlots = Integer.highestOneBit(maxSize) * 4;
+        _slots = new long[numSlots];
+        _mask = numSlots - 1;
+        _maxSize = maxSize;
+        _size = 0;
+    }
+
+    /**
+     * Add <termId> to the set.
+     *
+     * @param termId
+     * @return true if the id wasn't already in the set.
+     */
+    public boolean add(long termId) {
+        if (termId == EMPTY) {
+            termId = 1;
+        }
+
+        int index = slotIndex(termId);
+        while (_slots[index] != EMPTY) {
+            if (_slots[index] == termId) {
+                return false;
+            }
+
+            index = (index + 1) & _mask;
+        }
+
+        if (_size == _maxSize) {
+            clear();
+            index = slotIndex(termId);
+        }
+
+        _slots[index] = termId;
+        _size += 1;
+        return true;
+    }
+
+    public boolean contains(long termId) {
+        if (termId == EMPTY) {
+            termId = 1;
+        }
+
+        int index = slotIndex(termId);
+        while (_slots[index] != EMPTY) {
+            if (_slots[index] == termId) {
+                return true;
+            }
+
+            index = (index + 1) & _mask;
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public void clear() {
+        Arrays.fill(_slots, EMPTY);
+        _size = 0;
+    }
+
+    private int slotIndex(long termId) {
+        // Ids are already well-mixed hashes, but the top bits hold the word count.
+        return (int)(termId ^ (termId >>> 32)) & _mask;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textfeatures;
+
+/**
+ * Compact ids for terms, so that workflows can shuffle a fixed-size value
+ * instead of the term text, and only join the text back in at the end.
+ *
+ * We use a 64-bit hash of the term, versus assigning sequential ints, since
+ * every mapper can then calculate the id independently (no extra pass over
+ * the data to build a global dictionary). The top 3 bits hold the number of
+ * words in the term, so we can still tell single words from shingles. With
+ * 61 bits of hash, the odds of any collision with 10M unique terms are
+ * about 1 in 50,000.
+ *
+ * For places where a term has to be a String (e.g. TopTermsByLLR), the id
+ * can be converted to a fixed 11 character key.
+ *
+ */
+public class TermIds {
+
+    public static final int MAX_WORDS = 7;
+
+    public static final int KEY_LENGTH = 11;
+
+    private static final int NUM_WORDS_SHIFT = 61;
+    private static final long HASH_MASK = (1L << NUM_WORDS_SHIFT) - 1;
+
+    // FNV-1a 64-bit constants
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Starting value for addToHash()
+    public static final long HASH_SEED = FNV_OFFSET_BASIS;
+
+    // URL-safe base64 alphabet, so keys never contain tabs, spaces or newlines.
+    private static final char[] KEY_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] KEY_VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < KEY_VALUES.length; i++) {
+            KEY_VALUES[i] = -1;
+        }
+
+        for (int i = 0; i < KEY_CHARS.length; i++) {
+            KEY_VALUES[KEY_CHARS[i]] = i;
+        }
+    }
+
+    private TermIds() {
+        // Only static methods
+    }
+
+    /**
+     * Calculate the id for the term in <buffer>, without creating a String.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return term id
+     */
+    public static long getId(char[] buffer, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        int numWords = 1;
+
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = buffer[i];
+            if (c == ' ') {
+                numWords += 1;
+            }
+
+            hash ^= c;
+            hash *= FNV_PRIME;
+        }
+
+        return makeId(mix(hash), numWords);
+    }
+
+    public static long getId(String term) {
+        return getId(term.toCharArray(), 0, term.length());
+    }
+
+    /**
+     * @param term
+     * @return 64-bit hash of <term>, using all of the bits (unlike the id), for things
+     *         like SimHash that need the bits to be uniformly distributed.
+     */
+    public static long getHash(String term) {
+        long hash = FNV_OFFSET_BASIS;
+        int length = term.length();
+        for (int i = 0; i < length; i++) {
+            hash = addToHash(hash, term.charAt(i));
+        }
+
+        return finishHash(hash);
+    }
+
+    /**
+     * For building up a hash of text that isn't a single String (e.g. skipping some
+     * characters), the same way as getHash(): start with HASH_SEED (or a value derived from
+     * it), call addToHash() for each char, and then finishHash().
+     */
+    public static long addToHash(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+
+    public static long finishHash(long hash) {
+        return mix(hash);
+    }
+
+    public static int getNumWords(long termId) {
+        return (int)(termId >>> NUM_WORDS_SHIFT);
+    }
+
+    /**
+     * @param termId
+     * @return fixed-length (KEY_LENGTH) String version of <termId>
+     */
+    public static String toKey(long termId) {
+        char[] result = new char[KEY_LENGTH];
+        for (int i = KEY_LENGTH - 1; i >= 0; i--) {
+            result[i] = KEY_CHARS[(int)(termId & 0x3F)];
+            termId >>>= 6;
+        }
+
+        return new String(result);
+    }
+
+    public static long fromKey(String key) {
+        if (key.length() != KEY_LENGTH) {
+            throw new IllegalArgumentException("Invalid term key: " + key);
+        }
+
+        long result = 0;
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            char c = key.charAt(i);
+            int value = (c < KEY_VALUES.length) ? KEY_VALUES[c] : -1;
+            if (value == -1) {
+                throw new IllegalArgumentException("Invalid term key: " + key);
+            }
+
+            result = (result << 6) | value;
+        }
+
+        return result;
+    }
+
+    private static long makeId(long hash, int numWords) {
+        return ((long)Math.min(numWords, MAX_WORDS) << NUM_WORDS_SHIFT) | (hash & HASH_MASK);
+    }
+
+    /**
+     * FNV-1a doesn't mix the last few characters very well, so finish up with the
+     * MurmurHash3 64-bit finalizer.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
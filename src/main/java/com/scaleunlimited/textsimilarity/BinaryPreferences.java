@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A binary version of the userID,termID,score preference data, which can be memory
+ * mapped versus parsed. Preferences are grouped by user, using the same layout as a
+ * compressed sparse row matrix:
+ *
+ *   header: magic, version, number of users, number of preferences (4 ints)
+ *   user offsets: number of users + 1 ints, where the preferences for user N are at
+ *                 offsets[N] (inclusive) to offsets[N + 1] (exclusive)
+ *   term ids: one int per preference
+ *   scores: one float per preference
+ *
+ * Since user and term ids are dense, ints are big enough, even though the text version
+ * (and Taste) uses longs. Everything is big-endian, and the whole file has to be < 2GB,
+ * which is about 170M preferences.
+ *
+ */
+public class BinaryPreferences {
+
+    private static final int MAGIC = 0x54505246; // "TPRF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4;
+
+    private int _numUsers;
+    private int _numPrefs;
+    private IntBuffer _userOffsets;
+    private IntBuffer _termIds;
+    private FloatBuffer _scores;
+
+    private BinaryPreferences(ByteBuffer buffer) throws IOException {
+        if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+            throw new IOException("Not a binary preferences file (or unsupported version)");
+        }
+
+        _numUsers = buffer.getInt(8);
+        _numPrefs = buffer.getInt(12);
+
+        _userOffsets = slice(buffer, HEADER_SIZE, _numUsers + 1).asIntBuffer();
+        _termIds = slice(buffer, HEADER_SIZE + (4 * (_numUsers + 1)), _numPrefs).asIntBuffer();
+        _scores = slice(buffer, HEADER_SIZE + (4 * (_numUsers + 1 + _numPrefs)), _numPrefs).asFloatBuffer();
+    }
+
+    /**
+     * Memory map <file>, which must have been created by write().
+     *
+     * @param file
+     * @return preferences backed by the file
+     * @throws IOException
+     */
+    public static BinaryPreferences open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryPreferences(buffer);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    public int getNumUsers() {
+        return _numUsers;
+    }
+
+    public int getNumPrefs() {
+        return _numPrefs;
+    }
+
+    /**
+     * @param userId
+     * @return index of the first preference for <userId>
+     */
+    public int getStartIndex(int userId) {
+        return _userOffsets.get(userId);
+    }
+
+    /**
+     * @param userId
+     * @return index after the last preference for <userId>
+     */
+    public int getEndIndex(int userId) {
+        return _userOffsets.get(userId + 1);
+    }
+
+    public int getTermId(int index) {
+        return _termIds.get(index);
+    }
+
+    public float getScore(int index) {
+        return _scores.get(index);
+    }
+
+    /**
+     * Convert the userID,termID,score text data in <prefsPath> (a file or a directory of
+     * part files) into the binary format, and write it to <outputFile>.
+     *
+     * @param conf
+     * @param prefsPath
+     * @param outputFile local file
+     * @throws IOException
+     */
+    public static void write(Configuration conf, Path prefsPath, File outputFile) throws IOException {
+        FileSystem fs = prefsPath.getFileSystem(conf);
+        List<Path> inputFiles = getInputFiles(fs, prefsPath);
+
+        // First pass: count the preferences for each user.
+        int[] counts = new int[1024];
+        int numUsers = 0;
+        long numPrefs = 0;
+
+        for (Path inputFile : inputFiles) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(inputFile), "UTF-8"));
+
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+
+                    int userId = parseUserId(line);
+                    if (userId >= counts.length) {
+                        counts = Arrays.copyOf(counts, Math.max(userId + 1, counts.length * 2));
+                    }
+
+                    counts[userId] += 1;
+                    numUsers = Math.max(numUsers, userId + 1);
+                    numPrefs += 1;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        long fileSize = HEADER_SIZE + (4L * (numUsers + 1)) + (8L * numPrefs);
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Too many preferences (%d) for the binary format", numPrefs));
+        }
+
+        outputFile.delete();
+        RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
+
+        try {
+            raf.setLength(fileSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, numUsers);
+            buffer.putInt(12, (int)numPrefs);
+
+            // Convert counts into the starting offset for each user, and write those out.
+            IntBuffer userOffsets = slice(buffer, HEADER_SIZE, numUsers + 1).asIntBuffer();
+            int[] nextIndex = new int[numUsers];
+            int offset = 0;
+            for (int userId = 0; userId < numUsers; userId++) {
+                userOffsets.put(userId, offset);
+                nextIndex[userId] = offset;
+                offset += counts[userId];
+            }
+
+            userOffsets.put(numUsers, offset);
+
+            // Second pass: put each preference into its user's slot.
+            IntBuffer termIds = slice(buffer, HEADER_SIZE + (4 * (numUsers + 1)), (int)numPrefs).asIntBuffer();
+            FloatBuffer scores = slice(buffer, HEADER_SIZE + (4 * (numUsers + 1 + (int)numPrefs)), (int)numPrefs).asFloatBuffer();
+
+            for (Path inputFile : inputFiles) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(inputFile), "UTF-8"));
+
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+
+                        String[] fields = line.split(",");
+                        int userId = Integer.parseInt(fields[0]);
+                        int index = nextIndex[userId]++;
+                        termIds.put(index, Integer.parseInt(fields[1]));
+                        scores.put(index, Float.parseFloat(fields[2]));
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+
+            buffer.force();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int parseUserId(String line) throws IOException {
+        int commaPos = line.indexOf(',');
+        if (commaPos == -1) {
+            throw new IOException("Invalid preference line: " + line);
+        }
+
+        return Integer.parseInt(line.substring(0, commaPos));
+    }
+
+    private static List<Path> getInputFiles(FileSystem fs, Path prefsPath) throws IOException {
+        List<Path> result = new ArrayList<Path>();
+
+        if (!fs.getFileStatus(prefsPath).isDir()) {
+            result.add(prefsPath);
+            return result;
+        }
+
+        for (FileStatus status : fs.listStatus(prefsPath)) {
+            String name = status.getPath().getName();
+            if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+                result.add(status.getPath());
+            }
+        }
+
+        return result;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int numEntries) {
+        ByteBuffer result = buffer.duplicate();
+        result.position(offset);
+        result.limit(offset + (4 * numEntries));
+        return result.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+}
@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.Iterator;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.Identity;
+import cascading.operation.Insert;
+import cascading.operation.OperationCall;
+import cascading.operation.filter.Sample;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.HashJoin;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.CountBy;
+import cascading.pipe.assembly.Discard;
+import cascading.pipe.assembly.Retain;
+import cascading.pipe.assembly.SumBy;
+import cascading.pipe.joiner.LeftJoin;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.cascading.ml.ITermsFilter;
+import com.scaleunlimited.cascading.ml.ITermsParser;
+import com.scaleunlimited.textfeatures.CombineTermCounts;
+import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.TermIds;
+
+/**
+ * Finds the top terms for each user by log-likelihood ratio (LLR), as a replacement for
+ * TopTermsByLLR that's built for throughput:
+ *
+ * - Terms are hashed to 64-bit ids (see TermIds) as they're parsed, so everything up to the
+ *   output works with longs, versus Strings.
+ * - Email/term counts are combined map-side in a table of primitive arrays that's sized in
+ *   bytes (see CombineTermCounts).
+ * - Each user's terms are summed and scored in Buffers that use primitive arrays, and only
+ *   the top N (ITermsFilter.getMaxResults()) are kept, in a bounded min-heap (see TopTermsHeap).
+ * - The output is one email, term, score tuple per term, versus parallel terms & scores
+ *   Tuples that have to be flattened.
+ *
+ * The output term is the term's key (see TermIds.toKey()), so it has to be joined with a
+ * key => term dictionary, the same as with TopTermsByLLR when using term keys. The key
+ * is also what gets passed to ITermsFilter.filter(), which is only called for terms that
+ * would make the top N.
+ *
+ * The score for a term compares how often the user used it, versus everyone else. Terms
+ * that the user uses less often than everyone else get skipped, since a high LLR score
+ * for them means the term is unusually rare for this user.
+ *
+ */
+public class LLRTopTerms {
+
+    public static final String TERM_FN = "term";
+    public static final String SCORE_FN = "score";
+
+    public static final Fields OUTPUT_FIELDS = new Fields(Config.EMAIL_FN, TERM_FN, SCORE_FN);
+
+    private static final String SALT_FN = "salt";
+    private static final String USER_TOTAL_FN = "user_total";
+    private static final String TERM_TOTAL_FN = "term_total";
+    private static final String TOTAL_FN = "total";
+
+    private static final String TOTAL_TERM_ID_FN = "total_term_id";
+    private static final String SCORES_CONSTANT_FN = "scores_constant";
+    private static final String TOTAL_CONSTANT_FN = "total_constant";
+
+    // For skew handling (see makeTopTermsPipe)
+    private static final String SALT_TOTAL_FN = "salt_total";
+    private static final String TOTAL_EMAIL_FN = "total_email";
+    private static final String TOTAL_SALT_FN = "total_salt";
+    private static final String HEAVY_EMAIL_FN = "heavy_email";
+    private static final String HEAVY_CONSTANT_FN = "heavy_constant";
+    private static final String SAMPLE_COUNT_FN = "sample_count";
+    private static final String SAMPLE_TOTAL_FN = "sample_total";
+    private static final String SAMPLE_TOTAL_CONSTANT_FN = "sample_total_constant";
+
+    // Seed for sampling, so that we pick the same heavy hitters each time.
+    private static final long SAMPLE_SEED = 1L;
+
+    // Don't treat a user as a heavy hitter based on just a few sampled emails.
+    private static final int MIN_SAMPLE_COUNT = 10;
+
+    /**
+     * Parse the content, and emit partial counts for each email/term id pair.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class CountUserTerms extends CombineTermCounts {
+
+        private ITermsParser _parser;
+
+        /**
+         * @param parser parser for the content
+         * @param maxBytes memory to use for combining counts
+         */
+        public CountUserTerms(ITermsParser parser, long maxBytes) {
+            super(maxBytes);
+
+            _parser = parser;
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> functionCall) {
+            Tuple arguments = functionCall.getArguments().getTuple();
+            int group = startEmail(flowProcess, functionCall, arguments.getString(0));
+
+            _parser.reset(arguments.getString(1));
+            for (String term : _parser) {
+                addTerm(group, TermIds.getId(term));
+            }
+        }
+    }
+
+    /**
+     * Given the partial counts for one user/salt (sorted by term id), sum up the counts for
+     * each term, and emit them along with the total count for all of the terms. Unless the
+     * user's terms have been split up by salt, that's the user's total.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class SumUserTerms extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private static final int INITIAL_CAPACITY = 1000;
+
+        private transient long[] _termIds;
+        private transient long[] _counts;
+        private transient Tuple _result;
+
+        public SumUserTerms() {
+            super(new Fields(Config.EMAIL_FN, SALT_FN, Config.TERM_ID_FN, Config.TERM_COUNT_FN, USER_TOTAL_FN));
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _termIds = new long[INITIAL_CAPACITY];
+            _counts = new long[INITIAL_CAPACITY];
+            _result = Tuple.size(5);
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            int numTerms = 0;
+            long userTotal = 0;
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                long termId = te.getLong(Config.TERM_ID_FN);
+                long count = te.getLong(Config.TERM_COUNT_FN);
+                userTotal += count;
+
+                if ((numTerms > 0) && (_termIds[numTerms - 1] == termId)) {
+                    _counts[numTerms - 1] += count;
+                    continue;
+                }
+
+                if (numTerms == _termIds.length) {
+                    long[] newTermIds = new long[numTerms * 2];
+                    long[] newCounts = new long[numTerms * 2];
+                    System.arraycopy(_termIds, 0, newTermIds, 0, numTerms);
+                    System.arraycopy(_counts, 0, newCounts, 0, numTerms);
+                    _termIds = newTermIds;
+                    _counts = newCounts;
+                }
+
+                _termIds[numTerms] = termId;
+                _counts[numTerms] = count;
+                numTerms += 1;
+            }
+
+            TupleEntryCollector collector = bufferCall.getOutputCollector();
+            TupleEntry group = bufferCall.getGroup();
+            _result.setString(0, group.getString(Config.EMAIL_FN));
+            _result.setInteger(1, group.getInteger(SALT_FN));
+            _result.setLong(4, userTotal);
+            for (int i = 0; i < numTerms; i++) {
+                _result.setLong(2, _termIds[i]);
+                _result.setLong(3, _counts[i]);
+                collector.add(_result);
+            }
+        }
+    }
+
+    /**
+     * Add the salt for an email/term id pair. Terms for heavy hitters (where the heavy
+     * email argument isn't null) are split up by term id, so all of the counts for one
+     * user/term wind up in the same group. Everybody else gets a salt of 0.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class AddSalt extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        private int _numSalts;
+
+        private transient Tuple _result;
+        private transient long _numSalted;
+
+        public AddSalt(int numSalts) {
+            super(2, new Fields(SALT_FN));
+
+            _numSalts = numSalts;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _result = Tuple.size(1);
+            _numSalted = 0;
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
+            Tuple arguments = funcCall.getArguments().getTuple();
+            if (arguments.getObject(1) == null) {
+                _result.setInteger(0, 0);
+            } else {
+                _result.setInteger(0, getSalt(arguments.getLong(0), _numSalts));
+                _numSalted += 1;
+            }
+
+            funcCall.getOutputCollector().add(_result);
+        }
+
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            flowProcess.increment(TextSimilarityCounters.TERM_COUNTS_SALTED, _numSalted);
+            super.cleanup(flowProcess, operationCall);
+        }
+    }
+
+    /**
+     * Given the partial totals for each of a user's salts, emit the user's total once for
+     * each salt, so it can be joined back in with the user/salt term counts.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class MergeUserTotals extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private int _numSalts;
+
+        private transient int[] _salts;
+        private transient Tuple _result;
+
+        public MergeUserTotals(int numSalts) {
+            super(new Fields(TOTAL_EMAIL_FN, TOTAL_SALT_FN, USER_TOTAL_FN));
+
+            _numSalts = numSalts;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _salts = new int[_numSalts];
+            _result = Tuple.size(3);
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            int numSalts = 0;
+            long userTotal = 0;
+
+            // We get one tuple per salt, since these are the results of a SumBy.
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                _salts[numSalts++] = te.getInteger(SALT_FN);
+                userTotal += te.getLong(SALT_TOTAL_FN);
+            }
+
+            TupleEntryCollector collector = bufferCall.getOutputCollector();
+            _result.setString(0, bufferCall.getGroup().getString(Config.EMAIL_FN));
+            _result.setLong(2, userTotal);
+            for (int i = 0; i < numSalts; i++) {
+                _result.setInteger(1, _salts[i]);
+                collector.add(_result);
+            }
+        }
+    }
+
+    /**
+     * Given all of the terms for one user, with the counts we need to calculate the LLR
+     * score, emit the top N terms that aren't filtered out, from highest to lowest score.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class ScoreUserTerms extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private ITermsFilter _filter;
+        private ITermsParser _parser;
+
+        private transient TopTermsHeap _heap;
+        private transient Tuple _result;
+
+        public ScoreUserTerms(ITermsFilter filter, ITermsParser parser) {
+            super(OUTPUT_FIELDS);
+
+            _filter = filter;
+            _parser = parser;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _heap = new TopTermsHeap(_filter.getMaxResults());
+            _result = Tuple.size(3);
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            _heap.clear();
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                long termId = te.getLong(Config.TERM_ID_FN);
+                long termCount = te.getLong(Config.TERM_COUNT_FN);
+                long userTotal = te.getLong(USER_TOTAL_FN);
+                long termTotal = te.getLong(TERM_TOTAL_FN);
+                long total = te.getLong(TOTAL_FN);
+
+                // Skip terms this user uses less than everyone else. We compare the ratios
+                // termCount/userTotal and termTotal/total without dividing.
+                if ((double)termCount * total <= (double)termTotal * userTotal) {
+                    continue;
+                }
+
+                double score = getScore(termCount, userTotal, termTotal, total);
+                if (!_heap.isCompetitive(termId, score)) {
+                    continue;
+                }
+
+                if (!_filter.filter(score, TermIds.toKey(termId), _parser)) {
+                    _heap.add(termId, score);
+                }
+            }
+
+            _heap.sort();
+
+            TupleEntryCollector collector = bufferCall.getOutputCollector();
+            _result.setString(0, bufferCall.getGroup().getString(Config.EMAIL_FN));
+            for (int i = 0; i < _heap.size(); i++) {
+                _result.setString(1, TermIds.toKey(_heap.getTermId(i)));
+                _result.setDouble(2, _heap.getScore(i));
+                collector.add(_result);
+            }
+        }
+    }
+
+    /**
+     * Given a user's count of sampled emails and the total number of sampled emails, remove
+     * the user unless they're a heavy hitter: at least MIN_SAMPLE_COUNT emails, and at least
+     * <threshold> of the total.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class RemoveLightUsers extends BaseOperation<NullContext> implements Filter<NullContext> {
+
+        private double _threshold;
+
+        public RemoveLightUsers(double threshold) {
+            super(2);
+
+            _threshold = threshold;
+        }
+
+        @Override
+        public boolean isRemove(FlowProcess flowProcess, FilterCall<NullContext> filterCall) {
+            Tuple arguments = filterCall.getArguments().getTuple();
+            long sampleCount = arguments.getLong(0);
+            long sampleTotal = arguments.getLong(1);
+            return (sampleCount < MIN_SAMPLE_COUNT) || (sampleCount < _threshold * sampleTotal);
+        }
+    }
+
+    /**
+     * Given the top terms from each of a heavy hitter's salts, emit the top N overall. The
+     * terms have already been filtered, and each term is only in one salt.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class MergeTopTerms extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private int _maxResults;
+
+        private transient TopTermsHeap _heap;
+        private transient Tuple _result;
+
+        public MergeTopTerms(int maxResults) {
+            super(OUTPUT_FIELDS);
+
+            _maxResults = maxResults;
+        }
+
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+
+            _heap = new TopTermsHeap(_maxResults);
+            _result = Tuple.size(3);
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            _heap.clear();
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                _heap.add(TermIds.fromKey(te.getString(TERM_FN)), te.getDouble(SCORE_FN));
+            }
+
+            _heap.sort();
+
+            TupleEntryCollector collector = bufferCall.getOutputCollector();
+            _result.setString(0, bufferCall.getGroup().getString(Config.EMAIL_FN));
+            for (int i = 0; i < _heap.size(); i++) {
+                _result.setString(1, TermIds.toKey(_heap.getTermId(i)));
+                _result.setDouble(2, _heap.getScore(i));
+                collector.add(_result);
+            }
+        }
+    }
+
+    /**
+     * @param termId
+     * @param numSalts
+     * @return salt (0...numSalts - 1) for a heavy hitter's term.
+     */
+    public static int getSalt(long termId, int numSalts) {
+        return (int)((termId & Long.MAX_VALUE) % numSalts);
+    }
+
+    /**
+     * @param termCount number of times the user used the term
+     * @param userTotal number of terms for the user
+     * @param termTotal number of times anybody used the term
+     * @param total number of terms for everybody
+     * @return log-likelihood ratio for the user's use of the term, versus everyone else's.
+     */
+    public static double getScore(long termCount, long userTotal, long termTotal, long total) {
+        long k11 = termCount;
+        long k12 = userTotal - termCount;
+        long k21 = termTotal - termCount;
+        long k22 = total - userTotal - k21;
+        return logLikelihoodRatio(k11, k12, k21, k22);
+    }
+
+    /**
+     * Dunning's log-likelihood ratio for a 2x2 contingency table, calculated via
+     * entropy (same as Mahout's LogLikelihood.logLikelihoodRatio).
+     */
+    public static double logLikelihoodRatio(long k11, long k12, long k21, long k22) {
+        double rowEntropy = entropy(k11 + k12, k21 + k22);
+        double columnEntropy = entropy(k11 + k21, k12 + k22);
+        double matrixEntropy = entropy(k11, k12, k21, k22);
+        if (rowEntropy + columnEntropy < matrixEntropy) {
+            // Round-off error
+            return 0.0;
+        }
+
+        return 2.0 * (rowEntropy + columnEntropy - matrixEntropy);
+    }
+
+    private static double entropy(long a, long b) {
+        return xLogX(a + b) - xLogX(a) - xLogX(b);
+    }
+
+    private static double entropy(long a, long b, long c, long d) {
+        return xLogX(a + b + c + d) - xLogX(a) - xLogX(b) - xLogX(c) - xLogX(d);
+    }
+
+    private static double xLogX(long x) {
+        return (x == 0) ? 0.0 : x * Math.log(x);
+    }
+
+    /**
+     * Create a pipe that calculates the top terms for each user.
+     *
+     * @param inputPipe pipe with email and content fields.
+     * @param parser parser for the content
+     * @param filter decides which terms to skip, and the max number of terms per user
+     * @param mapSideCacheBytes memory to use for combining counts in each map task
+     * @return pipe with email, term (key), score fields.
+     */
+    public static Pipe makeTopTermsPipe(Pipe inputPipe, ITermsParser parser, ITermsFilter filter, long mapSideCacheBytes) {
+        return makeTopTermsPipe(inputPipe, parser, filter, mapSideCacheBytes, 1, 0.0, 0.0);
+    }
+
+    /**
+     * Create a pipe that calculates the top terms for each user, where users with a lot of
+     * emails (heavy hitters) don't wind up with one reducer doing all of the work.
+     *
+     * Heavy hitters are found by sampling the emails. Each of their term counts gets one of
+     * <numSalts> salts (from the term id), and we group by email and salt, versus just the
+     * email. Since all of the counts for a term are in the same group, the only thing that
+     * has to be merged before scoring is the user's total count, which we calculate from the
+     * partial totals for each salt. Each group then finds its own top terms, and those get
+     * merged into the user's top terms at the end.
+     *
+     * @param inputPipe pipe with email and content fields.
+     * @param parser parser for the content
+     * @param filter decides which terms to skip, and the max number of terms per user
+     * @param mapSideCacheBytes memory to use for combining counts in each map task
+     * @param numSalts number of groups for each heavy hitter's terms (1 = no skew handling)
+     * @param sampleRate fraction of emails to sample when looking for heavy hitters
+     * @param threshold minimum fraction of the (sampled) emails for a heavy hitter
+     * @return pipe with email, term (key), score fields.
+     */
+    public static Pipe makeTopTermsPipe(Pipe inputPipe, ITermsParser parser, ITermsFilter filter, long mapSideCacheBytes,
+                    int numSalts, double sampleRate, double threshold) {
+        boolean salted = numSalts > 1;
+
+        // Partial counts for each email/term id, with the salt for each one.
+        Pipe countsPipe = new Pipe("user term counts", inputPipe);
+        countsPipe = new Each(  countsPipe,
+                                new Fields(Config.EMAIL_FN, Config.CONTENT_FN),
+                                new CountUserTerms(parser, mapSideCacheBytes),
+                                Fields.RESULTS);
+
+        if (salted) {
+            // The list of heavy hitters is small, so we can use a HashJoin.
+            Pipe heavyHittersPipe = makeHeavyHittersPipe(inputPipe, sampleRate, threshold);
+            countsPipe = new HashJoin(  countsPipe, new Fields(Config.EMAIL_FN),
+                                        heavyHittersPipe, new Fields(HEAVY_EMAIL_FN),
+                                        new LeftJoin());
+            countsPipe = new Each(countsPipe, new Fields(Config.TERM_ID_FN, HEAVY_EMAIL_FN), new AddSalt(numSalts), Fields.ALL);
+            countsPipe = new Discard(countsPipe, new Fields(HEAVY_EMAIL_FN));
+        } else {
+            countsPipe = new Each(countsPipe, new Insert(new Fields(SALT_FN), 0), Fields.ALL);
+        }
+
+        // Full counts for each term, and the total for each user/salt.
+        Pipe partialCountsPipe = countsPipe;
+        countsPipe = new GroupBy(countsPipe, new Fields(Config.EMAIL_FN, SALT_FN), new Fields(Config.TERM_ID_FN));
+        countsPipe = new Every(countsPipe, new SumUserTerms(), Fields.RESULTS);
+
+        // If a user's terms are split up by salt, then we need to replace the per-salt totals
+        // with the user's total, from merging the partial totals for each salt. There are at
+        // most numSalts of those per user, so this is cheap even for heavy hitters.
+        if (salted) {
+            Pipe userTotalsPipe = new Pipe("user totals", partialCountsPipe);
+            userTotalsPipe = new SumBy( userTotalsPipe,
+                                        new Fields(Config.EMAIL_FN, SALT_FN),
+                                        new Fields(Config.TERM_COUNT_FN),
+                                        new Fields(SALT_TOTAL_FN),
+                                        Long.class);
+            userTotalsPipe = new GroupBy(userTotalsPipe, new Fields(Config.EMAIL_FN));
+            userTotalsPipe = new Every(userTotalsPipe, new Fields(SALT_FN, SALT_TOTAL_FN), new MergeUserTotals(numSalts), Fields.RESULTS);
+
+            countsPipe = new Discard(countsPipe, new Fields(USER_TOTAL_FN));
+            countsPipe = new CoGroup(   countsPipe, new Fields(Config.EMAIL_FN, SALT_FN),
+                                        userTotalsPipe, new Fields(TOTAL_EMAIL_FN, TOTAL_SALT_FN));
+        }
+
+        // Count for each term across all users, and the total count for all terms.
+        Pipe termTotalsPipe = new Pipe("term totals", countsPipe);
+        termTotalsPipe = new SumBy( termTotalsPipe,
+                                    new Fields(Config.TERM_ID_FN),
+                                    new Fields(Config.TERM_COUNT_FN),
+                                    new Fields(TERM_TOTAL_FN),
+                                    Long.class);
+        termTotalsPipe = new Each(  termTotalsPipe,
+                                    new Fields(Config.TERM_ID_FN, TERM_TOTAL_FN),
+                                    new Identity(new Fields(TOTAL_TERM_ID_FN, TERM_TOTAL_FN)));
+
+        Pipe totalPipe = new Pipe("total", termTotalsPipe);
+        totalPipe = new Each(totalPipe, new Insert(new Fields(TOTAL_CONSTANT_FN), 1), Fields.ALL);
+        totalPipe = new SumBy(  totalPipe,
+                                new Fields(TOTAL_CONSTANT_FN),
+                                new Fields(TERM_TOTAL_FN),
+                                new Fields(TOTAL_FN),
+                                Long.class);
+
+        // Add the term totals to the user/term counts, and the total via a HashJoin, since
+        // it's just one tuple.
+        Pipe scoresPipe = new CoGroup(  countsPipe, new Fields(Config.TERM_ID_FN),
+                                        termTotalsPipe, new Fields(TOTAL_TERM_ID_FN));
+        scoresPipe = new Each(scoresPipe, new Insert(new Fields(SCORES_CONSTANT_FN), 1), Fields.ALL);
+        scoresPipe = new HashJoin(  scoresPipe, new Fields(SCORES_CONSTANT_FN),
+                                    totalPipe, new Fields(TOTAL_CONSTANT_FN));
+
+        // Now we can score all of a user's (or salt's) terms, and keep the best ones.
+        scoresPipe = new GroupBy(scoresPipe, new Fields(Config.EMAIL_FN, SALT_FN));
+        scoresPipe = new Every( scoresPipe,
+                                new Fields(Config.TERM_ID_FN, Config.TERM_COUNT_FN, USER_TOTAL_FN, TERM_TOTAL_FN, TOTAL_FN),
+                                new ScoreUserTerms(filter, parser),
+                                Fields.RESULTS);
+
+        if (salted) {
+            scoresPipe = new GroupBy(scoresPipe, new Fields(Config.EMAIL_FN));
+            scoresPipe = new Every(scoresPipe, new Fields(TERM_FN, SCORE_FN), new MergeTopTerms(filter.getMaxResults()), Fields.RESULTS);
+        }
+
+        return scoresPipe;
+    }
+
+    /**
+     * Create a pipe with the emails that account for at least <threshold> of a sample of
+     * the emails.
+     *
+     * @param inputPipe pipe with an email field
+     * @param sampleRate
+     * @param threshold
+     * @return pipe with a heavy_email field.
+     */
+    private static Pipe makeHeavyHittersPipe(Pipe inputPipe, double sampleRate, double threshold) {
+        Pipe sampledPipe = new Pipe("sampled emails", inputPipe);
+        sampledPipe = new Each(sampledPipe, new Sample(SAMPLE_SEED, sampleRate));
+        sampledPipe = new Each(sampledPipe, new Fields(Config.EMAIL_FN), new Identity(new Fields(HEAVY_EMAIL_FN)));
+
+        Pipe sampleTotalPipe = new Pipe("sample total", sampledPipe);
+        sampleTotalPipe = new Each(sampleTotalPipe, new Insert(new Fields(SAMPLE_TOTAL_CONSTANT_FN), 1), Fields.ALL);
+        sampleTotalPipe = new CountBy(sampleTotalPipe, new Fields(SAMPLE_TOTAL_CONSTANT_FN), new Fields(SAMPLE_TOTAL_FN));
+
+        Pipe heavyHittersPipe = new CountBy(sampledPipe, new Fields(HEAVY_EMAIL_FN), new Fields(SAMPLE_COUNT_FN));
+        heavyHittersPipe = new Each(heavyHittersPipe, new Insert(new Fields(HEAVY_CONSTANT_FN), 1), Fields.ALL);
+        heavyHittersPipe = new HashJoin(heavyHittersPipe, new Fields(HEAVY_CONSTANT_FN),
+                                        sampleTotalPipe, new Fields(SAMPLE_TOTAL_CONSTANT_FN));
+
+        heavyHittersPipe = new Each(heavyHittersPipe,
+                                    new Fields(SAMPLE_COUNT_FN, SAMPLE_TOTAL_FN),
+                                    new RemoveLightUsers(threshold));
+        return new Retain(heavyHittersPipe, new Fields(HEAVY_EMAIL_FN));
+    }
+}
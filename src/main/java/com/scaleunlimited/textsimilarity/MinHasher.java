@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.io.Serializable;
+import java.util.Random;
+
+import com.scaleunlimited.textfeatures.TermIds;
+
+/**
+ * Calculates MinHash signatures for a user's set of terms, and splits them up into
+ * bands for locality sensitive hashing. Two users with a Jaccard similarity of s
+ * wind up in the same bucket for at least one band with probability
+ * 1 - (1 - s^rows)^bands, so more rows per band means fewer (but better) candidates,
+ * and more bands means better recall.
+ *
+ */
+@SuppressWarnings("serial")
+public class MinHasher implements Serializable {
+
+    private static final long DEFAULT_SEED = 0x5eed5eedL;
+
+    private int _numBands;
+    private int _numRows;
+    private long[] _seeds;
+
+    public MinHasher(int numBands, int numRows) {
+        this(numBands, numRows, DEFAULT_SEED);
+    }
+
+    public MinHasher(int numBands, int numRows, long seed) {
+        if ((numBands < 1) || (numRows < 1)) {
+            throw new IllegalArgumentException("Number of bands and rows must be at least 1");
+        }
+
+        _numBands = numBands;
+        _numRows = numRows;
+
+        Random rand = new Random(seed);
+        _seeds = new long[numBands * numRows];
+        for (int i = 0; i < _seeds.length; i++) {
+            _seeds[i] = rand.nextLong();
+        }
+    }
+
+    public int getNumBands() {
+        return _numBands;
+    }
+
+    public int getNumRows() {
+        return _numRows;
+    }
+
+    /**
+     * @param vector
+     * @return MinHash signature for the terms in <vector> (the weights are ignored), with
+     *         numBands * numRows values.
+     */
+    public long[] getSignature(TermVector vector) {
+        long[] result = new long[_seeds.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Long.MAX_VALUE;
+        }
+
+        for (int t = 0; t < vector.size(); t++) {
+            long termHash = TermIds.getId(vector.getTerm(t));
+            for (int i = 0; i < result.length; i++) {
+                long hash = TermIds.finishHash(termHash ^ _seeds[i]);
+                if (hash < result[i]) {
+                    result[i] = hash;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param signature
+     * @param band
+     * @return hash of the signature values for <band>, which (along with the band) is the bucket.
+     */
+    public long getBandKey(long[] signature, int band) {
+        long result = band;
+        int start = band * _numRows;
+        for (int i = start; i < start + _numRows; i++) {
+            result = TermIds.finishHash((result * 31) + signature[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param signature
+     * @return key for every band, in band order
+     */
+    public long[] getBandKeys(long[] signature) {
+        long[] result = new long[_numBands];
+        for (int band = 0; band < _numBands; band++) {
+            result[band] = getBandKey(signature, band);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+/**
+ * Removes quoted text from email content in a single pass over the characters, versus
+ * running a (multiline) regex over the content once for each thing we want to remove.
+ *
+ * A quoted line starts with one or more '>' characters, followed by a space (or the end
+ * of the line). A quote header is a line that starts with "On " (after any '>' and space
+ * characters), and has a comma before "wrote:", e.g.
+ *
+ *   On Fri, May 31, 2013 at 4:00 PM, Ted Dunning <ted.dunning@gmail.com> wrote:
+ *
+ * Mail clients often wrap long headers, so the "wrote:" can also be at the end of the
+ * next line. Everything up to and including the "wrote:" is removed.
+ *
+ * Both '\n' and '\r' end a line. Lines are found with String.indexOf(), and text is only
+ * copied (once) if something gets removed. A stripper isn't thread-safe, since it re-uses
+ * its output buffer between calls.
+ *
+ */
+public class QuoteStripper {
+
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    private static final String HEADER_START = "On ";
+    private static final String HEADER_END = "wrote:";
+
+    private boolean _stripQuotedLines;
+    private boolean _stripQuoteHeaders;
+
+    private char[] _output;
+
+    // State for the current call to strip()
+    private String _content;
+    private int _length;
+    private int _nextLF;
+    private int _nextCR;
+
+    public QuoteStripper(boolean stripQuotedLines, boolean stripQuoteHeaders) {
+        _stripQuotedLines = stripQuotedLines;
+        _stripQuoteHeaders = stripQuoteHeaders;
+
+        _output = new char[MIN_BUFFER_SIZE];
+    }
+
+    /**
+     * @param content
+     * @return <content> without quoted lines and/or quote headers, or <content> itself
+     *         if there was nothing to remove.
+     */
+    public String strip(String content) {
+        _content = content;
+        _length = content.length();
+        _nextLF = -1;
+        _nextCR = -1;
+
+        // Text from <keepStart> to the start of whatever we remove next hasn't been copied
+        // to the output yet. If we never remove anything, we never copy anything.
+        int keepStart = 0;
+        int dst = 0;
+        boolean changed = false;
+
+        int pos = 0;
+        while (pos < _length) {
+            // We're always at the start of a line here.
+            int lineEnd = findLineEnd(pos);
+            int nextLine = skipLineEnd(lineEnd);
+
+            int removeEnd = -1;
+            if (_stripQuotedLines && isQuotedLine(pos, lineEnd)) {
+                removeEnd = nextLine;
+            } else if (_stripQuoteHeaders) {
+                // Keep whatever follows the header, on the line where it ends.
+                removeEnd = findHeaderEnd(pos, lineEnd, nextLine);
+                if (removeEnd != -1) {
+                    nextLine = skipLineEnd(findLineEnd(removeEnd));
+                }
+            }
+
+            if (removeEnd != -1) {
+                dst = copy(keepStart, pos, dst);
+                keepStart = removeEnd;
+                changed = true;
+            }
+
+            pos = nextLine;
+        }
+
+        String result = content;
+        if (changed) {
+            dst = copy(keepStart, _length, dst);
+            result = new String(_output, 0, dst);
+        }
+
+        _content = null;
+        return result;
+    }
+
+    private int copy(int start, int end, int dst) {
+        int length = end - start;
+        if (dst + length > _output.length) {
+            char[] newOutput = new char[Math.max(dst + length, _output.length * 2)];
+            System.arraycopy(_output, 0, newOutput, 0, dst);
+            _output = newOutput;
+        }
+
+        _content.getChars(start, end, _output, dst);
+        return dst + length;
+    }
+
+    /**
+     * @return offset of the '\n' or '\r' that ends the line containing <pos>, or the
+     *         length of the content if it's the last line.
+     */
+    private int findLineEnd(int pos) {
+        // Keep track of the next LF and CR, so we don't keep re-scanning for a CR (which
+        // is rare in our content) on every line.
+        if ((_nextLF != _length) && (_nextLF < pos)) {
+            _nextLF = indexOf('\n', pos);
+        }
+
+        if ((_nextCR != _length) && (_nextCR < pos)) {
+            _nextCR = indexOf('\r', pos);
+        }
+
+        return Math.min(_nextLF, _nextCR);
+    }
+
+    private int indexOf(char c, int pos) {
+        int result = _content.indexOf(c, pos);
+        return result == -1 ? _length : result;
+    }
+
+    private int indexOf(char c, int pos, int limit) {
+        for (int i = pos; i < limit; i++) {
+            if (_content.charAt(i) == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int indexOf(String target, int pos, int limit) {
+        char firstChar = target.charAt(0);
+        int lastStart = limit - target.length();
+        for (int i = pos; i <= lastStart; i++) {
+            if ((_content.charAt(i) == firstChar) && _content.startsWith(target, i)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int skipLineEnd(int lineEnd) {
+        if (lineEnd == _length) {
+            return _length;
+        } else if ((_content.charAt(lineEnd) == '\r') && (lineEnd + 1 < _length) && (_content.charAt(lineEnd + 1) == '\n')) {
+            return lineEnd + 2;
+        } else {
+            return lineEnd + 1;
+        }
+    }
+
+    private boolean isQuotedLine(int pos, int lineEnd) {
+        if ((pos == lineEnd) || (_content.charAt(pos) != '>')) {
+            return false;
+        }
+
+        while ((pos < lineEnd) && (_content.charAt(pos) == '>')) {
+            pos++;
+        }
+
+        return (pos == lineEnd) || (_content.charAt(pos) == ' ');
+    }
+
+    /**
+     * @return offset just past the "wrote:" if the line starting at <pos> is a quote
+     *         header, otherwise -1.
+     */
+    private int findHeaderEnd(int pos, int lineEnd, int nextLine) {
+        char c;
+        while ((pos < lineEnd) && (((c = _content.charAt(pos)) == '>') || (c == ' ') || (c == '\t'))) {
+            pos++;
+        }
+
+        if ((pos + HEADER_START.length() > lineEnd) || !_content.startsWith(HEADER_START, pos)) {
+            return -1;
+        }
+
+        // Look for the comma, then "wrote:", on the same line.
+        int commaPos = indexOf(',', pos, lineEnd);
+        if (commaPos == -1) {
+            return -1;
+        }
+
+        int wrotePos = indexOf(HEADER_END, commaPos, lineEnd);
+        if (wrotePos != -1) {
+            return wrotePos + HEADER_END.length();
+        }
+
+        if (nextLine == _length) {
+            return -1;
+        }
+
+        // The header could have been wrapped, in which case the next line has to end with
+        // "wrote:" (ignoring trailing whitespace), so that we don't eat a regular line that
+        // just happens to follow one starting with "On ".
+        int end = findLineEnd(nextLine);
+        while ((end > nextLine) && (((c = _content.charAt(end - 1)) == ' ') || (c == '\t'))) {
+            end--;
+        }
+
+        int start = end - HEADER_END.length();
+        if ((start >= nextLine) && _content.startsWith(HEADER_END, start)) {
+            return end;
+        } else {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.Arrays;
+
+import com.scaleunlimited.textfeatures.TermIds;
+
+/**
+ * Calculates a 64-bit SimHash (Charikar) for a document's terms. Each term's hash adds
+ * one to the count for each bit that's set, and subtracts one for each bit that isn't,
+ * and the SimHash has the bits with a positive total set. So similar documents get
+ * SimHashes that differ in only a few bits (see getDistance()).
+ *
+ * Instances can be re-used for multiple documents, via reset().
+ *
+ */
+public class SimHash {
+
+    public static final int NUM_BITS = 64;
+
+    private int[] _counts = new int[NUM_BITS];
+    private int _numTerms;
+
+    public SimHash reset() {
+        Arrays.fill(_counts, 0);
+        _numTerms = 0;
+        return this;
+    }
+
+    public void addTerm(String term) {
+        long hash = TermIds.getHash(term);
+        for (int i = 0; i < NUM_BITS; i++) {
+            if ((hash & (1L << i)) != 0) {
+                _counts[i] += 1;
+            } else {
+                _counts[i] -= 1;
+            }
+        }
+
+        _numTerms += 1;
+    }
+
+    public int getNumTerms() {
+        return _numTerms;
+    }
+
+    /**
+     * @return SimHash of the terms added since the last reset().
+     */
+    public long getHash() {
+        long result = 0;
+        for (int i = 0; i < NUM_BITS; i++) {
+            if (_counts[i] > 0) {
+                result |= 1L << i;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param hash1
+     * @param hash2
+     * @return Hamming distance between the two hashes (number of bits that differ)
+     */
+    public static int getDistance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.Arrays;
+
+import com.scaleunlimited.textfeatures.TermIds;
+
+/**
+ * Index of SimHashes that can quickly find out if there's one within <maxDistance> bits
+ * of a given hash, without comparing it to every hash in the index.
+ *
+ * This uses the permuted tables approach from "Detecting Near-Duplicates for Web Crawling"
+ * (Manku et al.). The 64 bits are split into maxDistance + 1 blocks, and there's one table
+ * per block, where each hash is stored under the value of that block's bits. If two hashes
+ * differ in at most maxDistance bits, then at least one of the blocks must be identical, so
+ * we only have to check the hashes in the matching bucket of each table. This works well
+ * for small distances (e.g. 3, with 16-bit blocks), but with more (and thus smaller) blocks
+ * each bucket holds a bigger fraction of the hashes.
+ *
+ * Each table is a single long[] (open addressing with linear probing, like TermIdSet), where
+ * a hash goes in the first empty slot at or after the slot for its block's value. So all of
+ * the hashes with the same block value are in the run of full slots that starts there, and
+ * we don't need an object per bucket or a Long per key. Zero marks an empty slot, so a hash
+ * of zero is tracked separately.
+ *
+ * The index holds at most <maxSize> hashes, and has to be cleared (see isFull()) before
+ * more can be added. Each table has 4 slots per hash (to keep the load factor <= 0.5), so
+ * the index takes (maxDistance + 1) * maxSize * 32 bytes, rounded down to a power of two
+ * number of slots.
+ *
+ */
+public class SimHashIndex {
+
+    public static final int MAX_DISTANCE = 7;
+
+    public static final int DEFAULT_MAX_SIZE = 250 * 1000;
+
+    private static final long EMPTY = 0;
+
+    private int _maxDistance;
+    private int _maxSize;
+    private int[] _blockShifts;
+    private long[] _blockMasks;
+    private long[][] _tables;
+    private int _mask;
+    private boolean _hasEmpty;
+    private int _size;
+
+    public SimHashIndex(int maxDistance) {
+        this(maxDistance, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxDistance
+     * @param maxSize number of hashes we can hold before the index has to be cleared.
+     */
+    public SimHashIndex(int maxDistance, int maxSize) {
+        if ((maxDistance < 0) || (maxDistance > MAX_DISTANCE)) {
+            throw new IllegalArgumentException(String.format("Max distance must be between 0 and %d: %d", MAX_DISTANCE, maxDistance));
+        }
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1");
+        }
+
+        _maxDistance = maxDistance;
+        _maxSize = maxSize;
+
+        int numBlocks = maxDistance + 1;
+        int numSlots = Integer.highestOneBit(maxSize) * 4;
+        _blockShifts = new int[numBlocks];
+        _blockMasks = new long[numBlocks];
+        _tables = new long[numBlocks][numSlots];
+        _mask = numSlots - 1;
+        for (int i = 0; i < numBlocks; i++) {
+            int start = (i * SimHash.NUM_BITS) / numBlocks;
+            int end = ((i + 1) * SimHash.NUM_BITS) / numBlocks;
+            int width = end - start;
+
+            _blockShifts[i] = start;
+            _blockMasks[i] = (width == SimHash.NUM_BITS) ? -1L : (1L << width) - 1;
+        }
+    }
+
+    public int getMaxDistance() {
+        return _maxDistance;
+    }
+
+    /**
+     * @param hash
+     * @return true if there's a hash in the index that's at most maxDistance bits from <hash>.
+     */
+    public boolean containsNear(long hash) {
+        if (_hasEmpty && (SimHash.getDistance(hash, EMPTY) <= _maxDistance)) {
+            return true;
+        }
+
+        for (int i = 0; i < _tables.length; i++) {
+            long[] slots = _tables[i];
+            int index = slotIndex(getBlock(hash, i));
+            while (slots[index] != EMPTY) {
+                if (SimHash.getDistance(hash, slots[index]) <= _maxDistance) {
+                    return true;
+                }
+
+                index = (index + 1) & _mask;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Add <hash> to the index.
+     *
+     * @param hash
+     * @throws IllegalStateException if the index is full
+     */
+    public void add(long hash) {
+        if (isFull()) {
+            throw new IllegalStateException("Index is full");
+        }
+
+        if (hash == EMPTY) {
+            _hasEmpty = true;
+        } else {
+            for (int i = 0; i < _tables.length; i++) {
+                long[] slots = _tables[i];
+                int index = slotIndex(getBlock(hash, i));
+                while (slots[index] != EMPTY) {
+                    index = (index + 1) & _mask;
+                }
+
+                slots[index] = hash;
+            }
+        }
+
+        _size += 1;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    public boolean isFull() {
+        return _size == _maxSize;
+    }
+
+    public void clear() {
+        for (long[] slots : _tables) {
+            Arrays.fill(slots, EMPTY);
+        }
+
+        _hasEmpty = false;
+        _size = 0;
+    }
+
+    private long getBlock(long hash, int block) {
+        return (hash >>> _blockShifts[block]) & _blockMasks[block];
+    }
+
+    private int slotIndex(long block) {
+        // Block values aren't well mixed (e.g. they're small when the block is narrow).
+        return (int)TermIds.finishHash(block) & _mask;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.flow.FlowDef;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.Identity;
+import cascading.operation.Insert;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.Unique;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.cascading.BasePath;
+import com.scaleunlimited.cascading.BasePlatform;
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.cascading.hadoop.HadoopPlatform;
+import com.scaleunlimited.cascading.local.LocalPlatform;
+import com.scaleunlimited.textfeatures.Config;
+
+/**
+ * Export the email/term/score data generated by the TextSimilarityWorkflow (in
+ * Config.TERMS_DIR) as preference data for a Taste recommender. Emails and terms
+ * are assigned dense ids (starting at 0, in sorted order), which are written to
+ * Config.EMAIL_IDS_DIR and Config.TERM_IDS_DIR as id<tab>value lines, and the
+ * preferences are written to Config.TASTE_DATA_DIR as userID,termID,score lines.
+ *
+ * Use BinaryPreferences to convert the preferences into a file that can be memory
+ * mapped, versus having to parse the text.
+ *
+ */
+public class TasteExportWorkflow {
+
+    private static final String ID_FN = "id";
+    private static final String VALUE_FN = "value";
+    private static final String CONSTANT_FN = "constant";
+
+    private static final String EMAIL_ID_FN = "email_id";
+    private static final String ID_EMAIL_FN = "id_email";
+    private static final String ID_TERM_FN = "id_term";
+    private static final String PREF_LINE_FN = "pref_line";
+
+    /**
+     * Assign sequential ids to every value in the group. Since this needs to see all of the
+     * values, everything has to be in one group, and thus go to a single reducer. That's OK,
+     * since we only have one tuple per unique email or term.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class AssignIds extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        public AssignIds() {
+            super(new Fields(ID_FN, VALUE_FN));
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            long id = 0;
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                String value = iter.next().getString(VALUE_FN);
+                bufferCall.getOutputCollector().add(new Tuple(id++, value));
+            }
+        }
+    }
+
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class FormatPreference extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        public FormatPreference() {
+            super(3, new Fields(PREF_LINE_FN));
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
+            TupleEntry te = funcCall.getArguments();
+            String line = String.format("%d,%d,%s", te.getLong(EMAIL_ID_FN), te.getLong(Config.TERM_ID_FN), te.getString(UserSimilarityWorkflow.SCORE_FN));
+            funcCall.getOutputCollector().add(new Tuple(line));
+        }
+    }
+
+    /**
+     * Create a pipe with the unique values of <fieldName>, each with a dense id.
+     *
+     * @param name name of the new branch
+     * @param pipe
+     * @param fieldName
+     * @param idFieldName
+     * @param valueFieldName
+     * @return pipe with <idFieldName>, <valueFieldName> fields.
+     */
+    private static Pipe makeIdsPipe(String name, Pipe pipe, String fieldName, String idFieldName, String valueFieldName) {
+        Pipe idsPipe = new Pipe(name, pipe);
+        idsPipe = new Each(idsPipe, new Fields(fieldName), new Identity(new Fields(VALUE_FN)));
+        idsPipe = new Unique(idsPipe, new Fields(VALUE_FN));
+        idsPipe = new Each(idsPipe, new Insert(new Fields(CONSTANT_FN), 1), Fields.ALL);
+        idsPipe = new GroupBy(idsPipe, new Fields(CONSTANT_FN), new Fields(VALUE_FN));
+        idsPipe = new Every(idsPipe, new Fields(VALUE_FN), new AssignIds(), Fields.RESULTS);
+        return new Each(idsPipe, new Fields(ID_FN, VALUE_FN), new Identity(new Fields(idFieldName, valueFieldName)));
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static Flow createFlow(TextSimilarityOptions options) throws Exception {
+        BasePlatform platform  = options.isTestMode() ? new LocalPlatform(TasteExportWorkflow.class)
+                                                      : new HadoopPlatform(TasteExportWorkflow.class);
+
+        BasePath workingDirPath = platform.makePath(options.getWorkingDir());
+
+        BasePath termsPath = platform.makePath(workingDirPath, Config.TERMS_DIR);
+        platform.assertPathExists(termsPath, "terms directory");
+        Tap termsSource = platform.makeTap(platform.makeTextScheme(), termsPath);
+        Pipe termsPipe = UserSimilarityWorkflow.makeTermsPipe("terms");
+
+        Pipe emailIdsPipe = makeIdsPipe("email ids", termsPipe, Config.EMAIL_FN, EMAIL_ID_FN, ID_EMAIL_FN);
+        Pipe termIdsPipe = makeIdsPipe("term ids", termsPipe, UserSimilarityWorkflow.TERM_FN, Config.TERM_ID_FN, ID_TERM_FN);
+
+        // Replace emails and terms with their ids.
+        Pipe prefsPipe = new CoGroup(termsPipe, new Fields(Config.EMAIL_FN),
+                                     emailIdsPipe, new Fields(ID_EMAIL_FN));
+        prefsPipe = new CoGroup(prefsPipe, new Fields(UserSimilarityWorkflow.TERM_FN),
+                                termIdsPipe, new Fields(ID_TERM_FN));
+        prefsPipe = new Each(prefsPipe, new Fields(EMAIL_ID_FN, Config.TERM_ID_FN, UserSimilarityWorkflow.SCORE_FN), new FormatPreference(), Fields.RESULTS);
+
+        BasePath emailIdsPath = platform.makePath(workingDirPath, Config.EMAIL_IDS_DIR);
+        Tap emailIdsSink = platform.makeTap(platform.makeTextScheme(), emailIdsPath, SinkMode.REPLACE);
+        BasePath termIdsPath = platform.makePath(workingDirPath, Config.TERM_IDS_DIR);
+        Tap termIdsSink = platform.makeTap(platform.makeTextScheme(), termIdsPath, SinkMode.REPLACE);
+        BasePath prefsPath = platform.makePath(workingDirPath, Config.TASTE_DATA_DIR);
+        Tap prefsSink = platform.makeTap(platform.makeTextScheme(), prefsPath, SinkMode.REPLACE);
+
+        FlowDef flowDef = new FlowDef();
+        flowDef.addSource(termsPipe, termsSource);
+        flowDef.addTailSink(new Pipe(Config.EMAIL_IDS_DIR, emailIdsPipe), emailIdsSink);
+        flowDef.addTailSink(new Pipe(Config.TERM_IDS_DIR, termIdsPipe), termIdsSink);
+        flowDef.addTailSink(prefsPipe, prefsSink);
+        FlowConnector flowConnector = platform.makeFlowConnector();
+        return flowConnector.connect(flowDef);
+    }
+
+    /**
+     * Convert the text preferences generated by the flow into the binary (memory mappable)
+     * format, and save them to <outputFile>.
+     *
+     * @param options
+     * @param outputFile local file
+     * @throws Exception
+     */
+    public static void writeBinaryPreferences(TextSimilarityOptions options, File outputFile) throws Exception {
+        Path prefsPath = new Path(options.getWorkingDir(), Config.TASTE_DATA_DIR);
+        BinaryPreferences.write(new Configuration(), prefsPath, outputFile);
+    }
+}
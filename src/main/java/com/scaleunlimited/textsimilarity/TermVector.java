@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cascading.tuple.Tuple;
+
+/**
+ * A user's (L2 normalized) term weights, with the terms in the global order
+ * used for prefix filtering (rarest terms first). In a Tuple stream this is
+ * carried as two parallel Tuples, one with the terms and one with the weights.
+ *
+ */
+public class TermVector {
+
+    private String[] _terms;
+    private double[] _weights;
+    private Map<String, Integer> _index;
+
+    public TermVector(String[] terms, double[] weights) {
+        if (terms.length != weights.length) {
+            throw new IllegalArgumentException("Number of terms and weights must be the same");
+        }
+
+        _terms = terms;
+        _weights = weights;
+    }
+
+    public TermVector(Tuple terms, Tuple weights) {
+        this(new String[terms.size()], new double[weights.size()]);
+
+        for (int i = 0; i < _terms.length; i++) {
+            _terms[i] = terms.getString(i);
+            _weights[i] = weights.getDouble(i);
+        }
+    }
+
+    public int size() {
+        return _terms.length;
+    }
+
+    public String getTerm(int index) {
+        return _terms[index];
+    }
+
+    public double getWeight(int index) {
+        return _weights[index];
+    }
+
+    public Tuple getTermsTuple() {
+        Tuple result = new Tuple();
+        for (String term : _terms) {
+            result.add(term);
+        }
+
+        return result;
+    }
+
+    public Tuple getWeightsTuple() {
+        Tuple result = new Tuple();
+        for (double weight : _weights) {
+            result.add(weight);
+        }
+
+        return result;
+    }
+
+    /**
+     * Scale the weights so that the vector has a length of 1.0, which means the dot product
+     * of two vectors is their cosine similarity.
+     */
+    public void normalize() {
+        double sumOfSquares = 0.0;
+        for (double weight : _weights) {
+            sumOfSquares += weight * weight;
+        }
+
+        if (sumOfSquares > 0.0) {
+            double norm = Math.sqrt(sumOfSquares);
+            for (int i = 0; i < _weights.length; i++) {
+                _weights[i] /= norm;
+            }
+        }
+    }
+
+    /**
+     * Return the number of leading terms that we have to index, so that any other
+     * vector with a similarity >= <minSimilarity> must share at least one of these
+     * terms (and in fact the first term they share will be in both prefixes). This
+     * is the part of the vector left after removing the longest run of trailing terms
+     * whose norm is < <minSimilarity>, since those terms alone can't contribute enough.
+     *
+     * @param minSimilarity
+     * @return length of the prefix
+     */
+    public int getPrefixLength(double minSimilarity) {
+        double minSquared = minSimilarity * minSimilarity;
+        double suffixSquared = 0.0;
+
+        int result = _weights.length;
+        while (result > 0) {
+            double weight = _weights[result - 1];
+            if (suffixSquared + (weight * weight) >= minSquared) {
+                break;
+            }
+
+            suffixSquared += weight * weight;
+            result -= 1;
+        }
+
+        return result;
+    }
+
+    /**
+     * @param other
+     * @return dot product, which is the cosine similarity if both vectors are normalized.
+     */
+    public double dot(TermVector other) {
+        Map<String, Integer> otherIndex = other.getIndex();
+
+        double result = 0.0;
+        for (int i = 0; i < _terms.length; i++) {
+            Integer otherPos = otherIndex.get(_terms[i]);
+            if (otherPos != null) {
+                result += _weights[i] * other._weights[otherPos];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param other
+     * @return first term in our order that's also in <other>, or null if there is no such term.
+     */
+    public String getFirstCommonTerm(TermVector other) {
+        Map<String, Integer> otherIndex = other.getIndex();
+        for (String term : _terms) {
+            if (otherIndex.containsKey(term)) {
+                return term;
+            }
+        }
+
+        return null;
+    }
+
+    private Map<String, Integer> getIndex() {
+        if (_index == null) {
+            _index = new HashMap<String, Integer>(_terms.length * 2);
+            for (int i = 0; i < _terms.length; i++) {
+                _index.put(_terms[i], i);
+            }
+        }
+
+        return _index;
+    }
+}
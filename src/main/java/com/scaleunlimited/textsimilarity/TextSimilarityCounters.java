@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+/**
+ * Cascading counters for the text similarity workflow.
+ *
+ */
+public enum TextSimilarityCounters {
+    EMAILS_NEAR_DUPLICATE,      // SimHash was close to one we kept, so removed
+    SIMHASH_INDEX_CLEARED,      // SimHash index was full, so cleared
+    TERM_COUNTS_SALTED,         // term counts for heavy hitters, split up by salt
+}
@@ -12,12 +12,33 @@ import com.scaleunlimited.cascading.BaseOptions;
 
 public class TextSimilarityOptions extends BaseOptions {
 
+    public static final int DEFAULT_MAP_SIDE_CACHE_MB = 32;
+    public static final double DEFAULT_SKEW_SAMPLE_RATE = 0.01;
+    public static final double DEFAULT_SKEW_THRESHOLD = 0.01;
+
     private String _input;
     private String _workingDir;
     private String _stopwords;
     private boolean _testMode = false;
+    private int _localThreads = 1;
+    private int _analysisThreads = 1;
     private int _maxTermsPerUser = 20;
     private int _shingleSize = 1;
+    private boolean _useTermIds = false;
+    private boolean _calcSimilarities = false;
+    private double _minSimilarity = 0.2;
+    private int _lshBands = 0;
+    private int _lshRows = 4;
+    private boolean _tasteExport = false;
+    private String _tasteBinaryFile;
+    private boolean _stripQuotes = false;
+    private int _simHashDistance = -1;
+    private int _simHashMaxEmails = SimHashIndex.DEFAULT_MAX_SIZE;
+    private int _mapSideCacheMB = DEFAULT_MAP_SIDE_CACHE_MB;
+    private boolean _builtinLLR = false;
+    private int _skewSalts = 1;
+    private double _skewSampleRate = DEFAULT_SKEW_SAMPLE_RATE;
+    private double _skewThreshold = DEFAULT_SKEW_THRESHOLD;
     
     @Option(name = "-input", usage = "input data file or directory (emails in tsv format)", required = true)
     public void setInput(String input) {
@@ -55,6 +76,24 @@ public class TextSimilarityOptions extends BaseOptions {
         return _testMode;
     }
 
+    @Option(name = "-localthreads", usage = "number of threads for parsing and analysis in local (test) mode", required = false)
+    public void setLocalThreads(int localThreads) {
+        _localThreads = localThreads;
+    }
+  
+    public int getLocalThreads() {
+        return _localThreads;
+    }
+
+    @Option(name = "-analysisthreads", usage = "number of threads for text analysis inside each task", required = false)
+    public void setAnalysisThreads(int analysisThreads) {
+        _analysisThreads = analysisThreads;
+    }
+  
+    public int getAnalysisThreads() {
+        return _analysisThreads;
+    }
+
     @Option(name = "-maxterms", usage = "maximum number of terms to emit per user", required = false)
     public void setMaxTermsPerUser(int maxTermsPerUser) {
         _maxTermsPerUser = maxTermsPerUser;
@@ -73,6 +112,142 @@ public class TextSimilarityOptions extends BaseOptions {
         return _shingleSize;
     }
 
-    
+    @Option(name = "-termids", usage = "calculate top terms using ids, and only join the term text back in at the end", required = false)
+    public void setUseTermIds(boolean useTermIds) {
+        _useTermIds = useTermIds;
+    }
+  
+    public boolean isUseTermIds() {
+        return _useTermIds;
+    }
+
+    @Option(name = "-similarities", usage = "also calculate user-to-user similarities from the top terms", required = false)
+    public void setCalcSimilarities(boolean calcSimilarities) {
+        _calcSimilarities = calcSimilarities;
+    }
+  
+    public boolean isCalcSimilarities() {
+        return _calcSimilarities;
+    }
+
+    @Option(name = "-minsimilarity", usage = "minimum cosine similarity for pairs of users", required = false)
+    public void setMinSimilarity(double minSimilarity) {
+        _minSimilarity = minSimilarity;
+    }
+  
+    public double getMinSimilarity() {
+        return _minSimilarity;
+    }
+
+    @Option(name = "-lshbands", usage = "find similar users with MinHash LSH using this many bands (0 = exact)", required = false)
+    public void setLshBands(int lshBands) {
+        _lshBands = lshBands;
+    }
+  
+    public int getLshBands() {
+        return _lshBands;
+    }
+
+    @Option(name = "-lshrows", usage = "number of MinHash rows per LSH band", required = false)
+    public void setLshRows(int lshRows) {
+        _lshRows = lshRows;
+    }
+  
+    public int getLshRows() {
+        return _lshRows;
+    }
+
+    @Option(name = "-tasteexport", usage = "also export the top terms as Taste preference data, with dense ids", required = false)
+    public void setTasteExport(boolean tasteExport) {
+        _tasteExport = tasteExport;
+    }
+  
+    public boolean isTasteExport() {
+        return _tasteExport;
+    }
+
+    @Option(name = "-tastebinary", usage = "local file for a binary (memory mappable) copy of the Taste preference data", required = false)
+    public void setTasteBinaryFile(String tasteBinaryFile) {
+        _tasteBinaryFile = tasteBinaryFile;
+    }
+  
+    public String getTasteBinaryFile() {
+        return _tasteBinaryFile;
+    }
+
+    @Option(name = "-stripquotes", usage = "remove quoted (>) lines as well as quote headers from the content", required = false)
+    public void setStripQuotes(boolean stripQuotes) {
+        _stripQuotes = stripQuotes;
+    }
+  
+    public boolean isStripQuotes() {
+        return _stripQuotes;
+    }
+
+    @Option(name = "-simhashdistance", usage = "remove emails whose SimHash is within this many bits of one already kept (-1 = keep all)", required = false)
+    public void setSimHashDistance(int simHashDistance) {
+        _simHashDistance = simHashDistance;
+    }
+  
+    public int getSimHashDistance() {
+        return _simHashDistance;
+    }
+
+    @Option(name = "-simhashmaxemails", usage = "number of kept emails to remember when removing near-duplicates", required = false)
+    public void setSimHashMaxEmails(int simHashMaxEmails) {
+        _simHashMaxEmails = simHashMaxEmails;
+    }
+  
+    public int getSimHashMaxEmails() {
+        return _simHashMaxEmails;
+    }
+
+    @Option(name = "-mapsidecachemb", usage = "megabytes of memory to use for map-side counts of terms by user", required = false)
+    public void setMapSideCacheMB(int mapSideCacheMB) {
+        _mapSideCacheMB = mapSideCacheMB;
+    }
+  
+    public int getMapSideCacheMB() {
+        return _mapSideCacheMB;
+    }
 
+    public long getMapSideCacheBytes() {
+        return _mapSideCacheMB * 1024L * 1024L;
+    }
+
+    @Option(name = "-builtinllr", usage = "find top terms with LLRTopTerms (hashed terms, top N heap) versus TopTermsByLLR", required = false)
+    public void setBuiltinLLR(boolean builtinLLR) {
+        _builtinLLR = builtinLLR;
+    }
+  
+    public boolean isBuiltinLLR() {
+        return _builtinLLR;
+    }
+
+    @Option(name = "-skewsalts", usage = "number of reducer groups to split each heavy hitter's terms into (with -builtinllr)", required = false)
+    public void setSkewSalts(int skewSalts) {
+        _skewSalts = skewSalts;
+    }
+  
+    public int getSkewSalts() {
+        return _skewSalts;
+    }
+
+    @Option(name = "-skewsamplerate", usage = "fraction of emails to sample when looking for heavy hitters", required = false)
+    public void setSkewSampleRate(double skewSampleRate) {
+        _skewSampleRate = skewSampleRate;
+    }
+  
+    public double getSkewSampleRate() {
+        return _skewSampleRate;
+    }
+
+    @Option(name = "-skewthreshold", usage = "min fraction of all emails from one user for it to be a heavy hitter", required = false)
+    public void setSkewThreshold(double skewThreshold) {
+        _skewThreshold = skewThreshold;
+    }
+  
+    public double getSkewThreshold() {
+        return _skewThreshold;
+    }
 }
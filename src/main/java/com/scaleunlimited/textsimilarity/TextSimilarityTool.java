@@ -1,5 +1,7 @@
 package com.scaleunlimited.textsimilarity;
 
+import java.io.File;
+
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
@@ -29,6 +31,16 @@ public class TextSimilarityTool extends BaseTool {
             error(e.getMessage(), parser);
         }
         
+        if (options.getSkewSalts() < 1) {
+            error("-skewsalts must be at least 1", parser);
+        } else if ((options.getSkewSalts() > 1) && !options.isBuiltinLLR()) {
+            error("-skewsalts is only supported with -builtinllr", parser);
+        } else if ((options.getSkewSampleRate() <= 0.0) || (options.getSkewSampleRate() > 1.0)) {
+            error("-skewsamplerate must be greater than 0 and at most 1", parser);
+        } else if (options.getSimHashMaxEmails() < 1) {
+            error("-simhashmaxemails must be at least 1", parser);
+        }
+        
         try {
             Flow<?> flow = TextSimilarityWorkflow.createFlow(options);
             
@@ -37,6 +49,30 @@ public class TextSimilarityTool extends BaseTool {
             }
             
             flow.complete();
+            
+            if (options.isCalcSimilarities()) {
+                flow = UserSimilarityWorkflow.createFlow(options);
+                
+                if (options.getDOTFile() != null) {
+                    flow.writeDOT(options.getDOTFile().replaceFirst("(\\.dot)?$", "-similarity.dot"));
+                }
+                
+                flow.complete();
+            }
+            
+            if (options.isTasteExport() || (options.getTasteBinaryFile() != null)) {
+                flow = TasteExportWorkflow.createFlow(options);
+                
+                if (options.getDOTFile() != null) {
+                    flow.writeDOT(options.getDOTFile().replaceFirst("(\\.dot)?$", "-taste.dot"));
+                }
+                
+                flow.complete();
+                
+                if (options.getTasteBinaryFile() != null) {
+                    TasteExportWorkflow.writeBinaryPreferences(options, new File(options.getTasteBinaryFile()));
+                }
+            }
         } catch (Throwable t) {
             System.err.println("Exception running tool: " + t.getMessage());
             t.printStackTrace(System.err);
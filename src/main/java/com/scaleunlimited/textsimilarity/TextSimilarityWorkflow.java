@@ -12,21 +12,27 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
 import cascading.flow.FlowDef;
 import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
+import cascading.operation.Identity;
+import cascading.operation.OperationCall;
+import cascading.pipe.CoGroup;
 import cascading.pipe.Each;
 import cascading.pipe.GroupBy;
 import cascading.pipe.Pipe;
+import cascading.pipe.assembly.Unique;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
@@ -43,9 +49,27 @@ import com.scaleunlimited.cascading.ml.ITermsFilter;
 import com.scaleunlimited.cascading.ml.ITermsParser;
 import com.scaleunlimited.cascading.ml.TopTermsByLLR;
 import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.EmailTsvCodec;
+import com.scaleunlimited.textfeatures.ITermConsumer;
+import com.scaleunlimited.textfeatures.LocalParallelRunner;
+import com.scaleunlimited.textfeatures.MultithreadedAnalysisFunction;
+import com.scaleunlimited.textfeatures.PreparsedTerms;
 import com.scaleunlimited.textfeatures.SolrAnalyzer;
+import com.scaleunlimited.textfeatures.TermIdSet;
+import com.scaleunlimited.textfeatures.TermIds;
 
 public class TextSimilarityWorkflow {
+    private static final Logger LOGGER = Logger.getLogger(TextSimilarityWorkflow.class);
+
+    // Estimated size of an entry in TopTermsByLLR's map-side cache, not counting the term
+    // text, for a 64-bit JVM with compressed oops. This hasn't been measured, since the cache
+    // is internal to cascading.utils. It assumes a HashMap entry and table slot (~40 bytes),
+    // a key Tuple holding the email and term (~65 bytes, plus ~40 for the term String), and
+    // a value Tuple holding a Long count (~75 bytes). The email String is shared.
+    private static final int CACHE_ENTRY_BYTES = 200;
+
+    // In chars, including the space between words in shingles.
+    private static final int AVERAGE_WORD_LENGTH = 8;
 
     /**
      * Convert the "flattened" representation of emails (tab-separated values) into a Tuple
@@ -55,71 +79,260 @@ public class TextSimilarityWorkflow {
     @SuppressWarnings({"serial","rawtypes"})
     public static class ParseEmails extends BaseOperation<NullContext> implements Function<NullContext> {
 
+        private transient EmailTsvCodec _codec;
+        private transient Tuple _result;
+        
         public ParseEmails() {
             super(new Fields(Config.EMAIL_FN, Config.CONTENT_FN));
         }
         
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _codec = new EmailTsvCodec();
+            _result = Tuple.size(2);
+        }
+        
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
  
             // We have a line of text with a bunch of tab-separated fields.
             // msgId, author, email, subject, date, replyId, content
             String inputLine = funcCall.getArguments().getString("line");
-            String[] fields = inputLine.split("\t", -1);
-            if (fields.length != 7) {
+            if (!_codec.parse(inputLine)) {
                 // bad data, throw an exception
                 throw new RuntimeException("Invalid input line: " + inputLine);
             }
 
             // Normalize the email address
-            String email = fields[2].trim().toLowerCase();
+            _result.setString(0, _codec.getField(EmailTsvCodec.EMAIL_FIELD).trim().toLowerCase());
             
             // Content comes in with newlines and tabs escaped, so un-escape them now.
-            String content = fields[6].replaceAll("\\\\n", "\n").replaceAll("\\\t", "\t");
-            funcCall.getOutputCollector().add(new Tuple(email, content));
+            _result.setString(1, _codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+            funcCall.getOutputCollector().add(_result);
         }
     }
     
     /**
-     * Convert the "flattened" representation of emails (tab-separated values) into a Tuple
-     * with the fields we care about (email address & content).
+     * Remove lines of quoted text (those starting with '>') from the content, and optionally
+     * the quote headers as well, in the same pass.
      *
      */
     @SuppressWarnings({"serial","rawtypes"})
     public static class StripQuotedText extends BaseOperation<NullContext> implements Function<NullContext> {
 
+        private boolean _stripQuoteHeaders;
+        
+        private transient QuoteStripper _stripper;
+        private transient Tuple _result;
+        
         public StripQuotedText() {
+            this(false);
+        }
+        
+        public StripQuotedText(boolean stripQuoteHeaders) {
             super(1, Fields.ARGS);
+            
+            _stripQuoteHeaders = stripQuoteHeaders;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _stripper = new QuoteStripper(true, _stripQuoteHeaders);
+            _result = Tuple.size(1);
         }
         
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
             String content = funcCall.getArguments().getTuple().getString(0);
-            
-            // Create an expression to strip out quoted text.
-            content = content.replaceAll("(?m)^[>]{1,} .*", "");
-            funcCall.getOutputCollector().add(new Tuple(content));
+            _result.setString(0, _stripper.strip(content));
+            funcCall.getOutputCollector().add(_result);
         }
     }
     
     @SuppressWarnings({"serial","rawtypes"})
     public static class StripQuoteHeader extends BaseOperation<NullContext> implements Function<NullContext> {
         
+        private transient QuoteStripper _stripper;
+        private transient Tuple _result;
+        
         public StripQuoteHeader() {
             super(1, Fields.ARGS);
         }
         
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _stripper = new QuoteStripper(false, true);
+            _result = Tuple.size(1);
+        }
         
         @Override
         public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
             String content = funcCall.getArguments().getTuple().getString(0);
             
-            // Create an expression to strip out the header for quoted text, which looks like:
+            // Strip out the header for quoted text, which looks like:
             // > On Fri, May 31, 2013 at 4:00 PM, Ted Dun ning <ted.dunning@gmail.com> wrote:
             // On Tue, Jun 25, 2013 at 5:31 PM, Suneel Marthi <suneel_marthi@yahoo.com>wrote:
+            _result.setString(0, _stripper.strip(content));
+            funcCall.getOutputCollector().add(_result);
+        }
+    }
+    
+    /**
+     * Replace the content with the terms we get from analyzing it (see PreparsedTerms). This
+     * lets the analysis happen in parallel, either in multiple threads inside each task, or
+     * when we're running with multiple local threads, before the input partitions get merged
+     * back together.
+     * 
+     * The cost is that each email's terms are held as one String, which (with newlines) has
+     * about 3 times as many chars as the content for a shingle size of 2, and 6 times for a
+     * shingle size of 3, versus TermsParser generating one term at a time.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class AnalyzeContent extends MultithreadedAnalysisFunction {
 
-            content = content.replaceAll("(?m)^>* On ..., .+, .+wrote:", "");
-            funcCall.getOutputCollector().add(new Tuple(content));
+        private int _shingleSize;
+        private String _stopwordsFile;
+        
+        private transient Tuple _result;
+        
+        public AnalyzeContent(int shingleSize, String stopwordsFile) {
+            this(shingleSize, stopwordsFile, 1);
+        }
+        
+        /**
+         * @param shingleSize
+         * @param stopwordsFile
+         * @param numThreads number of threads to use for text analysis, in each task.
+         */
+        public AnalyzeContent(int shingleSize, String stopwordsFile, int numThreads) {
+            super(new Fields(Config.EMAIL_FN, Config.CONTENT_FN), numThreads);
+            
+            _shingleSize = shingleSize;
+            _stopwordsFile = stopwordsFile;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _result = Tuple.size(2);
+        }
+        
+        @Override
+        protected SolrAnalyzer makeAnalyzer() {
+            return TextSimilarityWorkflow.makeAnalyzer(_shingleSize, _stopwordsFile);
+        }
+        
+        @Override
+        protected void emit(Tuple arguments, PreparsedTerms.Builder terms, TupleEntryCollector collector) {
+            _result.setString(0, arguments.getString(0));
+            _result.setString(1, terms.toString());
+            collector.add(_result);
+        }
+    }
+    
+    /**
+     * Remove emails whose terms are nearly the same as those of an email we've already kept,
+     * such as bot notifications, CI failures and JIRA updates, which would otherwise inflate
+     * the term counts. Emails are compared using a SimHash of their terms, and one is a near
+     * duplicate if its SimHash is at most <maxDistance> bits away from one in the index (see
+     * SimHashIndex). The content has to have been analyzed already (see AnalyzeContent).
+     * 
+     * SimHash isn't reliable for very short emails (e.g. "Thanks!" from many different
+     * people), so emails with fewer than MIN_TERMS terms are always kept.
+     * 
+     * The index holds up to <maxEmails> hashes. Once it's full it gets cleared, which means
+     * we can miss near-duplicates of emails we kept before that, but never remove an email
+     * that isn't one. Each clear is logged, and counted by SIMHASH_INDEX_CLEARED.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class RemoveNearDuplicates extends BaseOperation<NullContext> implements Filter<NullContext> {
+
+        public static final int MIN_TERMS = 10;
+        
+        private int _maxDistance;
+        private int _maxEmails;
+        
+        private transient SimHash _simHash;
+        private transient SimHashIndex _index;
+        private transient int _numRemoved;
+        private transient int _numCleared;
+        
+        public RemoveNearDuplicates(int maxDistance) {
+            this(maxDistance, SimHashIndex.DEFAULT_MAX_SIZE);
+        }
+        
+        /**
+         * @param maxDistance
+         * @param maxEmails number of kept emails to remember, which determines memory use
+         */
+        public RemoveNearDuplicates(int maxDistance, int maxEmails) {
+            if ((maxDistance < 0) || (maxDistance > SimHashIndex.MAX_DISTANCE)) {
+                throw new IllegalArgumentException(String.format("SimHash distance must be between 0 and %d: %d", SimHashIndex.MAX_DISTANCE, maxDistance));
+            }
+            
+            if (maxEmails < 1) {
+                throw new IllegalArgumentException("SimHash max emails must be at least 1: " + maxEmails);
+            }
+            
+            _maxDistance = maxDistance;
+            _maxEmails = maxEmails;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _simHash = new SimHash();
+            _index = new SimHashIndex(_maxDistance, _maxEmails);
+            _numRemoved = 0;
+            _numCleared = 0;
+        }
+        
+        @Override
+        public boolean isRemove(FlowProcess flowProcess, FilterCall<NullContext> filterCall) {
+            String content = filterCall.getArguments().getString(Config.CONTENT_FN);
+            
+            _simHash.reset();
+            Iterator<String> terms = PreparsedTerms.getTermIterator(content);
+            while (terms.hasNext()) {
+                _simHash.addTerm(terms.next());
+            }
+            
+            if (_simHash.getNumTerms() < MIN_TERMS) {
+                return false;
+            }
+            
+            long hash = _simHash.getHash();
+            if (_index.containsNear(hash)) {
+                _numRemoved += 1;
+                flowProcess.increment(TextSimilarityCounters.EMAILS_NEAR_DUPLICATE, 1);
+                return true;
+            }
+            
+            if (_index.isFull()) {
+                LOGGER.info(String.format("Clearing SimHash index after %d emails", _index.size()));
+                _index.clear();
+                _numCleared += 1;
+                flowProcess.increment(TextSimilarityCounters.SIMHASH_INDEX_CLEARED, 1);
+            }
+            
+            _index.add(hash);
+            return false;
+        }
+        
+        @Override
+        public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            LOGGER.info(String.format("Removed %d near-duplicate emails, cleared the SimHash index %d times", _numRemoved, _numCleared));
+            super.cleanup(flowProcess, operationCall);
         }
     }
     
@@ -128,20 +341,57 @@ public class TextSimilarityWorkflow {
 
         private String _text;
         private SolrAnalyzer _analyzer;
+        private boolean _useTermIds;
         
         public TermsParser(int shingleSize, String stopwordsFile) {
-            try {
-                Set<String> stopwords = getStopwords(stopwordsFile);
-                _analyzer = new SolrAnalyzer(shingleSize, stopwords);
-            } catch (Exception e) {
-                throw new RuntimeException("Unable to create SolrAnalyzer for parsing text", e);
-            }
+            this(shingleSize, stopwordsFile, false);
+        }
+        
+        /**
+         * @param shingleSize
+         * @param stopwordsFile
+         * @param useTermIds if true, return term keys (see TermIds) versus the actual terms.
+         */
+        public TermsParser(int shingleSize, String stopwordsFile, boolean useTermIds) {
+            this(shingleSize, stopwordsFile, useTermIds, false);
+        }
+        
+        /**
+         * @param shingleSize
+         * @param stopwordsFile
+         * @param useTermIds if true, return term keys (see TermIds) versus the actual terms.
+         * @param preparsed if true, the text has already been analyzed (see AnalyzeContent)
+         */
+        public TermsParser(int shingleSize, String stopwordsFile, boolean useTermIds, boolean preparsed) {
+            _analyzer = preparsed ? null : makeAnalyzer(shingleSize, stopwordsFile);
+            _useTermIds = useTermIds;
         }
         
         @Override
         public Iterator<String> iterator() {
-            List<String> termList = _analyzer.getTermList(_text);
-            return termList.iterator();
+            // Terms are generated as TopTermsByLLR asks for them, versus building a list.
+            final Iterator<String> terms = (_analyzer == null) ? PreparsedTerms.getTermIterator(_text) : _analyzer.getTermIterator(_text);
+            if (!_useTermIds) {
+                return terms;
+            }
+            
+            return new Iterator<String>() {
+
+                @Override
+                public boolean hasNext() {
+                    return terms.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return TermIds.toKey(TermIds.getId(terms.next()));
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Can't remove terms");
+                }
+            };
         }
 
         @Override
@@ -149,29 +399,122 @@ public class TextSimilarityWorkflow {
             _text = text;
         }
 
-        private Set<String> getStopwords(String stopwordsFile) throws FileNotFoundException, IOException {
-            Set<String> result = new HashSet<String>();
-            if (stopwordsFile != null) {
-                for (String stopword : IOUtils.readLines(new FileInputStream(stopwordsFile))) {
-                    result.add(stopword);
-                }
-            }
-            
-            return result;
-        }
-        
         @Override
         public int getNumWords(String term) {
+            if (_useTermIds) {
+                return TermIds.getNumWords(TermIds.fromKey(term));
+            }
+            
             int numWords = 1;
             int offset = 0;
             while ((offset = term.indexOf(' ', offset)) != -1) {
                 numWords += 1;
+                offset += 1;
             }
             
             return numWords;
         }
     }
     
+    /**
+     * Emit the term key => term mapping for the terms in the content, as the dictionary used to
+     * convert the TermsParser's keys back into terms. We skip terms we've recently emitted, so
+     * that only a small fraction of the terms get turned into Strings.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class ExtractTermDictionary extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        // Number of ids we remember, before we start emitting terms again.
+        private static final int MAX_SEEN_IDS = 100000;
+        
+        private int _shingleSize;
+        private String _stopwordsFile;
+        private boolean _preparsed;
+        
+        private transient SolrAnalyzer _analyzer;
+        private transient TermIdSet _seenIds;
+        private transient Tuple _result;
+
+        public ExtractTermDictionary(int shingleSize, String stopwordsFile) {
+            this(shingleSize, stopwordsFile, false);
+        }
+        
+        /**
+         * @param shingleSize
+         * @param stopwordsFile
+         * @param preparsed if true, the content has already been analyzed (see AnalyzeContent)
+         */
+        public ExtractTermDictionary(int shingleSize, String stopwordsFile, boolean preparsed) {
+            super(1, new Fields("dictionary_key", "dictionary_term"));
+            
+            _shingleSize = shingleSize;
+            _stopwordsFile = stopwordsFile;
+            _preparsed = preparsed;
+        }
+        
+        @Override
+        public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+            super.prepare(flowProcess, operationCall);
+            
+            _analyzer = _preparsed ? null : makeAnalyzer(_shingleSize, _stopwordsFile);
+            _seenIds = new TermIdSet(MAX_SEEN_IDS);
+            _result = Tuple.size(2);
+        }
+        
+        @Override
+        public void operate(FlowProcess flowProcess, final FunctionCall<NullContext> funcCall) {
+            String content = funcCall.getArguments().getTuple().getString(0);
+            if (_preparsed) {
+                Iterator<String> terms = PreparsedTerms.getTermIterator(content);
+                while (terms.hasNext()) {
+                    String term = terms.next();
+                    long termId = TermIds.getId(term);
+                    if (_seenIds.add(termId)) {
+                        _result.setString(0, TermIds.toKey(termId));
+                        _result.setString(1, term);
+                        funcCall.getOutputCollector().add(_result);
+                    }
+                }
+                
+                return;
+            }
+            
+            _analyzer.getTerms(content, new ITermConsumer() {
+                
+                @Override
+                public void addTerm(char[] buffer, int offset, int length) {
+                    long termId = TermIds.getId(buffer, offset, length);
+                    if (_seenIds.add(termId)) {
+                        _result.setString(0, TermIds.toKey(termId));
+                        _result.setString(1, new String(buffer, offset, length));
+                        funcCall.getOutputCollector().add(_result);
+                    }
+                }
+            });
+        }
+    }
+    
+    private static SolrAnalyzer makeAnalyzer(int shingleSize, String stopwordsFile) {
+        try {
+            Set<String> stopwords = getStopwords(stopwordsFile);
+            return new SolrAnalyzer(shingleSize, stopwords);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create SolrAnalyzer for parsing text", e);
+        }
+    }
+
+    private static Set<String> getStopwords(String stopwordsFile) throws FileNotFoundException, IOException {
+        Set<String> result = new HashSet<String>();
+        if (stopwordsFile != null) {
+            for (String stopword : IOUtils.readLines(new FileInputStream(stopwordsFile))) {
+                result.add(stopword);
+            }
+        }
+        
+        return result;
+    }
+    
     @SuppressWarnings("serial")
     private static class TermsFilter implements ITermsFilter, Serializable {
 
@@ -224,6 +567,22 @@ public class TextSimilarityWorkflow {
     }
 
     
+    /**
+     * TopTermsByLLR's map-side cache is limited by the number of entries, so convert our
+     * byte budget into a number of entries, using an estimated size for each one (see
+     * CACHE_ENTRY_BYTES), plus the term's chars.
+     *
+     * @param maxBytes memory to use for the cache
+     * @param shingleSize maximum number of words per term
+     * @param useTermIds true if terms are (fixed-length) term keys
+     * @return number of entries to use for the map-side cache
+     */
+    protected static int getMapSideCacheSize(long maxBytes, int shingleSize, boolean useTermIds) {
+        int termBytes = useTermIds ? TermIds.KEY_LENGTH * 2 : AVERAGE_WORD_LENGTH * 2 * shingleSize;
+        long numEntries = maxBytes / (CACHE_ENTRY_BYTES + termBytes);
+        return (int)Math.max(1, Math.min(Integer.MAX_VALUE, numEntries));
+    }
+    
     @SuppressWarnings("rawtypes")
     public static Flow createFlow(TextSimilarityOptions options) throws Exception {
         
@@ -234,29 +593,94 @@ public class TextSimilarityWorkflow {
         
         BasePath inputPath = platform.makePath(options.getInput());
         platform.assertPathExists(inputPath, "input file");
-        Tap inputSource = platform.makeTap(platform.makeTextScheme(), inputPath);
-        Pipe inputPipe = new Pipe("input");
         
-        // Parse the input file to extract the email and the text content fields
-        inputPipe = new Each(inputPipe, new ParseEmails());
+        // In local mode, we can split the input into partitions that get parsed and analyzed
+        // by separate threads, which means the analysis has to happen before they're merged.
+        // We also do the analysis up front (versus in TopTermsByLLR) if we're using multiple
+        // analysis threads inside each task, or need the terms to remove near-duplicate emails.
+        FlowDef flowDef = new FlowDef();
+        LocalParallelRunner runner = new LocalParallelRunner(platform, inputPath, workingDirPath, options.getLocalThreads());
+        int analysisThreads = options.getAnalysisThreads();
+        boolean removeNearDuplicates = options.getSimHashDistance() >= 0;
+        boolean preparsed = (runner.getNumPartitions() > 1) || (analysisThreads > 1) || removeNearDuplicates;
+        Pipe[] inputPipes = runner.makeSourcePipes("input", flowDef);
         
-        // Remove quoted text
-        // inputPipe = new Each(inputPipe, new Fields(CONTENT_FN), new StripQuotedText(), Fields.REPLACE);
+        for (int i = 0; i < inputPipes.length; i++) {
+            // Parse the input file to extract the email and the text content fields
+            inputPipes[i] = new Each(inputPipes[i], new ParseEmails());
+            
+            // Remove quoted text (and quote headers) in one pass, or just the quote headers.
+            if (options.isStripQuotes()) {
+                inputPipes[i] = new Each(inputPipes[i], new Fields(Config.CONTENT_FN), new StripQuotedText(true), Fields.REPLACE);
+            } else {
+                inputPipes[i] = new Each(inputPipes[i], new Fields(Config.CONTENT_FN), new StripQuoteHeader(), Fields.REPLACE);
+            }
+            
+            if (preparsed) {
+                inputPipes[i] = new Each(   inputPipes[i],
+                                            new Fields(Config.EMAIL_FN, Config.CONTENT_FN),
+                                            new AnalyzeContent(options.getShingleSize(), options.getStopwords(), analysisThreads),
+                                            Fields.RESULTS);
+            }
+        }
         
-        // Remove quote header
-        inputPipe = new Each(inputPipe, new Fields(Config.CONTENT_FN), new StripQuoteHeader(), Fields.REPLACE);
+        Pipe inputPipe = LocalParallelRunner.merge("input", inputPipes);
+        
+        // This comes after the merge, so in local mode all of the emails go through one index.
+        if (removeNearDuplicates) {
+            inputPipe = new Each(inputPipe, new Fields(Config.CONTENT_FN), new RemoveNearDuplicates(options.getSimHashDistance(), options.getSimHashMaxEmails()));
+        }
 
-        // Now use the TopTermsByLLR SubAssembly to extract N top terms
-        final int mapSideCacheSize = 10000;
-        Pipe termsPipe = new TopTermsByLLR(inputPipe,
-                                           new TermsParser(options.getShingleSize(), options.getStopwords()),
-                                           new TermsFilter(options.getMaxTermsPerUser()), 
-                                           new Fields(Config.EMAIL_FN),
-                                           new Fields(Config.CONTENT_FN),
-                                           mapSideCacheSize);
-        
-        // We need to emit one line per email/term combination (with scores).
-        termsPipe = new Each(termsPipe, new ParseLLRData());
+        // If we're using term ids, then everything up to the final output uses fixed-length
+        // term keys, and we build up a separate dictionary to map them back to terms. The
+        // built-in LLR engine always uses term ids.
+        boolean useTermIds = options.isUseTermIds();
+        boolean builtinLLR = options.isBuiltinLLR();
+        boolean useDictionary = useTermIds || builtinLLR;
+        Pipe dictionaryPipe = null;
+        if (useDictionary) {
+            dictionaryPipe = new Pipe("dictionary", inputPipe);
+            dictionaryPipe = new Each(  dictionaryPipe,
+                                        new Fields(Config.CONTENT_FN),
+                                        new ExtractTermDictionary(options.getShingleSize(), options.getStopwords(), preparsed),
+                                        Fields.RESULTS);
+            dictionaryPipe = new Unique(dictionaryPipe, new Fields("dictionary_key"));
+        }
+        
+        Pipe termsPipe;
+        if (builtinLLR) {
+            // LLRTopTerms hashes the terms itself, and emits one line per email/term already. It
+            // can also split up the work for heavy hitters, so one reducer doesn't get stuck
+            // with all of their emails.
+            termsPipe = LLRTopTerms.makeTopTermsPipe(   inputPipe,
+                                                        new TermsParser(options.getShingleSize(), options.getStopwords(), false, preparsed),
+                                                        new TermsFilter(options.getMaxTermsPerUser()),
+                                                        options.getMapSideCacheBytes(),
+                                                        options.getSkewSalts(),
+                                                        options.getSkewSampleRate(),
+                                                        options.getSkewThreshold());
+        } else {
+            // Now use the TopTermsByLLR SubAssembly to extract N top terms
+            int mapSideCacheSize = getMapSideCacheSize(options.getMapSideCacheBytes(), options.getShingleSize(), useTermIds);
+            termsPipe = new TopTermsByLLR(  inputPipe,
+                                            new TermsParser(options.getShingleSize(), options.getStopwords(), useTermIds, preparsed),
+                                            new TermsFilter(options.getMaxTermsPerUser()), 
+                                            new Fields(Config.EMAIL_FN),
+                                            new Fields(Config.CONTENT_FN),
+                                            mapSideCacheSize);
+            
+            // We need to emit one line per email/term combination (with scores).
+            termsPipe = new Each(termsPipe, new ParseLLRData());
+        }
+        
+        // Replace the term keys with the actual terms.
+        if (useDictionary) {
+            termsPipe = new CoGroup(termsPipe, new Fields("term"),
+                                    dictionaryPipe, new Fields("dictionary_key"));
+            termsPipe = new Each(   termsPipe,
+                                    new Fields(Config.EMAIL_FN, "dictionary_term", "score"),
+                                    new Identity(new Fields(Config.EMAIL_FN, "term", "score")));
+        }
         
         // Sort by user, then score
         Fields groupFields = new Fields(Config.EMAIL_FN, "score");
@@ -265,8 +689,6 @@ public class TextSimilarityWorkflow {
         BasePath termsPath = platform.makePath(workingDirPath, Config.TERMS_DIR);
         Tap termsSink = platform.makeTap(platform.makeTextScheme(), termsPath, SinkMode.REPLACE);
 
-        FlowDef flowDef = new FlowDef();
-        flowDef.addSource(inputPipe, inputSource);
         flowDef.addTailSink(termsPipe, termsSink);
         FlowConnector flowConnector = platform.makeFlowConnector();
         return flowConnector.connect(flowDef);
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+/**
+ * Bounded min-heap of (term id, score) pairs, for keeping the top N terms for a user
+ * without sorting all of them. The lowest score is at the top of the heap, so a new
+ * term only has to be compared against that one to find out if it makes the cut.
+ *
+ * Ties are broken by term id, so the results don't depend on the order of the terms.
+ *
+ * Instances can be re-used for multiple users, via clear().
+ *
+ */
+class TopTermsHeap {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int _maxSize;
+    private long[] _termIds;
+    private double[] _scores;
+    private int _size;
+
+    public TopTermsHeap(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1: " + maxSize);
+        }
+
+        _maxSize = maxSize;
+
+        // Don't allocate everything up front, in case maxSize is huge.
+        int capacity = Math.min(maxSize, INITIAL_CAPACITY);
+        _termIds = new long[capacity];
+        _scores = new double[capacity];
+        _size = 0;
+    }
+
+    public void clear() {
+        _size = 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @param termId
+     * @param score
+     * @return true if add(termId, score) would keep the term.
+     */
+    public boolean isCompetitive(long termId, double score) {
+        return (_size < _maxSize) || isGreater(score, termId, _scores[0], _termIds[0]);
+    }
+
+    /**
+     * Add the term, if it's in the top N so far.
+     *
+     * @param termId
+     * @param score
+     * @return true if the term was added.
+     */
+    public boolean add(long termId, double score) {
+        if (_size < _maxSize) {
+            if (_size == _termIds.length) {
+                int newCapacity = (int)Math.min(_maxSize, _size * 2L);
+                long[] newTermIds = new long[newCapacity];
+                double[] newScores = new double[newCapacity];
+                System.arraycopy(_termIds, 0, newTermIds, 0, _size);
+                System.arraycopy(_scores, 0, newScores, 0, _size);
+                _termIds = newTermIds;
+                _scores = newScores;
+            }
+
+            _termIds[_size] = termId;
+            _scores[_size] = score;
+            siftUp(_size);
+            _size += 1;
+            return true;
+        } else if (isGreater(score, termId, _scores[0], _termIds[0])) {
+            _termIds[0] = termId;
+            _scores[0] = score;
+            siftDown(0, _size);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Sort the terms from highest to lowest score, for use with getTermId() and getScore().
+     * After this, the heap can't be added to until it's cleared.
+     */
+    public void sort() {
+        // Heapsort: move the lowest remaining score to the end, so we wind up in
+        // descending order.
+        for (int end = _size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    public long getTermId(int index) {
+        return _termIds[index];
+    }
+
+    public double getScore(int index) {
+        return _scores[index];
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isGreater(_scores[parent], _termIds[parent], _scores[index], _termIds[index])) {
+                break;
+            }
+
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index, int size) {
+        while (true) {
+            int smallest = index;
+            int left = (index * 2) + 1;
+            int right = left + 1;
+            if ((left < size) && isGreater(_scores[smallest], _termIds[smallest], _scores[left], _termIds[left])) {
+                smallest = left;
+            }
+
+            if ((right < size) && isGreater(_scores[smallest], _termIds[smallest], _scores[right], _termIds[right])) {
+                smallest = right;
+            }
+
+            if (smallest == index) {
+                break;
+            }
+
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long termId = _termIds[i];
+        _termIds[i] = _termIds[j];
+        _termIds[j] = termId;
+
+        double score = _scores[i];
+        _scores[i] = _scores[j];
+        _scores[j] = score;
+    }
+
+    private static boolean isGreater(double score1, long termId1, double score2, long termId2) {
+        return (score1 > score2) || ((score1 == score2) && (termId1 < termId2));
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2013 Scale Unlimited
+ *
+ * All rights reserved.
+ */
+
+package com.scaleunlimited.textsimilarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.flow.FlowDef;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.Identity;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.CountBy;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+import com.scaleunlimited.cascading.BasePath;
+import com.scaleunlimited.cascading.BasePlatform;
+import com.scaleunlimited.cascading.NullContext;
+import com.scaleunlimited.cascading.hadoop.HadoopPlatform;
+import com.scaleunlimited.cascading.local.LocalPlatform;
+import com.scaleunlimited.textfeatures.Config;
+
+/**
+ * Calculate the cosine similarity between all pairs of users, using the LLR-weighted
+ * terms generated by the TextSimilarityWorkflow (in Config.TERMS_DIR), and write out
+ * all pairs with a similarity >= the min similarity to Config.SIMILARITIES_DIR.
+ *
+ * To avoid comparing every user with every other user, we use prefix filtering. All
+ * terms are put in a global order (by increasing document frequency, so rarest first),
+ * and each user only indexes the first few terms in that order, where the remaining
+ * terms can't possibly produce a high enough similarity score. Two users with a
+ * similarity >= the min similarity must then have the first term they share in both
+ * prefixes, so we group users by prefix term, and only compare users in the same
+ * group. Since common terms are at the end of the order, they rarely get indexed,
+ * which keeps the groups small.
+ *
+ * Alternatively (if the number of LSH bands is > 0), we find candidate pairs using
+ * MinHash signatures of each user's set of terms, split into bands. Users that have
+ * the same signature values for any band are compared, so pairs can be missed, but
+ * the amount of work no longer depends on the similarity threshold.
+ *
+ */
+public class UserSimilarityWorkflow {
+
+    public static final String TERM_FN = "term";
+    public static final String SCORE_FN = "score";
+    public static final String DF_FN = "df";
+    public static final String TERMS_FN = "terms";
+    public static final String WEIGHTS_FN = "weights";
+
+    public static final String BAND_FN = "band";
+    public static final String BAND_KEY_FN = "band_key";
+    public static final String BAND_KEYS_FN = "band_keys";
+
+    public static final String EMAIL1_FN = "email1";
+    public static final String EMAIL2_FN = "email2";
+    public static final String SIMILARITY_FN = "similarity";
+
+    /**
+     * Parse the email/term/score lines written to the Config.TERMS_DIR by the TextSimilarityWorkflow.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class ParseTermsLine extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        public ParseTermsLine() {
+            super(new Fields(Config.EMAIL_FN, TERM_FN, SCORE_FN));
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
+            String inputLine = funcCall.getArguments().getString("line");
+            String[] fields = inputLine.split("\t", -1);
+            if (fields.length != 3) {
+                // bad data, throw an exception
+                throw new RuntimeException("Invalid input line: " + inputLine);
+            }
+
+            funcCall.getOutputCollector().add(new Tuple(fields[0], fields[1], Double.parseDouble(fields[2])));
+        }
+    }
+
+    /**
+     * Given all of the terms for one user (with their score and document frequency), emit the
+     * user's normalized term vector, with terms in the global order.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class MakeTermVector extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        public MakeTermVector() {
+            super(new Fields(Config.EMAIL_FN, TERMS_FN, WEIGHTS_FN));
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            List<Tuple> entries = new ArrayList<Tuple>();
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                entries.add(new Tuple(te.getString(TERM_FN), te.getDouble(SCORE_FN), te.getInteger(DF_FN)));
+            }
+
+            Tuple[] sortedEntries = entries.toArray(new Tuple[entries.size()]);
+            Arrays.sort(sortedEntries, new Comparator<Tuple>() {
+
+                @Override
+                public int compare(Tuple o1, Tuple o2) {
+                    // Rarest terms first, then by the term itself to break ties.
+                    int df1 = o1.getInteger(2);
+                    int df2 = o2.getInteger(2);
+                    if (df1 < df2) {
+                        return -1;
+                    } else if (df1 > df2) {
+                        return 1;
+                    } else {
+                        return o1.getString(0).compareTo(o2.getString(0));
+                    }
+                }
+            });
+
+            String[] terms = new String[sortedEntries.length];
+            double[] weights = new double[sortedEntries.length];
+            for (int i = 0; i < sortedEntries.length; i++) {
+                terms[i] = sortedEntries[i].getString(0);
+                weights[i] = sortedEntries[i].getDouble(1);
+            }
+
+            TermVector vector = new TermVector(terms, weights);
+            vector.normalize();
+            String email = bufferCall.getGroup().getString(Config.EMAIL_FN);
+            bufferCall.getOutputCollector().add(new Tuple(email, vector.getTermsTuple(), vector.getWeightsTuple()));
+        }
+    }
+
+    /**
+     * Emit one tuple for each term in the prefix of the user's term vector, along with
+     * the email and the vector itself, so we can compare users that share the term.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class EmitPrefixTerms extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        private double _minSimilarity;
+
+        public EmitPrefixTerms(double minSimilarity) {
+            super(new Fields(TERM_FN));
+
+            _minSimilarity = minSimilarity;
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
+            TupleEntry te = funcCall.getArguments();
+            Tuple terms = (Tuple)te.getObject(TERMS_FN);
+            Tuple weights = (Tuple)te.getObject(WEIGHTS_FN);
+
+            TermVector vector = new TermVector(terms, weights);
+            int prefixLength = vector.getPrefixLength(_minSimilarity);
+            for (int i = 0; i < prefixLength; i++) {
+                funcCall.getOutputCollector().add(new Tuple(vector.getTerm(i)));
+            }
+        }
+    }
+
+    /**
+     * Compare all of the users that have the same term in their prefix. To avoid generating
+     * the same pair from multiple groups, we only emit the pair from the group for the first
+     * term (in the global order) that the two users share.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class FindSimilarUsers extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private double _minSimilarity;
+
+        public FindSimilarUsers(double minSimilarity) {
+            super(new Fields(EMAIL1_FN, EMAIL2_FN, SIMILARITY_FN));
+
+            _minSimilarity = minSimilarity;
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            String groupTerm = bufferCall.getGroup().getString(TERM_FN);
+
+            List<String> emails = new ArrayList<String>();
+            List<TermVector> vectors = new ArrayList<TermVector>();
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                emails.add(te.getString(Config.EMAIL_FN));
+                vectors.add(new TermVector((Tuple)te.getObject(TERMS_FN), (Tuple)te.getObject(WEIGHTS_FN)));
+            }
+
+            TupleEntryCollector collector = bufferCall.getOutputCollector();
+            int numUsers = emails.size();
+            for (int i = 0; i < numUsers; i++) {
+                TermVector vector = vectors.get(i);
+                for (int j = i + 1; j < numUsers; j++) {
+                    TermVector otherVector = vectors.get(j);
+                    if (!groupTerm.equals(vector.getFirstCommonTerm(otherVector))) {
+                        continue;
+                    }
+
+                    double similarity = vector.dot(otherVector);
+                    if (similarity >= _minSimilarity) {
+                        collector.add(makePair(emails.get(i), emails.get(j), similarity));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate the user's MinHash signature, and emit one tuple per band with the
+     * bucket key for that band. We also include the keys for all bands, which is
+     * much smaller than the signature, and enough to tell if two users share a band.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class EmitBandKeys extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        private MinHasher _minHasher;
+
+        public EmitBandKeys(MinHasher minHasher) {
+            super(new Fields(BAND_FN, BAND_KEY_FN, BAND_KEYS_FN));
+
+            _minHasher = minHasher;
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, FunctionCall<NullContext> funcCall) {
+            TupleEntry te = funcCall.getArguments();
+            TermVector vector = new TermVector((Tuple)te.getObject(TERMS_FN), (Tuple)te.getObject(WEIGHTS_FN));
+            long[] bandKeys = _minHasher.getBandKeys(_minHasher.getSignature(vector));
+
+            Tuple bandKeysTuple = new Tuple();
+            for (long bandKey : bandKeys) {
+                bandKeysTuple.add(bandKey);
+            }
+
+            for (int band = 0; band < bandKeys.length; band++) {
+                funcCall.getOutputCollector().add(new Tuple(band, bandKeys[band], bandKeysTuple));
+            }
+        }
+    }
+
+    /**
+     * Compare all of the users in the same LSH bucket, and emit the pairs that really are
+     * similar. Users that land in the same bucket for several bands are only compared in
+     * the first of those bands.
+     *
+     */
+    @SuppressWarnings({"serial","rawtypes"})
+    public static class FindSimilarCandidates extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        private double _minSimilarity;
+
+        public FindSimilarCandidates(double minSimilarity) {
+            super(new Fields(EMAIL1_FN, EMAIL2_FN, SIMILARITY_FN));
+
+            _minSimilarity = minSimilarity;
+        }
+
+        @Override
+        public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+            int band = bufferCall.getGroup().getInteger(BAND_FN);
+
+            List<String> emails = new ArrayList<String>();
+            List<TermVector> vectors = new ArrayList<TermVector>();
+            List<long[]> bandKeys = new ArrayList<long[]>();
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry te = iter.next();
+                emails.add(te.getString(Config.EMAIL_FN));
+                vectors.add(new TermVector((Tuple)te.getObject(TERMS_FN), (Tuple)te.getObject(WEIGHTS_FN)));
+
+                Tuple bandKeysTuple = (Tuple)te.getObject(BAND_KEYS_FN);
+                long[] userBandKeys = new long[bandKeysTuple.size()];
+                for (int i = 0; i < userBandKeys.length; i++) {
+                    userBandKeys[i] = bandKeysTuple.getLong(i);
+                }
+
+                bandKeys.add(userBandKeys);
+            }
+
+            TupleEntryCollector collector = bufferCall.getOutputCollector();
+            int numUsers = emails.size();
+            for (int i = 0; i < numUsers; i++) {
+                for (int j = i + 1; j < numUsers; j++) {
+                    if (isInEarlierBand(bandKeys.get(i), bandKeys.get(j), band)) {
+                        continue;
+                    }
+
+                    double similarity = vectors.get(i).dot(vectors.get(j));
+                    if (similarity >= _minSimilarity) {
+                        collector.add(makePair(emails.get(i), emails.get(j), similarity));
+                    }
+                }
+            }
+        }
+
+        private boolean isInEarlierBand(long[] bandKeys1, long[] bandKeys2, int band) {
+            for (int i = 0; i < band; i++) {
+                if (bandKeys1[i] == bandKeys2[i]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * @return Tuple for the email1/email2/similarity fields, with the emails in sorted order.
+     */
+    public static Tuple makePair(String email1, String email2, double similarity) {
+        if (email1.compareTo(email2) <= 0) {
+            return new Tuple(email1, email2, similarity);
+        } else {
+            return new Tuple(email2, email1, similarity);
+        }
+    }
+
+    /**
+     * Create a pipe with one tuple per user (email), with the user's normalized term
+     * vector in the global (increasing document frequency) term order.
+     *
+     * @param termsPipe pipe with email, term, score fields.
+     * @return pipe with email, terms, weights fields.
+     */
+    public static Pipe makeTermVectorsPipe(Pipe termsPipe) {
+        // Calculate the document frequency of every term.
+        Pipe dfPipe = new Pipe("term df", termsPipe);
+        dfPipe = new CountBy(dfPipe, new Fields(TERM_FN), new Fields(DF_FN));
+        dfPipe = new Each(dfPipe, new Fields(TERM_FN, DF_FN), new Identity(new Fields("df_term", DF_FN)));
+
+        Pipe vectorsPipe = new CoGroup(termsPipe, new Fields(TERM_FN),
+                                       dfPipe, new Fields("df_term"));
+        vectorsPipe = new GroupBy(vectorsPipe, new Fields(Config.EMAIL_FN));
+        vectorsPipe = new Every(vectorsPipe, new MakeTermVector(), Fields.RESULTS);
+        return vectorsPipe;
+    }
+
+    /**
+     * Create the pipe that reads the email, term, score data from the Config.TERMS_DIR.
+     */
+    public static Pipe makeTermsPipe(String name) {
+        Pipe termsPipe = new Pipe(name);
+        return new Each(termsPipe, new ParseTermsLine());
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static Flow createFlow(TextSimilarityOptions options) throws Exception {
+        BasePlatform platform  = options.isTestMode() ? new LocalPlatform(UserSimilarityWorkflow.class)
+                                                      : new HadoopPlatform(UserSimilarityWorkflow.class);
+
+        BasePath workingDirPath = platform.makePath(options.getWorkingDir());
+
+        BasePath termsPath = platform.makePath(workingDirPath, Config.TERMS_DIR);
+        platform.assertPathExists(termsPath, "terms directory");
+        Tap termsSource = platform.makeTap(platform.makeTextScheme(), termsPath);
+        Pipe termsPipe = makeTermsPipe("terms");
+
+        Pipe vectorsPipe = makeTermVectorsPipe(termsPipe);
+
+        double minSimilarity = options.getMinSimilarity();
+        Pipe similarityPipe;
+        if (options.getLshBands() > 0) {
+            // Put users into LSH buckets, and compare users in each bucket.
+            MinHasher minHasher = new MinHasher(options.getLshBands(), options.getLshRows());
+            similarityPipe = new Each(vectorsPipe, new Fields(TERMS_FN, WEIGHTS_FN), new EmitBandKeys(minHasher), Fields.ALL);
+            similarityPipe = new GroupBy(similarityPipe, new Fields(BAND_FN, BAND_KEY_FN));
+            similarityPipe = new Every(similarityPipe, new Fields(Config.EMAIL_FN, TERMS_FN, WEIGHTS_FN, BAND_KEYS_FN), new FindSimilarCandidates(minSimilarity), Fields.RESULTS);
+        } else {
+            // Build the inverted index of prefix term => users, and compare users in each group.
+            similarityPipe = new Each(vectorsPipe, new Fields(TERMS_FN, WEIGHTS_FN), new EmitPrefixTerms(minSimilarity), Fields.ALL);
+            similarityPipe = new GroupBy(similarityPipe, new Fields(TERM_FN));
+            similarityPipe = new Every(similarityPipe, new Fields(Config.EMAIL_FN, TERMS_FN, WEIGHTS_FN), new FindSimilarUsers(minSimilarity), Fields.RESULTS);
+        }
+
+        // Sort by user, then similarity
+        similarityPipe = new GroupBy(similarityPipe, new Fields(EMAIL1_FN, SIMILARITY_FN), true);
+
+        BasePath similaritiesPath = platform.makePath(workingDirPath, Config.SIMILARITIES_DIR);
+        Tap similaritiesSink = platform.makeTap(platform.makeTextScheme(), similaritiesPath, SinkMode.REPLACE);
+
+        FlowDef flowDef = new FlowDef();
+        flowDef.addSource(termsPipe, termsSource);
+        flowDef.addTailSink(similarityPipe, similaritiesSink);
+        FlowConnector flowConnector = platform.makeFlowConnector();
+        return flowConnector.connect(flowDef);
+    }
+}
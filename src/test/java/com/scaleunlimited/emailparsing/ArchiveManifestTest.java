@@ -0,0 +1,276 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import cascading.CascadingTestCase;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleListCollector;
+
+public class ArchiveManifestTest extends CascadingTestCase {
+
+    private static final File TEST_DIR = new File("build/test/ArchiveManifestTest");
+
+    private static final String UTF_8 = "UTF-8";
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(TEST_DIR);
+    }
+
+    private static void appendEmails(File mbox, int firstIndex, int numEmails) throws Exception {
+        StringBuilder emails = new StringBuilder();
+        for (int i = firstIndex; i < firstIndex + numEmails; i++) {
+            emails.append(String.format("From user%d@domain.com  Fri May 31 16:00:00 2013\n", i));
+            emails.append(String.format("From: User %d <user%d@domain.com>\n", i, i));
+            emails.append(String.format("Subject: Email %d\n", i));
+            emails.append(String.format("Message-ID: <msg%d@domain.com>\n", i));
+            emails.append("\n");
+            emails.append(String.format("Content of email %d\n", i));
+            emails.append("\n");
+        }
+
+        FileUtils.writeStringToFile(mbox, emails.toString(), UTF_8, true);
+
+        // Make sure the modification time changes, even with a coarse file system clock.
+        mbox.setLastModified(mbox.lastModified() + 2000);
+    }
+
+    @Test
+    public void testHashing() throws Exception {
+        File file = new File(TEST_DIR, "testHashing/file.txt");
+        FileUtils.writeStringToFile(file, "abc", UTF_8);
+
+        String[] hashes = ArchiveManifest.hash(file, -1);
+        assertNull(hashes[0]);
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hashes[1]);
+
+        // Hash of a prefix is the same as the hash of a file with just that prefix.
+        FileUtils.writeStringToFile(file, "abcdef", UTF_8);
+        hashes = ArchiveManifest.hash(file, 3);
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hashes[0]);
+        assertEquals(ArchiveManifest.hash(file, -1)[1], hashes[1]);
+
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", ArchiveManifest.hash(file, 0)[0]);
+        assertEquals(hashes[1], ArchiveManifest.hash(file, 6)[0]);
+
+        // Prefix that crosses a buffer boundary.
+        StringBuilder bigContent = new StringBuilder();
+        for (int i = 0; i < 100 * 1000; i++) {
+            bigContent.append((char)('a' + (i % 26)));
+        }
+
+        File bigFile = new File(TEST_DIR, "testHashing/big.txt");
+        FileUtils.writeStringToFile(bigFile, bigContent.substring(0, 70000), UTF_8);
+        String prefixHash = ArchiveManifest.hash(bigFile, -1)[1];
+        FileUtils.writeStringToFile(bigFile, bigContent.toString(), UTF_8);
+        assertEquals(prefixHash, ArchiveManifest.hash(bigFile, 70000)[0]);
+    }
+
+    @Test
+    public void testUpdates() throws Exception {
+        File mbox = new File(TEST_DIR, "testUpdates/archive.mbox");
+        appendEmails(mbox, 0, 10);
+
+        ArchiveManifest manifest = new ArchiveManifest();
+        ArchiveManifest.FileUpdate update = manifest.update(mbox);
+        assertEquals(0, update.getStart());
+        assertTrue(update.hasNewContent());
+        assertFalse(update.isRewritten());
+        assertEquals(mbox.length(), update.getEntry().getSize());
+        manifest.put(update.getEntry());
+
+        // Save and load the manifest, to make sure we get the same entry back.
+        File manifestFile = new File(TEST_DIR, "testUpdates/" + ArchiveManifest.MANIFEST_FILENAME);
+        manifest.save(manifestFile);
+        manifest = ArchiveManifest.load(manifestFile);
+        assertEquals(1, manifest.size());
+        assertEquals(update.getEntry().toString(), manifest.get(mbox.getAbsolutePath()).toString());
+
+        // Nothing has changed.
+        update = manifest.update(mbox);
+        assertFalse(update.hasNewContent());
+        assertFalse(update.isRewritten());
+
+        // Just touched, so still nothing new.
+        mbox.setLastModified(mbox.lastModified() + 2000);
+        update = manifest.update(mbox);
+        assertFalse(update.hasNewContent());
+        assertFalse(update.isRewritten());
+        assertEquals(mbox.lastModified(), update.getEntry().getModified());
+
+        // Appended emails start at the old end of the file.
+        long oldSize = mbox.length();
+        appendEmails(mbox, 10, 5);
+        update = manifest.update(mbox);
+        assertEquals(oldSize, update.getStart());
+        assertTrue(update.hasNewContent());
+        assertFalse(update.isRewritten());
+
+        // A rewritten file has to be parsed again.
+        FileUtils.deleteQuietly(mbox);
+        appendEmails(mbox, 100, 10);
+        update = manifest.update(mbox);
+        assertEquals(0, update.getStart());
+        assertTrue(update.isRewritten());
+    }
+
+    @Test
+    public void testIncrementalParse() throws Exception {
+        File inputDir = new File(TEST_DIR, "testIncrementalParse/input");
+        File mbox1 = new File(inputDir, "2013-05.mbox");
+        appendEmails(mbox1, 0, 10);
+        File mbox2 = new File(inputDir, "2013-06.mbox");
+        appendEmails(mbox2, 10, 10);
+
+        File fileList = new File(TEST_DIR, "testIncrementalParse/filelist.txt");
+        List<String> paths = new ArrayList<String>();
+        paths.add(mbox1.getPath());
+        paths.add(mbox2.getPath());
+        FileUtils.writeLines(fileList, UTF_8, paths, "\n");
+
+        // There's no manifest yet, so old output gets replaced.
+        File outputDir = new File(TEST_DIR, "testIncrementalParse/output");
+        FileUtils.writeStringToFile(new File(outputDir, "part-00000"), "old output\n", UTF_8);
+
+        IncrementalParse parse = new IncrementalParse(fileList, outputDir);
+        assertFalse(parse.isAppending());
+        List<String> workItems = parse.getWorkItems();
+        assertEquals(2, workItems.size());
+        assertEquals(mbox1.getAbsolutePath() + "\t0", workItems.get(0));
+
+        // The work list only gets written when the flow starts.
+        assertFalse(parse.getWorkList().exists());
+        parse.writeWorkList();
+        assertEquals(workItems, FileUtils.readLines(parse.getWorkList(), UTF_8));
+
+        FileUtils.writeStringToFile(new File(parse.getRunDir(), "part-00000"), "run 1\n", UTF_8);
+        parse.commit();
+
+        assertFalse(new File(outputDir, "part-00000").exists());
+        assertFalse(parse.getRunDir().exists());
+        assertFalse(parse.getWorkList().exists());
+        assertEquals("run 1\n", readOutput(outputDir));
+
+        // Append to one file, and add a new one.
+        long oldSize = mbox2.length();
+        appendEmails(mbox2, 20, 5);
+        File mbox3 = new File(inputDir, "2013-07.mbox");
+        appendEmails(mbox3, 30, 10);
+        paths.add(mbox3.getPath());
+        FileUtils.writeLines(fileList, UTF_8, paths, "\n");
+
+        // Make sure the new output files sort after the old ones.
+        Thread.sleep(10);
+        parse = new IncrementalParse(fileList, outputDir);
+        assertTrue(parse.isAppending());
+        workItems = parse.getWorkItems();
+        assertEquals(2, workItems.size());
+        assertEquals(mbox2.getAbsolutePath() + "\t" + oldSize, workItems.get(0));
+        assertEquals(mbox3.getAbsolutePath() + "\t0", workItems.get(1));
+
+        // Only the appended emails get parsed.
+        TupleListCollector collector = invokeFunction(new ParseEmailArchivesWorkflow.ParseMboxFile(2, new MailParsingConfig()),
+                        new TupleEntry(new Fields("line"), new Tuple(workItems.get(0))), EmailParser.FIELDS);
+        assertEquals(5, collector.size());
+        assertEquals("<msg20@domain.com>", collector.iterator().next().getString(0));
+
+        FileUtils.writeStringToFile(new File(parse.getRunDir(), "part-00000"), "run 2\n", UTF_8);
+        parse.commit();
+        assertEquals("run 1\nrun 2\n", readOutput(outputDir));
+
+        // Removing a file from the list means everything gets parsed again.
+        paths.remove(0);
+        FileUtils.writeLines(fileList, UTF_8, paths, "\n");
+        parse = new IncrementalParse(fileList, outputDir);
+        assertFalse(parse.isAppending());
+        assertEquals(2, parse.getWorkItems().size());
+        assertFalse(parse.getWorkList().exists());
+    }
+
+    @Test
+    public void testIncrementalFlow() throws Exception {
+        File inputDir = new File(TEST_DIR, "testIncrementalFlow/input");
+        File mbox1 = new File(inputDir, "2013-05.mbox");
+        appendEmails(mbox1, 0, 10);
+
+        File fileList = new File(TEST_DIR, "testIncrementalFlow/filelist.txt");
+        List<String> paths = new ArrayList<String>();
+        paths.add(mbox1.getPath());
+        FileUtils.writeLines(fileList, UTF_8, paths, "\n");
+
+        File outputDir = new File(TEST_DIR, "testIncrementalFlow/output");
+        ParseEmailArchivesOptions options = new ParseEmailArchivesOptions();
+        options.setFileList(fileList.getPath());
+        options.setOutputDir(outputDir.getPath());
+        options.setIncremental(true);
+
+        ParseEmailArchivesWorkflow.createFlow(options).complete();
+        assertEquals(10, countEmails(outputDir));
+        assertTrue(new File(outputDir, ArchiveManifest.MANIFEST_FILENAME).exists());
+        assertNoRunFiles(outputDir);
+
+        // Append to the first file, and add a second one. Only the new emails get parsed,
+        // and added to the output.
+        appendEmails(mbox1, 10, 5);
+        File mbox2 = new File(inputDir, "2013-06.mbox");
+        appendEmails(mbox2, 20, 10);
+        paths.add(mbox2.getPath());
+        FileUtils.writeLines(fileList, UTF_8, paths, "\n");
+
+        Thread.sleep(10);
+        ParseEmailArchivesWorkflow.createFlow(options).complete();
+        assertEquals(25, countEmails(outputDir));
+        assertTrue(readOutput(outputDir).contains("<msg24@domain.com>"));
+        assertNoRunFiles(outputDir);
+
+        // Nothing has changed, so nothing new gets added.
+        Thread.sleep(10);
+        ParseEmailArchivesWorkflow.createFlow(options).complete();
+        assertEquals(25, countEmails(outputDir));
+
+        // A flow that never runs doesn't leave anything behind.
+        appendEmails(mbox2, 30, 1);
+        ParseEmailArchivesWorkflow.createFlow(options);
+        assertNoRunFiles(outputDir);
+    }
+
+    private static int countEmails(File outputDir) throws Exception {
+        int result = 0;
+        for (String line : readOutput(outputDir).split("\n")) {
+            if (!line.isEmpty()) {
+                result += 1;
+            }
+        }
+
+        return result;
+    }
+
+    private static void assertNoRunFiles(File outputDir) {
+        for (File file : outputDir.listFiles()) {
+            assertFalse("Leftover run file: " + file, file.getName().startsWith("_run-"));
+        }
+    }
+
+    private static String readOutput(File outputDir) throws Exception {
+        File[] files = outputDir.listFiles();
+        Arrays.sort(files);
+
+        StringBuilder result = new StringBuilder();
+        for (File file : files) {
+            if (!file.getName().startsWith("_")) {
+                result.append(FileUtils.readFileToString(file, UTF_8));
+            }
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import cascading.CascadingTestCase;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleListCollector;
+
+public class DuplicateEmailFilterTest extends CascadingTestCase {
+
+    private static final File TEST_DIR = new File("build/test/DuplicateEmailFilterTest");
+
+    @Test
+    public void testMessageIds() throws Exception {
+        DuplicateEmailFilter filter = new DuplicateEmailFilter(1000);
+
+        assertFalse(filter.isDuplicate("<msg1@domain.com>", "user1@domain.com", "Some content"));
+        assertFalse(filter.isDuplicate("<msg2@domain.com>", "user1@domain.com", "Some content"));
+        assertTrue(filter.isDuplicate("<msg1@domain.com>", "user1@domain.com", "Different content, e.g. a list footer"));
+        assertTrue(filter.isDuplicate(" <msg2@domain.com> ", "user1@domain.com", "Some content"));
+
+        assertEquals(4, filter.getNumEmails());
+        assertEquals(2, filter.getNumDuplicates());
+    }
+
+    @Test
+    public void testContentFallback() throws Exception {
+        DuplicateEmailFilter filter = new DuplicateEmailFilter(1000);
+
+        assertFalse(filter.isDuplicate("", "user1@domain.com", "Hello world,\\nThis is the content"));
+        assertTrue(filter.isDuplicate(null, "user1@domain.com", "hello  world,\\n\\nthis is the CONTENT "));
+        assertFalse(filter.isDuplicate(null, "user1@domain.com", "Hello world,\\nThis is other content"));
+
+        // Content is only used if there's no Message-ID.
+        assertFalse(filter.isDuplicate("<msg1@domain.com>", "user1@domain.com", "Hello world,\\nThis is the content"));
+    }
+
+    @Test
+    public void testSenderInContentKey() throws Exception {
+        DuplicateEmailFilter filter = new DuplicateEmailFilter(1000);
+
+        // The same short reply from different people isn't a duplicate.
+        assertFalse(filter.isDuplicate(null, "user1@domain.com", "+1"));
+        assertFalse(filter.isDuplicate(null, "user2@domain.com", "+1"));
+        assertTrue(filter.isDuplicate(null, "user1@domain.com", "+1"));
+
+        // The address can't run into the content.
+        assertFalse(filter.isDuplicate(null, "user1@domain.com1", "0"));
+        assertFalse(filter.isDuplicate(null, "user1@domain.com", "10"));
+    }
+
+    @Test
+    public void testManyEmails() throws Exception {
+        DuplicateEmailFilter filter = new DuplicateEmailFilter(10000);
+
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(filter.isDuplicate(String.format("<msg%d@domain.com>", i), "user@domain.com", ""));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.isDuplicate(String.format("<msg%d@domain.com>", i), "user@domain.com", ""));
+        }
+
+        // Once we've seen more emails than the filter can remember, we can miss duplicates,
+        // but unique emails never get dropped.
+        filter = new DuplicateEmailFilter(100);
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(filter.isDuplicate(String.format("<msg%d@domain.com>", i), "user@domain.com", ""));
+        }
+    }
+
+    @Test
+    public void testMoreThanMaxEmails() throws Exception {
+        DuplicateEmailFilter filter = new DuplicateEmailFilter(100);
+
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(filter.isDuplicate(String.format("<msg%d@domain.com>", i), "user@domain.com", ""));
+        }
+
+        // After the set has been cleared several times, it still finds duplicates of recent
+        // emails, and doesn't treat new emails as duplicates.
+        assertTrue(filter.isDuplicate("<msg999@domain.com>", "user@domain.com", ""));
+        assertTrue(filter.isDuplicate("<msg950@domain.com>", "user@domain.com", ""));
+        for (int i = 1000; i < 1050; i++) {
+            assertFalse(filter.isDuplicate(String.format("<msg%d@domain.com>", i), "user@domain.com", ""));
+        }
+
+        assertEquals(1052, filter.getNumEmails());
+        assertEquals(2, filter.getNumDuplicates());
+    }
+
+    @Test
+    public void testCrossPosts() throws Exception {
+        StringBuilder mbox = new StringBuilder();
+        for (String list : new String[] {"dev", "user"}) {
+            for (int i = 0; i < 5; i++) {
+                mbox.append(String.format("From user%d@domain.com  Fri May 31 16:00:00 2013\n", i));
+                mbox.append(String.format("From: User %d <user%d@domain.com>\n", i, i));
+                mbox.append(String.format("Subject: Email %d\n", i));
+                mbox.append(String.format("Message-ID: <msg%d@domain.com>\n", i));
+                mbox.append(String.format("List-Id: <%s.mahout.apache.org>\n", list));
+                mbox.append("\n");
+                mbox.append(String.format("Content of email %d\n", i));
+                mbox.append("\n");
+            }
+        }
+
+        File file = new File(TEST_DIR, "testCrossPosts/archive.mbox");
+        FileUtils.writeStringToFile(file, mbox.toString(), "UTF-8");
+
+        TupleEntry input = new TupleEntry(new Fields("line"), new Tuple(file.getAbsolutePath()));
+        TupleListCollector collector = invokeFunction(new ParseEmailArchivesWorkflow.ParseMboxFile(2, new MailParsingConfig()),
+                        input, EmailParser.FIELDS);
+        assertEquals(5, collector.size());
+
+        collector = invokeFunction(new ParseEmailArchivesWorkflow.ParseMboxFile(2, new MailParsingConfig().setMaxDedupeEmails(0)),
+                        input, EmailParser.FIELDS);
+        assertEquals(10, collector.size());
+    }
+}
@@ -0,0 +1,273 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.Assert;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.junit.Test;
+import org.xml.sax.helpers.DefaultHandler;
+
+import cascading.tuple.Tuple;
+
+public class EmailParserTest extends Assert {
+
+    private static final String HEADERS = "From: Bob Smith <bob@domain.com>\n"
+                    + "Subject: Test\n"
+                    + "Message-ID: <msg1@domain.com>\n"
+                    + "MIME-Version: 1.0\n";
+    
+    private static final String MULTIPART_EMAIL = HEADERS
+                    + "Content-Type: multipart/mixed; boundary=\"XXX\"\n"
+                    + "\n"
+                    + "--XXX\n"
+                    + "Content-Type: text/plain; charset=ISO-8859-1\n"
+                    + "Content-Transfer-Encoding: quoted-printable\n"
+                    + "\n"
+                    + "Plain caf=E9 text\n"
+                    + "--XXX\n"
+                    + "Content-Type: text/html; charset=UTF-8\n"
+                    + "\n"
+                    + "<html><body><p>Html &amp; text</p><script>var x;</script></body></html>\n"
+                    + "--XXX\n"
+                    + "Content-Type: application/octet-stream\n"
+                    + "Content-Transfer-Encoding: base64\n"
+                    + "\n"
+                    + "YXR0YWNobWVudA==\n"
+                    + "--XXX--\n";
+    
+    private static String parseContent(EmailParser parser, String email) throws Exception {
+        Tuple tuple = parser.parse(new ByteArrayInputStream(email.getBytes("UTF-8")));
+        assertNotNull(tuple);
+        assertEquals("<msg1@domain.com>", tuple.getString(0));
+        assertEquals("Bob Smith", tuple.getString(1).trim());
+        assertEquals("bob@domain.com", tuple.getString(2));
+        return tuple.getString(6);
+    }
+    
+    @Test
+    public void testPlainText() throws Exception {
+        EmailParser parser = new EmailParser();
+        
+        String content = parseContent(parser, HEADERS + "Content-Type: text/plain; charset=UTF-8\n\nCaf\u00e9\tna\u00efve\n");
+        assertTrue(content.contains("Caf\u00e9\\tna\u00efve"));
+        
+        // No charset means us-ascii, but we treat it as UTF-8
+        content = parseContent(parser, HEADERS + "\nCaf\u00e9 text\n");
+        assertTrue(content.contains("Caf\u00e9 text"));
+    }
+    
+    @Test
+    public void testHtml() throws Exception {
+        EmailParser parser = new EmailParser();
+        
+        String content = parseContent(parser, HEADERS + "Content-Type: text/html\n\n<div>Some <b>bold</b> text</div>&lt;tag&gt;\n");
+        assertTrue(content.contains("Some bold text"));
+        assertTrue(content.contains("<tag>"));
+        assertFalse(content.contains("<div>"));
+    }
+    
+    @Test
+    public void testMultipart() throws Exception {
+        EmailParser parser = new EmailParser();
+        
+        String content = parseContent(parser, MULTIPART_EMAIL);
+        assertTrue(content.contains("Plain caf\u00e9 text"));
+        assertTrue(content.contains("Html & text"));
+        assertFalse(content.contains("var x"));
+        assertFalse(content.contains("attachment"));
+    }
+    
+    @Test
+    public void testAllowAndDenyLists() throws Exception {
+        EmailParser parser = new EmailParser(new MailParsingConfig("text/*", "text/html"));
+        String content = parseContent(parser, MULTIPART_EMAIL);
+        assertTrue(content.contains("Plain caf\u00e9 text"));
+        assertFalse(content.contains("Html"));
+        
+        parser = new EmailParser(new MailParsingConfig("", ""));
+        content = parseContent(parser, MULTIPART_EMAIL);
+        assertFalse(content.contains("Plain"));
+        assertFalse(content.contains("Html"));
+    }
+    
+    @Test
+    public void testTikaPath() throws Exception {
+        EmailParser parser = new EmailParser(new MailParsingConfig().setUseFastPaths(false));
+        
+        String content = parseContent(parser, MULTIPART_EMAIL);
+        assertTrue(content.contains("Plain caf\u00e9 text"));
+        assertFalse(content.contains("attachment"));
+    }
+    
+    private static String makeMultipart(int numParts) {
+        StringBuilder result = new StringBuilder(HEADERS);
+        result.append("Content-Type: multipart/mixed; boundary=\"XXX\"\n\n");
+        for (int i = 0; i < numParts; i++) {
+            result.append("--XXX\n");
+            result.append("Content-Type: text/plain\n\n");
+            result.append("Part " + i + "\n");
+        }
+        
+        result.append("--XXX--\n");
+        return result.toString();
+    }
+    
+    @Test
+    public void testPartSizeLimit() throws Exception {
+        EmailParser parser = new EmailParser(new MailParsingConfig().setMaxPartBytes(10));
+        
+        String content = parseContent(parser, HEADERS + "Content-Type: text/plain\n\n0123456789abcdef\n");
+        assertTrue(content.contains("0123456789"));
+        assertFalse(content.contains("abcdef"));
+        
+        MailParsingStatus status = parser.getStatus();
+        assertEquals(1, status.getNumTruncatedParts());
+        assertFalse(status.isTruncatedMessage());
+        assertTrue(status.isTruncated());
+        
+        // Status gets reset for each email.
+        parser = new EmailParser(new MailParsingConfig().setMaxPartBytes(100));
+        parseContent(parser, HEADERS + "Content-Type: text/plain\n\n0123456789abcdef\n");
+        assertFalse(parser.getStatus().isTruncated());
+    }
+    
+    @Test
+    public void testMessageSizeLimit() throws Exception {
+        String email = HEADERS + "Content-Type: text/plain\n\nStart of the text, " + makeFiller(1000) + "end of the text\n";
+        EmailParser parser = new EmailParser(new MailParsingConfig().setMaxMessageBytes(500));
+        
+        String content = parseContent(parser, email);
+        assertTrue(content.contains("Start of the text"));
+        assertFalse(content.contains("end of the text"));
+        assertTrue(parser.getStatus().isTruncatedMessage());
+    }
+    
+    @Test
+    public void testMaxParts() throws Exception {
+        EmailParser parser = new EmailParser(new MailParsingConfig().setMaxParts(3));
+        
+        String content = parseContent(parser, makeMultipart(10));
+        assertTrue(content.contains("Part 0"));
+        assertTrue(content.contains("Part 2"));
+        assertFalse(content.contains("Part 3"));
+        
+        // We stop parsing once we see one part too many.
+        MailParsingStatus status = parser.getStatus();
+        assertEquals(4, status.getNumParts());
+        assertEquals(1, status.getNumSkippedParts());
+    }
+    
+    @Test
+    public void testMaxDepth() throws Exception {
+        String email = HEADERS
+                        + "Content-Type: multipart/mixed; boundary=\"outer\"\n\n"
+                        + "--outer\n"
+                        + "Content-Type: text/plain\n\n"
+                        + "Top level text\n"
+                        + "--outer\n"
+                        + "Content-Type: multipart/alternative; boundary=\"inner\"\n\n"
+                        + "--inner\n"
+                        + "Content-Type: text/plain\n\n"
+                        + "Nested text\n"
+                        + "--inner--\n"
+                        + "--outer--\n";
+        
+        EmailParser parser = new EmailParser(new MailParsingConfig().setMaxDepth(1));
+        String content = parseContent(parser, email);
+        assertTrue(content.contains("Top level text"));
+        assertFalse(content.contains("Nested text"));
+        assertEquals(1, parser.getStatus().getNumSkippedParts());
+        
+        parser = new EmailParser(new MailParsingConfig().setMaxDepth(2));
+        content = parseContent(parser, email);
+        assertTrue(content.contains("Nested text"));
+        assertFalse(parser.getStatus().isTruncated());
+    }
+    
+    @Test
+    public void testTruncatingInputStream() throws Exception {
+        byte[] data = "0123456789".getBytes("UTF-8");
+        
+        TruncatingInputStream is = new TruncatingInputStream(new ByteArrayInputStream(data), 4);
+        byte[] buffer = new byte[100];
+        assertEquals(4, is.read(buffer, 0, buffer.length));
+        assertFalse(is.isTruncated());
+        assertEquals(-1, is.read());
+        assertTrue(is.isTruncated());
+        
+        // Exactly at the limit isn't truncated.
+        is = new TruncatingInputStream(new ByteArrayInputStream(data), data.length);
+        assertEquals(data.length, is.read(buffer, 0, buffer.length));
+        assertEquals(-1, is.read(buffer, 0, buffer.length));
+        assertFalse(is.isTruncated());
+    }
+    
+    private static String makeFiller(int length) {
+        StringBuilder result = new StringBuilder();
+        while (result.length() < length) {
+            result.append("filler text\n");
+        }
+        
+        return result.toString();
+    }
+    
+    @Test
+    public void testHeaderProjection() throws Exception {
+        String email = "From: Bob Smith <bob@domain.com>\n"
+                        + "To: dev@mahout.apache.org\n"
+                        + "Cc: Alice <alice@domain.com>, Carol <carol@domain.com>\n"
+                        + "Subject: Test\n"
+                        + "Date: Fri, 31 May 2013 16:00:00 -0700\n"
+                        + "Message-ID: <msg1@domain.com>\n"
+                        + "In-Reply-To: <msg0@domain.com>\n"
+                        + "\n"
+                        + "Some text\n";
+        
+        // By default we only parse the headers that we emit.
+        Metadata metadata = parseHeaders(email, new MailParsingConfig());
+        assertEquals("Bob Smith <bob@domain.com>", metadata.get(TikaCoreProperties.CREATOR));
+        assertEquals("Test", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals("<msg1@domain.com>", metadata.get(TikaCoreProperties.IDENTIFIER));
+        assertEquals("<msg0@domain.com>", metadata.get(TikaCoreProperties.RELATION));
+        assertNotNull(metadata.get(TikaCoreProperties.CREATED));
+        assertNull(metadata.get(Metadata.MESSAGE_TO));
+        assertNull(metadata.get(Metadata.MESSAGE_CC));
+        
+        metadata = parseHeaders(email, new MailParsingConfig().setHeaders("subject, CC"));
+        assertEquals("Test", metadata.get(TikaCoreProperties.TITLE));
+        assertEquals(2, metadata.getValues(Metadata.MESSAGE_CC).length);
+        assertNull(metadata.get(TikaCoreProperties.CREATOR));
+        assertNull(metadata.get(TikaCoreProperties.CREATED));
+        
+        metadata = parseHeaders(email, new MailParsingConfig().setHeaders(MailParsingConfig.ALL_HEADERS));
+        assertEquals("dev@mahout.apache.org", metadata.get(Metadata.MESSAGE_TO));
+        assertEquals(2, metadata.getValues(Metadata.MESSAGE_CC).length);
+        assertEquals("<msg1@domain.com>", metadata.get(TikaCoreProperties.IDENTIFIER));
+    }
+    
+    private static Metadata parseHeaders(String email, MailParsingConfig config) throws Exception {
+        ParseContext context = new ParseContext();
+        context.set(MailParsingConfig.class, config);
+        
+        Metadata result = new Metadata();
+        new RFC822Parser().parse(new ByteArrayInputStream(email.getBytes("UTF-8")), new DefaultHandler(), result, context);
+        return result;
+    }
+    
+    @Test
+    public void testConfig() throws Exception {
+        MailParsingConfig config = new MailParsingConfig("text/plain, Application/*", "application/pdf");
+        assertTrue(config.isAllowed("text/plain"));
+        assertTrue(config.isAllowed("TEXT/PLAIN"));
+        assertFalse(config.isAllowed("text/html"));
+        assertTrue(config.isAllowed("application/msword"));
+        assertFalse(config.isAllowed("application/pdf"));
+        assertFalse(config.isAllowed(null));
+        
+        config = new MailParsingConfig("*", "");
+        assertTrue(config.isAllowed("image/png"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.scaleunlimited.emailparsing;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class EmailSizeGuardTest extends Assert {
+
+    @Test
+    public void testQuantileSketch() throws Exception {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        assertEquals(0, sketch.getQuantile(0.5));
+        
+        for (int i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+        
+        sketch.add(0);
+        assertEquals(10001, sketch.getCount());
+        assertEquals(0, sketch.getQuantile(0.0));
+        assertEquals(5000, sketch.getQuantile(0.5), 5000 * 0.01);
+        assertEquals(9900, sketch.getQuantile(0.99), 9900 * 0.01);
+        assertEquals(10000, sketch.getQuantile(1.0), 10000 * 0.01);
+        
+        // One huge value barely changes anything.
+        sketch.add(Integer.MAX_VALUE);
+        assertEquals(9900, sketch.getQuantile(0.99), 9900 * 0.01);
+    }
+    
+    @Test
+    public void testTruncating() throws Exception {
+        EmailSizeGuard guard = new EmailSizeGuard(new MailParsingConfig().setMaxContentChars(10000));
+        
+        // Before we have enough emails, only the absolute limit applies.
+        assertEquals(EmailSizeGuard.Action.KEEP, guard.check(5000));
+        assertEquals(EmailSizeGuard.Action.TRUNCATE, guard.check(20000));
+        assertEquals(10000, guard.getMaxLength());
+        
+        Random rand = new Random(1L);
+        for (int i = 0; i < 1000; i++) {
+            guard.check(100 + rand.nextInt(1000));
+        }
+        
+        assertEquals(EmailSizeGuard.Action.KEEP, guard.check(500));
+        assertEquals(EmailSizeGuard.Action.TRUNCATE, guard.check(5000));
+        assertEquals(1090, guard.getMaxLength(), 1090 * 0.02);
+        
+        // About 1% of the random emails will also have been truncated.
+        assertTrue(guard.getNumTruncated() >= 2);
+        assertTrue(guard.getNumTruncated() < 2 + 20);
+        assertEquals(0, guard.getNumSkipped());
+        assertEquals(1004, guard.getNumEmails());
+    }
+    
+    @Test
+    public void testSkipping() throws Exception {
+        MailParsingConfig config = new MailParsingConfig()
+            .setTruncateBigEmails(false)
+            .setSizeQuantile(1.0);
+        EmailSizeGuard guard = new EmailSizeGuard(config);
+        
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(EmailSizeGuard.Action.KEEP, guard.check(100));
+        }
+        
+        // Without a quantile, only the max content length matters.
+        assertEquals(EmailSizeGuard.Action.KEEP, guard.check(MailParsingConfig.DEFAULT_MAX_CONTENT_CHARS));
+        assertEquals(EmailSizeGuard.Action.SKIP, guard.check(MailParsingConfig.DEFAULT_MAX_CONTENT_CHARS + 1));
+        assertEquals(1, guard.getNumSkipped());
+    }
+}
@@ -0,0 +1,81 @@
+package com.scaleunlimited.emailparsing;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HtmlStripperTest extends Assert {
+
+    @Test
+    public void testTags() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        assertEquals("Hello world", stripper.strip("<html><body>Hello <b>world</b></body></html>"));
+        assertEquals("line1\nline2\n", stripper.strip("line1<br/>line2<BR>"));
+        assertEquals("\npara1\npara2", stripper.strip("<p class=\"x\">para1</p>para2"));
+        assertEquals("a < b, c>d", stripper.strip("a < b, c>d"));
+        assertEquals("unclosed ", stripper.strip("unclosed <b"));
+    }
+    
+    @Test
+    public void testSkippedContent() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        assertEquals("before after", stripper.strip("before <!-- comment <b>x</b> -->after"));
+        assertEquals("before after", stripper.strip("before <script type=\"text/javascript\">if (a < b) x();</script>after"));
+        assertEquals("before after", stripper.strip("before <STYLE>p { color: red; }</Style>after"));
+        assertEquals("before ", stripper.strip("before <style>never closed"));
+        assertEquals("text", stripper.strip("<!DOCTYPE html><?xml version=\"1.0\"?>text"));
+    }
+    
+    @Test
+    public void testEntities() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        assertEquals("a & b <c> \"d\" 'e' f", stripper.strip("a &amp; b &lt;c&gt; &quot;d&quot; &apos;e&apos;&nbsp;f"));
+        assertEquals("caf\u00e9 \u20ac", stripper.strip("caf&#233; &#x20AC;"));
+        assertEquals("AT&T &bogus; &#xZZ; & more", stripper.strip("AT&T &bogus; &#xZZ; & more"));
+    }
+    
+    @Test
+    public void testNamedEntities() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        assertEquals("don\u2019t", stripper.strip("don&rsquo;t"));
+        assertEquals("caf\u00e9 \u00c9t\u00e9", stripper.strip("caf&eacute; &Eacute;t&eacute;"));
+        assertEquals("a\u2014b \u201cc\u201d\u2026", stripper.strip("a&mdash;b &ldquo;c&rdquo;&hellip;"));
+    }
+    
+    @Test
+    public void testSurrogates() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        // A lone surrogate isn't valid, but a supplementary code point is.
+        assertEquals("a\ufffdb", stripper.strip("a&#xD800;b"));
+        assertEquals("a\ufffdb", stripper.strip("a&#57343;b"));
+        assertEquals("a\ud83d\ude00b", stripper.strip("a&#x1F600;b"));
+    }
+    
+    @Test
+    public void testWordBoundaries() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        assertEquals("alpha beta", stripper.strip("<td>alpha</td><td>beta</td>"));
+        assertEquals("alpha beta", stripper.strip("<table><tr><th>alpha</th><th>beta</th></tr></table>").trim());
+        assertEquals("one two", stripper.strip("<span>one</span><span>two</span>"));
+        assertEquals("one two", stripper.strip("one<img src=\"x.png\">two"));
+        assertEquals("one\ntwo", stripper.strip("<ul><li>one</li><li>two</li></ul>").replaceAll("\n+", "\n").trim());
+        
+        // Inline formatting doesn't split words, and we don't double up on spaces.
+        assertEquals("bold word", stripper.strip("<b>bo</b>ld <span>word</span>"));
+    }
+    
+    @Test
+    public void testQuotedAttributes() throws Exception {
+        HtmlStripper stripper = new HtmlStripper();
+        
+        assertEquals("link", stripper.strip("<a title=\"x>y\">link</a>"));
+        assertEquals("link", stripper.strip("<a title='x>y' href=\"a>b\">link</a>"));
+        assertEquals("", stripper.strip("<a title=\"never closed>text"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+public class MboxInputFormatTest extends Assert {
+
+    private static List<String> readSplits(File file, long splitSize) throws Exception {
+        JobConf conf = new JobConf();
+        Path path = new Path(file.getAbsolutePath());
+        
+        List<String> result = new ArrayList<String>();
+        long fileLength = file.length();
+        for (long start = 0; start < fileLength; start += splitSize) {
+            FileSplit split = new FileSplit(path, start, Math.min(splitSize, fileLength - start), (String[])null);
+            MboxRecordReader reader = new MboxRecordReader(conf, split);
+            
+            try {
+                LongWritable key = reader.createKey();
+                BytesWritable value = reader.createValue();
+                while (reader.next(key, value)) {
+                    assertEquals(key.get() + value.getLength(), reader.getPos());
+                    result.add(new String(value.getBytes(), 0, value.getLength(), "UTF-8"));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        
+        return result;
+    }
+    
+    @Test
+    public void testSplits() throws Exception {
+        List<String> emails = new ArrayList<String>();
+        File file = MboxSplitterTest.makeMbox(50, emails);
+        
+        for (long splitSize : new long[] {1, 7, 100, 333, 1000, file.length()}) {
+            assertEquals("Split size " + splitSize, emails, readSplits(file, splitSize));
+        }
+    }
+    
+    @Test
+    public void testSmallEmails() throws Exception {
+        File file = File.createTempFile("mbox-input-format-test", ".mbox");
+        file.deleteOnExit();
+        
+        String mbox = "preamble\nFrom a\nline\nFrom b\r\nFrom: me\r\n\r\nFrom c";
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(mbox.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        
+        List<String> expected = new ArrayList<String>();
+        expected.add("preamble\n");
+        expected.add("From a\nline\n");
+        expected.add("From b\r\nFrom: me\r\n\r\n");
+        expected.add("From c");
+        
+        for (long splitSize = 1; splitSize <= mbox.length(); splitSize++) {
+            assertEquals("Split size " + splitSize, expected, readSplits(file, splitSize));
+        }
+    }
+    
+    @Test
+    public void testCompressedFile() throws Exception {
+        List<String> emails = new ArrayList<String>();
+        File file = MboxSplitterTest.makeMbox(20, emails);
+        
+        File gzFile = File.createTempFile("mbox-input-format-test", ".mbox.gz");
+        gzFile.deleteOnExit();
+        
+        FileInputStream in = new FileInputStream(file);
+        GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(gzFile));
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+            out.close();
+        }
+        
+        // Compressed files aren't split, so there's just one split.
+        assertEquals(emails, readSplits(gzFile, gzFile.length()));
+    }
+}
@@ -0,0 +1,123 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import cascading.tuple.Tuple;
+
+public class MboxSplitterTest extends Assert {
+
+    private static final String UTF_8 = "UTF-8";
+    
+    private static String makeEmail(int index) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("From user%d@domain.com  Fri May 31 16:00:00 2013\n", index));
+        result.append(String.format("From: User %d <user%d@domain.com>\n", index, index));
+        result.append(String.format("Subject: Email %d\n", index));
+        result.append(String.format("Message-ID: <msg%d@domain.com>\n", index));
+        result.append("Content-Type: text/plain; charset=UTF-8\n");
+        result.append("\n");
+        result.append(String.format("Caf\u00e9 na\u00efve r\u00e9sum\u00e9 %d\n", index));
+        result.append(">From quoted, and From in the middle of a line.\n");
+        result.append("\n");
+        return result.toString();
+    }
+    
+    static File makeMbox(int numEmails, List<String> emails) throws Exception {
+        File file = File.createTempFile("mbox-splitter-test", ".mbox");
+        file.deleteOnExit();
+        
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < numEmails; i++) {
+                String email = makeEmail(i);
+                emails.add(email);
+                out.write(email.getBytes(UTF_8));
+            }
+        } finally {
+            out.close();
+        }
+        
+        return file;
+    }
+    
+    private static String toString(ByteBuffer buffer) throws Exception {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, UTF_8);
+    }
+    
+    @Test
+    public void testSplitting() throws Exception {
+        String mbox = "preamble\nFrom a\nline\nFrom b\r\nFrom: me\r\n\r\nFrom c";
+        MboxSplitter splitter = new MboxSplitter(ByteBuffer.wrap(mbox.getBytes(UTF_8)));
+        
+        assertEquals("preamble\n", toString(splitter.next()));
+        assertEquals("From a\nline\n", toString(splitter.next()));
+        assertEquals("From b\r\nFrom: me\r\n\r\n", toString(splitter.next()));
+        assertEquals("From c", toString(splitter.next()));
+        assertNull(splitter.next());
+        
+        splitter = new MboxSplitter(ByteBuffer.wrap(new byte[0]));
+        assertNull(splitter.next());
+    }
+    
+    @Test
+    public void testRanges() throws Exception {
+        List<String> emails = new ArrayList<String>();
+        File file = makeMbox(50, emails);
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        
+        try {
+            FileChannel channel = raf.getChannel();
+            
+            for (long rangeSize : new long[] {1, 100, 333, 1000, file.length(), file.length() * 2}) {
+                List<MboxSplitter.Range> ranges = MboxSplitter.getRanges(channel, rangeSize);
+                assertEquals(0, ranges.get(0).getStart());
+                assertEquals(file.length(), ranges.get(ranges.size() - 1).getEnd());
+                
+                List<String> splitEmails = new ArrayList<String>();
+                long pos = 0;
+                for (MboxSplitter.Range range : ranges) {
+                    assertEquals(pos, range.getStart());
+                    assertTrue(range.getLength() > 0);
+                    pos = range.getEnd();
+                    
+                    MboxSplitter splitter = MboxSplitter.open(channel, range);
+                    for (ByteBuffer email = splitter.next(); email != null; email = splitter.next()) {
+                        splitEmails.add(toString(email));
+                    }
+                }
+                
+                assertEquals("Range size " + rangeSize, emails, splitEmails);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+    
+    @Test
+    public void testParsingNonAsciiContent() throws Exception {
+        String email = makeEmail(7);
+        ByteBuffer buffer = ByteBuffer.wrap(email.getBytes(UTF_8));
+        
+        EmailParser parser = new EmailParser();
+        Tuple tuple = parser.parse(new ByteBufferInputStream(buffer));
+        assertNotNull(tuple);
+        assertEquals("<msg7@domain.com>", tuple.getString(0));
+        assertEquals("user7@domain.com", tuple.getString(2));
+        assertEquals("Email 7", tuple.getString(3));
+        assertTrue(tuple.getString(6).contains("Caf\u00e9 na\u00efve r\u00e9sum\u00e9 7"));
+        assertTrue(parser.getContentLength() > 0);
+    }
+}
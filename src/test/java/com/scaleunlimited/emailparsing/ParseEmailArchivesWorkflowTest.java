@@ -0,0 +1,83 @@
+package com.scaleunlimited.emailparsing;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import cascading.CascadingTestCase;
+
+import com.scaleunlimited.textfeatures.WorkflowTestUtils;
+
+public class ParseEmailArchivesWorkflowTest extends CascadingTestCase {
+
+    private static final File TEST_DIR = new File("build/test/ParseEmailArchivesWorkflowTest");
+
+    private static final String UTF_8 = "UTF-8";
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteDirectory(TEST_DIR);
+    }
+
+    @Test
+    public void testHadoopMode() throws Exception {
+        File inputDir = new File(TEST_DIR, "testHadoopMode/input");
+        File mbox = new File(inputDir, "2013-05.mbox");
+        FileUtils.writeStringToFile(mbox, makeEmails(50), UTF_8);
+
+        File fileList = new File(TEST_DIR, "testHadoopMode/filelist.txt");
+        FileUtils.writeStringToFile(fileList, mbox.getAbsolutePath() + "\n", UTF_8);
+
+        File localOutputDir = new File(TEST_DIR, "testHadoopMode/local");
+        ParseEmailArchivesOptions options = new ParseEmailArchivesOptions();
+        options.setFileList(fileList.getPath());
+        options.setOutputDir(localOutputDir.getPath());
+        ParseEmailArchivesWorkflow.createFlow(options).complete();
+
+        // Runs with Hadoop's local job runner, since there's no cluster configured.
+        File hadoopOutputDir = new File(TEST_DIR, "testHadoopMode/hadoop");
+        options = new ParseEmailArchivesOptions();
+        options.setHadoopMode(true);
+        options.setInput(inputDir.getPath());
+        options.setOutputDir(hadoopOutputDir.getPath());
+        ParseEmailArchivesWorkflow.createFlow(options).complete();
+
+        // Same 7-field TSV lines, ignoring order (and the duplicate is removed by both).
+        List<String> localLines = WorkflowTestUtils.readSortedLines(localOutputDir);
+        List<String> hadoopLines = WorkflowTestUtils.readSortedLines(hadoopOutputDir);
+        assertEquals(50, localLines.size());
+        for (String line : localLines) {
+            assertEquals(line, EmailParser.FIELDS.size(), line.split("\t", -1).length);
+        }
+
+        assertEquals(localLines, hadoopLines);
+    }
+
+    /**
+     * Make an mbox file with <numEmails> different emails, plus a copy of the first one, and
+     * content with multiple lines, a tab and non-ASCII characters, which have to be escaped
+     * the same way in both modes.
+     */
+    private static String makeEmails(int numEmails) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i <= numEmails; i++) {
+            int index = (i == numEmails) ? 0 : i;
+            result.append(String.format("From user%d@domain.com  Fri May 31 16:%02d:00 2013\n", index % 10, index));
+            result.append(String.format("From: User %d <user%d@domain.com>\n", index % 10, index % 10));
+            result.append(String.format("Subject: Email %d\n", index));
+            result.append(String.format("Message-ID: <msg%d@domain.com>\n", index));
+            result.append("Date: Fri, 31 May 2013 16:00:00 +0000\n");
+            result.append("Content-Type: text/plain; charset=UTF-8\n");
+            result.append("Content-Transfer-Encoding: 8bit\n");
+            result.append("\n");
+            result.append(String.format("Content of email %d\n", index));
+            result.append("Second line,\twith a tab, and caf\u00e9\n");
+            result.append("\n");
+        }
+
+        return result.toString();
+    }
+}
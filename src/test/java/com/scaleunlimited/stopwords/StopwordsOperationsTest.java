@@ -0,0 +1,43 @@
+package com.scaleunlimited.stopwords;
+
+import org.junit.Test;
+
+import cascading.CascadingTestCase;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+import com.scaleunlimited.textfeatures.Config;
+
+@SuppressWarnings("serial")
+public class StopwordsOperationsTest extends CascadingTestCase {
+
+    @Test
+    public void testRemoveSeenPairs() {
+        Fields argFields = new Fields(Config.EMAIL_FN, Config.TERM_ID_FN);
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 100L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 200L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 100L)),
+            new TupleEntry(argFields, new Tuple("user2@domain.com", 100L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 200L)),
+            new TupleEntry(argFields, new Tuple("user2@domain.com", 100L)),
+        };
+
+        boolean[] removed = invokeFilter(new StopwordsWorkflow.RemoveSeenPairs(1024 * 1024), input);
+        assertFalse(removed[0]);
+        assertFalse(removed[1]);
+        assertTrue(removed[2]);
+
+        // Same term, but a different user.
+        assertFalse(removed[3]);
+        assertTrue(removed[4]);
+        assertTrue(removed[5]);
+    }
+
+    @Test
+    public void testMaxPairs() {
+        assertEquals(1, StopwordsWorkflow.RemoveSeenPairs.getMaxPairs(0));
+        assertEquals(1024 * 1024, StopwordsWorkflow.RemoveSeenPairs.getMaxPairs(32L * 1024 * 1024));
+    }
+}
@@ -2,10 +2,15 @@ package com.scaleunlimited.stopwords;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.List;
+
 import org.junit.Test;
 
 import cascading.flow.Flow;
 
+import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.WorkflowTestUtils;
 import com.scaleunlimited.textsimilarity.TextSimilarityOptions;
 import com.scaleunlimited.textsimilarity.TextSimilarityWorkflow;
 
@@ -34,4 +39,40 @@ public class StopwordsWorkflowTest {
         f.complete();
     }
 
+    @Test
+    public void testTermIds() throws Exception {
+        StopwordsOptions options = new StopwordsOptions();
+        options.setTestMode(true);
+        options.setUseTermIds(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/StopwordsWorkflowTest/testTermIds/working/");
+        
+        Flow<?> f = StopwordsWorkflow.createFlow(options);
+        f.complete();
+    }
+
+    @Test
+    public void testLocalThreads() throws Exception {
+        StopwordsOptions options = new StopwordsOptions();
+        options.setTestMode(true);
+        options.setLocalThreads(4);
+        options.setUseTermIds(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/StopwordsWorkflowTest/testLocalThreads/working/");
+        
+        Flow<?> f = StopwordsWorkflow.createFlow(options);
+        f.complete();
+        
+        // The number of threads shouldn't change the results.
+        options.setLocalThreads(1);
+        options.setWorkingDir("build/test/StopwordsWorkflowTest/testLocalThreads/single/");
+        f = StopwordsWorkflow.createFlow(options);
+        f.complete();
+        
+        List<String> multiThreaded = WorkflowTestUtils.readSortedLines(new File("build/test/StopwordsWorkflowTest/testLocalThreads/working/", Config.TERMS_BY_DF_DIR));
+        List<String> singleThreaded = WorkflowTestUtils.readSortedLines(new File("build/test/StopwordsWorkflowTest/testLocalThreads/single/", Config.TERMS_BY_DF_DIR));
+        assertFalse(singleThreaded.isEmpty());
+        assertEquals(singleThreaded, multiThreaded);
+    }
+
 }
@@ -0,0 +1,79 @@
+package com.scaleunlimited.textfeatures;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class EmailTsvCodecTest extends Assert {
+
+    @Test
+    public void testParsing() throws Exception {
+        EmailTsvCodec codec = new EmailTsvCodec();
+        
+        assertTrue(codec.parse("<id1>\tBob\tbob@foo.com\tHi there\t2013-06-01T00:00:00Z\t\tline1\\nline2\\tcol2"));
+        assertEquals("<id1>", codec.getField(EmailTsvCodec.MSG_ID_FIELD));
+        assertEquals("Bob", codec.getField(EmailTsvCodec.AUTHOR_FIELD));
+        assertEquals("bob@foo.com", codec.getField(EmailTsvCodec.EMAIL_FIELD));
+        assertEquals("Hi there", codec.getField(EmailTsvCodec.SUBJECT_FIELD));
+        assertEquals("", codec.getField(EmailTsvCodec.REPLY_ID_FIELD));
+        assertEquals("line1\\nline2\\tcol2", codec.getField(EmailTsvCodec.CONTENT_FIELD));
+        assertEquals("line1\nline2\tcol2", codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+        
+        // Escapes in other fields shouldn't matter
+        assertTrue(codec.parse("a\\n\tb\tc\td\te\tf\tno escapes"));
+        assertEquals("no escapes", codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+        assertEquals("a\n", codec.getUnescapedField(EmailTsvCodec.MSG_ID_FIELD));
+        
+        // Other backslashes are left alone, including a trailing one.
+        assertTrue(codec.parse("\t\t\t\t\t\tc:\\temp\\file\\x\\"));
+        assertEquals("c:\temp\\file\\x\\", codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+    }
+    
+    @Test
+    public void testInvalidLines() throws Exception {
+        EmailTsvCodec codec = new EmailTsvCodec();
+        
+        assertFalse(codec.parse("a\tb\tc"));
+        assertFalse(codec.parse("a\tb\tc\td\te\tf\tg\th"));
+        assertTrue(codec.parse("\t\t\t\t\t\t"));
+        assertEquals("", codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+    }
+    
+    @Test
+    public void testLongContent() throws Exception {
+        EmailTsvCodec codec = new EmailTsvCodec();
+        
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i).append("\r\n\tindented\r");
+        }
+        
+        String escaped = EmailTsvCodec.escape(content);
+        assertEquals(-1, escaped.indexOf('\n'));
+        assertEquals(-1, escaped.indexOf('\r'));
+        assertEquals(-1, escaped.indexOf('\t'));
+        
+        assertTrue(codec.parse("\t\t\t\t\t\t" + escaped));
+        assertEquals(content.toString().replace("\r\n", "\n").replace('\r', '\n'), codec.getUnescapedField(EmailTsvCodec.CONTENT_FIELD));
+    }
+    
+    @Test
+    public void testEscaping() throws Exception {
+        assertEquals("a\\nb\\nc\\nd\\te", EmailTsvCodec.escape("a\r\nb\nc\rd\te"));
+        assertEquals("\\n\\n", EmailTsvCodec.escape("\n\r\n"));
+        assertEquals("", EmailTsvCodec.escape(""));
+    }
+    
+    @Test
+    public void testTruncating() throws Exception {
+        assertEquals("abc", EmailTsvCodec.truncateEscaped("abc", 5));
+        assertEquals("ab", EmailTsvCodec.truncateEscaped("abcdef", 2));
+        
+        // Escapes count as one char, and never get split.
+        String escaped = EmailTsvCodec.escape("a\nb\tc");
+        assertEquals("a\\nb", EmailTsvCodec.truncateEscaped(escaped, 3));
+        assertEquals("a\\n", EmailTsvCodec.truncateEscaped(escaped, 2));
+        assertEquals("a", EmailTsvCodec.truncateEscaped(escaped, 1));
+        assertEquals("", EmailTsvCodec.truncateEscaped(escaped, 0));
+    }
+}
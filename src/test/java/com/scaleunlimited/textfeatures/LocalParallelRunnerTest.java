@@ -0,0 +1,69 @@
+package com.scaleunlimited.textfeatures;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class LocalParallelRunnerTest extends Assert {
+
+    private static final File TEST_DIR = new File("build/test/LocalParallelRunnerTest");
+
+    @Test
+    public void testPartitioning() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder line = new StringBuilder("line " + i);
+            for (int j = 0; j < i % 37; j++) {
+                line.append(" word");
+            }
+
+            lines.add(line.toString());
+        }
+
+        File input = new File(TEST_DIR, "testPartitioning/input.tsv");
+        FileUtils.writeLines(input, "UTF-8", lines, "\n");
+
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(input);
+        List<File> partitions = LocalParallelRunner.partitionInput(inputs, new File(TEST_DIR, "testPartitioning/partitions"), 4);
+        assertEquals(4, partitions.size());
+
+        // All of the lines are there, in order, and each partition gets about the same number of bytes.
+        List<String> partitionedLines = new ArrayList<String>();
+        for (File partition : partitions) {
+            assertEquals(input.length() / 4.0, partition.length(), input.length() * 0.05);
+            partitionedLines.addAll(FileUtils.readLines(partition, "UTF-8"));
+        }
+
+        assertEquals(lines, partitionedLines);
+    }
+
+    @Test
+    public void testMultipleFiles() throws Exception {
+        File input1 = new File(TEST_DIR, "testMultipleFiles/part-00000");
+        FileUtils.writeStringToFile(input1, "a\nb\nc", "UTF-8");
+        File input2 = new File(TEST_DIR, "testMultipleFiles/part-00001");
+        FileUtils.writeStringToFile(input2, "d\n", "UTF-8");
+
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(input1);
+        inputs.add(input2);
+
+        // More partitions than lines, so some of them are empty.
+        List<File> partitions = LocalParallelRunner.partitionInput(inputs, new File(TEST_DIR, "testMultipleFiles/partitions"), 10);
+        assertEquals(10, partitions.size());
+
+        StringBuilder allLines = new StringBuilder();
+        for (File partition : partitions) {
+            assertTrue(partition.exists());
+            allLines.append(FileUtils.readFileToString(partition, "UTF-8"));
+        }
+
+        assertEquals("a\nb\nc\nd\n", allLines.toString());
+    }
+}
@@ -0,0 +1,51 @@
+package com.scaleunlimited.textfeatures;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.Test;
+
+public class SchemaAnalyzerLoaderTest extends Assert {
+
+    private static final String TEXT = "The Mahout recommenders weren't running on Hadoop's clusters, https://issues.apache.org/jira/browse/MAHOUT-1234";
+    
+    @Test
+    public void testSameTermsAsSolr() throws Exception {
+        List<String> expected = getTokens(SolrAnalyzer.getCoreContainerAnalyzer("text_en"), TEXT);
+        List<String> actual = getTokens(new SchemaAnalyzerLoader().getAnalyzer("text_en"), TEXT);
+        
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+    
+    @Test
+    public void testUnknownFieldType() throws Exception {
+        try {
+            new SchemaAnalyzerLoader().getAnalyzer("no_such_type");
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+    
+    private List<String> getTokens(Analyzer analyzer, String text) throws Exception {
+        List<String> result = new ArrayList<String>();
+        
+        TokenStream stream = analyzer.tokenStream("content", new StringReader(text));
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            result.add(term.toString());
+        }
+        
+        stream.end();
+        stream.close();
+        return result;
+    }
+}
@@ -2,8 +2,13 @@ package com.scaleunlimited.textfeatures;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junit.framework.Assert;
 
@@ -40,6 +45,134 @@ public class SolrAnalyzerTest extends Assert {
         validateTerms(analyzer.getTermList("Hello there world!"), "hello", "world");
     }
     
+    @Test
+    public void testPreparsedTerms() throws Exception {
+        SolrAnalyzer analyzer = new SolrAnalyzer(3, new HashSet<String>());
+        PreparsedTerms.Builder builder = new PreparsedTerms.Builder();
+        
+        String text = "Hello there world! Some more text.";
+        analyzer.getTerms(text, builder.reset());
+        
+        List<String> terms = new ArrayList<String>();
+        Iterator<String> iter = PreparsedTerms.getTermIterator(builder.toString());
+        while (iter.hasNext()) {
+            terms.add(iter.next());
+        }
+        
+        assertEquals(analyzer.getTermList(text), terms);
+        
+        // Builder can be re-used, and no terms means an empty iterator.
+        analyzer.getTerms("", builder.reset());
+        assertEquals("", builder.toString());
+        assertFalse(PreparsedTerms.getTermIterator(builder.toString()).hasNext());
+    }
+    
+    @Test
+    public void testPreparsedTermsBuilder() throws Exception {
+        SolrAnalyzer analyzer = new SolrAnalyzer(3, new HashSet<String>());
+        PreparsedTerms.Builder builder = new PreparsedTerms.Builder();
+        
+        // The builder hands back the same terms, without going through a String.
+        String text = "Hello there world! Some more text.";
+        analyzer.getTerms(text, builder.reset());
+        assertEquals(analyzer.getTermList(text), getTerms(builder));
+        assertEquals(builder.toString().length(), builder.length());
+        
+        // Still works after it's grown for a long text, and been reset.
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longText.append("mahout clustering ");
+        }
+        
+        analyzer.getTerms(longText.toString(), builder.reset());
+        assertTrue(builder.length() > 100000);
+        
+        analyzer.getTerms(text, builder.reset());
+        assertEquals(analyzer.getTermList(text), getTerms(builder));
+        
+        analyzer.getTerms("", builder.reset());
+        assertTrue(getTerms(builder).isEmpty());
+    }
+    
+    private static List<String> getTerms(PreparsedTerms.Builder builder) {
+        final List<String> result = new ArrayList<String>();
+        builder.getTerms(new ITermConsumer() {
+            
+            @Override
+            public void addTerm(char[] buffer, int offset, int length) {
+                result.add(new String(buffer, offset, length));
+            }
+        });
+        
+        return result;
+    }
+    
+    @Test
+    public void testShinglesInLongText() throws Exception {
+        // Enough text that the shingle buffer has to slide words down multiple times.
+        String[] words = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append(words[i % words.length]);
+            text.append(' ');
+        }
+        
+        List<String> singleWords = new SolrAnalyzer().getTermList(text.toString());
+        assertEquals(500, singleWords.size());
+        
+        List<String> expectedTerms = new ArrayList<String>();
+        for (int i = 0; i < singleWords.size(); i++) {
+            String term = singleWords.get(i);
+            expectedTerms.add(term);
+            for (int j = i - 1; (j >= 0) && (j > i - 4); j--) {
+                term = singleWords.get(j) + " " + term;
+                expectedTerms.add(term);
+            }
+        }
+        
+        SolrAnalyzer analyzer = new SolrAnalyzer(4, new HashSet<String>());
+        assertEquals(expectedTerms, analyzer.getTermList(text.toString()));
+    }
+    
+    @Test
+    public void testTermConsumer() throws Exception {
+        SolrAnalyzer analyzer = new SolrAnalyzer(2, new HashSet<String>());
+        
+        final List<String> terms = new ArrayList<String>();
+        analyzer.getTerms("Hello there world!", new ITermConsumer() {
+            
+            @Override
+            public void addTerm(char[] buffer, int offset, int length) {
+                terms.add(new String(buffer, offset, length));
+            }
+        });
+        
+        validateTerms(terms, "hello", "there", "world", "hello there", "there world");
+    }
+    
+    @Test
+    public void testTermIterator() throws Exception {
+        Set<String> stopwords = new HashSet<String>();
+        stopwords.add("there");
+        SolrAnalyzer analyzer = new SolrAnalyzer(3, stopwords);
+        
+        String text = "Hello there big world, and my oh my what a wonderful world it is!";
+        List<String> expectedTerms = analyzer.getTermList(text);
+        
+        List<String> actualTerms = new ArrayList<String>();
+        Iterator<String> iter = analyzer.getTermIterator(text);
+        while (iter.hasNext()) {
+            actualTerms.add(iter.next());
+        }
+        
+        assertEquals(expectedTerms, actualTerms);
+        assertFalse(iter.hasNext());
+        
+        // Make sure the analyzer is still usable after the iterator is done.
+        validateTerms(analyzer.getTermList("Hello world"), "hello", "world", "hello world");
+        assertFalse(analyzer.getTermIterator("I am 1").hasNext());
+    }
+    
     private void validateTerms(List<String> actualTerms, String...expectedTerms) {
         // We have a set of terms that should be returned by the parser.
         // Verify the parser returns exactly that set.
@@ -66,6 +199,75 @@ public class SolrAnalyzerTest extends Assert {
         }
     }
 
+    @Test
+    public void testGetTermLists() throws Exception {
+        String[] words = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet"};
+        List<String> texts = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j <= i; j++) {
+                text.append(words[(i + j) % words.length]);
+                text.append(' ');
+            }
+            
+            texts.add(text.toString());
+        }
+        
+        SolrAnalyzer analyzer = new SolrAnalyzer(3, new HashSet<String>());
+        List<List<String>> expected = new ArrayList<List<String>>();
+        for (String text : texts) {
+            expected.add(analyzer.getTermList(text));
+        }
+        
+        // Default (shared) executor
+        assertEquals(expected, new SolrAnalyzer(3, new HashSet<String>()).getTermLists(texts));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            analyzer.setExecutor(executor, 3);
+            assertEquals(expected, analyzer.getTermLists(texts));
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        final SolrAnalyzer analyzer = new SolrAnalyzer(2, new HashSet<String>());
+        final String[] texts = {"Hello world!", "stemming tests", "Bob's questions rock!", "feature category"};
+        final List<List<String>> expected = new ArrayList<List<String>>();
+        for (String text : texts) {
+            expected.add(analyzer.getTermList(text));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(texts.length);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < texts.length; i++) {
+                final int index = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            if (!expected.get(index).equals(analyzer.getTermList(texts[index]))) {
+                                return false;
+                            }
+                        }
+                        
+                        return true;
+                    }
+                }));
+            }
+            
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
     @Test
     public void testFilteringShortWords() throws Exception {
         SolrAnalyzer analyzer = new SolrAnalyzer(3, new HashSet<String>());
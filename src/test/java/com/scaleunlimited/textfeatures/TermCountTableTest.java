@@ -0,0 +1,126 @@
+package com.scaleunlimited.textfeatures;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cascading.CascadingTestCase;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleListCollector;
+
+public class TermCountTableTest extends CascadingTestCase {
+
+    private static class CountingHandler implements TermCountTable.EvictionHandler {
+        private Map<String, Long> _counts = new HashMap<String, Long>();
+        private int _numEvicted;
+
+        @Override
+        public void evicted(int group, long termId, long count) {
+            String key = group + "/" + termId;
+            Long curCount = _counts.get(key);
+            _counts.put(key, count + (curCount == null ? 0 : curCount));
+            _numEvicted += 1;
+        }
+
+        public Map<String, Long> getCounts() {
+            return _counts;
+        }
+
+        public int getNumEvicted() {
+            return _numEvicted;
+        }
+    }
+
+    @Test
+    public void testCounting() throws Exception {
+        TermCountTable table = new TermCountTable(1024 * 1024);
+        CountingHandler handler = new CountingHandler();
+
+        assertFalse(table.add(1, 100L, 1, handler));
+        assertTrue(table.add(1, 100L, 1, handler));
+        assertFalse(table.add(2, 100L, 1, handler));
+        assertFalse(table.add(1, 200L, 5, handler));
+        assertEquals(3, table.size());
+        assertEquals(1, table.getNumHits());
+        assertEquals(3, table.getNumMisses());
+
+        // Nothing gets evicted until the table is full.
+        assertEquals(0, handler.getNumEvicted());
+
+        table.flush(handler);
+        assertEquals(0, table.size());
+        assertEquals(3, handler.getNumEvicted());
+        assertEquals(2L, (long)handler.getCounts().get("1/100"));
+        assertEquals(1L, (long)handler.getCounts().get("2/100"));
+        assertEquals(5L, (long)handler.getCounts().get("1/200"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        TermCountTable table = new TermCountTable(4096 * TermCountTable.BYTES_PER_SLOT);
+        CountingHandler handler = new CountingHandler();
+        Map<String, Long> expected = new HashMap<String, Long>();
+
+        // Zipfian-ish term usage, with many more pairs than fit in the table.
+        Random rand = new Random(1L);
+        for (int i = 0; i < 100000; i++) {
+            int group = rand.nextInt(10);
+            long termId = TermIds.getId("term" + (int)Math.pow(1000, rand.nextDouble()));
+            table.add(group, termId, 1, handler);
+
+            String key = group + "/" + termId;
+            Long curCount = expected.get(key);
+            expected.put(key, 1 + (curCount == null ? 0 : curCount));
+        }
+
+        assertTrue(table.getNumEvictions() > 0);
+        assertTrue(table.size() <= table.getMaxSize());
+        assertEquals(handler.getNumEvicted(), table.getNumEvicted());
+
+        // Partial counts add up to the real counts.
+        table.flush(handler);
+        assertEquals(expected, handler.getCounts());
+
+        // Frequent pairs stay in the table, so we still get a decent hit rate (about 70%)
+        // even though less than a third of the pairs fit.
+        assertTrue(table.getNumHits() > 2 * table.getNumMisses());
+    }
+
+    @Test
+    public void testTooSmall() throws Exception {
+        try {
+            new TermCountTable(TermCountTable.BYTES_PER_SLOT);
+            fail("Should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCombiner() throws Exception {
+        Fields argFields = new Fields(Config.EMAIL_FN, Config.TERM_ID_FN);
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 100L)),
+            new TupleEntry(argFields, new Tuple("user2@domain.com", 100L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 100L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 200L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 100L)),
+        };
+
+        TupleListCollector collector = invokeFunction(new CombineTermCounts(1024 * 1024), input, CombineTermCounts.FIELDS);
+        assertEquals(3, collector.size());
+
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Tuple result : collector) {
+            counts.put(result.getString(0) + "/" + result.getLong(1), result.getLong(2));
+        }
+
+        assertEquals(3L, (long)counts.get("user1@domain.com/100"));
+        assertEquals(1L, (long)counts.get("user2@domain.com/100"));
+        assertEquals(1L, (long)counts.get("user1@domain.com/200"));
+    }
+}
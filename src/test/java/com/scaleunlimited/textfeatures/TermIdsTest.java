@@ -0,0 +1,67 @@
+package com.scaleunlimited.textfeatures;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TermIdsTest extends Assert {
+
+    @Test
+    public void testIds() throws Exception {
+        assertEquals(TermIds.getId("hello world"), TermIds.getId("hello world"));
+        assertFalse(TermIds.getId("hello world") == TermIds.getId("world hello"));
+        
+        char[] buffer = "xxhello worldxx".toCharArray();
+        assertEquals(TermIds.getId("hello world"), TermIds.getId(buffer, 2, 11));
+        
+        assertEquals(1, TermIds.getNumWords(TermIds.getId("hello")));
+        assertEquals(3, TermIds.getNumWords(TermIds.getId("hello big world")));
+        assertEquals(TermIds.MAX_WORDS, TermIds.getNumWords(TermIds.getId("a b c d e f g h i j")));
+    }
+    
+    @Test
+    public void testKeys() throws Exception {
+        long[] ids = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, TermIds.getId("hello world")};
+        for (long id : ids) {
+            String key = TermIds.toKey(id);
+            assertEquals(TermIds.KEY_LENGTH, key.length());
+            assertEquals(id, TermIds.fromKey(key));
+        }
+        
+        try {
+            TermIds.fromKey("hello world");
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testTermIdSet() throws Exception {
+        TermIdSet set = new TermIdSet(1000);
+        Set<Long> expected = new HashSet<Long>();
+        
+        for (int i = 0; i < 1000; i++) {
+            long id = TermIds.getId("term" + i);
+            assertTrue(set.add(id));
+            assertFalse(set.add(id));
+            expected.add(id);
+        }
+        
+        assertEquals(expected.size(), set.size());
+        for (long id : expected) {
+            assertTrue(set.contains(id));
+        }
+        
+        assertFalse(set.contains(0));
+        
+        // Once we're full, we start over. Note that zero is a valid id too.
+        assertTrue(set.add(0));
+        assertEquals(1, set.size());
+        assertTrue(set.contains(0));
+        assertFalse(set.add(0));
+    }
+}
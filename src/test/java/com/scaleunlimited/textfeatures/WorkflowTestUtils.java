@@ -0,0 +1,42 @@
+package com.scaleunlimited.textfeatures;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+public class WorkflowTestUtils {
+
+    /**
+     * Read all of the lines from a workflow's output, which is either a single file (local
+     * mode) or a directory of part files. Hidden and "_" files (e.g. _SUCCESS, .crc files)
+     * are skipped. The lines are sorted, so that outputs can be compared without worrying
+     * about the order of ties, or of the part files.
+     *
+     * @param output
+     * @return sorted lines
+     * @throws IOException
+     */
+    public static List<String> readSortedLines(File output) throws IOException {
+        List<String> result = new ArrayList<String>();
+        if (output.isDirectory()) {
+            File[] files = output.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && !name.startsWith(".") && !name.startsWith("_")) {
+                    result.addAll(FileUtils.readLines(file, "UTF-8"));
+                }
+            }
+        } else {
+            result.addAll(FileUtils.readLines(output, "UTF-8"));
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package com.scaleunlimited.textsimilarity;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class BinaryPreferencesTest extends Assert {
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File testDir = new File("build/test/BinaryPreferencesTest/testWriteAndRead/");
+        FileUtils.deleteDirectory(testDir);
+        File prefsDir = new File(testDir, "taste-data");
+        prefsDir.mkdirs();
+        
+        // Preferences split across part files, and not sorted by user.
+        FileUtils.write(new File(prefsDir, "part-00000"), "2,5,0.5\n0,1,1.5\n");
+        FileUtils.write(new File(prefsDir, "part-00001"), "2,3,2.0\n0,7,3.25\n");
+        FileUtils.write(new File(prefsDir, "_SUCCESS"), "");
+        
+        File binaryFile = new File(testDir, "prefs.bin");
+        BinaryPreferences.write(new Configuration(), new Path(prefsDir.getAbsolutePath()), binaryFile);
+        
+        BinaryPreferences prefs = BinaryPreferences.open(binaryFile);
+        assertEquals(3, prefs.getNumUsers());
+        assertEquals(4, prefs.getNumPrefs());
+        
+        assertEquals(0, prefs.getStartIndex(0));
+        assertEquals(2, prefs.getEndIndex(0));
+        assertEquals(1, prefs.getTermId(0));
+        assertEquals(1.5f, prefs.getScore(0));
+        assertEquals(7, prefs.getTermId(1));
+        assertEquals(3.25f, prefs.getScore(1));
+        
+        // User 1 has no preferences
+        assertEquals(prefs.getStartIndex(1), prefs.getEndIndex(1));
+        
+        assertEquals(2, prefs.getStartIndex(2));
+        assertEquals(4, prefs.getEndIndex(2));
+        assertEquals(5, prefs.getTermId(2));
+        assertEquals(0.5f, prefs.getScore(2));
+        assertEquals(3, prefs.getTermId(3));
+        assertEquals(2.0f, prefs.getScore(3));
+    }
+    
+    @Test
+    public void testSingleFile() throws Exception {
+        File testDir = new File("build/test/BinaryPreferencesTest/testSingleFile/");
+        FileUtils.deleteDirectory(testDir);
+        testDir.mkdirs();
+        
+        // In Cascading local mode, the sink is a single file.
+        File prefsFile = new File(testDir, "taste-data");
+        FileUtils.write(prefsFile, "0,0,1.0\n");
+        
+        File binaryFile = new File(testDir, "prefs.bin");
+        BinaryPreferences.write(new Configuration(), new Path(prefsFile.getAbsolutePath()), binaryFile);
+        
+        BinaryPreferences prefs = BinaryPreferences.open(binaryFile);
+        assertEquals(1, prefs.getNumUsers());
+        assertEquals(1, prefs.getNumPrefs());
+        assertEquals(1.0f, prefs.getScore(0));
+    }
+}
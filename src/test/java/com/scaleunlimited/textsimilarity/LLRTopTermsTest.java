@@ -0,0 +1,321 @@
+package com.scaleunlimited.textsimilarity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cascading.CascadingTestCase;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleListCollector;
+
+import com.scaleunlimited.cascading.ml.ITermsFilter;
+import com.scaleunlimited.cascading.ml.ITermsParser;
+import com.scaleunlimited.textfeatures.CombineTermCounts;
+import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.TermIds;
+
+public class LLRTopTermsTest extends CascadingTestCase {
+
+    @SuppressWarnings("serial")
+    private static class MinScoreFilter implements ITermsFilter, Serializable {
+
+        private double _minScore;
+        private int _maxResults;
+
+        public MinScoreFilter(double minScore, int maxResults) {
+            _minScore = minScore;
+            _maxResults = maxResults;
+        }
+
+        @Override
+        public boolean filter(double llrScore, String term, ITermsParser parser) {
+            return llrScore < _minScore;
+        }
+
+        @Override
+        public int getMaxResults() {
+            return _maxResults;
+        }
+    }
+
+    @Test
+    public void testLogLikelihoodRatio() throws Exception {
+        assertEquals(4 * Math.log(2), LLRTopTerms.logLikelihoodRatio(1, 0, 0, 1), 0.000001);
+        assertEquals(40 * Math.log(2), LLRTopTerms.logLikelihoodRatio(10, 0, 0, 10), 0.00001);
+
+        // Independent terms get a score of 0.
+        assertEquals(0.0, LLRTopTerms.logLikelihoodRatio(10, 90, 100, 900), 0.000001);
+
+        // The score goes up with the count, for the same ratios.
+        assertTrue(LLRTopTerms.getScore(20, 100, 100, 10000) > LLRTopTerms.getScore(10, 100, 100, 10000));
+        assertTrue(LLRTopTerms.getScore(20, 200, 200, 20000) > LLRTopTerms.getScore(10, 100, 100, 10000));
+    }
+
+    @Test
+    public void testHeap() throws Exception {
+        Random rand = new Random(1L);
+        TopTermsHeap heap = new TopTermsHeap(20);
+
+        for (int test = 0; test < 10; test++) {
+            heap.clear();
+            List<Double> scores = new ArrayList<Double>();
+            for (int i = 0; i < 1000; i++) {
+                // Lots of ties, to check that those are handled.
+                double score = rand.nextInt(100);
+                scores.add(score);
+                heap.add(i, score);
+            }
+
+            Collections.sort(scores, Collections.reverseOrder());
+
+            assertEquals(20, heap.size());
+            heap.sort();
+            for (int i = 0; i < heap.size(); i++) {
+                assertEquals(scores.get(i), heap.getScore(i), 0.0);
+                if ((i > 0) && (heap.getScore(i) == heap.getScore(i - 1))) {
+                    assertTrue(heap.getTermId(i) > heap.getTermId(i - 1));
+                }
+            }
+        }
+
+        // Fewer terms than the max.
+        heap.clear();
+        heap.add(1, 1.0);
+        heap.add(2, 3.0);
+        heap.add(3, 2.0);
+        heap.sort();
+        assertEquals(3, heap.size());
+        assertEquals(2, heap.getTermId(0));
+        assertEquals(3, heap.getTermId(1));
+        assertEquals(1, heap.getTermId(2));
+    }
+
+    @SuppressWarnings("serial")
+    private static class WhitespaceParser implements ITermsParser, Serializable {
+
+        private String _text;
+
+        @Override
+        public Iterator<String> iterator() {
+            return Arrays.asList(_text.split(" ")).iterator();
+        }
+
+        @Override
+        public void reset(String text) {
+            _text = text;
+        }
+
+        @Override
+        public int getNumWords(String term) {
+            return 1;
+        }
+    }
+
+    @Test
+    public void testCountUserTerms() throws Exception {
+        Fields argFields = new Fields(Config.EMAIL_FN, Config.CONTENT_FN);
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple("user1@domain.com", "mahout build failed")),
+            new TupleEntry(argFields, new Tuple("user2@domain.com", "mahout build")),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", "build failed again")),
+        };
+
+        TupleListCollector collector = invokeFunction(new LLRTopTerms.CountUserTerms(new WhitespaceParser(), 1024 * 1024),
+                        input, CombineTermCounts.FIELDS);
+
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Tuple result : collector) {
+            counts.put(result.getString(0) + "/" + result.getLong(1), result.getLong(2));
+        }
+
+        assertEquals(6, counts.size());
+        assertEquals(2L, (long)counts.get("user1@domain.com/" + TermIds.getId("build")));
+        assertEquals(2L, (long)counts.get("user1@domain.com/" + TermIds.getId("failed")));
+        assertEquals(1L, (long)counts.get("user1@domain.com/" + TermIds.getId("again")));
+        assertEquals(1L, (long)counts.get("user2@domain.com/" + TermIds.getId("mahout")));
+    }
+
+    @Test
+    public void testSumUserTerms() throws Exception {
+        Fields argFields = new Fields(Config.EMAIL_FN, "salt", Config.TERM_ID_FN, Config.TERM_COUNT_FN);
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 0, 100L, 2L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 0, 100L, 3L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 0, 200L, 1L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 0, 300L, 4L)),
+            new TupleEntry(argFields, new Tuple("user1@domain.com", 0, 300L, 1L)),
+        };
+
+        TupleEntry group = new TupleEntry(new Fields(Config.EMAIL_FN, "salt"), new Tuple("user1@domain.com", 0));
+        TupleListCollector collector = invokeBuffer(new LLRTopTerms.SumUserTerms(), group, input,
+                        new Fields(Config.EMAIL_FN, "salt", Config.TERM_ID_FN, Config.TERM_COUNT_FN, "user_total"));
+
+        List<Tuple> results = new ArrayList<Tuple>();
+        for (Tuple result : collector) {
+            results.add(result);
+        }
+
+        assertEquals(3, results.size());
+        assertEquals(new Tuple("user1@domain.com", 0, 100L, 5L, 11L), results.get(0));
+        assertEquals(new Tuple("user1@domain.com", 0, 200L, 1L, 11L), results.get(1));
+        assertEquals(new Tuple("user1@domain.com", 0, 300L, 5L, 11L), results.get(2));
+    }
+
+    @Test
+    public void testAddSalt() throws Exception {
+        Fields argFields = new Fields(Config.TERM_ID_FN, "heavy_email");
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple(TermIds.getId("mahout"), null)),
+            new TupleEntry(argFields, new Tuple(TermIds.getId("mahout"), "user1@domain.com")),
+            new TupleEntry(argFields, new Tuple(TermIds.getId("build"), "user1@domain.com")),
+            new TupleEntry(argFields, new Tuple(-1L, "user1@domain.com")),
+        };
+
+        TupleListCollector collector = invokeFunction(new LLRTopTerms.AddSalt(4), input, new Fields("salt"));
+
+        List<Tuple> results = new ArrayList<Tuple>();
+        for (Tuple result : collector) {
+            results.add(result);
+        }
+
+        assertEquals(4, results.size());
+
+        // Regular users always get salt 0, heavy hitters get one based on the term id.
+        assertEquals(0, results.get(0).getInteger(0));
+        assertEquals(LLRTopTerms.getSalt(TermIds.getId("mahout"), 4), results.get(1).getInteger(0));
+        assertEquals(LLRTopTerms.getSalt(TermIds.getId("build"), 4), results.get(2).getInteger(0));
+
+        // Negative term ids still give us a valid salt.
+        int salt = results.get(3).getInteger(0);
+        assertTrue((salt >= 0) && (salt < 4));
+    }
+
+    @Test
+    public void testRemoveLightUsers() throws Exception {
+        Fields argFields = new Fields("sample_count", "sample_total");
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple(50L, 1000L)),
+            new TupleEntry(argFields, new Tuple(20L, 1000L)),
+            new TupleEntry(argFields, new Tuple(5L, 10L)),
+            new TupleEntry(argFields, new Tuple(19L, 1000L)),
+        };
+
+        // Doesn't depend on the default locale (e.g. "0,02" in Germany).
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            boolean[] removed = invokeFilter(new LLRTopTerms.RemoveLightUsers(0.02), input);
+            assertFalse(removed[0]);
+            assertFalse(removed[1]);
+
+            // Too few sampled emails to be sure, even though it's half of the total.
+            assertTrue(removed[2]);
+            assertTrue(removed[3]);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testMergeUserTotals() throws Exception {
+        Fields argFields = new Fields("salt", "salt_total");
+        TupleEntry[] input = new TupleEntry[] {
+            new TupleEntry(argFields, new Tuple(0, 10L)),
+            new TupleEntry(argFields, new Tuple(2, 5L)),
+            new TupleEntry(argFields, new Tuple(3, 7L)),
+        };
+
+        TupleEntry group = new TupleEntry(new Fields(Config.EMAIL_FN), new Tuple("user1@domain.com"));
+        TupleListCollector collector = invokeBuffer(new LLRTopTerms.MergeUserTotals(4), group, input,
+                        new Fields("total_email", "total_salt", "user_total"));
+
+        List<Tuple> results = new ArrayList<Tuple>();
+        for (Tuple result : collector) {
+            results.add(result);
+        }
+
+        assertEquals(3, results.size());
+        assertEquals(new Tuple("user1@domain.com", 0, 22L), results.get(0));
+        assertEquals(new Tuple("user1@domain.com", 2, 22L), results.get(1));
+        assertEquals(new Tuple("user1@domain.com", 3, 22L), results.get(2));
+    }
+
+    @Test
+    public void testMergeTopTerms() throws Exception {
+        Fields argFields = new Fields("term", "score");
+        TupleEntry[] input = new TupleEntry[] {
+            // Top terms from salt 0
+            new TupleEntry(argFields, new Tuple(TermIds.toKey(1), 50.0)),
+            new TupleEntry(argFields, new Tuple(TermIds.toKey(2), 10.0)),
+            // Top terms from salt 1
+            new TupleEntry(argFields, new Tuple(TermIds.toKey(3), 30.0)),
+            new TupleEntry(argFields, new Tuple(TermIds.toKey(4), 20.0)),
+        };
+
+        TupleEntry group = new TupleEntry(new Fields(Config.EMAIL_FN), new Tuple("user1@domain.com"));
+        TupleListCollector collector = invokeBuffer(new LLRTopTerms.MergeTopTerms(3), group, input,
+                        LLRTopTerms.OUTPUT_FIELDS);
+
+        List<Tuple> results = new ArrayList<Tuple>();
+        for (Tuple result : collector) {
+            results.add(result);
+        }
+
+        assertEquals(3, results.size());
+        assertEquals(new Tuple("user1@domain.com", TermIds.toKey(1), 50.0), results.get(0));
+        assertEquals(new Tuple("user1@domain.com", TermIds.toKey(3), 30.0), results.get(1));
+        assertEquals(new Tuple("user1@domain.com", TermIds.toKey(4), 20.0), results.get(2));
+    }
+
+    @Test
+    public void testScoreUserTerms() throws Exception {
+        Fields argFields = new Fields(Config.TERM_ID_FN, Config.TERM_COUNT_FN, "user_total", "term_total", "total");
+        long userTotal = 100;
+        long total = 10000;
+        long[][] counts = new long[][] {
+            // term id, count for user, count for everyone
+            {1, 50, 60},        // Mostly used by this user
+            {2, 10, 20},
+            {3, 1, 1000},       // Used less than everyone else, so skipped
+            {4, 5, 500},        // Same rate as everyone else, so also skipped
+            {5, 30, 40},
+        };
+
+        TupleEntry[] input = new TupleEntry[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            input[i] = new TupleEntry(argFields, new Tuple(counts[i][0], counts[i][1], userTotal, counts[i][2], total));
+        }
+
+        TupleEntry group = new TupleEntry(new Fields(Config.EMAIL_FN, "salt"), new Tuple("user1@domain.com", 0));
+        TupleListCollector collector = invokeBuffer(new LLRTopTerms.ScoreUserTerms(new MinScoreFilter(1.0, 2), null),
+                        group, input, LLRTopTerms.OUTPUT_FIELDS);
+
+        List<Tuple> results = new ArrayList<Tuple>();
+        for (Tuple result : collector) {
+            results.add(result);
+        }
+
+        // Only the top two, from highest to lowest score.
+        assertEquals(2, results.size());
+        assertEquals("user1@domain.com", results.get(0).getString(0));
+        assertEquals(TermIds.toKey(1), results.get(0).getString(1));
+        assertEquals(LLRTopTerms.getScore(50, userTotal, 60, total), results.get(0).getDouble(2), 0.000001);
+        assertEquals(TermIds.toKey(5), results.get(1).getString(1));
+
+        // With more room, we get everything but the skipped terms.
+        collector = invokeBuffer(new LLRTopTerms.ScoreUserTerms(new MinScoreFilter(1.0, 10), null),
+                        group, input, LLRTopTerms.OUTPUT_FIELDS);
+        assertEquals(3, collector.size());
+    }
+}
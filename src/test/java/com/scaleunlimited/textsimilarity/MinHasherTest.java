@@ -0,0 +1,52 @@
+package com.scaleunlimited.textsimilarity;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MinHasherTest extends Assert {
+
+    @Test
+    public void testSameTerms() throws Exception {
+        MinHasher minHasher = new MinHasher(10, 3);
+        
+        // Weights and order don't matter, only the set of terms.
+        TermVector v1 = new TermVector(new String[] {"a", "b", "c"}, new double[] {1.0, 2.0, 3.0});
+        TermVector v2 = new TermVector(new String[] {"c", "a", "b"}, new double[] {0.1, 0.1, 0.1});
+        
+        long[] signature = minHasher.getSignature(v1);
+        assertEquals(30, signature.length);
+        
+        long[] bandKeys1 = minHasher.getBandKeys(signature);
+        long[] bandKeys2 = minHasher.getBandKeys(minHasher.getSignature(v2));
+        assertEquals(10, bandKeys1.length);
+        for (int band = 0; band < bandKeys1.length; band++) {
+            assertEquals(bandKeys1[band], bandKeys2[band]);
+        }
+    }
+    
+    @Test
+    public void testJaccardEstimate() throws Exception {
+        MinHasher minHasher = new MinHasher(100, 5);
+        
+        // 50 shared terms out of 100 total means a Jaccard similarity of 0.5
+        String[] terms1 = new String[75];
+        String[] terms2 = new String[75];
+        for (int i = 0; i < 75; i++) {
+            terms1[i] = "term" + i;
+            terms2[i] = "term" + (i + 25);
+        }
+        
+        long[] signature1 = minHasher.getSignature(new TermVector(terms1, new double[75]));
+        long[] signature2 = minHasher.getSignature(new TermVector(terms2, new double[75]));
+        
+        int numSame = 0;
+        for (int i = 0; i < signature1.length; i++) {
+            if (signature1[i] == signature2[i]) {
+                numSame += 1;
+            }
+        }
+        
+        assertEquals(0.5, (double)numSame / signature1.length, 0.1);
+    }
+}
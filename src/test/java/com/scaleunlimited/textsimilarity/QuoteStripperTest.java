@@ -0,0 +1,68 @@
+package com.scaleunlimited.textsimilarity;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class QuoteStripperTest extends Assert {
+
+    @Test
+    public void testQuotedLines() throws Exception {
+        QuoteStripper stripper = new QuoteStripper(true, false);
+        
+        assertEquals("word1\nword4", stripper.strip("word1\n> word2\n>> word3\nword4"));
+        assertEquals("word1\r\nword4\r\n", stripper.strip("word1\r\n> word2\r\n>\r\nword4\r\n"));
+        assertEquals("word1\n", stripper.strip("word1\n> word2"));
+        
+        // Not quoted lines
+        String content = "a >b\n>b\n word";
+        assertSame(content, stripper.strip(content));
+        
+        // Headers are left alone
+        content = "On Fri, May 31, 2013, Bob <bob@foo.com> wrote:\n";
+        assertSame(content, stripper.strip(content));
+    }
+    
+    @Test
+    public void testQuoteHeaders() throws Exception {
+        QuoteStripper stripper = new QuoteStripper(false, true);
+        
+        assertEquals("line1\r", stripper.strip("line1\r On Fri, May 31, 2013 at 4:00 PM, Ted Dun ning <ted.dunning@gmail.com> wrote:"));
+        assertEquals("line1\n\n> quoted", stripper.strip("line1\nOn Tue, Jun 25, 2013 at 5:31 PM, Suneel Marthi <suneel_marthi@yahoo.com>wrote:\n> quoted"));
+        assertEquals("line1\n rest\n", stripper.strip("line1\n> On 6/25/13, Bob <bob@foo.com> wrote: rest\n"));
+        
+        // Header that's been wrapped onto a second line
+        assertEquals("line1\n \nline2", stripper.strip("line1\nOn Tue, Jun 25, 2013 at 5:31 PM, Suneel Marthi\n<suneel_marthi@yahoo.com> wrote: \nline2"));
+        
+        // Quoted lines are left alone
+        String content = "line1\n> quoted\n";
+        assertSame(content, stripper.strip(content));
+        
+        // Things that aren't headers
+        content = "On Monday, we met.\nBob wrote: a patch\n";
+        assertSame(content, stripper.strip(content));
+        content = "On Monday we met.\nBob wrote:\n";
+        assertSame(content, stripper.strip(content));
+        content = "Once, Bob wrote: something\n";
+        assertSame(content, stripper.strip(content));
+    }
+    
+    @Test
+    public void testSinglePass() throws Exception {
+        QuoteStripper stripper = new QuoteStripper(true, true);
+        
+        assertEquals("reply\n\n", stripper.strip("reply\nOn Fri, May 31, 2013, Bob <bob@foo.com> wrote:\n> quoted\n>> more quoted\n"));
+        assertEquals("", stripper.strip(""));
+        
+        // Make sure buffers grow as needed.
+        StringBuilder content = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i).append('\n');
+            expected.append("line ").append(i).append('\n');
+            content.append("> quoted ").append(i).append('\n');
+        }
+        
+        assertEquals(expected.toString(), stripper.strip(content.toString()));
+    }
+}
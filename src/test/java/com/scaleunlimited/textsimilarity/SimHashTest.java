@@ -0,0 +1,151 @@
+package com.scaleunlimited.textsimilarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SimHashTest extends Assert {
+
+    private static long getHash(String text) {
+        SimHash simHash = new SimHash();
+        for (String term : text.split(" ")) {
+            simHash.addTerm(term);
+        }
+
+        return simHash.getHash();
+    }
+
+    @Test
+    public void testSimilarText() throws Exception {
+        String text = "build failed in jenkins mahout trunk see the console output for details "
+                        + "changes in this build include updates to the clustering code and the "
+                        + "recommender tests which timed out on the build machine again";
+
+        long hash = getHash(text);
+        assertEquals(hash, getHash(text));
+
+        // Changing one term out of 30 only changes a few bits.
+        long nearHash = getHash(text.replace("trunk", "branch"));
+        assertTrue(SimHash.getDistance(hash, nearHash) <= 7);
+
+        // Unrelated text is about 32 bits away.
+        long otherHash = getHash("thanks for the quick reply i will try the new release of the "
+                        + "vectorizer tomorrow and let you know if the memory problem goes away");
+        assertTrue(SimHash.getDistance(hash, otherHash) > 16);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        SimHash simHash = new SimHash();
+        simHash.addTerm("a");
+        simHash.addTerm("b");
+        assertEquals(2, simHash.getNumTerms());
+
+        simHash.reset();
+        assertEquals(0, simHash.getNumTerms());
+        assertEquals(0, simHash.getHash());
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        Random rand = new Random(1L);
+
+        for (int maxDistance = 0; maxDistance <= SimHashIndex.MAX_DISTANCE; maxDistance++) {
+            SimHashIndex index = new SimHashIndex(maxDistance, 1000);
+            List<Long> hashes = new ArrayList<Long>();
+            for (int i = 0; i < 1000; i++) {
+                long hash = rand.nextLong();
+                hashes.add(hash);
+                index.add(hash);
+            }
+
+            assertEquals(1000, index.size());
+
+            // Flipping up to maxDistance bits (anywhere) must still find the hash.
+            for (long hash : hashes) {
+                long nearHash = hash;
+                for (int i = 0; i < maxDistance; i++) {
+                    nearHash ^= 1L << rand.nextInt(SimHash.NUM_BITS);
+                }
+
+                assertTrue(index.containsNear(nearHash));
+            }
+
+            // Same answer as comparing against every hash.
+            for (int i = 0; i < 1000; i++) {
+                long hash = rand.nextLong();
+                boolean expected = false;
+                for (long other : hashes) {
+                    if (SimHash.getDistance(hash, other) <= maxDistance) {
+                        expected = true;
+                        break;
+                    }
+                }
+
+                assertEquals(expected, index.containsNear(hash));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexFull() throws Exception {
+        SimHashIndex index = new SimHashIndex(3, 10);
+        for (long hash = 1; hash <= 10; hash++) {
+            assertFalse(index.isFull());
+            index.add(hash << 40);
+        }
+
+        assertTrue(index.isFull());
+        assertEquals(10, index.size());
+        assertTrue(index.containsNear(5L << 40));
+
+        try {
+            index.add(11L << 40);
+            fail("Should have thrown an exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.containsNear(5L << 40));
+
+        index.add(11L << 40);
+        assertTrue(index.containsNear(11L << 40));
+    }
+
+    @Test
+    public void testZeroHash() throws Exception {
+        SimHashIndex index = new SimHashIndex(3, 10);
+        assertFalse(index.containsNear(0));
+
+        index.add(0);
+        assertTrue(index.containsNear(0));
+        assertTrue(index.containsNear(7));
+        assertFalse(index.containsNear(15));
+
+        index.clear();
+        assertFalse(index.containsNear(0));
+    }
+
+    @Test
+    public void testInvalidDistance() throws Exception {
+        try {
+            new SimHashIndex(SimHashIndex.MAX_DISTANCE + 1);
+            fail("Should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            new SimHashIndex(3, 0);
+            fail("Should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
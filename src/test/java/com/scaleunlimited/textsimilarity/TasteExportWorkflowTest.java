@@ -0,0 +1,34 @@
+package com.scaleunlimited.textsimilarity;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+
+public class TasteExportWorkflowTest extends Assert {
+
+    @Test
+    public void test() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/TasteExportWorkflowTest/test/working/");
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        f = TasteExportWorkflow.createFlow(options);
+        f.complete();
+        
+        File binaryFile = new File("build/test/TasteExportWorkflowTest/test/prefs.bin");
+        TasteExportWorkflow.writeBinaryPreferences(options, binaryFile);
+        
+        BinaryPreferences prefs = BinaryPreferences.open(binaryFile);
+        assertTrue(prefs.getNumUsers() > 0);
+        assertTrue(prefs.getNumPrefs() >= prefs.getNumUsers());
+    }
+    
+}
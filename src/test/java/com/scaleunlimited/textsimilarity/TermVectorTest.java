@@ -0,0 +1,122 @@
+package com.scaleunlimited.textsimilarity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TermVectorTest extends Assert {
+
+    @Test
+    public void testNormalizeAndDot() throws Exception {
+        TermVector v1 = new TermVector(new String[] {"a", "b"}, new double[] {3.0, 4.0});
+        v1.normalize();
+        assertEquals(0.6, v1.getWeight(0), 0.0001);
+        assertEquals(0.8, v1.getWeight(1), 0.0001);
+        assertEquals(1.0, v1.dot(v1), 0.0001);
+        
+        TermVector v2 = new TermVector(new String[] {"c", "b"}, new double[] {1.0, 1.0});
+        v2.normalize();
+        assertEquals(0.8 * Math.sqrt(0.5), v1.dot(v2), 0.0001);
+        assertEquals("b", v1.getFirstCommonTerm(v2));
+        assertEquals("b", v2.getFirstCommonTerm(v1));
+        
+        TermVector v3 = new TermVector(new String[] {"d"}, new double[] {1.0});
+        assertEquals(0.0, v1.dot(v3), 0.0);
+        assertNull(v1.getFirstCommonTerm(v3));
+    }
+    
+    @Test
+    public void testPrefixLength() throws Exception {
+        TermVector v = new TermVector(new String[] {"a", "b", "c", "d"}, new double[] {0.5, 0.5, 0.5, 0.5});
+        assertEquals(1, v.getPrefixLength(1.0));
+        assertEquals(3, v.getPrefixLength(0.6));
+        assertEquals(2, v.getPrefixLength(0.75));
+        assertEquals(4, v.getPrefixLength(0.0));
+    }
+    
+    @Test
+    public void testPrefixFilteringFindsAllPairs() throws Exception {
+        Random rand = new Random(1L);
+        final int numTerms = 50;
+        final double minSimilarity = 0.3;
+        
+        // Generate users with random terms, all in the same (term index) order.
+        List<TermVector> vectors = new ArrayList<TermVector>();
+        for (int i = 0; i < 200; i++) {
+            Set<Integer> termIndexes = new HashSet<Integer>();
+            int numUserTerms = 1 + rand.nextInt(10);
+            while (termIndexes.size() < numUserTerms) {
+                // Skew towards lower indexes
+                termIndexes.add((int)(numTerms * rand.nextDouble() * rand.nextDouble()));
+            }
+            
+            List<String> terms = new ArrayList<String>();
+            for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+                if (termIndexes.contains(termIndex)) {
+                    terms.add(String.format("t%03d", termIndex));
+                }
+            }
+            
+            double[] weights = new double[terms.size()];
+            for (int j = 0; j < weights.length; j++) {
+                weights[j] = 1.0 + rand.nextDouble() * 10.0;
+            }
+            
+            TermVector vector = new TermVector(terms.toArray(new String[terms.size()]), weights);
+            vector.normalize();
+            vectors.add(vector);
+        }
+        
+        // Brute force
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < vectors.size(); i++) {
+            for (int j = i + 1; j < vectors.size(); j++) {
+                if (vectors.get(i).dot(vectors.get(j)) >= minSimilarity) {
+                    expected.add(i + "-" + j);
+                }
+            }
+        }
+        
+        assertTrue(expected.size() > 0);
+        
+        // Index by prefix terms, and only compare in the group for the first common term.
+        Map<String, List<Integer>> index = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < vectors.size(); i++) {
+            TermVector vector = vectors.get(i);
+            int prefixLength = vector.getPrefixLength(minSimilarity);
+            for (int j = 0; j < prefixLength; j++) {
+                List<Integer> users = index.get(vector.getTerm(j));
+                if (users == null) {
+                    users = new ArrayList<Integer>();
+                    index.put(vector.getTerm(j), users);
+                }
+                
+                users.add(i);
+            }
+        }
+        
+        Set<String> actual = new HashSet<String>();
+        for (Map.Entry<String, List<Integer>> entry : index.entrySet()) {
+            List<Integer> users = entry.getValue();
+            for (int i = 0; i < users.size(); i++) {
+                for (int j = i + 1; j < users.size(); j++) {
+                    TermVector v1 = vectors.get(users.get(i));
+                    TermVector v2 = vectors.get(users.get(j));
+                    if (entry.getKey().equals(v1.getFirstCommonTerm(v2)) && (v1.dot(v2) >= minSimilarity)) {
+                        assertTrue(actual.add(users.get(i) + "-" + users.get(j)));
+                    }
+                }
+            }
+        }
+        
+        assertEquals(expected, actual);
+    }
+}
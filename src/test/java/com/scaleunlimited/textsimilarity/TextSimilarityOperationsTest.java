@@ -9,8 +9,11 @@ import org.junit.Test;
 import cascading.CascadingTestCase;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
 import cascading.tuple.TupleListCollector;
 
+import com.scaleunlimited.textfeatures.PreparsedTerms;
+
 @SuppressWarnings("serial")
 public class TextSimilarityOperationsTest extends CascadingTestCase {
 
@@ -40,4 +43,112 @@ public class TextSimilarityOperationsTest extends CascadingTestCase {
         Assert.assertFalse(result.contains("gmail.com"));
         Assert.assertFalse(iter.hasNext());
     }
+    
+    @Test
+    public void testMultithreadedAnalysis() {
+        // More emails than fit in one batch, so we test emitting full and partial batches.
+        Tuple[] emails = new Tuple[2500];
+        for (int i = 0; i < emails.length; i++) {
+            emails[i] = new Tuple("user" + i + "@domain.com", "Email number " + i + " talks about mahout clustering");
+        }
+        
+        Fields resultFields = new Fields("email", "content");
+        TupleListCollector expected = invokeFunction(new TextSimilarityWorkflow.AnalyzeContent(2, null, 1), emails, resultFields);
+        TupleListCollector actual = invokeFunction(new TextSimilarityWorkflow.AnalyzeContent(2, null, 4), emails, resultFields);
+        Assert.assertEquals(emails.length, expected.size());
+        
+        // Same results, in the same order.
+        Iterator<Tuple> expectedIter = expected.iterator();
+        Iterator<Tuple> actualIter = actual.iterator();
+        while (expectedIter.hasNext()) {
+            Assert.assertEquals(expectedIter.next(), actualIter.next());
+        }
+        
+        Assert.assertFalse(actualIter.hasNext());
+        Assert.assertTrue(expected.iterator().next().getString(1).contains("mahout cluster"));
+    }
+    
+    @Test
+    public void testMultithreadedAnalysisOfLongEmails() {
+        // Some emails are long enough that batches end because of their size, versus
+        // the number of emails.
+        StringBuilder longContent = new StringBuilder();
+        while (longContent.length() < 300 * 1000) {
+            longContent.append("mahout clustering with kmeans on hadoop ");
+        }
+        
+        Tuple[] emails = new Tuple[50];
+        for (int i = 0; i < emails.length; i++) {
+            String content = (i % 5 == 0) ? longContent.toString() + i : "Email number " + i + " talks about recommenders";
+            emails[i] = new Tuple("user" + i + "@domain.com", content);
+        }
+        
+        Fields resultFields = new Fields("email", "content");
+        TupleListCollector expected = invokeFunction(new TextSimilarityWorkflow.AnalyzeContent(2, null, 1), emails, resultFields);
+        TupleListCollector actual = invokeFunction(new TextSimilarityWorkflow.AnalyzeContent(2, null, 4), emails, resultFields);
+        Assert.assertEquals(emails.length, expected.size());
+        Assert.assertEquals(expected.size(), actual.size());
+        
+        Iterator<Tuple> expectedIter = expected.iterator();
+        Iterator<Tuple> actualIter = actual.iterator();
+        while (expectedIter.hasNext()) {
+            Assert.assertEquals(expectedIter.next(), actualIter.next());
+        }
+    }
+    
+    @Test
+    public void testRemoveNearDuplicates() throws Exception {
+        String notification = "build failed in jenkins mahout trunk see the console output for details "
+                        + "changes in this build include updates to the clustering code and the recommender "
+                        + "tests which timed out on the build machine again please take a look at the failing "
+                        + "tests before committing anything else since the nightly release depends on a clean "
+                        + "build of every module including the examples and the integration tests";
+        String[] contents = new String[] {
+            notification.replace("trunk", "build 1234"),
+            "thanks for the quick reply i will try the new release of the vectorizer tomorrow",
+            notification.replace("trunk", "build 1235"),
+            "thanks",
+            "thanks",
+        };
+        
+        Fields fields = new Fields("email", "content");
+        TupleEntry[] emails = new TupleEntry[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            PreparsedTerms.Builder terms = new PreparsedTerms.Builder();
+            for (String term : contents[i].split(" ")) {
+                terms.addTerm(term);
+            }
+            
+            emails[i] = new TupleEntry(fields, new Tuple("user" + i + "@domain.com", terms.toString()));
+        }
+        
+        boolean[] removed = invokeFilter(new TextSimilarityWorkflow.RemoveNearDuplicates(SimHashIndex.MAX_DISTANCE), emails);
+        
+        // Only the second notification gets removed, since short emails are always kept.
+        Assert.assertFalse(removed[0]);
+        Assert.assertFalse(removed[1]);
+        Assert.assertTrue(removed[2]);
+        Assert.assertFalse(removed[3]);
+        Assert.assertFalse(removed[4]);
+        
+        // If the index only holds one email, it gets cleared to make room for the reply, so
+        // the second notification is kept.
+        removed = invokeFilter(new TextSimilarityWorkflow.RemoveNearDuplicates(SimHashIndex.MAX_DISTANCE, 1), emails);
+        Assert.assertFalse(removed[0]);
+        Assert.assertFalse(removed[1]);
+        Assert.assertFalse(removed[2]);
+    }
+    
+    @Test
+    public void testMapSideCacheSize() throws Exception {
+        long maxBytes = 32 * 1024 * 1024;
+        int wordEntries = TextSimilarityWorkflow.getMapSideCacheSize(maxBytes, 1, false);
+        Assert.assertTrue(wordEntries > 100000);
+        
+        // Longer shingles and term keys take more space per entry.
+        Assert.assertTrue(TextSimilarityWorkflow.getMapSideCacheSize(maxBytes, 3, false) < wordEntries);
+        Assert.assertTrue(TextSimilarityWorkflow.getMapSideCacheSize(maxBytes, 1, true) < wordEntries);
+        
+        Assert.assertEquals(1, TextSimilarityWorkflow.getMapSideCacheSize(0, 1, false));
+    }
 }
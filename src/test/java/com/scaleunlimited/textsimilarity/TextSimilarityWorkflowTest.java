@@ -1,11 +1,22 @@
 package com.scaleunlimited.textsimilarity;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
 
 import cascading.flow.Flow;
 
+import com.scaleunlimited.textfeatures.Config;
+import com.scaleunlimited.textfeatures.WorkflowTestUtils;
+
 public class TextSimilarityWorkflowTest extends Assert {
 
     @Test
@@ -43,5 +54,175 @@ public class TextSimilarityWorkflowTest extends Assert {
         Flow<?> f = TextSimilarityWorkflow.createFlow(options);
         f.complete();
     }
-    
+
+    @Test
+    public void testTermIds() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setShingleSize(2);
+        options.setUseTermIds(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testTermIds/working/");
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+    }
+
+    @Test
+    public void testLocalThreads() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setLocalThreads(4);
+        options.setUseTermIds(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testLocalThreads/working/");
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        // The number of threads shouldn't change the results.
+        options.setLocalThreads(1);
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testLocalThreads/single/");
+        f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        List<String> multiThreaded = WorkflowTestUtils.readSortedLines(new File("build/test/TextSimilarityWorkflowTest/testLocalThreads/working/", Config.TERMS_DIR));
+        List<String> singleThreaded = WorkflowTestUtils.readSortedLines(new File("build/test/TextSimilarityWorkflowTest/testLocalThreads/single/", Config.TERMS_DIR));
+        assertFalse(singleThreaded.isEmpty());
+        assertEquals(singleThreaded, multiThreaded);
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setSimHashDistance(3);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testNearDuplicates/working/");
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        long numRemoved = f.getFlowStats().getCounterValue(TextSimilarityCounters.EMAILS_NEAR_DUPLICATE);
+        
+        // Add copies of the first email (which is long enough to have a SimHash), with
+        // different Message-IDs and senders, as with a bot re-sending a notification. Each
+        // copy should be removed, on top of whatever near duplicates were already in the file.
+        List<String> lines = FileUtils.readLines(new File("src/test/resources/mahout-emails.tsv"), "UTF-8");
+        String[] fields = lines.get(0).split("\t", -1);
+        final int numCopies = 3;
+        for (int i = 0; i < numCopies; i++) {
+            fields[0] = String.format("<copy%d@domain.com>", i);
+            fields[2] = String.format("bot%d@domain.com", i);
+            lines.add(StringUtils.join(fields, '\t'));
+        }
+        
+        File input = new File("build/test/TextSimilarityWorkflowTest/testNearDuplicates/input.tsv");
+        FileUtils.writeLines(input, "UTF-8", lines, "\n");
+        options.setInput(input.getPath());
+        f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        assertEquals(numRemoved + numCopies, f.getFlowStats().getCounterValue(TextSimilarityCounters.EMAILS_NEAR_DUPLICATE));
+    }
+
+    @Test
+    public void testBuiltinLLR() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setShingleSize(2);
+        options.setBuiltinLLR(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testBuiltinLLR/working/");
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        options.setBuiltinLLR(false);
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testBuiltinLLR/reference/");
+        f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        Map<String, Map<String, Double>> builtin = readTopTerms(new File("build/test/TextSimilarityWorkflowTest/testBuiltinLLR/working/", Config.TERMS_DIR));
+        Map<String, Map<String, Double>> reference = readTopTerms(new File("build/test/TextSimilarityWorkflowTest/testBuiltinLLR/reference/", Config.TERMS_DIR));
+        assertFalse(builtin.isEmpty());
+        
+        int numShared = 0;
+        for (String email : builtin.keySet()) {
+            Map<String, Double> builtinTerms = builtin.get(email);
+            Map<String, Double> referenceTerms = reference.get(email);
+            assertNotNull("Missing user in TopTermsByLLR output: " + email, referenceTerms);
+            
+            // If TopTermsByLLR's list is full, it has the terms that score above its lowest
+            // score. LLRTopTerms skips terms that the user uses less than everybody else (see
+            // the README), so it can have terms with lower scores that TopTermsByLLR doesn't.
+            double minReferenceScore = Double.NEGATIVE_INFINITY;
+            if (referenceTerms.size() >= options.getMaxTermsPerUser()) {
+                minReferenceScore = Collections.min(referenceTerms.values());
+            }
+            
+            for (Map.Entry<String, Double> term : builtinTerms.entrySet()) {
+                Double referenceScore = referenceTerms.get(term.getKey());
+                if (referenceScore != null) {
+                    // Both engines calculate the same score for the same term.
+                    assertEquals(email + "/" + term.getKey(), referenceScore, term.getValue(), Math.abs(referenceScore) * 0.000001);
+                    numShared += 1;
+                } else {
+                    assertTrue(String.format("Missing term in TopTermsByLLR output: %s/%s", email, term.getKey()),
+                                    term.getValue() <= minReferenceScore);
+                }
+            }
+        }
+        
+        assertTrue(numShared > 0);
+    }
+
+    @Test
+    public void testSkewSalts() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setBuiltinLLR(true);
+        
+        // Sample everything, so that the most active users are salted even with the
+        // small test file (two users sent more than 10 of the 100 emails).
+        options.setSkewSalts(4);
+        options.setSkewSampleRate(1.0);
+        options.setSkewThreshold(0.02);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testSkewSalts/working/");
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        assertTrue(f.getFlowStats().getCounterValue(TextSimilarityCounters.TERM_COUNTS_SALTED) > 0);
+        
+        // Salting only changes how the work gets split up, not the results.
+        options.setSkewSalts(1);
+        options.setWorkingDir("build/test/TextSimilarityWorkflowTest/testSkewSalts/unsalted/");
+        f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        assertEquals(0, f.getFlowStats().getCounterValue(TextSimilarityCounters.TERM_COUNTS_SALTED));
+        
+        List<String> salted = WorkflowTestUtils.readSortedLines(new File("build/test/TextSimilarityWorkflowTest/testSkewSalts/working/", Config.TERMS_DIR));
+        List<String> unsalted = WorkflowTestUtils.readSortedLines(new File("build/test/TextSimilarityWorkflowTest/testSkewSalts/unsalted/", Config.TERMS_DIR));
+        assertFalse(unsalted.isEmpty());
+        assertEquals(unsalted, salted);
+    }
+
+    /**
+     * @param termsDir output of TextSimilarityWorkflow (email, term, score lines)
+     * @return map from email to each of the user's terms and its score
+     */
+    private static Map<String, Map<String, Double>> readTopTerms(File termsDir) throws Exception {
+        Map<String, Map<String, Double>> result = new HashMap<String, Map<String, Double>>();
+        for (String line : WorkflowTestUtils.readSortedLines(termsDir)) {
+            String[] fields = line.split("\t");
+            Map<String, Double> terms = result.get(fields[0]);
+            if (terms == null) {
+                terms = new HashMap<String, Double>();
+                result.put(fields[0], terms);
+            }
+            
+            terms.put(fields[1], Double.parseDouble(fields[2]));
+        }
+        
+        return result;
+    }
 }
@@ -0,0 +1,43 @@
+package com.scaleunlimited.textsimilarity;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import cascading.flow.Flow;
+
+public class UserSimilarityWorkflowTest extends Assert {
+
+    @Test
+    public void test() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/UserSimilarityWorkflowTest/test/working/");
+        options.setMinSimilarity(0.1);
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        f = UserSimilarityWorkflow.createFlow(options);
+        f.complete();
+    }
+    
+    @Test
+    public void testLsh() throws Exception {
+        TextSimilarityOptions options = new TextSimilarityOptions();
+        options.setTestMode(true);
+        options.setInput("src/test/resources/mahout-emails.tsv");
+        options.setWorkingDir("build/test/UserSimilarityWorkflowTest/testLsh/working/");
+        options.setMinSimilarity(0.1);
+        options.setLshBands(20);
+        options.setLshRows(2);
+        
+        Flow<?> f = TextSimilarityWorkflow.createFlow(options);
+        f.complete();
+        
+        f = UserSimilarityWorkflow.createFlow(options);
+        f.complete();
+    }
+    
+}